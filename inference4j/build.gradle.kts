@@ -27,3 +27,16 @@ tasks.withType<Test>().configureEach {
     useJUnitPlatform()
     jvmArgs("--add-modules", "jdk.incubator.vector")
 }
+
+val testArtifacts by configurations.creating {
+    isCanBeResolved = false
+}
+
+val testJar by tasks.registering(Jar::class) {
+    archiveClassifier.set("tests")
+    from(sourceSets.test.get().output)
+}
+
+artifacts {
+    add(testArtifacts.name, testJar)
+}
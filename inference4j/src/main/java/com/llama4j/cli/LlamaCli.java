@@ -2,21 +2,30 @@ package com.llama4j.cli;
 
 import com.llama4j.aot.AOT;
 import com.llama4j.config.LlamaDefaults;
+import com.llama4j.gguf.GGMLType;
+import com.llama4j.model.KVBlockPool;
 import com.llama4j.model.Llama;
 import com.llama4j.model.ModelLoader;
+import com.llama4j.model.PromptLookup;
+import com.llama4j.model.SessionFile;
+import com.llama4j.model.SpeculativeDecoder;
+import com.llama4j.model.TieredKVCache;
 import com.llama4j.sampling.CategoricalSampler;
 import com.llama4j.sampling.Sampler;
 import com.llama4j.sampling.ToppSampler;
 import com.llama4j.tokenizer.ChatFormat;
+import com.llama4j.util.Parallel;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.function.IntConsumer;
 import java.util.random.RandomGenerator;
 import java.util.random.RandomGeneratorFactory;
 
@@ -62,22 +71,111 @@ public final class LlamaCli {
         return sampler;
     }
 
+    /**
+     * Generates a response with the target model alone, or speculatively when a draft model or prompt lookup is
+     * configured.
+     *
+     * @param model model to run
+     * @param state model state
+     * @param speculation speculative decoder and its source of proposals, or null
+     * @param contextTokens earlier conversation tokens, which a prompt lookup also matches against
+     * @param startPosition starting position in the KV cache
+     * @param promptTokens prompt tokens to ingest
+     * @param stopTokens stop token set
+     * @param sampler sampler strategy, unused by speculative decoding
+     * @param options CLI options
+     * @param onTokenGenerated callback invoked for each generated token
+     * @return generated tokens (including stop token if present)
+     */
+    static List<Integer> generate(Llama model, Llama.State state, Speculation speculation,
+                                  List<Integer> contextTokens, int startPosition, List<Integer> promptTokens,
+                                  Set<Integer> stopTokens, Sampler sampler, Options options,
+                                  IntConsumer onTokenGenerated) {
+        if (speculation != null && speculation.lookup() != null) {
+            return speculation.decoder().generateTokens(state, speculation.lookup(), contextTokens, startPosition,
+                    promptTokens, stopTokens, options.maxTokens(), onTokenGenerated);
+        }
+        if (speculation != null) {
+            return speculation.decoder().generateTokens(state, speculation.draftState(), startPosition,
+                    promptTokens, stopTokens, options.maxTokens(), onTokenGenerated);
+        }
+        return Llama.generateTokens(model, state, startPosition, promptTokens, stopTokens, options.maxTokens(),
+                options.sinkTokens(), sampler, options.echo(), onTokenGenerated);
+    }
+
+    /**
+     * Loads the draft model or the lookup reference, if either is configured, and creates the speculative decoder.
+     *
+     * @param model target model
+     * @param options CLI options
+     * @return decoder and its source of proposals, or null without {@code --draft-model} or {@code --prompt-lookup}
+     * @throws IOException when the draft model or the reference cannot be loaded
+     */
+    static Speculation loadSpeculation(Llama model, Options options) throws IOException {
+        if (options.draftModelPath() == null && !options.promptLookup()) {
+            return null;
+        }
+        RandomGenerator rng = RandomGeneratorFactory.getDefault().create(options.seed());
+        if (options.promptLookup()) {
+            List<Integer> reference = options.referencePath() == null ? List.of()
+                    : model.tokenizer().encodeAsList(Files.readString(options.referencePath()));
+            SpeculativeDecoder decoder = new SpeculativeDecoder(model, null, options.draftTokens(),
+                    options.temperature(), options.topp(), rng);
+            return new Speculation(decoder, null, new PromptLookup(reference, PromptLookup.MAX_NGRAM));
+        }
+        Llama draft = ModelLoader.loadModel(options.draftModelPath(), options.maxTokens(), true);
+        SpeculativeDecoder decoder = new SpeculativeDecoder(model, draft, options.draftTokens(),
+                options.temperature(), options.topp(), rng);
+        return new Speculation(decoder, draft.createNewState(BATCH_SIZE, options.kvCacheType()), null);
+    }
+
+    /**
+     * Creates a state for the target model, with a KV cache that spills to a file when {@code --kv-spill-dir} is
+     * set.
+     *
+     * @param model model to run
+     * @param batchsize batch size
+     * @param options CLI options
+     * @return new model state
+     * @throws IOException when the spill file cannot be created
+     */
+    static Llama.State createState(Llama model, int batchsize, Options options) throws IOException {
+        if (options.kvSpillDirectory() == null) {
+            return model.createNewState(batchsize, options.kvCacheType());
+        }
+        int hotBlocks = Math.max(1, TieredKVCache.HOT_TOKENS / KVBlockPool.BLOCK_TOKENS);
+        return model.createNewState(batchsize, new TieredKVCache(model.configuration(), options.kvCacheType(),
+                KVBlockPool.BLOCK_TOKENS, hotBlocks, options.kvSpillDirectory()));
+    }
+
     /**
      * Runs the chat loop in interactive mode.
      *
      * @param model model to run
      * @param sampler sampler strategy
+     * @param speculation speculative decoder and its source of proposals, or null
      * @param options CLI options
+     * @throws IOException when the session file cannot be read or written, or the spill file cannot be created
      */
-    static void runInteractive(Llama model, Sampler sampler, Options options) {
+    static void runInteractive(Llama model, Sampler sampler, Speculation speculation, Options options)
+            throws IOException {
         Llama.State state = null;
         List<Integer> conversationTokens = new ArrayList<>();
         ChatFormat chatFormat = new ChatFormat(model.tokenizer());
-        conversationTokens.add(chatFormat.getBeginOfTextToken());
-        if (options.systemPrompt() != null) {
-            conversationTokens.addAll(chatFormat.encodeMessage(new ChatFormat.Message(ChatFormat.Role.SYSTEM, options.systemPrompt())));
-        }
+        // Conversation tokens already in the KV cache; they sit state.shiftedTokens positions lower in it.
         int startPosition = 0;
+        if (options.sessionPath() != null && Files.exists(options.sessionPath())) {
+            state = createState(model, BATCH_SIZE, options);
+            SessionFile.Session session = SessionFile.restore(state, options.sessionPath());
+            conversationTokens.addAll(session.tokens());
+            startPosition = session.positions();
+            System.err.printf("Resumed %d tokens from %s%n", conversationTokens.size(), options.sessionPath());
+        } else {
+            conversationTokens.add(chatFormat.getBeginOfTextToken());
+            if (options.systemPrompt() != null) {
+                conversationTokens.addAll(chatFormat.encodeMessage(new ChatFormat.Message(ChatFormat.Role.SYSTEM, options.systemPrompt())));
+            }
+        }
         Scanner in = new Scanner(System.in);
         loop: while (true) {
             System.out.print("> ");
@@ -85,25 +183,32 @@ public final class LlamaCli {
             String userText = in.nextLine();
             switch (userText) {
                 case "/quit", "/exit" -> {
+                    saveSession(state, conversationTokens, startPosition, options);
                     break loop;
                 }
+                case "/save" -> {
+                    saveSession(state, conversationTokens, startPosition, options);
+                    continue;
+                }
                 case "/context" -> {
+                    int used = conversationTokens.size() - (state != null ? state.shiftedTokens : 0);
                     System.out.printf("%d out of %d context tokens used (%d tokens remaining)%n",
-                            conversationTokens.size(), options.maxTokens(), options.maxTokens() - conversationTokens.size());
+                            used, options.maxTokens(), options.maxTokens() - used);
                     continue;
                 }
                 default -> {
                 }
             }
             if (state == null) {
-                state = model.createNewState(BATCH_SIZE);
+                state = createState(model, BATCH_SIZE, options);
             }
             conversationTokens.addAll(chatFormat.encodeMessage(new ChatFormat.Message(ChatFormat.Role.USER, userText)));
             conversationTokens.addAll(chatFormat.encodeHeader(new ChatFormat.Message(ChatFormat.Role.ASSISTANT, "")));
             Set<Integer> stopTokens = chatFormat.getStopTokens();
-            List<Integer> responseTokens = Llama.generateTokens(model, state, startPosition,
+            List<Integer> responseTokens = generate(model, state, speculation,
+                    conversationTokens.subList(0, startPosition), startPosition - state.shiftedTokens,
                     conversationTokens.subList(startPosition, conversationTokens.size()), stopTokens,
-                    options.maxTokens(), sampler, options.echo(), token -> {
+                    sampler, options, token -> {
                         if (options.stream()) {
                             if (!model.tokenizer().isSpecialToken(token)) {
                                 System.out.print(model.tokenizer().decode(List.of(token)));
@@ -111,7 +216,8 @@ public final class LlamaCli {
                         }
                     });
             conversationTokens.addAll(responseTokens);
-            startPosition = conversationTokens.size();
+            // The last sampled token was never forwarded; it opens the next prompt so the cache has no gap.
+            startPosition = conversationTokens.size() - (responseTokens.isEmpty() ? 0 : 1);
             Integer stopToken = null;
             if (!responseTokens.isEmpty() && stopTokens.contains(responseTokens.getLast())) {
                 stopToken = responseTokens.getLast();
@@ -122,10 +228,39 @@ public final class LlamaCli {
                 System.out.println(responseText);
             }
             if (stopToken == null) {
+                if (options.sinkTokens() >= 0) {
+                    System.err.println("Response truncated at " + options.maxTokens() + " tokens");
+                    continue;
+                }
                 System.err.println("Ran out of context length...");
                 break;
             }
         }
+        if (state != null) {
+            state.release();
+        }
+    }
+
+    /**
+     * Saves the KV cache and the conversation to the session file, if one is configured. Tokens dropped by context
+     * shifting are left out, so the saved tokens line up with the cache positions.
+     *
+     * @param state chat state, or null before the first message
+     * @param conversationTokens tokens of the conversation
+     * @param startPosition number of conversation tokens in the KV cache, including shifted-out ones
+     * @param options CLI options
+     * @throws IOException when the session file cannot be written
+     */
+    static void saveSession(Llama.State state, List<Integer> conversationTokens, int startPosition, Options options)
+            throws IOException {
+        if (options.sessionPath() == null || state == null) {
+            return;
+        }
+        int sinkTokens = Math.min(Math.max(options.sinkTokens(), 0), startPosition);
+        List<Integer> cachedTokens = new ArrayList<>(conversationTokens.subList(0, sinkTokens));
+        cachedTokens.addAll(conversationTokens.subList(sinkTokens + state.shiftedTokens, conversationTokens.size()));
+        SessionFile.save(state, cachedTokens, startPosition - state.shiftedTokens, options.sessionPath());
+        System.err.printf("Saved %d tokens to %s%n", cachedTokens.size(), options.sessionPath());
     }
 
     /**
@@ -133,10 +268,13 @@ public final class LlamaCli {
      *
      * @param model model to run
      * @param sampler sampler strategy
+     * @param speculation speculative decoder and its source of proposals, or null
      * @param options CLI options
+     * @throws IOException when the spill file cannot be created
      */
-    static void runInstructOnce(Llama model, Sampler sampler, Options options) {
-        Llama.State state = model.createNewState(BATCH_SIZE);
+    static void runInstructOnce(Llama model, Sampler sampler, Speculation speculation, Options options)
+            throws IOException {
+        Llama.State state = createState(model, BATCH_SIZE, options);
         ChatFormat chatFormat = new ChatFormat(model.tokenizer());
 
         List<Integer> promptTokens = new ArrayList<>();
@@ -148,8 +286,8 @@ public final class LlamaCli {
         promptTokens.addAll(chatFormat.encodeHeader(new ChatFormat.Message(ChatFormat.Role.ASSISTANT, "")));
 
         Set<Integer> stopTokens = chatFormat.getStopTokens();
-        List<Integer> responseTokens = Llama.generateTokens(model, state, 0, promptTokens, stopTokens,
-                options.maxTokens(), sampler, options.echo(), token -> {
+        List<Integer> responseTokens = generate(model, state, speculation, List.of(), 0, promptTokens, stopTokens,
+                sampler, options, token -> {
                     if (options.stream()) {
                         if (!model.tokenizer().isSpecialToken(token)) {
                             System.out.print(model.tokenizer().decode(List.of(token)));
@@ -163,6 +301,26 @@ public final class LlamaCli {
             String responseText = model.tokenizer().decode(responseTokens);
             System.out.println(responseText);
         }
+        state.release();
+    }
+
+    /**
+     * Prints the perplexity of the model on a text file.
+     *
+     * @param model model to run
+     * @param options CLI options
+     * @throws IOException when the text cannot be read or the spill file cannot be created
+     */
+    static void runPerplexity(Llama model, Options options) throws IOException {
+        String text = Files.readString(options.perplexityPath());
+        List<Integer> tokens = new ArrayList<>();
+        tokens.add(new ChatFormat(model.tokenizer()).getBeginOfTextToken());
+        tokens.addAll(model.tokenizer().encodeAsList(text));
+        Llama.State state = createState(model, 1, options);
+        double perplexity = Llama.perplexity(model, state, tokens);
+        state.release();
+        System.out.printf("perplexity: %.4f over %d tokens (KV cache %s)%n",
+                perplexity, Math.min(tokens.size(), model.configuration().contextLength), options.kvCacheType());
     }
 
     /**
@@ -173,18 +331,31 @@ public final class LlamaCli {
      */
     public static void main(String[] args) throws IOException {
         Options options = Options.parseOptions(args);
+        Parallel.setThreads(options.threads());
         Llama model = AOT.tryUsePreLoaded(options.modelPath(), options.maxTokens());
         if (model == null) {
             model = ModelLoader.loadModel(options.modelPath(), options.maxTokens(), true);
         }
         Sampler sampler = selectSampler(model.configuration().vocabularySize, options.temperature(), options.topp(), options.seed());
-        if (options.interactive()) {
-            runInteractive(model, sampler, options);
+        if (options.perplexityPath() != null) {
+            runPerplexity(model, options);
+        } else if (options.interactive()) {
+            runInteractive(model, sampler, loadSpeculation(model, options), options);
         } else {
-            runInstructOnce(model, sampler, options);
+            runInstructOnce(model, sampler, loadSpeculation(model, options), options);
         }
     }
 
+    /**
+     * Speculative decoder and its source of proposals: a draft model state, or a prompt lookup.
+     *
+     * @param decoder speculative decoder
+     * @param draftState state of the draft model, or null with a lookup
+     * @param lookup prompt lookup, or null with a draft model
+     */
+    record Speculation(SpeculativeDecoder decoder, Llama.State draftState, PromptLookup lookup) {
+    }
+
     /**
      * Parsed CLI options.
      *
@@ -198,20 +369,52 @@ public final class LlamaCli {
      * @param maxTokens maximum tokens
      * @param stream stream output flag
      * @param echo echo prompt flag
+     * @param threads inference thread count
+     * @param kvCacheType KV cache element type
+     * @param perplexityPath text file to measure perplexity on instead of generating, or null
+     * @param sinkTokens tokens kept when a full context is shifted in chat mode, or negative to stop instead
+     * @param draftModelPath draft model for speculative decoding, or null
+     * @param draftTokens number of tokens the draft model or the lookup proposes per target pass
+     * @param promptLookup whether to propose tokens by matching the prompt instead of running a draft model
+     * @param referencePath text file the lookup also matches against, or null
+     * @param sessionPath chat session file to resume from and save to, or null
+     * @param kvSpillDirectory directory of the file that older KV cache blocks are spilled to, or null to keep the
+     *                         whole cache in memory
      */
     public record Options(Path modelPath, String prompt, String systemPrompt, boolean interactive,
                           float temperature, float topp, long seed, int maxTokens,
-                          boolean stream, boolean echo) {
+                          boolean stream, boolean echo, int threads, GGMLType kvCacheType, Path perplexityPath,
+                          int sinkTokens, Path draftModelPath, int draftTokens, boolean promptLookup,
+                          Path referencePath, Path sessionPath, Path kvSpillDirectory) {
 
         /**
          * Validates CLI options.
          */
         public Options {
             require(modelPath != null, "Missing argument: --model <path> is required");
-            require(interactive || prompt != null,
+            require(interactive || prompt != null || perplexityPath != null,
                     "Missing argument: --prompt is required in --instruct mode e.g. --prompt \"Why is the sky blue?\"");
             require(0 <= temperature, "Invalid argument: --temperature must be non-negative");
             require(0 <= topp && topp <= 1, "Invalid argument: --top-p must be within [0, 1]");
+            require(0 < threads, "Invalid argument: --threads must be positive");
+            require(kvCacheType == GGMLType.F32 || kvCacheType == GGMLType.F16 || kvCacheType == GGMLType.Q8_0,
+                    "Invalid argument: --kv-cache-type must be F32, F16 or Q8_0");
+            require(sinkTokens < 0 || sinkTokens + BATCH_SIZE < maxTokens,
+                    "Invalid argument: --sink-tokens must leave room for a batch of %d tokens", BATCH_SIZE);
+            require((draftModelPath == null && !promptLookup) || (0 < draftTokens && draftTokens < BATCH_SIZE),
+                    "Invalid argument: --draft-tokens must be within [1, %d]", BATCH_SIZE - 1);
+            require((draftModelPath == null && !promptLookup) || sinkTokens < 0,
+                    "Invalid argument: --sink-tokens cannot be combined with speculative decoding");
+            require(draftModelPath == null || !promptLookup,
+                    "Invalid argument: --prompt-lookup cannot be combined with --draft-model");
+            require(referencePath == null || promptLookup,
+                    "Invalid argument: --reference requires --prompt-lookup true");
+            require(sessionPath == null || interactive,
+                    "Invalid argument: --session requires --chat");
+            require(sessionPath == null || draftModelPath == null,
+                    "Invalid argument: --session cannot be combined with --draft-model");
+            require(kvSpillDirectory == null || Files.isDirectory(kvSpillDirectory),
+                    "Invalid argument: --kv-spill-dir must be an existing directory");
         }
 
         /**
@@ -230,6 +433,16 @@ public final class LlamaCli {
             int maxTokens = LlamaDefaults.DEFAULT_MAX_TOKENS;
             boolean stream = true;
             boolean echo = false;
+            int threads = Parallel.threads();
+            GGMLType kvCacheType = Llama.KV_CACHE_TYPE;
+            Path perplexityPath = null;
+            int sinkTokens = -1;
+            Path draftModelPath = null;
+            int draftTokens = SpeculativeDecoder.DRAFT_TOKENS;
+            boolean promptLookup = false;
+            Path referencePath = null;
+            Path sessionPath = null;
+            Path kvSpillDirectory = null;
             Path modelPath = null;
 
             for (int i = 0; i < args.length; i++) {
@@ -264,13 +477,24 @@ public final class LlamaCli {
                             case "--max-tokens", "-n" -> maxTokens = Integer.parseInt(nextArg);
                             case "--stream" -> stream = Boolean.parseBoolean(nextArg);
                             case "--echo" -> echo = Boolean.parseBoolean(nextArg);
+                            case "--threads", "-t" -> threads = Integer.parseInt(nextArg);
+                            case "--kv-cache-type" -> kvCacheType = GGMLType.valueOf(nextArg.toUpperCase());
+                            case "--perplexity" -> perplexityPath = Paths.get(nextArg);
+                            case "--sink-tokens" -> sinkTokens = Integer.parseInt(nextArg);
+                            case "--draft-model" -> draftModelPath = Paths.get(nextArg);
+                            case "--draft-tokens" -> draftTokens = Integer.parseInt(nextArg);
+                            case "--prompt-lookup" -> promptLookup = Boolean.parseBoolean(nextArg);
+                            case "--reference" -> referencePath = Paths.get(nextArg);
+                            case "--session" -> sessionPath = Paths.get(nextArg);
+                            case "--kv-spill-dir" -> kvSpillDirectory = Paths.get(nextArg);
                             default -> require(false, "Unknown option: %s", optionName);
                         }
                     }
                 }
             }
             return new Options(modelPath, prompt, systemPrompt, interactive, temperature, topp, seed,
-                    maxTokens, stream, echo);
+                    maxTokens, stream, echo, threads, kvCacheType, perplexityPath, sinkTokens, draftModelPath,
+                    draftTokens, promptLookup, referencePath, sessionPath, kvSpillDirectory);
         }
 
         /**
@@ -309,6 +533,19 @@ public final class LlamaCli {
             out.println("  --max-tokens, -n <int>        (optional) maximum generated tokens, default = 512");
             out.println("  --stream <boolean>            (optional) stream output, default = true");
             out.println("  --echo <boolean>              (optional) echo prompt and generated tokens, default = false");
+            out.println("  --threads, -t <int>           (optional) inference threads, default = llama.Threads or CPU count");
+            out.println("  --kv-cache-type <type>        (optional) KV cache type: F32, F16 or Q8_0, default = F32");
+            out.println("  --perplexity <path>           (optional) print the perplexity of a text file and exit");
+            out.println("  --sink-tokens <int>           (optional) in chat mode, keep this many initial tokens and drop older");
+            out.println("                                turns when the context is full, default = stop at a full context");
+            out.println("  --draft-model <path>          (optional) smaller .gguf model with the same vocabulary for speculative decoding");
+            out.println("  --draft-tokens <int>          (optional) tokens proposed by the draft model or lookup per step, default = 4");
+            out.println("  --prompt-lookup <boolean>     (optional) propose tokens by matching earlier text instead of a draft model, default = false");
+            out.println("  --reference <path>            (optional) with --prompt-lookup, text file that is also matched, e.g. a previous version");
+            out.println("  --session <path>              (optional) in chat mode, resume the conversation and its KV cache from this file");
+            out.println("                                if it exists, and save them there on /save, /quit or /exit");
+            out.println("  --kv-spill-dir <path>         (optional) keep the newest llama.KVHotTokens (default 4096) KV cache positions");
+            out.println("                                in memory and spill older ones to a temporary file in this directory");
         }
     }
 }
@@ -0,0 +1,383 @@
+package com.llama4j.model;
+
+import com.llama4j.sampling.Sampler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+
+/**
+ * Continuous batching: generates tokens for many independent sequences at once, so the weight matmuls of each
+ * step run as one batched GEMM over every active sequence instead of one memory-bound GEMV per sequence.
+ *
+ * <p>Each step takes the next token of every decoding sequence and fills the remaining batch rows with prompt
+ * chunks of sequences that are still prefilling. Every sequence keeps its own position and its own KV cache,
+ * paged from a shared {@link KVBlockPool}. Finished sequences leave and queued ones join between steps. A queued
+ * sequence is admitted once the pool can hold its prompt and every token it may generate, so a running sequence
+ * never runs out of KV blocks.</p>
+ *
+ * <p>{@link #submit} may be called from any thread. {@link #step} and {@link #runUntilIdle} must run on one thread
+ * at a time, such as the one started by {@link #start}. A forward pass that fails completes the result of the
+ * sequences it failed for exceptionally; the batcher keeps serving the others.</p>
+ */
+public final class ContinuousBatcher implements AutoCloseable {
+    /**
+     * Default number of batch rows per step, set with {@code -Dllama.BatchTokens}.
+     */
+    public static final int BATCH_TOKENS = Integer.getInteger("llama.BatchTokens", 64);
+
+    private final Llama model;
+    private final KVBlockPool pool;
+    private final Llama.State buffers;
+    private final Queue<Sequence> queued = new ConcurrentLinkedQueue<>();
+    private final List<Sequence> active = new ArrayList<>();
+    /** guards {@link #closed} against a concurrent {@link #submit} */
+    private final Object submitLock = new Object();
+    private volatile Thread worker;
+    private volatile boolean closed;
+    private long steps;
+
+    /**
+     * Creates a batcher.
+     *
+     * @param model model to run
+     * @param pool pool the KV caches of the sequences are paged from
+     * @param batchTokens number of batch rows per step, which also bounds the number of active sequences
+     */
+    public ContinuousBatcher(Llama model, KVBlockPool pool, int batchTokens) {
+        if (batchTokens <= 0) {
+            throw new IllegalArgumentException("batchTokens must be positive: " + batchTokens);
+        }
+        this.model = model;
+        this.pool = pool;
+        // Only the activation buffers are used; a paged state holds no KV blocks until it reserves them.
+        this.buffers = new Llama.State(model.configuration(), batchTokens, pool);
+    }
+
+    /**
+     * Queues a sequence for generation.
+     *
+     * @param promptTokens prompt tokens, at least one and fewer than the context length
+     * @param stopTokens stop token set
+     * @param maxTokens maximum number of tokens to generate
+     * @param sampler sampler of the sequence; it is called on the stepping thread
+     * @param onTokenGenerated callback invoked on the stepping thread for each generated token, or null
+     * @return handle of the sequence
+     */
+    public Sequence submit(List<Integer> promptTokens, Set<Integer> stopTokens, int maxTokens, Sampler sampler,
+                           IntConsumer onTokenGenerated) {
+        int contextLength = model.configuration().contextLength;
+        if (promptTokens.isEmpty() || promptTokens.size() >= contextLength) {
+            throw new IllegalArgumentException("Prompt of " + promptTokens.size()
+                    + " tokens does not fit a context of " + contextLength);
+        }
+        if (maxTokens <= 0) {
+            throw new IllegalArgumentException("maxTokens must be positive: " + maxTokens);
+        }
+        Sequence sequence = new Sequence(promptTokens.stream().mapToInt(Integer::intValue).toArray(), stopTokens,
+                Math.min(maxTokens, contextLength - promptTokens.size()), sampler, onTokenGenerated);
+        // Checked and queued together, so close() cannot miss the sequence when it cancels the queue.
+        synchronized (submitLock) {
+            if (closed) {
+                throw new IllegalStateException("Batcher is closed");
+            }
+            queued.add(sequence);
+        }
+        LockSupport.unpark(worker);
+        return sequence;
+    }
+
+    /**
+     * Returns the number of sequences being prefilled or decoded.
+     *
+     * @return active sequence count
+     */
+    public int activeSequences() {
+        return active.size();
+    }
+
+    /**
+     * Returns the number of steps run so far.
+     *
+     * @return step count
+     */
+    public long steps() {
+        return steps;
+    }
+
+    /**
+     * Admits queued sequences that fit, then runs one forward pass over the active sequences and samples the next
+     * token of each sequence whose prompt is complete. If the pass fails, the chunks are forwarded again one by
+     * one and only the sequences whose chunk still fails are finished with the error.
+     *
+     * @return whether there was work to do
+     */
+    public boolean step() {
+        admit();
+        if (active.isEmpty()) {
+            return false;
+        }
+        List<Llama.Chunk> chunks = new ArrayList<>();
+        List<Sequence> members = new ArrayList<>();
+        int rows = 0;
+        // Decoding sequences first: each needs a single row, and the batch has a row for every active sequence.
+        for (Sequence sequence : active) {
+            if (sequence.prefilled == sequence.promptTokens.length) {
+                chunks.add(new Llama.Chunk(sequence.state, new int[]{sequence.state.latestToken},
+                        sequence.position, sequence.state.logits));
+                members.add(sequence);
+                rows++;
+            }
+        }
+        for (Sequence sequence : active) {
+            int remaining = sequence.promptTokens.length - sequence.prefilled;
+            int n = Math.min(remaining, buffers.batchsize - rows);
+            if (remaining > 0 && n > 0) {
+                chunks.add(new Llama.Chunk(sequence.state, Arrays.copyOfRange(sequence.promptTokens,
+                        sequence.prefilled, sequence.prefilled + n), sequence.position,
+                        n == remaining ? sequence.state.logits : null));
+                members.add(sequence);
+                rows += n;
+            }
+        }
+
+        boolean[] failed = new boolean[chunks.size()];
+        try {
+            Llama.forward(model, buffers, chunks);
+        } catch (RuntimeException | Error e) {
+            isolateFailures(chunks, members, failed, e);
+        }
+        steps++;
+
+        for (int c = 0; c < chunks.size(); c++) {
+            if (failed[c]) {
+                continue;
+            }
+            Llama.Chunk chunk = chunks.get(c);
+            Sequence sequence = members.get(c);
+            sequence.position += chunk.tokens().length;
+            if (sequence.prefilled < sequence.promptTokens.length) {
+                sequence.prefilled += chunk.tokens().length;
+            }
+            if (chunk.logits() != null) {
+                try {
+                    emit(sequence, sequence.sampler.sampleToken(chunk.logits()));
+                } catch (RuntimeException e) {
+                    finish(sequence, e);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Steps until no sequence is active or queued.
+     */
+    public void runUntilIdle() {
+        while (step()) {
+            // keep stepping
+        }
+    }
+
+    /**
+     * Starts a daemon thread that steps whenever sequences are active or queued, until {@link #close()}.
+     *
+     * @return the stepping thread
+     */
+    public synchronized Thread start() {
+        if (worker != null) {
+            throw new IllegalStateException("Batcher already started");
+        }
+        worker = Thread.ofPlatform().daemon().name("continuous-batcher").unstarted(() -> {
+            while (!closed) {
+                try {
+                    if (!step()) {
+                        LockSupport.park(this);
+                    }
+                } catch (RuntimeException | Error e) {
+                    // Thrown outside the forward pass, e.g. by a sampler: the active sequences cannot go on,
+                    // but queued and future ones can.
+                    for (Sequence sequence : List.copyOf(active)) {
+                        finish(sequence, e);
+                    }
+                }
+            }
+            cancelAll();
+        });
+        worker.start();
+        return worker;
+    }
+
+    /**
+     * Stops the stepping thread, if started, and cancels every unfinished sequence.
+     */
+    @Override
+    public synchronized void close() {
+        synchronized (submitLock) {
+            closed = true;
+        }
+        if (worker == null) {
+            cancelAll();
+            return;
+        }
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Moves queued sequences to the active set, in order, while the batch has a row and the pool has blocks for
+     * them.
+     */
+    private void admit() {
+        int blockTokens = pool.blockTokens();
+        Sequence next;
+        while (active.size() < buffers.batchsize && (next = queued.peek()) != null) {
+            // The last generated token is never forwarded, so it needs no KV position.
+            int positions = next.promptTokens.length + next.maxTokens - 1;
+            int blocks = (positions + blockTokens - 1) / blockTokens;
+            if (blocks > pool.maxBlocks()) {
+                queued.poll();
+                next.result.completeExceptionally(new IllegalStateException(
+                        "Sequence needs " + blocks + " KV blocks, the pool holds " + pool.maxBlocks()));
+                continue;
+            }
+            if (blocks > pool.maxBlocks() - pool.blocksInUse()) {
+                return;
+            }
+            queued.poll();
+            next.state = new Llama.State(model.configuration(), 1, pool);
+            next.state.blockTable.reserve(positions);
+            active.add(next);
+        }
+    }
+
+    /**
+     * Forwards the chunks of a failed batched pass one at a time and finishes the sequences whose chunk fails
+     * again. A chunk rewrites the same KV positions with the same values, so repeating it is harmless.
+     *
+     * @param chunks chunks of the failed pass
+     * @param members sequence of each chunk
+     * @param failed set to true for each chunk whose sequence was finished
+     * @param cause error of the batched pass, used when the pass had a single chunk
+     */
+    private void isolateFailures(List<Llama.Chunk> chunks, List<Sequence> members, boolean[] failed,
+                                 Throwable cause) {
+        for (int c = 0; c < chunks.size(); c++) {
+            Throwable failure = cause;
+            if (chunks.size() > 1) {
+                try {
+                    Llama.forward(model, buffers, List.of(chunks.get(c)));
+                    continue;
+                } catch (RuntimeException | Error e) {
+                    failure = e;
+                }
+            }
+            failed[c] = true;
+            finish(members.get(c), failure);
+        }
+    }
+
+    /**
+     * Records a generated token and finishes the sequence on a stop token or at its token limit.
+     *
+     * @param sequence sequence
+     * @param token generated token
+     */
+    private void emit(Sequence sequence, int token) {
+        sequence.generated.add(token);
+        sequence.state.latestToken = token;
+        if (sequence.onTokenGenerated != null) {
+            sequence.onTokenGenerated.accept(token);
+        }
+        if (sequence.stopTokens.contains(token) || sequence.generated.size() == sequence.maxTokens) {
+            finish(sequence, null);
+        }
+    }
+
+    /**
+     * Removes a sequence from the active set, releases its KV blocks and completes its result.
+     *
+     * @param sequence sequence
+     * @param failure cause of failure, or null on success
+     */
+    private void finish(Sequence sequence, Throwable failure) {
+        active.remove(sequence);
+        sequence.state.release();
+        if (failure != null) {
+            sequence.result.completeExceptionally(failure);
+        } else {
+            sequence.result.complete(List.copyOf(sequence.generated));
+        }
+    }
+
+    /**
+     * Cancels every active and queued sequence.
+     */
+    private void cancelAll() {
+        for (Sequence sequence : List.copyOf(active)) {
+            finish(sequence, new CancellationException("Batcher closed"));
+        }
+        for (Iterator<Sequence> it = queued.iterator(); it.hasNext(); ) {
+            it.next().result.cancel(false);
+            it.remove();
+        }
+    }
+
+    /**
+     * One generation request and its progress.
+     */
+    public static final class Sequence {
+        private final int[] promptTokens;
+        private final Set<Integer> stopTokens;
+        private final int maxTokens;
+        private final Sampler sampler;
+        private final IntConsumer onTokenGenerated;
+        private final List<Integer> generated = new ArrayList<>();
+        private final CompletableFuture<List<Integer>> result = new CompletableFuture<>();
+        /** KV cache and latest token, set on admission */
+        private Llama.State state;
+        /** number of prompt tokens forwarded */
+        private int prefilled;
+        /** position of the next forwarded token */
+        private int position;
+
+        /**
+         * Creates a queued sequence.
+         *
+         * @param promptTokens prompt tokens
+         * @param stopTokens stop token set
+         * @param maxTokens maximum number of tokens to generate, within the context
+         * @param sampler sampler
+         * @param onTokenGenerated callback for each generated token, or null
+         */
+        private Sequence(int[] promptTokens, Set<Integer> stopTokens, int maxTokens, Sampler sampler,
+                         IntConsumer onTokenGenerated) {
+            this.promptTokens = promptTokens;
+            this.stopTokens = stopTokens;
+            this.maxTokens = maxTokens;
+            this.sampler = sampler;
+            this.onTokenGenerated = onTokenGenerated;
+        }
+
+        /**
+         * Returns the generated tokens (including the stop token if present) once the sequence finishes.
+         *
+         * @return future of the generated tokens
+         */
+        public CompletableFuture<List<Integer>> result() {
+            return result;
+        }
+    }
+}
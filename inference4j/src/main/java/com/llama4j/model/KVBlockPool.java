@@ -0,0 +1,209 @@
+package com.llama4j.model;
+
+import com.llama4j.gguf.GGMLType;
+import com.llama4j.tensor.FloatTensor;
+
+/**
+ * Pool of fixed-size KV cache blocks shared by paged {@link Llama.State}s.
+ *
+ * <p>A block holds the keys and values of {@link #blockTokens()} consecutive positions for every layer. Blocks
+ * are allocated the first time the pool runs out of free ones, F16 and Q8_0 blocks off-heap and F32 blocks on the
+ * heap, and blocks released by one sequence are handed to the next. KV memory therefore follows the number of
+ * tokens in flight instead of {@code contextLength} per state.</p>
+ *
+ * <p>A block may be shared by the states forked from one sequence ({@link Llama.State#fork}); it counts its
+ * holders and returns to the free list when the last one releases it. Allocation and release are thread-safe;
+ * the tensors of a block are only written by a sequence that holds it alone.</p>
+ */
+public final class KVBlockPool {
+    /**
+     * Default number of positions per block, set with {@code -Dllama.KVBlockTokens}.
+     */
+    public static final int BLOCK_TOKENS = Integer.getInteger("llama.KVBlockTokens", 16);
+
+    private final GGMLType type;
+    private final int blockTokens;
+    private final int numberOfLayers;
+    private final int kvDim;
+    private final FloatTensor[][] keys;
+    private final FloatTensor[][] values;
+    private final int[] freeBlocks;
+    private final int[] references;
+    private int freeCount;
+    private int allocatedBlocks;
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param config model configuration
+     * @param type element type of the blocks: {@link GGMLType#F32}, {@link GGMLType#F16} or {@link GGMLType#Q8_0}
+     * @param blockTokens number of positions per block
+     * @param maxBlocks maximum number of blocks held by the pool
+     */
+    public KVBlockPool(Llama.Configuration config, GGMLType type, int blockTokens, int maxBlocks) {
+        if (blockTokens <= 0 || maxBlocks <= 0) {
+            throw new IllegalArgumentException("blockTokens=" + blockTokens + " maxBlocks=" + maxBlocks);
+        }
+        this.type = type;
+        this.blockTokens = blockTokens;
+        this.numberOfLayers = config.numberOfLayers;
+        this.kvDim = (config.dim * config.numberOfKeyValueHeads) / config.numberOfHeads;
+        this.keys = new FloatTensor[maxBlocks][];
+        this.values = new FloatTensor[maxBlocks][];
+        this.freeBlocks = new int[maxBlocks];
+        this.references = new int[maxBlocks];
+    }
+
+    /**
+     * Returns the element type of the blocks.
+     *
+     * @return GGML type
+     */
+    public GGMLType type() {
+        return type;
+    }
+
+    /**
+     * Returns the number of positions per block.
+     *
+     * @return positions per block
+     */
+    public int blockTokens() {
+        return blockTokens;
+    }
+
+    /**
+     * Returns the maximum number of blocks.
+     *
+     * @return block capacity
+     */
+    public int maxBlocks() {
+        return keys.length;
+    }
+
+    /**
+     * Returns the number of blocks whose memory has been allocated, in use or free.
+     *
+     * @return allocated block count
+     */
+    public synchronized int allocatedBlocks() {
+        return allocatedBlocks;
+    }
+
+    /**
+     * Returns the number of blocks held by sequences.
+     *
+     * @return blocks in use
+     */
+    public synchronized int blocksInUse() {
+        return allocatedBlocks - freeCount;
+    }
+
+    /**
+     * Checks that a configuration has the layer count and key/value dimension of this pool.
+     *
+     * @param config model configuration
+     * @param kvDim key/value dimension of the configuration
+     * @return whether states of the configuration can use this pool
+     */
+    boolean fits(Llama.Configuration config, int kvDim) {
+        return config.numberOfLayers == numberOfLayers && kvDim == this.kvDim;
+    }
+
+    /**
+     * Takes a free block, allocating its memory if no released block is available.
+     *
+     * @return block index
+     * @throws IllegalStateException when all {@link #maxBlocks()} blocks are in use
+     */
+    public synchronized int allocate() {
+        if (freeCount > 0) {
+            int block = freeBlocks[--freeCount];
+            references[block] = 1;
+            return block;
+        }
+        if (allocatedBlocks == keys.length) {
+            throw new IllegalStateException("KV block pool exhausted: " + keys.length + " blocks of "
+                    + blockTokens + " tokens in use");
+        }
+        int block = allocatedBlocks;
+        keys[block] = new FloatTensor[numberOfLayers];
+        values[block] = new FloatTensor[numberOfLayers];
+        for (int l = 0; l < numberOfLayers; l++) {
+            keys[block][l] = Llama.allocateCache(type, blockTokens, kvDim);
+            values[block][l] = Llama.allocateCache(type, blockTokens, kvDim);
+        }
+        references[block] = 1;
+        allocatedBlocks++;
+        return block;
+    }
+
+    /**
+     * Adds a holder to a block in use.
+     *
+     * @param block block index
+     */
+    public synchronized void retain(int block) {
+        assert references[block] > 0;
+        references[block]++;
+    }
+
+    /**
+     * Removes a holder from a block, returning it to the pool when none is left. Its contents are overwritten by
+     * the next sequence that takes it.
+     *
+     * @param block block index
+     */
+    public synchronized void release(int block) {
+        assert 0 <= block && block < allocatedBlocks && references[block] > 0;
+        if (--references[block] == 0) {
+            freeBlocks[freeCount++] = block;
+        }
+    }
+
+    /**
+     * Returns the number of holders of a block.
+     *
+     * @param block block index
+     * @return reference count, 0 for a free block
+     */
+    public synchronized int references(int block) {
+        return references[block];
+    }
+
+    /**
+     * Copies the keys and values of every layer from one block to another.
+     *
+     * @param from source block
+     * @param to destination block
+     */
+    void copy(int from, int to) {
+        int size = blockTokens * kvDim;
+        for (int l = 0; l < numberOfLayers; l++) {
+            keys[from][l].copyTo(0, keys[to][l], 0, size);
+            values[from][l].copyTo(0, values[to][l], 0, size);
+        }
+    }
+
+    /**
+     * Returns the key tensor of a block for one layer.
+     *
+     * @param block block index
+     * @param layer layer index
+     * @return key tensor of {@code blockTokens * kvDim} elements
+     */
+    FloatTensor keys(int block, int layer) {
+        return keys[block][layer];
+    }
+
+    /**
+     * Returns the value tensor of a block for one layer.
+     *
+     * @param block block index
+     * @param layer layer index
+     * @return value tensor of {@code blockTokens * kvDim} elements
+     */
+    FloatTensor values(int block, int layer) {
+        return values[block][layer];
+    }
+}
@@ -0,0 +1,130 @@
+package com.llama4j.model;
+
+import java.util.Arrays;
+
+/**
+ * Block table of one paged sequence: maps each run of {@link KVBlockPool#blockTokens()} positions to a block
+ * of the pool.
+ *
+ * <p>Blocks are reserved up front by {@link #reserve(int)} or {@link #prepareWrite(int, int)}, on the thread that
+ * runs the forward pass, so the parallel attention loops only read the table. Tables forked from one sequence
+ * share blocks, and a shared block is copied before it is written (copy-on-write).</p>
+ */
+public final class KVBlockTable {
+    private final KVBlockPool pool;
+    private int[] blocks = new int[0];
+    private int blockCount;
+
+    /**
+     * Creates an empty block table.
+     *
+     * @param pool pool to take blocks from
+     */
+    KVBlockTable(KVBlockPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the pool the blocks come from.
+     *
+     * @return block pool
+     */
+    public KVBlockPool pool() {
+        return pool;
+    }
+
+    /**
+     * Returns the number of blocks held by the sequence.
+     *
+     * @return block count
+     */
+    public int blockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Returns the number of positions covered by the blocks held.
+     *
+     * @return reserved positions
+     */
+    public int capacity() {
+        return blockCount * pool.blockTokens();
+    }
+
+    /**
+     * Takes blocks from the pool until the table covers the given number of positions.
+     *
+     * @param positions number of positions to cover
+     */
+    public void reserve(int positions) {
+        int needed = (positions + pool.blockTokens() - 1) / pool.blockTokens();
+        if (needed > blocks.length) {
+            blocks = Arrays.copyOf(blocks, Math.max(needed, 2 * blocks.length));
+        }
+        while (blockCount < needed) {
+            blocks[blockCount] = pool.allocate();
+            blockCount++;
+        }
+    }
+
+    /**
+     * Makes a range of positions writable: reserves blocks up to its end and replaces every shared block in it by
+     * a private copy.
+     *
+     * @param from first position to be written
+     * @param to end of the positions to be written (exclusive)
+     */
+    public void prepareWrite(int from, int to) {
+        reserve(to);
+        int blockTokens = pool.blockTokens();
+        for (int i = from / blockTokens; i < (to + blockTokens - 1) / blockTokens; i++) {
+            if (pool.references(blocks[i]) > 1) {
+                int copy = pool.allocate();
+                pool.copy(blocks[i], copy);
+                pool.release(blocks[i]);
+                blocks[i] = copy;
+            }
+        }
+    }
+
+    /**
+     * Creates a table that shares the blocks covering the first positions of this one.
+     *
+     * @param positions number of positions to share
+     * @return new table holding a reference to each shared block
+     */
+    KVBlockTable fork(int positions) {
+        int shared = (positions + pool.blockTokens() - 1) / pool.blockTokens();
+        if (shared > blockCount) {
+            throw new IllegalArgumentException("Cannot fork " + positions + " of " + capacity() + " reserved positions");
+        }
+        KVBlockTable fork = new KVBlockTable(pool);
+        fork.blocks = Arrays.copyOf(blocks, Math.max(shared, 1));
+        for (int i = 0; i < shared; i++) {
+            pool.retain(blocks[i]);
+        }
+        fork.blockCount = shared;
+        return fork;
+    }
+
+    /**
+     * Returns the pool block of a table entry.
+     *
+     * @param index table index, the position divided by the block size
+     * @return block index in the pool
+     */
+    int block(int index) {
+        assert index < blockCount : "position not reserved";
+        return blocks[index];
+    }
+
+    /**
+     * Returns every block to the pool.
+     */
+    public void release() {
+        for (int i = 0; i < blockCount; i++) {
+            pool.release(blocks[i]);
+        }
+        blockCount = 0;
+    }
+}
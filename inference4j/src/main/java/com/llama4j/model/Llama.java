@@ -1,12 +1,21 @@
 package com.llama4j.model;
 
 import com.llama4j.config.ModelConfiguration;
+import com.llama4j.gguf.GGMLType;
 import com.llama4j.sampling.Sampler;
 import com.llama4j.tensor.ArrayFloatTensor;
+import com.llama4j.tensor.Attention;
+import com.llama4j.tensor.F16FloatTensor;
+import com.llama4j.tensor.F32FloatTensor;
 import com.llama4j.tensor.FloatTensor;
+import com.llama4j.tensor.PagedFloatTensor;
+import com.llama4j.tensor.Q8_0ActivationTensor;
+import com.llama4j.tensor.Q8_0FloatTensor;
+import com.llama4j.tensor.RoPE;
 import com.llama4j.tokenizer.Tokenizer;
 import com.llama4j.util.Parallel;
 
+import java.lang.foreign.MemorySegment;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -25,13 +34,58 @@ import java.util.stream.Stream;
  */
 public record Llama(Configuration configuration, Tokenizer tokenizer, Weights weights) {
     /**
-     * Creates a new mutable state for inference.
+     * Element type of the KV cache used by {@link #createNewState(int)}, set with {@code -Dllama.KVCacheType}.
+     */
+    public static final GGMLType KV_CACHE_TYPE = GGMLType.valueOf(System.getProperty("llama.KVCacheType", "F32"));
+
+    /**
+     * Creates a new mutable state for inference with the default KV cache type.
      *
      * @param batchsize batch size
      * @return new model state
      */
     public State createNewState(int batchsize) {
-        State state = new State(configuration(), batchsize);
+        return createNewState(batchsize, KV_CACHE_TYPE);
+    }
+
+    /**
+     * Creates a new mutable state for inference.
+     *
+     * @param batchsize batch size
+     * @param kvCacheType element type of the KV cache: {@link GGMLType#F32}, {@link GGMLType#F16} or
+     *                    {@link GGMLType#Q8_0}
+     * @return new model state
+     */
+    public State createNewState(int batchsize, GGMLType kvCacheType) {
+        State state = new State(configuration(), batchsize, kvCacheType);
+        state.latestToken = tokenizer.getSpecialTokens().get("<|begin_of_text|>");
+        return state;
+    }
+
+    /**
+     * Creates a new mutable state whose KV cache is paged from a shared pool. Call {@link State#release()} when
+     * done to return its blocks to the pool.
+     *
+     * @param batchsize batch size
+     * @param pool block pool for the KV cache
+     * @return new model state
+     */
+    public State createNewState(int batchsize, KVBlockPool pool) {
+        State state = new State(configuration(), batchsize, pool);
+        state.latestToken = tokenizer.getSpecialTokens().get("<|begin_of_text|>");
+        return state;
+    }
+
+    /**
+     * Creates a new mutable state whose KV cache keeps recent blocks in RAM and older ones in a spill file, for
+     * contexts whose cache does not fit in memory. Call {@link State#release()} when done to delete the file.
+     *
+     * @param batchsize batch size
+     * @param tieredCache storage of the KV cache, used by this state only
+     * @return new model state
+     */
+    public State createNewState(int batchsize, TieredKVCache tieredCache) {
+        State state = new State(configuration(), batchsize, tieredCache);
         state.latestToken = tokenizer.getSpecialTokens().get("<|begin_of_text|>");
         return state;
     }
@@ -142,12 +196,15 @@ public record Llama(Configuration configuration, Tokenizer tokenizer, Weights we
         public final FloatTensor[] w2;
         /** FFN up projection weights */
         public final FloatTensor[] w3;
+        /**
+         * query, key and value weights concatenated by rows, null unless fused at load time; a layer is null when
+         * its projections have different types
+         */
+        public final FloatTensor[] wqkv;
         /** final RMSNorm weights */
         public final FloatBuffer rms_final_weight;
-        /** RoPE real part */
-        public final FloatBuffer freq_cis_real;
-        /** RoPE imaginary part */
-        public final FloatBuffer freq_cis_imag;
+        /** RoPE frequency of each pair of head dimensions */
+        public final float[] ropeFrequencies;
         /** classifier weights */
         public final FloatTensor wcls;
 
@@ -165,14 +222,39 @@ public record Llama(Configuration configuration, Tokenizer tokenizer, Weights we
          * @param w2 FFN down projection weights
          * @param w3 FFN up projection weights
          * @param rms_final_weight final RMS weights
-         * @param freq_cis_real RoPE real part
-         * @param freq_cis_imag RoPE imaginary part
+         * @param ropeFrequencies RoPE frequency of each pair of head dimensions
          * @param wcls classifier weights
          */
         public Weights(FloatTensor token_embedding_table, FloatBuffer[] rms_att_weight, FloatTensor[] wq,
                        FloatTensor[] wk, FloatTensor[] wv, FloatTensor[] wo, FloatBuffer[] rms_ffn_weight,
                        FloatTensor[] w1, FloatTensor[] w2, FloatTensor[] w3, FloatBuffer rms_final_weight,
-                       FloatBuffer freq_cis_real, FloatBuffer freq_cis_imag, FloatTensor wcls) {
+                       float[] ropeFrequencies, FloatTensor wcls) {
+            this(token_embedding_table, rms_att_weight, wq, wk, wv, wo, rms_ffn_weight, w1, w2, w3, rms_final_weight,
+                    ropeFrequencies, wcls, null);
+        }
+
+        /**
+         * Creates the weights container with fused attention projections.
+         *
+         * @param token_embedding_table token embedding table
+         * @param rms_att_weight attention RMS weights
+         * @param wq query weights
+         * @param wk key weights
+         * @param wv value weights
+         * @param wo output projection weights
+         * @param rms_ffn_weight FFN RMS weights
+         * @param w1 FFN gate weights
+         * @param w2 FFN down projection weights
+         * @param w3 FFN up projection weights
+         * @param rms_final_weight final RMS weights
+         * @param ropeFrequencies RoPE frequency of each pair of head dimensions
+         * @param wcls classifier weights
+         * @param wqkv concatenated query, key and value weights, or null
+         */
+        public Weights(FloatTensor token_embedding_table, FloatBuffer[] rms_att_weight, FloatTensor[] wq,
+                       FloatTensor[] wk, FloatTensor[] wv, FloatTensor[] wo, FloatBuffer[] rms_ffn_weight,
+                       FloatTensor[] w1, FloatTensor[] w2, FloatTensor[] w3, FloatBuffer rms_final_weight,
+                       float[] ropeFrequencies, FloatTensor wcls, FloatTensor[] wqkv) {
             this.token_embedding_table = token_embedding_table;
             this.rms_att_weight = rms_att_weight;
             this.wq = wq;
@@ -184,9 +266,9 @@ public record Llama(Configuration configuration, Tokenizer tokenizer, Weights we
             this.w2 = w2;
             this.w3 = w3;
             this.rms_final_weight = rms_final_weight;
-            this.freq_cis_real = freq_cis_real;
-            this.freq_cis_imag = freq_cis_imag;
+            this.ropeFrequencies = ropeFrequencies;
             this.wcls = wcls;
+            this.wqkv = wqkv;
         }
     }
 
@@ -194,6 +276,8 @@ public record Llama(Configuration configuration, Tokenizer tokenizer, Weights we
      * Mutable inference state, including activation buffers and KV caches.
      */
     public static final class State {
+        /** model configuration the buffers and caches are sized for */
+        private final Configuration config;
         /** batch size */
         public final int batchsize;
         /** activation at current time stamp */
@@ -206,24 +290,43 @@ public record Llama(Configuration configuration, Tokenizer tokenizer, Weights we
         public final FloatTensor[] hb;
         /** second FFN hidden buffer */
         public final FloatTensor[] hb2;
+        /** concatenated query, key and value buffer for fused attention projections, see {@link #qkv()} */
+        private FloatTensor[] qkv;
         /** query buffer */
         public final FloatTensor[] q;
         /** key buffer */
         public final FloatTensor[] k;
         /** value buffer */
         public final FloatTensor[] v;
-        /** attention scores buffer */
-        public final FloatTensor[] att;
         /** output logits */
         public final FloatTensor logits;
         /** key cache */
         public final FloatTensor[] keyCache;
         /** value cache */
         public final FloatTensor[] valueCache;
+        /** element type of {@link #keyCache} and {@link #valueCache} */
+        public final GGMLType kvCacheType;
+        /** block table of a paged KV cache, null when the caches are allocated for the whole context */
+        public final KVBlockTable blockTable;
+        /** RAM and spill file tiers of the KV cache, null unless created with a {@link TieredKVCache} */
+        public final TieredKVCache tieredCache;
+        /** Q8_0-quantized copy of {@link #xb}, null unless Q8 activations are enabled */
+        public final Q8_0ActivationTensor[] xbQ8;
+        /** Q8_0-quantized copy of {@link #hb}, null unless Q8 activations are enabled */
+        public final Q8_0ActivationTensor[] hbQ8;
+        /** Q8_0-quantized copy of {@link #q}, scored against the keys of a Q8_0 KV cache, null otherwise */
+        public final Q8_0ActivationTensor[] qQ8;
+        /** RoPE cosines of each batch token's position, see {@link RoPE#angles} */
+        final float[][] ropeCos;
+        /** RoPE signed sines of each batch token's position, see {@link RoPE#angles} */
+        final float[][] ropeSin;
 
         /** last index in previous block */
         int idxPrevBlock;
 
+        /** positions discarded from the KV cache by {@link Llama#shiftContext} so far */
+        public int shiftedTokens;
+
         /** most recently generated token */
         public int latestToken;
 
@@ -232,8 +335,47 @@ public record Llama(Configuration configuration, Tokenizer tokenizer, Weights we
          *
          * @param config model configuration
          * @param batchsize batch size
+         * @param kvCacheType element type of the KV cache
+         */
+        State(Configuration config, int batchsize, GGMLType kvCacheType) {
+            this(config, batchsize, kvCacheType, null, null);
+        }
+
+        /**
+         * Creates a new state whose KV cache is paged from a shared pool.
+         *
+         * @param config model configuration
+         * @param batchsize batch size
+         * @param pool block pool for the KV cache
+         */
+        State(Configuration config, int batchsize, KVBlockPool pool) {
+            this(config, batchsize, pool.type(), new KVBlockTable(pool), null);
+        }
+
+        /**
+         * Creates a new state whose KV cache is split between RAM and a spill file.
+         *
+         * @param config model configuration
+         * @param batchsize batch size
+         * @param tieredCache storage of the KV cache
+         */
+        State(Configuration config, int batchsize, TieredKVCache tieredCache) {
+            this(config, batchsize, tieredCache.type(), null, tieredCache);
+        }
+
+        /**
+         * Creates a new state.
+         *
+         * @param config model configuration
+         * @param batchsize batch size
+         * @param kvCacheType element type of the KV cache
+         * @param table block table of a paged KV cache, or null
+         * @param tieredCache tiered storage of the KV cache, or null; without either, the cache is allocated for the
+         *                    whole context
          */
-        State(Configuration config, int batchsize) {
+        private State(Configuration config, int batchsize, GGMLType kvCacheType, KVBlockTable table,
+                      TieredKVCache tieredCache) {
+            this.config = config;
             this.batchsize = batchsize;
             this.x = allocate(batchsize, config.dim);
             this.xb = allocate(batchsize, config.dim);
@@ -243,16 +385,189 @@ public record Llama(Configuration configuration, Tokenizer tokenizer, Weights we
             this.q = allocate(batchsize, config.dim);
             this.k = allocate(batchsize, config.dim);
             this.v = allocate(batchsize, config.dim);
-            this.att = allocate(batchsize, config.numberOfHeads, config.contextLength);
+            int kvDim = (config.dim * config.numberOfKeyValueHeads) / config.numberOfHeads;
+            this.ropeCos = new float[batchsize][config.headSize];
+            this.ropeSin = new float[batchsize][config.headSize];
+            if (Q8_0ActivationTensor.USE_Q8_ACTIVATIONS) {
+                this.xbQ8 = Q8_0ActivationTensor.allocate(batchsize, config.dim);
+                this.hbQ8 = Q8_0ActivationTensor.allocate(batchsize, config.hiddenDim);
+            } else {
+                this.xbQ8 = null;
+                this.hbQ8 = null;
+            }
             idxPrevBlock = -1;
 
             this.logits = ArrayFloatTensor.allocate(config.vocabularySize);
-            int kvDim = (config.dim * config.numberOfKeyValueHeads) / config.numberOfHeads;
-            this.keyCache = Stream.generate(() -> ArrayFloatTensor.allocate(config.contextLength, kvDim))
-                    .limit(config.numberOfLayers).toArray(FloatTensor[]::new);
-            this.valueCache = Stream.generate(() -> ArrayFloatTensor.allocate(config.contextLength, kvDim))
-                    .limit(config.numberOfLayers).toArray(FloatTensor[]::new);
+            this.kvCacheType = kvCacheType;
+            if (kvCacheType == GGMLType.Q8_0) {
+                if (config.headSize % Q8_0ActivationTensor.BLOCK_SIZE != 0) {
+                    throw new IllegalArgumentException("Q8_0 KV cache requires a head size that is a multiple of "
+                            + Q8_0ActivationTensor.BLOCK_SIZE + ": " + config.headSize);
+                }
+                this.qQ8 = Q8_0ActivationTensor.allocate(batchsize, config.dim);
+            } else {
+                this.qQ8 = null;
+            }
+            if (table != null) {
+                KVBlockPool pool = table.pool();
+                if (!pool.fits(config, kvDim)) {
+                    throw new IllegalArgumentException("KV block pool does not match the model configuration");
+                }
+                int cacheSize = config.contextLength * kvDim;
+                int blockSize = pool.blockTokens() * kvDim;
+                this.blockTable = table;
+                this.tieredCache = null;
+                this.keyCache = IntStream.range(0, config.numberOfLayers)
+                        .mapToObj(l -> new PagedFloatTensor(cacheSize, blockSize, kvCacheType,
+                                block -> pool.keys(table.block(block), l)))
+                        .toArray(FloatTensor[]::new);
+                this.valueCache = IntStream.range(0, config.numberOfLayers)
+                        .mapToObj(l -> new PagedFloatTensor(cacheSize, blockSize, kvCacheType,
+                                block -> pool.values(table.block(block), l)))
+                        .toArray(FloatTensor[]::new);
+            } else if (tieredCache != null) {
+                if (!tieredCache.fits(config, kvDim)) {
+                    throw new IllegalArgumentException("Tiered KV cache does not match the model configuration");
+                }
+                int cacheSize = config.contextLength * kvDim;
+                int blockSize = tieredCache.blockTokens() * kvDim;
+                this.blockTable = null;
+                this.tieredCache = tieredCache;
+                this.keyCache = IntStream.range(0, config.numberOfLayers)
+                        .mapToObj(l -> new PagedFloatTensor(cacheSize, blockSize, kvCacheType,
+                                block -> tieredCache.keys(block, l)))
+                        .toArray(FloatTensor[]::new);
+                this.valueCache = IntStream.range(0, config.numberOfLayers)
+                        .mapToObj(l -> new PagedFloatTensor(cacheSize, blockSize, kvCacheType,
+                                block -> tieredCache.values(block, l)))
+                        .toArray(FloatTensor[]::new);
+            } else {
+                this.blockTable = null;
+                this.tieredCache = null;
+                this.keyCache = Stream.generate(() -> allocateCache(kvCacheType, config.contextLength, kvDim))
+                        .limit(config.numberOfLayers).toArray(FloatTensor[]::new);
+                this.valueCache = Stream.generate(() -> allocateCache(kvCacheType, config.contextLength, kvDim))
+                        .limit(config.numberOfLayers).toArray(FloatTensor[]::new);
+            }
         }
+
+        /**
+         * Returns the model configuration the state is sized for.
+         *
+         * @return model configuration
+         */
+        Configuration configuration() {
+            return config;
+        }
+
+        /**
+         * Returns the buffer of the fused query, key and value projection, allocated on first use so that states of
+         * models without fused weights do not carry it.
+         *
+         * @return one concatenated query, key and value vector per batch row
+         */
+        FloatTensor[] qkv() {
+            if (qkv == null) {
+                int kvDim = (config.dim * config.numberOfKeyValueHeads) / config.numberOfHeads;
+                qkv = allocate(batchsize, config.dim + 2 * kvDim);
+            }
+            return qkv;
+        }
+
+        /**
+         * Makes a range of cache positions writable, on the thread that runs the forward pass: reserves and
+         * unshares the blocks of a paged cache, or brings new blocks of a tiered cache into RAM.
+         *
+         * @param from first position to be written
+         * @param to end of the positions to be written (exclusive)
+         */
+        void prepareWrite(int from, int to) {
+            if (blockTable != null) {
+                blockTable.prepareWrite(from, to);
+            } else if (tieredCache != null) {
+                tieredCache.prepareWrite(from, to);
+            }
+        }
+
+        /**
+         * Creates a state that continues from the first positions of this one, so several continuations of one
+         * prompt can be decoded without prefilling it again. A paged state shares the blocks holding those
+         * positions with the fork, and either of them copies a shared block before writing to it; a contiguous KV
+         * cache is copied. A tiered cache cannot be forked.
+         *
+         * @param positions number of positions to carry over
+         * @return new state with the same batch size, latest token and shift count
+         */
+        public State fork(int positions) {
+            if (positions < 0 || positions > config.contextLength) {
+                throw new IllegalArgumentException("Cannot fork " + positions + " positions of a context of "
+                        + config.contextLength);
+            }
+            if (tieredCache != null) {
+                throw new UnsupportedOperationException("Tiered KV caches cannot be forked");
+            }
+            State fork;
+            if (blockTable != null) {
+                fork = new State(config, batchsize, kvCacheType, blockTable.fork(positions), null);
+            } else {
+                fork = new State(config, batchsize, kvCacheType, null, null);
+                int kvDim = (config.dim * config.numberOfKeyValueHeads) / config.numberOfHeads;
+                Parallel.parallelFor(0, config.numberOfLayers, l -> {
+                    keyCache[l].copyTo(0, fork.keyCache[l], 0, positions * kvDim);
+                    valueCache[l].copyTo(0, fork.valueCache[l], 0, positions * kvDim);
+                });
+            }
+            fork.latestToken = latestToken;
+            fork.shiftedTokens = shiftedTokens;
+            return fork;
+        }
+
+        /**
+         * Returns the blocks of a paged KV cache to their pool, or closes a tiered cache and deletes its spill file.
+         * The state must not be used afterwards.
+         */
+        public void release() {
+            if (blockTable != null) {
+                blockTable.release();
+            }
+            if (tieredCache != null) {
+                tieredCache.close();
+            }
+        }
+    }
+
+    /**
+     * Allocates the key or value cache of one layer. F32 caches live on the heap, F16 and Q8_0 caches off-heap.
+     *
+     * @param type element type
+     * @param contextLength number of cached positions
+     * @param kvDim key/value dimension per position
+     * @return cache tensor
+     */
+    static FloatTensor allocateCache(GGMLType type, int contextLength, int kvDim) {
+        return switch (type) {
+            case F32 -> ArrayFloatTensor.allocate(contextLength, kvDim);
+            case F16 -> F16FloatTensor.allocate(contextLength, kvDim);
+            case Q8_0 -> Q8_0FloatTensor.allocate(contextLength, kvDim);
+            default -> throw new IllegalArgumentException("Unsupported KV cache type: " + type);
+        };
+    }
+
+    /**
+     * Views a memory segment, e.g. a mapped file region, as a key or value cache.
+     *
+     * @param type element type
+     * @param size number of values
+     * @param segment cache data
+     * @return cache tensor over the segment
+     */
+    static FloatTensor wrapCache(GGMLType type, int size, MemorySegment segment) {
+        return switch (type) {
+            case F32 -> new F32FloatTensor(size, segment);
+            case F16 -> new F16FloatTensor(size, segment);
+            case Q8_0 -> new Q8_0FloatTensor(size, segment);
+            default -> throw new IllegalArgumentException("Unsupported KV cache type: " + type);
+        };
     }
 
     /**
@@ -268,6 +583,33 @@ public record Llama(Configuration configuration, Tokenizer tokenizer, Weights we
                 .toArray(FloatTensor[]::new);
     }
 
+    /**
+     * Quantizes the first {@code size} values of each input into its Q8_0 buffer when Q8 activations are enabled.
+     *
+     * @param nTokens number of tokens in the batch
+     * @param dense dense inputs
+     * @param quantized quantized buffers, or null when disabled
+     * @param size number of elements
+     */
+    static void quantizeActivations(int nTokens, FloatTensor[] dense, Q8_0ActivationTensor[] quantized, int size) {
+        if (quantized != null) {
+            Parallel.parallelFor(0, nTokens, t -> quantized[t].quantize(dense[t], size));
+        }
+    }
+
+    /**
+     * Selects the matmul input for a weight: the quantized activations if the weight has an integer kernel for
+     * them, the dense activations otherwise.
+     *
+     * @param weight weight tensor
+     * @param dense dense inputs
+     * @param quantized quantized inputs, or null when disabled
+     * @return inputs to pass to {@link FloatTensor#matmul(int, FloatTensor[], FloatTensor[], int, int)}
+     */
+    static FloatTensor[] matmulInput(FloatTensor weight, FloatTensor[] dense, Q8_0ActivationTensor[] quantized) {
+        return quantized != null && weight.supportsQ8Activations() ? quantized : dense;
+    }
+
     /**
      * Applies RMS normalization.
      *
@@ -297,81 +639,199 @@ public record Llama(Configuration configuration, Tokenizer tokenizer, Weights we
      * @return logits or null when skipped
      */
     static FloatTensor forward(Llama model, State state, int[] tokens, int position, boolean computeLogits) {
+        return forward(model, state, tokens, position, computeLogits, null);
+    }
+
+    /**
+     * Runs a forward pass for the given tokens, computing the logits of every token instead of only the last
+     * one when {@code tokenLogits} is given. Verifying draft tokens needs the target distribution after each of
+     * them.
+     *
+     * @param model model instance
+     * @param state model state
+     * @param tokens tokens to process
+     * @param position start position in the context
+     * @param computeLogits whether to compute logits
+     * @param tokenLogits destinations of the logits of each token, {@code state.batchsize} tensors, or null
+     * @return logits of the last token, or null when skipped
+     */
+    static FloatTensor forward(Llama model, State state, int[] tokens, int position, boolean computeLogits,
+                               FloatTensor[] tokenLogits) {
+        Configuration config = model.configuration();
+        Weights weights = model.weights();
+        final int nTokens = tokens.length;
+        forwardLayers(model, state, List.of(new Chunk(state, tokens, position, null)), computeLogits);
+        state.idxPrevBlock = nTokens - 1;
+        if (!computeLogits) {
+            return null;
+        }
+        if (tokenLogits != null) {
+            weights.wcls.matmul(nTokens, state.x, tokenLogits, config.vocabularySize, config.dim);
+            return tokenLogits[nTokens - 1];
+        }
+        weights.wcls.matmul(state.x[nTokens - 1], state.logits, config.vocabularySize, config.dim);
+
+        return state.logits;
+    }
+
+    /**
+     * Tokens of one sequence in a forward pass over several sequences.
+     *
+     * @param state state holding the KV cache of the sequence
+     * @param tokens tokens to process, at least one
+     * @param position position of the first token in the sequence
+     * @param logits destination of the logits after the last token, or null to skip them
+     */
+    record Chunk(State state, int[] tokens, int position, FloatTensor logits) {
+    }
+
+    /**
+     * Runs one forward pass over chunks of several sequences. The weight matmuls run once over the tokens of
+     * every chunk, while each chunk reads and writes the KV cache of its own state at its own positions, so
+     * sequences at different positions share the pass.
+     *
+     * @param model model instance
+     * @param buffers state whose activation buffers hold the batch, with a batch size of at least the total number
+     *                of tokens; its own KV cache is not used
+     * @param chunks chunks of distinct sequences
+     */
+    static void forward(Llama model, State buffers, List<Chunk> chunks) {
+        Configuration config = model.configuration();
+        boolean computeLogits = chunks.stream().anyMatch(chunk -> chunk.logits() != null);
+        forwardLayers(model, buffers, chunks, computeLogits);
+        if (!computeLogits) {
+            return;
+        }
+        List<FloatTensor> last = new ArrayList<>();
+        List<FloatTensor> logits = new ArrayList<>();
+        int row = 0;
+        for (Chunk chunk : chunks) {
+            row += chunk.tokens().length;
+            if (chunk.logits() != null) {
+                last.add(buffers.x[row - 1]);
+                logits.add(chunk.logits());
+            }
+        }
+        model.weights().wcls.matmul(last.size(), last.toArray(FloatTensor[]::new),
+                logits.toArray(FloatTensor[]::new), config.vocabularySize, config.dim);
+    }
+
+    /**
+     * Runs the transformer layers and the final normalization over the tokens of the chunks, laid out one after
+     * the other in the activation buffers, leaving the normalized outputs in {@code state.x}.
+     *
+     * @param model model instance
+     * @param state state whose activation buffers hold the batch
+     * @param chunks chunks of distinct sequences
+     * @param computeOutputs whether to compute the outputs, or only fill the KV caches
+     */
+    private static void forwardLayers(Llama model, State state, List<Chunk> chunks, boolean computeOutputs) {
         Configuration config = model.configuration();
         Weights weights = model.weights();
         int dim = config.dim;
         int headSize = config.headSize;
         int kvDim = (config.dim * config.numberOfKeyValueHeads) / config.numberOfHeads;
         int kvMul = config.numberOfHeads / config.numberOfKeyValueHeads;
-        float sqrtHeadSize = (float) Math.sqrt(headSize);
-        final int nTokens = tokens.length;
+        final int nTokens = chunks.stream().mapToInt(chunk -> chunk.tokens().length).sum();
+        if (nTokens > state.batchsize) {
+            throw new IllegalArgumentException(nTokens + " tokens do not fit a batch of " + state.batchsize);
+        }
 
-        Parallel.parallelFor(0, nTokens, t ->
-                weights.token_embedding_table.copyTo(tokens[t] * dim, state.x[t], 0, dim)
-        );
+        // Sequence, token and position of every batch row.
+        final State[] rowState = new State[nTokens];
+        final int[] rowToken = new int[nTokens];
+        final int[] rowPosition = new int[nTokens];
+        int row = 0;
+        for (Chunk chunk : chunks) {
+            chunk.state().prepareWrite(chunk.position(), chunk.position() + chunk.tokens().length);
+            for (int i = 0; i < chunk.tokens().length; i++, row++) {
+                rowState[row] = chunk.state();
+                rowToken[row] = chunk.tokens()[i];
+                rowPosition[row] = chunk.position() + i;
+            }
+        }
+        final FloatTensor[] query = state.qQ8 != null ? state.qQ8 : state.q;
+        // Per-sequence views of the query and output rows, for attention over several KV caches.
+        int sequences = chunks.size();
+        FloatTensor[][] chunkQuery = new FloatTensor[sequences][];
+        FloatTensor[][] chunkOut = new FloatTensor[sequences][];
+        int[] chunkPosition = new int[sequences];
+        if (sequences > 1) {
+            row = 0;
+            for (int c = 0; c < sequences; c++) {
+                int n = chunks.get(c).tokens().length;
+                chunkQuery[c] = Arrays.copyOfRange(query, row, row + n);
+                chunkOut[c] = Arrays.copyOfRange(state.xb, row, row + n);
+                chunkPosition[c] = chunks.get(c).position();
+                row += n;
+            }
+        }
+
+        Parallel.parallelFor(0, nTokens, t -> {
+            weights.token_embedding_table.copyTo(rowToken[t] * dim, state.x[t], 0, dim);
+            RoPE.angles(weights.ropeFrequencies, rowPosition[t], state.ropeCos[t], state.ropeSin[t]);
+        });
 
         for (int l = 0; l < config.numberOfLayers; l++) {
             final int curLayer = l;
+            // Spilled blocks of the next layer load in the background while this one runs.
+            for (Chunk chunk : chunks) {
+                if (chunk.state().tieredCache != null) {
+                    chunk.state().tieredCache.prefetch((l + 1) % config.numberOfLayers);
+                }
+            }
             Parallel.parallelFor(0, nTokens, t ->
                     rmsnorm(state.xb[t], state.x[t], weights.rms_att_weight[curLayer], dim, config.rmsNormEps)
             );
 
-            weights.wq[l].matmul(nTokens, state.xb, state.q, dim, dim);
-            weights.wk[l].matmul(nTokens, state.xb, state.k, kvDim, dim);
-            weights.wv[l].matmul(nTokens, state.xb, state.v, kvDim, dim);
+            quantizeActivations(nTokens, state.xb, state.xbQ8, dim);
+            final FloatTensor wqkv = weights.wqkv != null ? weights.wqkv[l] : null;
+            final FloatTensor[] qkv = wqkv != null ? state.qkv() : null;
+            if (wqkv != null) {
+                wqkv.matmul(nTokens, matmulInput(wqkv, state.xb, state.xbQ8), qkv, dim + 2 * kvDim, dim);
+            } else {
+                weights.wq[l].matmul(nTokens, matmulInput(weights.wq[l], state.xb, state.xbQ8), state.q, dim, dim);
+                weights.wk[l].matmul(nTokens, matmulInput(weights.wk[l], state.xb, state.xbQ8), state.k, kvDim, dim);
+                weights.wv[l].matmul(nTokens, matmulInput(weights.wv[l], state.xb, state.xbQ8), state.v, kvDim, dim);
+            }
 
             Parallel.parallelFor(0, nTokens, t -> {
-                for (int i = 0; i < dim; i += 2) {
-                    int headDim = i % headSize;
-                    float fcr = weights.freq_cis_real.get((position + t) * (headSize / 2) + (headDim / 2));
-                    float fci = weights.freq_cis_imag.get((position + t) * (headSize / 2) + (headDim / 2));
-                    int rotn = i < kvDim ? 2 : 1;
-                    for (int vi = 0; vi < rotn; vi++) {
-                        FloatTensor vec = vi == 0 ? state.q[t] : state.k[t];
-                        float v0 = vec.getFloat(i);
-                        float v1 = vec.getFloat(i + 1);
-                        vec.setFloat(i, v0 * fcr - v1 * fci);
-                        vec.setFloat(i + 1, v0 * fci + v1 * fcr);
-                    }
+                if (wqkv != null) {
+                    qkv[t].copyTo(0, state.q[t], 0, dim);
+                    qkv[t].copyTo(dim, state.k[t], 0, kvDim);
+                    qkv[t].copyTo(dim + kvDim, state.v[t], 0, kvDim);
                 }
+                state.q[t].ropeInPlace(0, dim, headSize, state.ropeCos[t], state.ropeSin[t]);
+                state.k[t].ropeInPlace(0, kvDim, headSize, state.ropeCos[t], state.ropeSin[t]);
             });
 
             Parallel.parallelFor(0, nTokens, t -> {
-                state.k[t].copyTo(0, state.keyCache[curLayer], (position + t) * kvDim, kvDim);
-                state.v[t].copyTo(0, state.valueCache[curLayer], (position + t) * kvDim, kvDim);
+                state.k[t].copyTo(0, rowState[t].keyCache[curLayer], rowPosition[t] * kvDim, kvDim);
+                state.v[t].copyTo(0, rowState[t].valueCache[curLayer], rowPosition[t] * kvDim, kvDim);
             });
 
-            if (!computeLogits && curLayer == config.numberOfLayers - 1) {
-                state.idxPrevBlock = nTokens - 1;
-                return null;
+            if (!computeOutputs && curLayer == config.numberOfLayers - 1) {
+                return;
             }
 
-            Parallel.parallelForLong(0, (long) nTokens * (long) config.numberOfHeads, ht -> {
-                int token = (int) (ht / config.numberOfHeads);
-                int h = (int) (ht % config.numberOfHeads);
-                int qOffset = h * headSize;
-                int attOffset = h * config.contextLength;
-
-                for (int t = 0; t <= position + token; t++) {
-                    int keyCacheOffset = t * kvDim + (h / kvMul) * headSize;
-                    float score = state.q[token].dot(qOffset, state.keyCache[curLayer], keyCacheOffset, headSize);
-                    score /= sqrtHeadSize;
-                    state.att[token].setFloat(attOffset + t, score);
-                }
-
-                state.att[token].softmaxInPlace(attOffset, position + token + 1);
-
-                int xbOffset = h * headSize;
-                state.xb[token].fillInPlace(xbOffset, headSize, 0f);
-
-                for (int t = 0; t <= position + token; t++) {
-                    int vOffset = t * kvDim + (h / kvMul) * headSize;
-                    float a = state.att[token].getFloat(attOffset + t);
-                    state.xb[token].saxpyInPlace(xbOffset, state.valueCache[curLayer], vOffset, headSize, a);
+            quantizeActivations(nTokens, state.q, state.qQ8, dim);
+            if (sequences == 1) {
+                State sequence = chunks.getFirst().state();
+                Attention.attend(query, sequence.keyCache[curLayer], sequence.valueCache[curLayer], state.xb,
+                        config.numberOfHeads, kvMul, headSize, kvDim, chunks.getFirst().position(), nTokens);
+            } else {
+                FloatTensor[] keyCaches = new FloatTensor[sequences];
+                FloatTensor[] valueCaches = new FloatTensor[sequences];
+                for (int c = 0; c < sequences; c++) {
+                    keyCaches[c] = chunks.get(c).state().keyCache[curLayer];
+                    valueCaches[c] = chunks.get(c).state().valueCache[curLayer];
                 }
-            });
+                Attention.attend(chunkQuery, keyCaches, valueCaches, chunkOut, config.numberOfHeads, kvMul,
+                        headSize, kvDim, chunkPosition);
+            }
 
-            weights.wo[l].matmul(nTokens, state.xb, state.xb2, dim, dim);
+            quantizeActivations(nTokens, state.xb, state.xbQ8, dim);
+            weights.wo[l].matmul(nTokens, matmulInput(weights.wo[l], state.xb, state.xbQ8), state.xb2, dim, dim);
 
             Parallel.parallelFor(0, nTokens, t -> state.x[t].addInPlace(state.xb2[t]));
 
@@ -379,16 +839,14 @@ public record Llama(Configuration configuration, Tokenizer tokenizer, Weights we
                     rmsnorm(state.xb[t], state.x[t], weights.rms_ffn_weight[curLayer], dim, config.rmsNormEps)
             );
 
-            weights.w1[l].matmul(nTokens, state.xb, state.hb, config.hiddenDim, dim);
-            weights.w3[l].matmul(nTokens, state.xb, state.hb2, config.hiddenDim, dim);
+            quantizeActivations(nTokens, state.xb, state.xbQ8, dim);
+            FloatTensor.matmulSwiGLU(nTokens,
+                    weights.w1[l], matmulInput(weights.w1[l], state.xb, state.xbQ8),
+                    weights.w3[l], matmulInput(weights.w3[l], state.xb, state.xbQ8),
+                    state.hb, state.hb2, config.hiddenDim, dim);
 
-            Parallel.parallelFor(0, nTokens, t ->
-                    state.hb[t].mapInPlace(value -> value / (float) (1.0 + Math.exp(-value)))
-            );
-
-            Parallel.parallelFor(0, nTokens, t -> state.hb[t].multiplyInPlace(state.hb2[t]));
-
-            weights.w2[l].matmul(nTokens, state.hb, state.xb, dim, config.hiddenDim);
+            quantizeActivations(nTokens, state.hb, state.hbQ8, config.hiddenDim);
+            weights.w2[l].matmul(nTokens, matmulInput(weights.w2[l], state.hb, state.hbQ8), state.xb, dim, config.hiddenDim);
 
             Parallel.parallelFor(0, nTokens, t -> state.x[t].addInPlace(state.xb[t]));
         }
@@ -396,11 +854,6 @@ public record Llama(Configuration configuration, Tokenizer tokenizer, Weights we
         Parallel.parallelFor(0, nTokens, t ->
                 rmsnorm(state.x[t], state.x[t], weights.rms_final_weight, dim, config.rmsNormEps)
         );
-
-        weights.wcls.matmul(state.x[nTokens - 1], state.logits, config.vocabularySize, dim);
-        state.idxPrevBlock = nTokens - 1;
-
-        return state.logits;
     }
 
     /**
@@ -420,16 +873,63 @@ public record Llama(Configuration configuration, Tokenizer tokenizer, Weights we
     public static List<Integer> generateTokens(Llama model, State state, int startPosition, List<Integer> promptTokens,
                                                Set<Integer> stopTokens, int maxTokens, Sampler sampler, boolean echo,
                                                IntConsumer onTokenGenerated) {
+        return generateTokens(model, state, startPosition, promptTokens, stopTokens, maxTokens, -1, sampler, echo,
+                onTokenGenerated);
+    }
+
+    /**
+     * Generates tokens for a prompt using the model, optionally shifting the context instead of stopping when the
+     * KV cache is full.
+     *
+     * <p>With a non-negative {@code sinkTokens}, a full cache keeps its first {@code sinkTokens} positions (the
+     * attention sinks) and drops the older half of the rest through {@link #shiftContext}, so generation goes on
+     * with a bounded cache. {@code maxTokens} then limits the number of generated tokens, unbounded when negative,
+     * and {@link State#shiftedTokens} tells the caller how far cache positions have moved.</p>
+     *
+     * @param model model instance
+     * @param state model state
+     * @param startPosition starting position in the KV cache
+     * @param promptTokens prompt tokens to ingest
+     * @param stopTokens stop token set
+     * @param maxTokens maximum context position, or maximum generated tokens when shifting the context
+     * @param sinkTokens positions kept at the start of the cache when shifting, or negative to stop at a full cache
+     * @param sampler sampling strategy
+     * @param echo whether to echo tokens to stderr
+     * @param onTokenGenerated callback invoked for each generated token
+     * @return list of generated tokens (including stop token if present)
+     */
+    public static List<Integer> generateTokens(Llama model, State state, int startPosition, List<Integer> promptTokens,
+                                               Set<Integer> stopTokens, int maxTokens, int sinkTokens, Sampler sampler,
+                                               boolean echo, IntConsumer onTokenGenerated) {
         long startNanos = System.nanoTime();
         long startGen = 0;
-        if (maxTokens < 0 || model.configuration().contextLength < maxTokens) {
-            maxTokens = model.configuration().contextLength;
+        int contextLength = model.configuration().contextLength;
+        boolean shifting = sinkTokens >= 0;
+        if (shifting && sinkTokens + state.batchsize >= contextLength) {
+            throw new IllegalArgumentException("Context shifting needs room for a batch after " + sinkTokens
+                    + " sink tokens in a context of " + contextLength);
+        }
+        int maxGenerated = shifting && maxTokens >= 0 ? maxTokens : Integer.MAX_VALUE;
+        if (shifting) {
+            maxTokens = contextLength;
+        } else if (maxTokens < 0 || contextLength < maxTokens) {
+            maxTokens = contextLength;
         }
-        List<Integer> generatedTokens = new ArrayList<>(maxTokens);
+        List<Integer> generatedTokens = new ArrayList<>(Math.min(maxTokens, maxGenerated));
         int token = state.latestToken;
         int nextToken;
         int promptIndex = 0;
-        for (int position = startPosition; position < maxTokens; ++position) {
+        int shiftedBefore = state.shiftedTokens;
+        for (int position = startPosition; position < maxTokens || shifting; ++position) {
+            if (shifting) {
+                int pending = Math.min(promptTokens.size() - promptIndex, state.batchsize);
+                int overflow = position + Math.max(pending, 1) - contextLength;
+                if (overflow > 0) {
+                    int discard = Math.max(overflow, (position - sinkTokens) / 2);
+                    shiftContext(model, state, sinkTokens, discard, position);
+                    position -= discard;
+                }
+            }
             if (promptIndex < promptTokens.size()) {
                 final int nTokens = Math.min(maxTokens - position,
                         Math.min(promptTokens.size() - promptIndex, state.batchsize));
@@ -463,7 +963,7 @@ public record Llama(Configuration configuration, Tokenizer tokenizer, Weights we
             if (onTokenGenerated != null) {
                 onTokenGenerated.accept(nextToken);
             }
-            if (stopTokens.contains(nextToken)) {
+            if (stopTokens.contains(nextToken) || generatedTokens.size() >= maxGenerated) {
                 break;
             }
             state.latestToken = token = nextToken;
@@ -473,10 +973,173 @@ public record Llama(Configuration configuration, Tokenizer tokenizer, Weights we
         long promptNanos = startGen - startNanos;
         long genNanos = elapsedNanos - startGen + startNanos;
         System.err.printf("%ncontext: %d/%d prompt: %.2f tokens/s (%d) generation: %.2f tokens/s (%d)%n",
-                startPosition + promptIndex + generatedTokens.size(), model.configuration().contextLength,
+                startPosition + promptIndex + generatedTokens.size() - (state.shiftedTokens - shiftedBefore),
+                contextLength,
                 promptTokens.size() / (promptNanos / 1_000_000_000.0), promptTokens.size(),
                 generatedTokens.size() / (genNanos / 1_000_000_000.0), generatedTokens.size());
 
         return generatedTokens;
     }
+
+    /**
+     * Generates several continuations of one prompt in lockstep, e.g. n-best samples with different seeds. The
+     * prompt is prefilled once and forked into one state per sampler ({@link State#fork}); each step then decodes
+     * the next token of every unfinished continuation in one batched forward pass. Forks of a paged state share
+     * the prompt's KV blocks, so the prompt is held in memory once.
+     *
+     * @param model model instance
+     * @param state state to prefill the prompt into, with a batch size of at least the number of samplers
+     * @param startPosition starting position in context
+     * @param promptTokens prompt tokens to ingest, at least one
+     * @param stopTokens stop token set
+     * @param maxTokens maximum context position
+     * @param samplers sampling strategy of each continuation
+     * @return generated tokens of each continuation (including stop token if present), in sampler order
+     */
+    public static List<List<Integer>> generateCandidates(Llama model, State state, int startPosition,
+                                                         List<Integer> promptTokens, Set<Integer> stopTokens,
+                                                         int maxTokens, List<Sampler> samplers) {
+        long startNanos = System.nanoTime();
+        int contextLength = model.configuration().contextLength;
+        int vocabularySize = model.configuration().vocabularySize;
+        int count = samplers.size();
+        if (count == 0 || count > state.batchsize) {
+            throw new IllegalArgumentException(count + " candidates do not fit a batch of " + state.batchsize);
+        }
+        if (maxTokens < 0 || contextLength < maxTokens) {
+            maxTokens = contextLength;
+        }
+        if (promptTokens.isEmpty() || startPosition + promptTokens.size() > maxTokens) {
+            throw new IllegalArgumentException("Prompt of " + promptTokens.size() + " tokens at position "
+                    + startPosition + " does not fit " + maxTokens + " positions");
+        }
+        int position = startPosition;
+        for (int i = 0; i < promptTokens.size(); i += state.batchsize) {
+            int[] tokens = promptTokens.subList(i, Math.min(i + state.batchsize, promptTokens.size())).stream()
+                    .mapToInt(Integer::intValue).toArray();
+            forward(model, state, tokens, position, i + tokens.length == promptTokens.size());
+            position += tokens.length;
+        }
+        long startGen = System.nanoTime();
+
+        List<List<Integer>> generated = new ArrayList<>(count);
+        State[] forks = new State[count];
+        int generatedTokens = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                generated.add(new ArrayList<>());
+                forks[i] = state.fork(position);
+                state.logits.copyTo(0, forks[i].logits, 0, vocabularySize);
+            }
+            while (true) {
+                List<Chunk> chunks = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    if (forks[i] == null) {
+                        continue;
+                    }
+                    int token = samplers.get(i).sampleToken(forks[i].logits);
+                    generated.get(i).add(token);
+                    generatedTokens++;
+                    if (stopTokens.contains(token) || position >= maxTokens) {
+                        forks[i].release();
+                        forks[i] = null;
+                    } else {
+                        forks[i].latestToken = token;
+                        chunks.add(new Chunk(forks[i], new int[]{token}, position, forks[i].logits));
+                    }
+                }
+                if (chunks.isEmpty()) {
+                    break;
+                }
+                forward(model, state, chunks);
+                position++;
+            }
+        } finally {
+            for (State fork : forks) {
+                if (fork != null) {
+                    fork.release();
+                }
+            }
+        }
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long promptNanos = startGen - startNanos;
+        long genNanos = elapsedNanos - startGen + startNanos;
+        System.err.printf("%ncontext: %d/%d prompt: %.2f tokens/s (%d) generation: %.2f tokens/s (%d in %d candidates)%n",
+                position, contextLength,
+                promptTokens.size() / (promptNanos / 1_000_000_000.0), promptTokens.size(),
+                generatedTokens / (genNanos / 1_000_000_000.0), generatedTokens, count);
+        return generated;
+    }
+
+    /**
+     * Makes room in a full KV cache without recomputing it: keeps the first {@code sinkTokens} positions, drops the
+     * {@code discard} positions after them and moves the remaining ones down. The moved keys are rotated back by
+     * {@code discard} positions, so they carry the RoPE rotation of their new position as if they had been
+     * computed there.
+     *
+     * @param model model instance
+     * @param state model state
+     * @param sinkTokens positions kept at the start of the cache
+     * @param discard number of positions dropped after the sink tokens
+     * @param position number of positions in the cache
+     */
+    public static void shiftContext(Llama model, State state, int sinkTokens, int discard, int position) {
+        Configuration config = model.configuration();
+        Weights weights = model.weights();
+        int headSize = config.headSize;
+        int kvDim = (config.dim * config.numberOfKeyValueHeads) / config.numberOfHeads;
+        if (sinkTokens < 0 || discard <= 0 || sinkTokens + discard > position) {
+            throw new IllegalArgumentException("Cannot discard " + discard + " of " + position
+                    + " positions after " + sinkTokens + " sink tokens");
+        }
+        float[] cos = new float[headSize];
+        float[] sin = new float[headSize];
+        RoPE.angles(weights.ropeFrequencies, discard, cos, sin);
+        for (int i = 0; i < headSize; i++) {
+            sin[i] = -sin[i];
+        }
+        state.prepareWrite(sinkTokens, position - discard);
+        // Rows move to lower positions in order, so each layer is shifted by one thread.
+        Parallel.parallelFor(0, config.numberOfLayers, l -> {
+            FloatTensor row = ArrayFloatTensor.allocate(kvDim);
+            for (int p = sinkTokens + discard; p < position; p++) {
+                state.keyCache[l].copyTo(p * kvDim, row, 0, kvDim);
+                row.ropeInPlace(0, kvDim, headSize, cos, sin);
+                row.copyTo(0, state.keyCache[l], (p - discard) * kvDim, kvDim);
+                state.valueCache[l].copyTo(p * kvDim, row, 0, kvDim);
+                row.copyTo(0, state.valueCache[l], (p - discard) * kvDim, kvDim);
+            }
+        });
+        state.shiftedTokens += discard;
+    }
+
+    /**
+     * Measures perplexity on a token sequence: the exponential of the mean negative log-likelihood of each token
+     * given the tokens before it. Comparing states created with different KV cache types on the same reference
+     * text shows the accuracy cost of the reduced-precision caches.
+     *
+     * @param model model instance
+     * @param state fresh model state
+     * @param tokens reference tokens, truncated to the context length
+     * @return perplexity
+     */
+    public static double perplexity(Llama model, State state, List<Integer> tokens) {
+        int count = Math.min(tokens.size(), model.configuration().contextLength);
+        if (count < 2) {
+            throw new IllegalArgumentException("Perplexity needs at least two tokens");
+        }
+        int vocabularySize = model.configuration().vocabularySize;
+        double negativeLogLikelihood = 0;
+        for (int position = 0; position < count - 1; position++) {
+            FloatTensor logits = forward(model, state, new int[]{tokens.get(position)}, position, true);
+            float max = logits.max(0, vocabularySize);
+            double sum = 0;
+            for (int i = 0; i < vocabularySize; i++) {
+                sum += Math.exp(logits.getFloat(i) - max);
+            }
+            negativeLogLikelihood += Math.log(sum) + max - logits.getFloat(tokens.get(position + 1));
+        }
+        return Math.exp(negativeLogLikelihood / (count - 1));
+    }
 }
@@ -20,6 +20,12 @@ import java.util.Set;
  * }</pre>
  */
 public final class LlamaModel implements Model {
+    /**
+     * Positions held by the shared KV block pool, set with {@code -Dllama.KVPoolTokens}. When positive, every
+     * response runs on a paged KV cache drawn from one pool instead of allocating a cache for the whole context.
+     */
+    static final int KV_POOL_TOKENS = Integer.getInteger("llama.KVPoolTokens", 0);
+
     /**
      * Loader strategy for Llama models.
      */
@@ -41,6 +47,7 @@ public final class LlamaModel implements Model {
     private final InferenceEngine inferenceEngine;
     private final int batchSize;
     private Llama llama;
+    private KVBlockPool kvBlockPool;
 
     /**
      * Creates a Llama model adapter with default loading and inference logic.
@@ -71,6 +78,10 @@ public final class LlamaModel implements Model {
     @Override
     public void loadModel(Path modelPath) throws IOException {
         this.llama = loader.load(modelPath, -1, true);
+        if (KV_POOL_TOKENS > 0) {
+            int blocks = (KV_POOL_TOKENS + KVBlockPool.BLOCK_TOKENS - 1) / KVBlockPool.BLOCK_TOKENS;
+            this.kvBlockPool = new KVBlockPool(llama.configuration(), Llama.KV_CACHE_TYPE, KVBlockPool.BLOCK_TOKENS, blocks);
+        }
     }
 
     /**
@@ -79,8 +90,14 @@ public final class LlamaModel implements Model {
     @Override
     public List<Integer> generateResponse(List<Integer> promptTokens, Sampler sampler, int maxTokens) {
         ensureLoaded();
-        Llama.State state = llama.createNewState(batchSize);
-        return inferenceEngine.generate(llama, state, 0, promptTokens, Set.of(), maxTokens, sampler);
+        Llama.State state = kvBlockPool != null
+                ? llama.createNewState(batchSize, kvBlockPool)
+                : llama.createNewState(batchSize);
+        try {
+            return inferenceEngine.generate(llama, state, 0, promptTokens, Set.of(), maxTokens, sampler);
+        } finally {
+            state.release();
+        }
     }
 
     /**
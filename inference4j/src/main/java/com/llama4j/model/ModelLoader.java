@@ -7,9 +7,12 @@ import com.llama4j.tensor.BF16FloatTensor;
 import com.llama4j.tensor.F16FloatTensor;
 import com.llama4j.tensor.FloatTensor;
 import com.llama4j.tensor.Q4_0FloatTensor;
+import com.llama4j.tensor.Q4_0x2FloatTensor;
 import com.llama4j.tensor.Q4_KFloatTensor;
+import com.llama4j.tensor.Q5_KFloatTensor;
 import com.llama4j.tensor.Q6_KFloatTensor;
 import com.llama4j.tensor.Q8_0FloatTensor;
+import com.llama4j.tensor.Q8_0x2FloatTensor;
 import com.llama4j.tensor.RoPE;
 import com.llama4j.tokenizer.Tokenizer;
 import com.llama4j.tokenizer.TokenizerConfig;
@@ -19,6 +22,8 @@ import com.llama4j.util.Pair;
 import com.llama4j.util.Timer;
 
 import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.channels.FileChannel;
@@ -38,6 +43,18 @@ public final class ModelLoader {
     private static final String TOKENIZER_LLAMA_3_MODEL = "gpt2";
     private static final String MODEL_NAME = "llama";
 
+    /**
+     * Whether to concatenate each layer's query, key and value weights at load time so that the attention
+     * projections run as a single matmul. The concatenated copies live off-heap next to the mapped file.
+     */
+    static final boolean FUSE_QKV = Boolean.getBoolean("llama.FuseQKV");
+
+    /**
+     * Whether to repack Q4_0 and Q8_0 weight matrices into the two-row interleaved layouts of
+     * {@link Q4_0x2FloatTensor} and {@link Q8_0x2FloatTensor} at load time.
+     */
+    static final boolean REPACK_WEIGHTS = Boolean.getBoolean("llama.RepackWeights");
+
     private static final String LLAMA_3_PATTERN =
             "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+";
 
@@ -113,12 +130,20 @@ public final class ModelLoader {
         float loFreqFactor = 1;
         float hiFreqFactor = 3;
         int oldContextLength = 8192;
-        Pair<float[], float[]> ropeFreqs = RoPE.precomputeFreqsCis(config.contextLength, config.headSize, config.ropeTheta,
+        float[] ropeFrequencies = RoPE.frequencies(config.headSize, config.ropeTheta,
                 ropeScaling, scaleFactor, loFreqFactor, hiFreqFactor, oldContextLength);
-        float[] ropeFreqsReal = ropeFreqs.first();
-        float[] ropeFreqsImag = ropeFreqs.second();
 
         GGMLTensorEntry tokenEmbeddings = tensorEntries.get("token_embd.weight");
+        FloatTensor[] wqkv = null;
+        if (FUSE_QKV) {
+            wqkv = new FloatTensor[config.numberOfLayers];
+            for (int i = 0; i < config.numberOfLayers; i++) {
+                wqkv[i] = concatenateRows(
+                        tensorEntries.get("blk." + i + ".attn_q.weight"),
+                        tensorEntries.get("blk." + i + ".attn_k.weight"),
+                        tensorEntries.get("blk." + i + ".attn_v.weight"));
+            }
+        }
         return new Llama.Weights(
                 loadQuantized(tokenEmbeddings),
                 loadArrayOfFloatBuffer(config.numberOfLayers, i -> tensorEntries.get("blk." + i + ".attn_norm.weight")),
@@ -131,9 +156,9 @@ public final class ModelLoader {
                 loadArrayOfQuantized(config.numberOfLayers, i -> tensorEntries.get("blk." + i + ".ffn_down.weight")),
                 loadArrayOfQuantized(config.numberOfLayers, i -> tensorEntries.get("blk." + i + ".ffn_up.weight")),
                 toFloatBuffer(tensorEntries.get("output_norm.weight")),
-                FloatBuffer.wrap(ropeFreqsReal),
-                FloatBuffer.wrap(ropeFreqsImag),
-                loadQuantized(tensorEntries.getOrDefault("output.weight", tokenEmbeddings))
+                ropeFrequencies,
+                loadMatrix(tensorEntries.getOrDefault("output.weight", tokenEmbeddings)),
+                wqkv
         );
     }
 
@@ -222,16 +247,70 @@ public final class ModelLoader {
             case Q8_0 -> new Q8_0FloatTensor(FloatTensor.numberOfElements(entry.shape()), entry.memorySegment());
             case Q4_0 -> new Q4_0FloatTensor(FloatTensor.numberOfElements(entry.shape()), entry.memorySegment());
             case Q4_K -> new Q4_KFloatTensor(FloatTensor.numberOfElements(entry.shape()), entry.memorySegment());
+            case Q5_K -> new Q5_KFloatTensor(FloatTensor.numberOfElements(entry.shape()), entry.memorySegment());
             case Q6_K -> new Q6_KFloatTensor(FloatTensor.numberOfElements(entry.shape()), entry.memorySegment());
             case BF16 -> new BF16FloatTensor(FloatTensor.numberOfElements(entry.shape()), entry.memorySegment());
             case F16 -> new F16FloatTensor(FloatTensor.numberOfElements(entry.shape()), entry.memorySegment());
-            default -> throw new UnsupportedOperationException(
-                    "Quantization format " + ggmlType + " is not supported. Supported: Q4_0, Q4_K, Q6_K, Q8_0, F16, BF16.");
+            case Q4_0_4_4, Q4_0_4_8, Q4_0_8_8 -> Q4_0x2FloatTensor.repack(ggmlType,
+                    FloatTensor.numberOfElements(entry.shape()), entry.shape()[0], entry.memorySegment());
+            default -> throw new UnsupportedOperationException("Quantization format " + ggmlType + " is not supported. "
+                    + "Supported: Q4_0, Q4_0_4_4, Q4_0_4_8, Q4_0_8_8, Q4_K, Q5_K, Q6_K, Q8_0, F16, BF16.");
         };
     }
 
     /**
-     * Loads an array of quantized tensors.
+     * Loads a weight matrix, repacking Q4_0 and Q8_0 data into row-interleaved layouts when enabled.
+     *
+     * <p>Matrices whose row count is not a multiple of the interleaved group keep the plain layout.</p>
+     *
+     * @param entry tensor entry
+     * @return float tensor
+     */
+    public static FloatTensor loadMatrix(GGMLTensorEntry entry) {
+        int size = FloatTensor.numberOfElements(entry.shape());
+        int columns = entry.shape()[0];
+        boolean evenRows = (size / columns) % 2 == 0;
+        if (REPACK_WEIGHTS && evenRows && entry.ggmlType() == GGMLType.Q4_0) {
+            return Q4_0x2FloatTensor.repack(GGMLType.Q4_0, size, columns, entry.memorySegment());
+        }
+        if (REPACK_WEIGHTS && evenRows && entry.ggmlType() == GGMLType.Q8_0) {
+            return Q8_0x2FloatTensor.repack(size, columns, entry.memorySegment());
+        }
+        return loadQuantized(entry);
+    }
+
+    /**
+     * Concatenates the rows of matrices that share a type and a row length into a single tensor.
+     *
+     * <p>Quantized rows are whole blocks, so the raw data can be copied back to back.</p>
+     *
+     * @param entries tensor entries, in output row order
+     * @return concatenated tensor, or null when the entries differ in type or row length
+     */
+    public static FloatTensor concatenateRows(GGMLTensorEntry... entries) {
+        GGMLType ggmlType = entries[0].ggmlType();
+        int columns = entries[0].shape()[0];
+        int rows = 0;
+        long byteSize = 0;
+        for (GGMLTensorEntry entry : entries) {
+            if (entry.ggmlType() != ggmlType || entry.shape()[0] != columns) {
+                return null;
+            }
+            rows += FloatTensor.numberOfElements(entry.shape()) / columns;
+            byteSize += entry.memorySegment().byteSize();
+        }
+        MemorySegment segment = Arena.ofAuto().allocate(byteSize, Long.BYTES);
+        long offset = 0;
+        for (GGMLTensorEntry entry : entries) {
+            MemorySegment.copy(entry.memorySegment(), 0, segment, offset, entry.memorySegment().byteSize());
+            offset += entry.memorySegment().byteSize();
+        }
+        return loadMatrix(new GGMLTensorEntry(entries[0].mappedFile(), entries[0].name(), ggmlType,
+                new int[]{columns, rows}, segment));
+    }
+
+    /**
+     * Loads an array of quantized weight matrices.
      *
      * @param size number of tensors
      * @param getTensorEntry tensor entry supplier
@@ -240,7 +319,7 @@ public final class ModelLoader {
     public static FloatTensor[] loadArrayOfQuantized(int size, IntFunction<GGMLTensorEntry> getTensorEntry) {
         FloatTensor[] array = new FloatTensor[size];
         for (int i = 0; i < size; i++) {
-            array[i] = loadQuantized(getTensorEntry.apply(i));
+            array[i] = loadMatrix(getTensorEntry.apply(i));
         }
         return array;
     }
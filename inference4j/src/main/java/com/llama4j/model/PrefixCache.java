@@ -0,0 +1,383 @@
+package com.llama4j.model;
+
+import com.llama4j.gguf.GGMLType;
+import com.llama4j.tensor.FloatTensor;
+import com.llama4j.util.Parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of KV snapshots keyed by token prefix, so a prompt that starts like an earlier one only prefills what
+ * differs.
+ *
+ * <p>The key and value of a position depend only on the tokens up to it, so the first {@code m} positions of any
+ * snapshot are valid for every prompt that shares its first {@code m} tokens. Snapshot token sequences are kept in
+ * a radix tree over token ids; a lookup walks the prompt down the tree to the longest shared prefix and restores
+ * that many positions from a snapshot below it. Snapshots are evicted least recently used first to stay within a
+ * memory budget, and a snapshot whose tokens extend an existing one replaces it.</p>
+ *
+ * <p>All methods are thread-safe.</p>
+ */
+public final class PrefixCache {
+    /**
+     * Default memory budget of the snapshots in bytes, set with {@code -Dllama.PrefixCacheBytes}. Snapshots of F32
+     * caches live on the Java heap, so the cache is off (0) unless a budget is given.
+     */
+    public static final long MAX_BYTES = Long.getLong("llama.PrefixCacheBytes", 0L);
+
+    private final int numberOfLayers;
+    private final int kvDim;
+    private final long maxBytes;
+    private final Node root = new Node(new int[0], null);
+    private long bytes;
+    private long clock;
+    private long lookups;
+    private long hits;
+    private long lookupTokens;
+    private long reusedTokens;
+    private long evictions;
+    private int entries;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param config model configuration of the cached states
+     * @param maxBytes memory budget of the snapshots in bytes
+     */
+    public PrefixCache(Llama.Configuration config, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.numberOfLayers = config.numberOfLayers;
+        this.kvDim = (config.dim * config.numberOfKeyValueHeads) / config.numberOfHeads;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Copies the KV cache of the longest cached prefix of the tokens into a fresh state.
+     *
+     * @param state state to restore into, positioned at 0
+     * @param tokens tokens the state is about to process
+     * @param maxPositions maximum number of positions to restore; at least one token is usually left to compute
+     *                     the logits of
+     * @return number of restored positions, the position to continue from
+     */
+    public synchronized int restore(Llama.State state, List<Integer> tokens, int maxPositions) {
+        lookups++;
+        lookupTokens += tokens.size();
+        Node node = root;
+        int matched = 0;
+        while (matched < tokens.size()) {
+            Node child = node.children.get(tokens.get(matched));
+            if (child == null) {
+                break;
+            }
+            int common = 0;
+            while (common < child.edge.length && matched + common < tokens.size()
+                    && child.edge[common] == tokens.get(matched + common)) {
+                common++;
+            }
+            matched += common;
+            node = child;
+            if (common < child.edge.length) {
+                break;
+            }
+        }
+        int positions = Math.min(matched, maxPositions);
+        if (positions <= 0) {
+            return 0;
+        }
+        Snapshot snapshot = node.anySnapshot();
+        if (snapshot.type != state.kvCacheType) {
+            return 0;
+        }
+        snapshot.lastUsed = ++clock;
+        state.prepareWrite(0, positions);
+        Parallel.parallelFor(0, numberOfLayers, l -> {
+            snapshot.keys[l].copyTo(0, state.keyCache[l], 0, positions * kvDim);
+            snapshot.values[l].copyTo(0, state.valueCache[l], 0, positions * kvDim);
+        });
+        hits++;
+        reusedTokens += positions;
+        return positions;
+    }
+
+    /**
+     * Snapshots the first positions of a state's KV cache under the tokens that produced them, evicting least
+     * recently used snapshots as needed. Tokens already covered by a snapshot are not stored again.
+     *
+     * @param state state holding the KV cache of the tokens from position 0
+     * @param tokens tokens of the cached positions
+     */
+    public synchronized void store(Llama.State state, List<Integer> tokens) {
+        int length = tokens.size();
+        long size = snapshotBytes(state.kvCacheType, length);
+        if (length == 0 || size > maxBytes) {
+            return;
+        }
+        Node node = root;
+        int matched = 0;
+        while (matched < length) {
+            Node child = node.children.get(tokens.get(matched));
+            if (child == null) {
+                Node leaf = new Node(toArray(tokens, matched, length), node);
+                node.children.put(leaf.edge[0], leaf);
+                node = leaf;
+                matched = length;
+                break;
+            }
+            int common = 0;
+            while (common < child.edge.length && matched + common < length
+                    && child.edge[common] == tokens.get(matched + common)) {
+                common++;
+            }
+            if (common < child.edge.length) {
+                child = split(child, common);
+            }
+            matched += common;
+            node = child;
+        }
+        if (node.snapshot != null || !node.children.isEmpty()) {
+            // The tokens are a prefix of cached ones.
+            Snapshot covering = node.anySnapshot();
+            covering.lastUsed = ++clock;
+            return;
+        }
+        Snapshot snapshot = new Snapshot(state.kvCacheType, length, size);
+        Parallel.parallelFor(0, numberOfLayers, l -> {
+            state.keyCache[l].copyTo(0, snapshot.keys[l], 0, length * kvDim);
+            state.valueCache[l].copyTo(0, snapshot.values[l], 0, length * kvDim);
+        });
+        snapshot.lastUsed = ++clock;
+        node.snapshot = snapshot;
+        snapshot.node = node;
+        bytes += size;
+        entries++;
+        // Snapshots of prefixes of the new tokens are redundant.
+        for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+            if (ancestor.snapshot != null) {
+                remove(ancestor.snapshot);
+            }
+        }
+        while (bytes > maxBytes) {
+            evict(snapshot);
+        }
+    }
+
+    /**
+     * Returns the number of restore calls.
+     *
+     * @return lookup count
+     */
+    public synchronized long lookups() {
+        return lookups;
+    }
+
+    /**
+     * Returns the number of restore calls that restored at least one position.
+     *
+     * @return hit count
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns the fraction of looked-up tokens whose KV was restored instead of computed.
+     *
+     * @return token hit rate, 0 before the first lookup
+     */
+    public synchronized double tokenHitRate() {
+        return lookupTokens == 0 ? 0.0 : (double) reusedTokens / lookupTokens;
+    }
+
+    /**
+     * Returns the number of positions restored so far.
+     *
+     * @return reused token count
+     */
+    public synchronized long reusedTokens() {
+        return reusedTokens;
+    }
+
+    /**
+     * Returns the number of snapshots evicted to stay within the budget.
+     *
+     * @return eviction count
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of cached snapshots.
+     *
+     * @return snapshot count
+     */
+    public synchronized int entries() {
+        return entries;
+    }
+
+    /**
+     * Returns the memory held by the snapshots.
+     *
+     * @return snapshot bytes
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the memory budget.
+     *
+     * @return maximum snapshot bytes
+     */
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Evicts the least recently used snapshot other than the one just stored.
+     *
+     * @param keep snapshot that must stay
+     */
+    private void evict(Snapshot keep) {
+        Snapshot oldest = null;
+        List<Node> pending = new ArrayList<>(List.of(root));
+        while (!pending.isEmpty()) {
+            Node node = pending.removeLast();
+            if (node.snapshot != null && node.snapshot != keep
+                    && (oldest == null || node.snapshot.lastUsed < oldest.lastUsed)) {
+                oldest = node.snapshot;
+            }
+            pending.addAll(node.children.values());
+        }
+        // The budget admits every single snapshot, so only the kept one can be left.
+        assert oldest != null;
+        remove(oldest);
+        evictions++;
+    }
+
+    /**
+     * Removes a snapshot and prunes the branches left without snapshots.
+     *
+     * @param snapshot snapshot to remove
+     */
+    private void remove(Snapshot snapshot) {
+        Node node = snapshot.node;
+        node.snapshot = null;
+        bytes -= snapshot.bytes;
+        entries--;
+        while (node.parent != null && node.snapshot == null && node.children.isEmpty()) {
+            node.parent.children.remove(node.edge[0]);
+            node = node.parent;
+        }
+    }
+
+    /**
+     * Splits the edge into a node so that a new node ends after its first {@code length} tokens.
+     *
+     * @param node node whose edge is split
+     * @param length number of edge tokens kept by the new parent
+     * @return the new parent node
+     */
+    private static Node split(Node node, int length) {
+        Node parent = node.parent;
+        Node middle = new Node(Arrays.copyOf(node.edge, length), parent);
+        parent.children.put(middle.edge[0], middle);
+        node.edge = Arrays.copyOfRange(node.edge, length, node.edge.length);
+        node.parent = middle;
+        middle.children.put(node.edge[0], node);
+        return middle;
+    }
+
+    /**
+     * Returns the size of a snapshot of the given length.
+     *
+     * @param type KV cache element type
+     * @param length number of positions
+     * @return bytes of the keys and values of every layer
+     */
+    private long snapshotBytes(GGMLType type, int length) {
+        return 2L * numberOfLayers * type.byteSizeFor(length * kvDim);
+    }
+
+    /**
+     * Copies a range of tokens into an array.
+     *
+     * @param tokens tokens
+     * @param from start of the range (inclusive)
+     * @param to end of the range (exclusive)
+     * @return token array
+     */
+    private static int[] toArray(List<Integer> tokens, int from, int to) {
+        return tokens.subList(from, to).stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Radix tree node: the tokens of the edge from its parent, and the snapshot ending here, if any. Every leaf
+     * holds a snapshot.
+     */
+    private static final class Node {
+        int[] edge;
+        Node parent;
+        final Map<Integer, Node> children = new HashMap<>();
+        Snapshot snapshot;
+
+        /**
+         * Creates a node.
+         *
+         * @param edge tokens of the edge from the parent
+         * @param parent parent node, or null for the root
+         */
+        Node(int[] edge, Node parent) {
+            this.edge = edge;
+            this.parent = parent;
+        }
+
+        /**
+         * Returns a snapshot at or below this node, all of which start with the tokens leading here.
+         *
+         * @return snapshot
+         */
+        Snapshot anySnapshot() {
+            Node node = this;
+            while (node.snapshot == null) {
+                node = node.children.values().iterator().next();
+            }
+            return node.snapshot;
+        }
+    }
+
+    /**
+     * Keys and values of every layer for the first {@code length} positions of a sequence.
+     */
+    private final class Snapshot {
+        final GGMLType type;
+        final long bytes;
+        final FloatTensor[] keys = new FloatTensor[numberOfLayers];
+        final FloatTensor[] values = new FloatTensor[numberOfLayers];
+        Node node;
+        long lastUsed;
+
+        /**
+         * Allocates an empty snapshot.
+         *
+         * @param type KV cache element type
+         * @param length number of positions
+         * @param bytes memory of the snapshot
+         */
+        Snapshot(GGMLType type, int length, long bytes) {
+            this.type = type;
+            this.bytes = bytes;
+            for (int l = 0; l < numberOfLayers; l++) {
+                keys[l] = Llama.allocateCache(type, length, kvDim);
+                values[l] = Llama.allocateCache(type, length, kvDim);
+            }
+        }
+    }
+}
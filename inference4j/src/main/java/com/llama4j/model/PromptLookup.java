@@ -0,0 +1,93 @@
+package com.llama4j.model;
+
+import java.util.List;
+
+/**
+ * Draft-free token proposals for {@link SpeculativeDecoder}: the continuation of the latest earlier occurrence
+ * of the last few tokens, found in the tokens seen so far or in a reference text.
+ *
+ * <p>Generated text often copies spans of its input, such as identifiers and boilerplate from the prompt or a
+ * previous version of the same output. When the last {@code n} tokens appeared before, the tokens that followed
+ * them are a cheap guess for what comes next. Longer n-grams are tried first, as their continuations are more
+ * likely to be right.</p>
+ */
+public final class PromptLookup {
+    /**
+     * Default length of the longest n-gram matched, set with {@code -Dllama.LookupNgram}.
+     */
+    public static final int MAX_NGRAM = Integer.getInteger("llama.LookupNgram", 3);
+
+    private final List<Integer> reference;
+    private final int maxNgram;
+
+    /**
+     * Creates a lookup over the generation history and a reference.
+     *
+     * @param reference tokens of a reference text, searched after the history; may be empty
+     * @param maxNgram length of the longest n-gram matched
+     */
+    public PromptLookup(List<Integer> reference, int maxNgram) {
+        if (maxNgram <= 0) {
+            throw new IllegalArgumentException("maxNgram must be positive: " + maxNgram);
+        }
+        this.reference = List.copyOf(reference);
+        this.maxNgram = maxNgram;
+    }
+
+    /**
+     * Proposes the tokens that followed the latest earlier occurrence of the longest matching suffix of the
+     * history, preferring matches in the history over matches in the reference.
+     *
+     * @param history prompt and generated tokens, the last one being the latest token
+     * @param maxTokens maximum number of tokens to propose
+     * @param out destination of the proposed tokens
+     * @param outOffset offset in the destination
+     * @return number of tokens proposed, 0 when no n-gram matches
+     */
+    public int propose(List<Integer> history, int maxTokens, int[] out, int outOffset) {
+        int size = history.size();
+        for (int n = Math.min(maxNgram, size); n > 0; n--) {
+            // The suffix itself ends at size; an earlier match must end before it.
+            int count = copyContinuation(history, history, n, size - 1, maxTokens, out, outOffset);
+            if (count == 0) {
+                count = copyContinuation(reference, history, n, reference.size(), maxTokens, out, outOffset);
+            }
+            if (count > 0) {
+                return count;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Finds the latest occurrence of the last {@code n} history tokens in a source and copies what follows.
+     *
+     * @param source tokens to search
+     * @param history tokens whose suffix is matched
+     * @param n n-gram length
+     * @param endLimit the match must end before this index of the source
+     * @param maxTokens maximum number of tokens to copy
+     * @param out destination of the copied tokens
+     * @param outOffset offset in the destination
+     * @return number of tokens copied, 0 when the n-gram does not occur or nothing follows it
+     */
+    private static int copyContinuation(List<Integer> source, List<Integer> history, int n, int endLimit,
+                                        int maxTokens, int[] out, int outOffset) {
+        int suffix = history.size() - n;
+        for (int end = Math.min(endLimit, source.size() - 1); end >= n; end--) {
+            int start = end - n;
+            int i = 0;
+            while (i < n && source.get(start + i).equals(history.get(suffix + i))) {
+                i++;
+            }
+            if (i == n) {
+                int count = Math.min(maxTokens, source.size() - end);
+                for (int j = 0; j < count; j++) {
+                    out[outOffset + j] = source.get(end + j);
+                }
+                return count;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,292 @@
+package com.llama4j.model;
+
+import com.llama4j.gguf.GGMLType;
+import com.llama4j.tensor.FloatTensor;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Snapshot of a {@link Llama.State} on disk, so a long system prompt or conversation is not prefilled again after
+ * a restart.
+ *
+ * <p>A session file holds a header, the tokens of the sequence and the key and value cache of every layer, laid
+ * out exactly as a contiguous cache of the same type for the whole context. Only the cached positions are written;
+ * the rest of each cache is left as a hole of the file. A contiguous F16 or Q8_0 cache is restored by mapping the
+ * file privately (copy-on-write): nothing is read until attention touches it, pages are loaded from disk on first
+ * access, and later writes stay in memory. F32 caches live on the heap and paged caches in their pool, so both are
+ * copied from the mapping instead.</p>
+ *
+ * <p>The restored state starts at {@link Llama.State#shiftedTokens} 0: the stored tokens are those of the cached
+ * positions, in cache order.</p>
+ */
+public final class SessionFile {
+    private static final int MAGIC = 0x5345534c; // "LSES" in file order
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 36;
+    private static final long ALIGNMENT = 4096;
+
+    private SessionFile() {
+    }
+
+    /**
+     * Tokens of a restored session.
+     *
+     * @param tokens tokens of the sequence; the first {@code positions} of them are in the KV cache
+     * @param positions number of restored KV cache positions, the position to continue from
+     */
+    public record Session(List<Integer> tokens, int positions) {
+    }
+
+    /**
+     * Writes the first positions of a state's KV cache and the tokens of the sequence to a file. The file is
+     * written next to the target and moved over it, so a state still mapped from an earlier version of the file
+     * keeps its contents.
+     *
+     * @param state state holding the KV cache of the tokens from position 0
+     * @param tokens tokens of the sequence, at least {@code positions}; tokens after them have not been forwarded
+     *               yet, such as the last sampled token
+     * @param positions number of KV cache positions to save
+     * @param path session file
+     * @throws IOException when the file cannot be written
+     */
+    public static void save(Llama.State state, List<Integer> tokens, int positions, Path path) throws IOException {
+        Llama.Configuration config = state.configuration();
+        if (positions < 0 || positions > tokens.size() || positions > config.contextLength) {
+            throw new IllegalArgumentException("Cannot save " + positions + " positions of " + tokens.size()
+                    + " tokens in a context of " + config.contextLength);
+        }
+        int kvDim = kvDim(config);
+        Layout layout = new Layout(state.kvCacheType, config.numberOfLayers, kvDim, config.contextLength,
+                tokens.size());
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + Integer.BYTES * tokens.size())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(state.kvCacheType.ordinal()).putInt(config.numberOfLayers)
+                .putInt(kvDim).putInt(config.contextLength).putInt(positions).putInt(tokens.size())
+                .putInt(state.latestToken);
+        for (int token : tokens) {
+            header.putInt(token);
+        }
+        header.flip();
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             Arena arena = Arena.ofConfined()) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            // Mapping read-write extends the file to its full size without writing the holes.
+            MemorySegment data = channel.map(FileChannel.MapMode.READ_WRITE, layout.dataOffset, layout.dataBytes(),
+                    arena);
+            int size = positions * kvDim;
+            for (int l = 0; l < config.numberOfLayers; l++) {
+                write(state.keyCache[l], data.asSlice(layout.offset(l, 0), layout.stride), layout, size);
+                write(state.valueCache[l], data.asSlice(layout.offset(l, 1), layout.stride), layout, size);
+            }
+            data.force();
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores a session into a fresh state of the same model and KV cache type.
+     *
+     * @param state state to restore into, positioned at 0
+     * @param path session file
+     * @return tokens of the session and the number of restored positions
+     * @throws IOException when the file cannot be read
+     */
+    public static Session restore(Llama.State state, Path path) throws IOException {
+        Llama.Configuration config = state.configuration();
+        int kvDim = kvDim(config);
+        // Private mappings need a channel open for writing, although the file itself is never written.
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = read(channel, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IllegalArgumentException("Not a session file: " + path);
+            }
+            GGMLType type = GGMLType.fromId(header.getInt());
+            int numberOfLayers = header.getInt();
+            int fileKvDim = header.getInt();
+            int contextLength = header.getInt();
+            int positions = header.getInt();
+            int tokenCount = header.getInt();
+            int latestToken = header.getInt();
+            if (type != state.kvCacheType || numberOfLayers != config.numberOfLayers || fileKvDim != kvDim) {
+                throw new IllegalArgumentException("Session " + path + " holds a " + type + " KV cache of "
+                        + numberOfLayers + " layers of " + fileKvDim + " values, the state a " + state.kvCacheType
+                        + " KV cache of " + config.numberOfLayers + " layers of " + kvDim + " values");
+            }
+            if (positions > config.contextLength) {
+                throw new IllegalArgumentException("Session of " + positions + " positions does not fit a context of "
+                        + config.contextLength);
+            }
+            ByteBuffer tokenBuffer = read(channel, HEADER_BYTES, Integer.BYTES * tokenCount);
+            List<Integer> tokens = new ArrayList<>(tokenCount);
+            for (int i = 0; i < tokenCount; i++) {
+                tokens.add(tokenBuffer.getInt());
+            }
+
+            Layout layout = new Layout(type, numberOfLayers, kvDim, contextLength, tokenCount);
+            int size = positions * kvDim;
+            if (state.blockTable == null && state.tieredCache == null && type != GGMLType.F32
+                    && contextLength == config.contextLength) {
+                MemorySegment data = channel.map(FileChannel.MapMode.PRIVATE, layout.dataOffset, layout.dataBytes(),
+                        Arena.ofAuto());
+                int capacity = contextLength * kvDim;
+                for (int l = 0; l < numberOfLayers; l++) {
+                    state.keyCache[l] = Llama.wrapCache(type, capacity, data.asSlice(layout.offset(l, 0),
+                            layout.stride));
+                    state.valueCache[l] = Llama.wrapCache(type, capacity, data.asSlice(layout.offset(l, 1),
+                            layout.stride));
+                }
+            } else {
+                state.prepareWrite(0, positions);
+                try (Arena arena = Arena.ofConfined()) {
+                    MemorySegment data = channel.map(FileChannel.MapMode.READ_ONLY, layout.dataOffset,
+                            layout.dataBytes(), arena);
+                    for (int l = 0; l < numberOfLayers; l++) {
+                        read(data.asSlice(layout.offset(l, 0), layout.stride), layout, state.keyCache[l], size);
+                        read(data.asSlice(layout.offset(l, 1), layout.stride), layout, state.valueCache[l], size);
+                    }
+                }
+            }
+            state.latestToken = latestToken;
+            state.shiftedTokens = 0;
+            return new Session(tokens, positions);
+        }
+    }
+
+    /**
+     * Writes the first values of a cache into its slice of the file.
+     *
+     * @param cache key or value cache of one layer
+     * @param slice mapped slice of the file
+     * @param layout file layout
+     * @param size number of values to write
+     */
+    private static void write(FloatTensor cache, MemorySegment slice, Layout layout, int size) {
+        cache.copyTo(0, Llama.wrapCache(layout.type, layout.capacity(), slice), 0, size);
+    }
+
+    /**
+     * Reads the first values of a cache from its slice of the file.
+     *
+     * @param slice mapped slice of the file
+     * @param layout file layout
+     * @param cache key or value cache of one layer
+     * @param size number of values to read
+     */
+    private static void read(MemorySegment slice, Layout layout, FloatTensor cache, int size) {
+        Llama.wrapCache(layout.type, layout.capacity(), slice).copyTo(0, cache, 0, size);
+    }
+
+    /**
+     * Reads a range of the file.
+     *
+     * @param channel file channel
+     * @param position file offset
+     * @param size number of bytes
+     * @return little-endian buffer positioned at its start
+     * @throws IOException when the file ends early
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated session file");
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Returns the key/value dimension of a configuration.
+     *
+     * @param config model configuration
+     * @return values per position in each layer's cache
+     */
+    private static int kvDim(Llama.Configuration config) {
+        return (config.dim * config.numberOfKeyValueHeads) / config.numberOfHeads;
+    }
+
+    /**
+     * Offsets of the caches in a session file. The caches start at a page boundary after the tokens, and each
+     * one starts at a multiple of 64 bytes, keys and values of each layer in turn.
+     *
+     * @param type element type of the caches
+     * @param numberOfLayers number of layers
+     * @param kvDim values per position
+     * @param contextLength positions per cache
+     * @param dataOffset file offset of the first cache
+     * @param stride bytes per cache
+     */
+    private record Layout(GGMLType type, int numberOfLayers, int kvDim, int contextLength, long dataOffset,
+                          long stride) {
+        /**
+         * Computes the layout of a file.
+         *
+         * @param type element type of the caches
+         * @param numberOfLayers number of layers
+         * @param kvDim values per position
+         * @param contextLength positions per cache
+         * @param tokenCount number of stored tokens
+         */
+        Layout(GGMLType type, int numberOfLayers, int kvDim, int contextLength, int tokenCount) {
+            this(type, numberOfLayers, kvDim, contextLength,
+                    align(HEADER_BYTES + (long) Integer.BYTES * tokenCount, ALIGNMENT),
+                    align(type.byteSizeFor(contextLength * kvDim), 64));
+        }
+
+        /**
+         * Returns the number of values per cache.
+         *
+         * @return values per cache
+         */
+        int capacity() {
+            return contextLength * kvDim;
+        }
+
+        /**
+         * Returns the size of the caches of every layer.
+         *
+         * @return bytes after {@link #dataOffset}
+         */
+        long dataBytes() {
+            return 2L * numberOfLayers * stride;
+        }
+
+        /**
+         * Returns the offset of one cache relative to {@link #dataOffset}.
+         *
+         * @param layer layer index
+         * @param value 0 for the keys, 1 for the values
+         * @return byte offset
+         */
+        long offset(int layer, int value) {
+            return (2L * layer + value) * stride;
+        }
+
+        /**
+         * Rounds up to a multiple of an alignment.
+         *
+         * @param value value to round
+         * @param alignment power of two
+         * @return aligned value
+         */
+        private static long align(long value, long alignment) {
+            return (value + alignment - 1) & -alignment;
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.llama4j.model;
+
+import com.llama4j.tensor.ArrayFloatTensor;
+import com.llama4j.tensor.FloatTensor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.random.RandomGenerator;
+
+/**
+ * Speculative decoding: a small draft model proposes a few tokens, and the target model scores all of them in
+ * one batched forward pass.
+ *
+ * <p>Each proposed token {@code d} is accepted with probability {@code min(1, p(d) / q(d))}, where {@code p} and
+ * {@code q} are the target and draft distributions at that position. The first rejected token is replaced by a
+ * sample of the normalized residual {@code max(0, p - q)}, and when every proposal is accepted the target
+ * distribution after the last one yields a bonus token. The generated tokens therefore follow the target
+ * distribution exactly, with temperature and top-p applied to both models alike, while each target pass yields
+ * between one and {@code draftTokens + 1} tokens.</p>
+ *
+ * <p>Proposals may also come from a {@link PromptLookup} instead of a draft model. They are then treated as
+ * drawn from a one-hot draft distribution, so a proposal is accepted with probability {@code p(d)} and a
+ * rejection is replaced by a sample of {@code p} without {@code d}; the output still follows the target
+ * distribution.</p>
+ *
+ * <p>Rejected positions need no explicit KV rollback: the caches are only read up to the current position, so
+ * the entries written for rejected proposals are overwritten by the next pass.</p>
+ */
+public final class SpeculativeDecoder {
+    /**
+     * Default number of tokens proposed per target pass, set with {@code -Dllama.DraftTokens}.
+     */
+    public static final int DRAFT_TOKENS = Integer.getInteger("llama.DraftTokens", 4);
+
+    private final Llama target;
+    private final Llama draft;
+    private final int draftTokens;
+    private final float temperature;
+    private final float topp;
+    private final RandomGenerator rng;
+    private final int vocabularySize;
+    private final float[][] draftProbabilities;
+    private final float[] targetProbabilities;
+    private final long[] nucleus;
+    private long draftedTokens;
+    private long acceptedTokens;
+
+    /**
+     * Creates a speculative decoder.
+     *
+     * @param target model whose distribution is sampled
+     * @param draft smaller model with the same vocabulary that proposes tokens, or null to only generate with a
+     *              {@link PromptLookup}
+     * @param draftTokens number of tokens proposed per target pass
+     * @param temperature sampling temperature, 0 for greedy decoding
+     * @param topp top-p threshold, ignored unless within (0, 1)
+     * @param rng random number generator, may be null for greedy decoding
+     */
+    public SpeculativeDecoder(Llama target, Llama draft, int draftTokens, float temperature, float topp,
+                              RandomGenerator rng) {
+        if (draft != null && target.configuration().vocabularySize != draft.configuration().vocabularySize) {
+            throw new IllegalArgumentException("Draft model vocabulary size " + draft.configuration().vocabularySize
+                    + " does not match the target's " + target.configuration().vocabularySize);
+        }
+        if (draftTokens <= 0) {
+            throw new IllegalArgumentException("draftTokens must be positive: " + draftTokens);
+        }
+        if (temperature < 0 || (temperature > 0 && rng == null)) {
+            throw new IllegalArgumentException("Sampling at temperature " + temperature + " needs a random generator");
+        }
+        this.target = target;
+        this.draft = draft;
+        this.draftTokens = draftTokens;
+        this.temperature = temperature;
+        this.topp = topp;
+        this.rng = rng;
+        this.vocabularySize = target.configuration().vocabularySize;
+        this.draftProbabilities = new float[draftTokens][vocabularySize];
+        this.targetProbabilities = new float[vocabularySize];
+        this.nucleus = new long[vocabularySize];
+    }
+
+    /**
+     * Returns the number of tokens proposed per target pass.
+     *
+     * @return draft length
+     */
+    public int draftTokens() {
+        return draftTokens;
+    }
+
+    /**
+     * Returns the number of tokens proposed so far.
+     *
+     * @return drafted token count
+     */
+    public long draftedTokens() {
+        return draftedTokens;
+    }
+
+    /**
+     * Returns the number of proposed tokens the target accepted so far.
+     *
+     * @return accepted token count
+     */
+    public long acceptedTokens() {
+        return acceptedTokens;
+    }
+
+    /**
+     * Generates tokens for a prompt. Both states must hold the same {@code startPosition} positions; on return
+     * both hold every token but the last generated one, which is left in {@link Llama.State#latestToken} as
+     * {@link Llama#generateTokens} does.
+     *
+     * @param targetState state of the target model, with a batch size above {@link #draftTokens()}
+     * @param draftState state of the draft model
+     * @param startPosition starting position in context
+     * @param promptTokens prompt tokens to ingest
+     * @param stopTokens stop token set
+     * @param maxTokens maximum context position, the context length when negative
+     * @param onTokenGenerated callback invoked for each generated token, or null
+     * @return list of generated tokens (including stop token if present)
+     */
+    public List<Integer> generateTokens(Llama.State targetState, Llama.State draftState, int startPosition,
+                                        List<Integer> promptTokens, Set<Integer> stopTokens, int maxTokens,
+                                        IntConsumer onTokenGenerated) {
+        if (draft == null) {
+            throw new IllegalStateException("Decoder was created without a draft model");
+        }
+        return generateTokens(targetState, draftState, null, List.of(), startPosition, promptTokens, stopTokens,
+                maxTokens, onTokenGenerated);
+    }
+
+    /**
+     * Generates tokens for a prompt with proposals from a lookup instead of the draft model. On return the state
+     * holds every token but the last generated one, which is left in {@link Llama.State#latestToken}.
+     *
+     * @param targetState state of the target model, with a batch size above {@link #draftTokens()}
+     * @param lookup source of proposals, matched against the prompt and generated tokens of this call
+     * @param startPosition starting position in context
+     * @param promptTokens prompt tokens to ingest
+     * @param stopTokens stop token set
+     * @param maxTokens maximum context position, the context length when negative
+     * @param onTokenGenerated callback invoked for each generated token, or null
+     * @return list of generated tokens (including stop token if present)
+     */
+    public List<Integer> generateTokens(Llama.State targetState, PromptLookup lookup, int startPosition,
+                                        List<Integer> promptTokens, Set<Integer> stopTokens, int maxTokens,
+                                        IntConsumer onTokenGenerated) {
+        return generateTokens(targetState, lookup, List.of(), startPosition, promptTokens, stopTokens, maxTokens,
+                onTokenGenerated);
+    }
+
+    /**
+     * Generates tokens for a prompt that continues the tokens already in the state, e.g. the earlier turns of a
+     * chat or a restored prefix, with proposals from a lookup that also matches against those tokens.
+     *
+     * @param targetState state of the target model, with a batch size above {@link #draftTokens()}
+     * @param lookup source of proposals, matched against the context, prompt and generated tokens
+     * @param contextTokens tokens before the prompt, already in the state
+     * @param startPosition starting position in context
+     * @param promptTokens prompt tokens to ingest
+     * @param stopTokens stop token set
+     * @param maxTokens maximum context position, the context length when negative
+     * @param onTokenGenerated callback invoked for each generated token, or null
+     * @return list of generated tokens (including stop token if present)
+     */
+    public List<Integer> generateTokens(Llama.State targetState, PromptLookup lookup, List<Integer> contextTokens,
+                                        int startPosition, List<Integer> promptTokens, Set<Integer> stopTokens,
+                                        int maxTokens, IntConsumer onTokenGenerated) {
+        return generateTokens(targetState, null, lookup, contextTokens, startPosition, promptTokens, stopTokens,
+                maxTokens, onTokenGenerated);
+    }
+
+    /**
+     * Runs speculative generation with proposals from the draft model, or from the lookup when it is not null.
+     *
+     * @param targetState state of the target model
+     * @param draftState state of the draft model, unused with a lookup
+     * @param lookup source of proposals, or null to use the draft model
+     * @param contextTokens tokens before the prompt that the lookup matches against
+     * @param startPosition starting position in context
+     * @param promptTokens prompt tokens to ingest
+     * @param stopTokens stop token set
+     * @param maxTokens maximum context position, the context length when negative
+     * @param onTokenGenerated callback invoked for each generated token, or null
+     * @return list of generated tokens (including stop token if present)
+     */
+    private List<Integer> generateTokens(Llama.State targetState, Llama.State draftState, PromptLookup lookup,
+                                         List<Integer> contextTokens, int startPosition, List<Integer> promptTokens,
+                                         Set<Integer> stopTokens, int maxTokens, IntConsumer onTokenGenerated) {
+        if (targetState.batchsize <= draftTokens) {
+            throw new IllegalArgumentException("Target batch size " + targetState.batchsize
+                    + " cannot verify " + draftTokens + " draft tokens");
+        }
+        long startNanos = System.nanoTime();
+        Llama proposer = lookup == null ? draft : null;
+        int contextLength = proposer == null ? target.configuration().contextLength
+                : Math.min(target.configuration().contextLength, proposer.configuration().contextLength);
+        if (maxTokens < 0 || contextLength < maxTokens) {
+            maxTokens = contextLength;
+        }
+        List<Integer> pending = promptTokens.isEmpty() ? List.of(targetState.latestToken) : promptTokens;
+        int position = startPosition + pending.size() - 1;
+        prefill(target, targetState, pending.subList(0, pending.size() - 1), startPosition);
+        if (proposer != null) {
+            prefill(proposer, draftState, pending.subList(0, pending.size() - 1), startPosition);
+        }
+
+        // Tokens the draft has not forwarded yet; the last one is the latest token at the current position.
+        List<Integer> draftPending = new ArrayList<>(List.of(pending.getLast()));
+        // Tokens the lookup matches against.
+        List<Integer> history = new ArrayList<>(contextTokens);
+        history.addAll(pending);
+        FloatTensor[] tokenLogits = new FloatTensor[targetState.batchsize];
+        for (int t = 0; t < tokenLogits.length; t++) {
+            tokenLogits[t] = ArrayFloatTensor.allocate(vocabularySize);
+        }
+        int[] proposed = new int[draftTokens + 1];
+        List<Integer> generatedTokens = new ArrayList<>();
+        long drafted = draftedTokens;
+        long accepted = acceptedTokens;
+        while (position < maxTokens) {
+            int k = Math.min(draftTokens, maxTokens - position - 1);
+            proposed[0] = draftPending.getLast();
+            if (proposer == null) {
+                k = k > 0 ? lookup.propose(history, k, proposed, 1) : 0;
+                for (int i = 0; i < k; i++) {
+                    Arrays.fill(draftProbabilities[i], 0f);
+                    draftProbabilities[i][proposed[i + 1]] = 1f;
+                }
+            } else {
+                if (k > 0) {
+                    prefill(proposer, draftState, draftPending.subList(0, draftPending.size() - 1),
+                            position - draftPending.size() + 1);
+                }
+                for (int i = 0; i < k; i++) {
+                    FloatTensor logits = Llama.forward(proposer, draftState, new int[]{proposed[i]}, position + i,
+                            true);
+                    probabilities(logits, draftProbabilities[i]);
+                    proposed[i + 1] = sample(draftProbabilities[i], 1f);
+                }
+            }
+
+            Llama.forward(target, targetState, Arrays.copyOf(proposed, k + 1), position, true, tokenLogits);
+            int acceptedCount = 0;
+            int next = -1;
+            for (int i = 0; i <= k; i++) {
+                probabilities(tokenLogits[i], targetProbabilities);
+                if (i == k) {
+                    next = sample(targetProbabilities, 1f);
+                } else if (accept(proposed[i + 1], targetProbabilities, draftProbabilities[i])) {
+                    acceptedCount++;
+                    continue;
+                } else {
+                    next = sampleResidual(targetProbabilities, draftProbabilities[i]);
+                }
+                break;
+            }
+            draftedTokens += k;
+            acceptedTokens += acceptedCount;
+
+            int emitted = 0;
+            boolean stop = false;
+            while (emitted <= acceptedCount && !stop) {
+                int token = emitted < acceptedCount ? proposed[emitted + 1] : next;
+                emitted++;
+                generatedTokens.add(token);
+                history.add(token);
+                if (onTokenGenerated != null) {
+                    onTokenGenerated.accept(token);
+                }
+                stop = stopTokens.contains(token);
+            }
+            int latest = generatedTokens.getLast();
+            // The draft forwarded the pending tokens and all proposals but the last one.
+            if (k == 0) {
+                draftPending.add(latest);
+            } else {
+                draftPending.clear();
+                if (emitted == k + 1) {
+                    draftPending.add(proposed[k]);
+                }
+                draftPending.add(latest);
+            }
+            position += emitted;
+            targetState.latestToken = latest;
+            if (stop) {
+                break;
+            }
+        }
+        if (proposer != null) {
+            prefill(proposer, draftState, draftPending.subList(0, draftPending.size() - 1),
+                    position - draftPending.size() + 1);
+            draftState.latestToken = targetState.latestToken;
+        }
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long draftedNow = draftedTokens - drafted;
+        System.err.printf("%ncontext: %d/%d draft acceptance: %.1f%% (%d/%d) generation: %.2f tokens/s (%d)%n",
+                position, contextLength, draftedNow == 0 ? 0.0 : 100.0 * (acceptedTokens - accepted) / draftedNow,
+                acceptedTokens - accepted, draftedNow,
+                generatedTokens.size() / (elapsedNanos / 1_000_000_000.0), generatedTokens.size());
+        return generatedTokens;
+    }
+
+    /**
+     * Forwards tokens into a state without computing logits, one batch at a time.
+     *
+     * @param model model instance
+     * @param state model state
+     * @param tokens tokens to forward
+     * @param position position of the first token
+     */
+    private static void prefill(Llama model, Llama.State state, List<Integer> tokens, int position) {
+        for (int i = 0; i < tokens.size(); i += state.batchsize) {
+            int[] batch = tokens.subList(i, Math.min(i + state.batchsize, tokens.size())).stream()
+                    .mapToInt(Integer::intValue).toArray();
+            Llama.forward(model, state, batch, position + i, false);
+        }
+    }
+
+    /**
+     * Turns logits into the sampling distribution: one-hot on the argmax for greedy decoding, otherwise the
+     * tempered softmax restricted to the top-p nucleus.
+     *
+     * @param logits logits, modified in place
+     * @param probabilities destination distribution
+     */
+    private void probabilities(FloatTensor logits, float[] probabilities) {
+        if (temperature == 0f) {
+            Arrays.fill(probabilities, 0f);
+            probabilities[logits.argmax(0, vocabularySize)] = 1f;
+            return;
+        }
+        logits.divideInPlace(0, vocabularySize, temperature);
+        logits.softmaxInPlace(0, vocabularySize);
+        logits.copyTo(0, new ArrayFloatTensor(probabilities), 0, vocabularySize);
+        if (0 < topp && topp < 1) {
+            restrictToNucleus(probabilities);
+        }
+    }
+
+    /**
+     * Zeroes every probability outside the smallest set of tokens whose cumulative probability exceeds
+     * {@code topp}, and renormalizes the rest. As in {@code ToppSampler}, tokens below
+     * {@code (1 - topp) / (n - 1)} cannot be part of the set and are not sorted.
+     *
+     * @param probabilities distribution, modified in place
+     */
+    private void restrictToNucleus(float[] probabilities) {
+        float cutoff = (1f - topp) / (vocabularySize - 1);
+        int candidates = 0;
+        for (int i = 0; i < vocabularySize; i++) {
+            if (probabilities[i] >= cutoff) {
+                // Non-negative floats order like their bits, so sorting the keys sorts by probability.
+                nucleus[candidates++] = (long) Float.floatToIntBits(probabilities[i]) << 32 | i;
+            }
+        }
+        Arrays.sort(nucleus, 0, candidates);
+        float cumulative = 0f;
+        int first = candidates - 1;
+        while (first > 0 && cumulative + probabilities[(int) nucleus[first]] <= topp) {
+            cumulative += probabilities[(int) nucleus[first]];
+            first--;
+        }
+        cumulative += probabilities[(int) nucleus[first]];
+        float[] kept = new float[candidates - first];
+        for (int i = first; i < candidates; i++) {
+            kept[i - first] = probabilities[(int) nucleus[i]];
+        }
+        Arrays.fill(probabilities, 0f);
+        for (int i = first; i < candidates; i++) {
+            probabilities[(int) nucleus[i]] = kept[i - first] / cumulative;
+        }
+    }
+
+    /**
+     * Decides whether the target accepts a proposed token: always when the target gives it at least the draft
+     * probability, otherwise with probability {@code p / q}.
+     *
+     * @param token proposed token
+     * @param target target distribution
+     * @param draft draft distribution the token was sampled from
+     * @return whether the token is accepted
+     */
+    private boolean accept(int token, float[] target, float[] draft) {
+        if (target[token] >= draft[token]) {
+            return true;
+        }
+        return temperature > 0f && rng.nextFloat() * draft[token] < target[token];
+    }
+
+    /**
+     * Samples the replacement of a rejected token from {@code max(0, p - q)}, normalized.
+     *
+     * @param target target distribution
+     * @param draft draft distribution, overwritten with the residual
+     * @return sampled token
+     */
+    private int sampleResidual(float[] target, float[] draft) {
+        float total = 0f;
+        for (int i = 0; i < vocabularySize; i++) {
+            draft[i] = Math.max(0f, target[i] - draft[i]);
+            total += draft[i];
+        }
+        return total > 0f ? sample(draft, total) : sample(target, 1f);
+    }
+
+    /**
+     * Samples a token from unnormalized weights, or takes the heaviest one for greedy decoding.
+     *
+     * @param weights token weights
+     * @param total sum of the weights
+     * @return sampled token
+     */
+    private int sample(float[] weights, float total) {
+        if (temperature == 0f) {
+            int best = 0;
+            for (int i = 1; i < vocabularySize; i++) {
+                if (weights[i] > weights[best]) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+        float threshold = rng.nextFloat(total);
+        float cdf = 0f;
+        int last = 0;
+        for (int i = 0; i < vocabularySize; i++) {
+            if (weights[i] > 0f) {
+                cdf += weights[i];
+                last = i;
+                if (threshold < cdf) {
+                    return i;
+                }
+            }
+        }
+        return last;
+    }
+}
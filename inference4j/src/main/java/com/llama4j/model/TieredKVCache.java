@@ -0,0 +1,290 @@
+package com.llama4j.model;
+
+import com.llama4j.gguf.GGMLType;
+import com.llama4j.tensor.FloatTensor;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * KV cache storage of one {@link Llama.State} that keeps the most recent blocks in RAM and spills older ones to a
+ * memory-mapped file, so a context whose cache exceeds memory pages in and out instead of failing to allocate.
+ *
+ * <p>Like {@link KVBlockPool}, the cache is split into blocks of {@link #blockTokens()} positions. The newest
+ * {@link #hotBlocks()} blocks live in RAM; when a new block is needed and the RAM window is full, the oldest RAM
+ * block is copied to its place in the spill file and its memory is reused. Spilled blocks stay mapped and are
+ * read by attention directly, the operating system keeping as many of their pages resident as memory allows.
+ * The file stores every layer's keys, then values, contiguously, and {@link #prefetch(int)} loads a layer's
+ * spilled blocks on a background thread while the previous layer is computed.</p>
+ *
+ * <p>The spill file is created sparse in the given directory and deleted by {@link #close()}, or as soon as it
+ * is open where the platform allows. Blocks are added by {@link #prepareWrite(int, int)} on the thread that runs
+ * the forward pass; reads may come from any thread.</p>
+ */
+public final class TieredKVCache implements AutoCloseable {
+    /**
+     * Default number of positions kept in RAM, set with {@code -Dllama.KVHotTokens}.
+     */
+    public static final int HOT_TOKENS = Integer.getInteger("llama.KVHotTokens", 4096);
+
+    private static final Executor PREFETCHER = Executors.newSingleThreadExecutor(
+            task -> Thread.ofPlatform().daemon().name("kv-prefetch").unstarted(task));
+
+    private final GGMLType type;
+    private final int blockTokens;
+    private final int numberOfLayers;
+    private final int kvDim;
+    private final int maxBlocks;
+    private final long blockBytes;
+    private final FloatTensor[][] hotKeys;
+    private final FloatTensor[][] hotValues;
+    private final FloatTensor[][] coldKeys;
+    private final FloatTensor[][] coldValues;
+    private final FileChannel channel;
+    private final Arena arena;
+    private final MemorySegment file;
+    private int blockCount;
+    private int coldBlocks;
+    private long prefetches;
+    private CompletableFuture<Void> pendingPrefetch = CompletableFuture.completedFuture(null);
+
+    /**
+     * Creates an empty cache with its spill file.
+     *
+     * @param config model configuration
+     * @param type element type of the cache: {@link GGMLType#F32}, {@link GGMLType#F16} or {@link GGMLType#Q8_0}
+     * @param blockTokens number of positions per block
+     * @param hotBlocks number of blocks kept in RAM
+     * @param directory directory of the spill file
+     * @throws IOException when the spill file cannot be created
+     */
+    public TieredKVCache(Llama.Configuration config, GGMLType type, int blockTokens, int hotBlocks, Path directory)
+            throws IOException {
+        if (blockTokens <= 0 || hotBlocks <= 0) {
+            throw new IllegalArgumentException("blockTokens=" + blockTokens + " hotBlocks=" + hotBlocks);
+        }
+        this.type = type;
+        this.blockTokens = blockTokens;
+        this.numberOfLayers = config.numberOfLayers;
+        this.kvDim = (config.dim * config.numberOfKeyValueHeads) / config.numberOfHeads;
+        this.maxBlocks = (config.contextLength + blockTokens - 1) / blockTokens;
+        // Cache-line aligned so that prefetching a layer never touches the blocks of its neighbours.
+        this.blockBytes = (type.byteSizeFor(blockTokens * kvDim) + 63) & ~63L;
+        int hot = Math.min(hotBlocks, maxBlocks);
+        this.hotKeys = new FloatTensor[hot][numberOfLayers];
+        this.hotValues = new FloatTensor[hot][numberOfLayers];
+        for (int slot = 0; slot < hot; slot++) {
+            for (int l = 0; l < numberOfLayers; l++) {
+                hotKeys[slot][l] = Llama.allocateCache(type, blockTokens, kvDim);
+                hotValues[slot][l] = Llama.allocateCache(type, blockTokens, kvDim);
+            }
+        }
+        this.coldKeys = new FloatTensor[maxBlocks][];
+        this.coldValues = new FloatTensor[maxBlocks][];
+        Path path = Files.createTempFile(directory, "kv-", ".spill");
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.SPARSE, StandardOpenOption.DELETE_ON_CLOSE);
+        this.arena = Arena.ofShared();
+        try {
+            this.file = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * numberOfLayers * maxBlocks * blockBytes,
+                    arena);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the element type of the cache.
+     *
+     * @return GGML type
+     */
+    public GGMLType type() {
+        return type;
+    }
+
+    /**
+     * Returns the number of positions per block.
+     *
+     * @return positions per block
+     */
+    public int blockTokens() {
+        return blockTokens;
+    }
+
+    /**
+     * Returns the number of blocks kept in RAM.
+     *
+     * @return RAM window in blocks
+     */
+    public int hotBlocks() {
+        return hotKeys.length;
+    }
+
+    /**
+     * Returns the number of blocks holding positions, in RAM or spilled.
+     *
+     * @return block count
+     */
+    public int blockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Returns the number of blocks spilled to the file.
+     *
+     * @return spilled block count
+     */
+    public int spilledBlocks() {
+        return coldBlocks;
+    }
+
+    /**
+     * Returns the number of layer prefetches started.
+     *
+     * @return prefetch count
+     */
+    public synchronized long prefetches() {
+        return prefetches;
+    }
+
+    /**
+     * Checks that a configuration has the layer count and key/value dimension of this cache.
+     *
+     * @param config model configuration
+     * @param kvDim key/value dimension of the configuration
+     * @return whether a state of the configuration can use this cache
+     */
+    boolean fits(Llama.Configuration config, int kvDim) {
+        return config.numberOfLayers == numberOfLayers && kvDim == this.kvDim
+                && (config.contextLength + blockTokens - 1) / blockTokens == maxBlocks;
+    }
+
+    /**
+     * Adds the blocks up to the end of a range of positions, spilling the oldest RAM blocks to make room. Positions
+     * of spilled blocks stay writable in the file.
+     *
+     * @param from first position to be written
+     * @param to end of the positions to be written (exclusive)
+     */
+    public void prepareWrite(int from, int to) {
+        int needed = (to + blockTokens - 1) / blockTokens;
+        if (needed > maxBlocks) {
+            throw new IllegalArgumentException("Position " + to + " beyond the context of " + maxBlocks * blockTokens);
+        }
+        while (blockCount < needed) {
+            if (blockCount - coldBlocks == hotKeys.length) {
+                spill();
+            }
+            blockCount++;
+        }
+    }
+
+    /**
+     * Returns the keys of a block.
+     *
+     * @param block block index, the position divided by the block size
+     * @param layer layer index
+     * @return key tensor of {@code blockTokens * kvDim} values
+     */
+    FloatTensor keys(int block, int layer) {
+        assert block < blockCount : "position not reserved";
+        return block < coldBlocks ? coldKeys[block][layer] : hotKeys[block % hotKeys.length][layer];
+    }
+
+    /**
+     * Returns the values of a block.
+     *
+     * @param block block index, the position divided by the block size
+     * @param layer layer index
+     * @return value tensor of {@code blockTokens * kvDim} values
+     */
+    FloatTensor values(int block, int layer) {
+        assert block < blockCount : "position not reserved";
+        return block < coldBlocks ? coldValues[block][layer] : hotValues[block % hotKeys.length][layer];
+    }
+
+    /**
+     * Starts loading the spilled keys and values of a layer into memory, unless there are none or an earlier
+     * prefetch is still running.
+     *
+     * @param layer layer index
+     */
+    public synchronized void prefetch(int layer) {
+        int spilled = coldBlocks;
+        if (spilled == 0 || !pendingPrefetch.isDone()) {
+            return;
+        }
+        MemorySegment keys = file.asSlice(offset(layer, 0, 0), spilled * blockBytes);
+        MemorySegment values = file.asSlice(offset(layer, 1, 0), spilled * blockBytes);
+        pendingPrefetch = CompletableFuture.runAsync(() -> {
+            keys.load();
+            values.load();
+        }, PREFETCHER);
+        prefetches++;
+    }
+
+    /**
+     * Waits for a running prefetch, then unmaps and deletes the spill file. The cache must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        CompletableFuture<Void> pending;
+        synchronized (this) {
+            pending = pendingPrefetch;
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // A failed prefetch only loses its read-ahead.
+        }
+        arena.close();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot delete the KV spill file", e);
+        }
+    }
+
+    /**
+     * Copies the oldest RAM block to the file and frees its slot for the next block.
+     */
+    private void spill() {
+        int block = coldBlocks;
+        int slot = block % hotKeys.length;
+        int size = blockTokens * kvDim;
+        coldKeys[block] = new FloatTensor[numberOfLayers];
+        coldValues[block] = new FloatTensor[numberOfLayers];
+        for (int l = 0; l < numberOfLayers; l++) {
+            coldKeys[block][l] = Llama.wrapCache(type, size, file.asSlice(offset(l, 0, block), blockBytes));
+            coldValues[block][l] = Llama.wrapCache(type, size, file.asSlice(offset(l, 1, block), blockBytes));
+            hotKeys[slot][l].copyTo(0, coldKeys[block][l], 0, size);
+            hotValues[slot][l].copyTo(0, coldValues[block][l], 0, size);
+        }
+        coldBlocks++;
+    }
+
+    /**
+     * Returns the file offset of a block.
+     *
+     * @param layer layer index
+     * @param kv 0 for keys, 1 for values
+     * @param block block index
+     * @return byte offset in the spill file
+     */
+    private long offset(int layer, int kv, int block) {
+        return ((2L * layer + kv) * maxBlocks + block) * blockBytes;
+    }
+}
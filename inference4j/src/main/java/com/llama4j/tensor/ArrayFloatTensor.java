@@ -3,14 +3,26 @@ package com.llama4j.tensor;
 import com.llama4j.gguf.GGMLType;
 
 import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
 import jdk.incubator.vector.VectorSpecies;
 
 import java.util.Arrays;
 
 /**
  * Dense float tensor backed by a Java array.
+ *
+ * <p>With the Vector API enabled, the arithmetic used by attention and normalization runs directly on the
+ * backing arrays instead of the per-element defaults of {@link FloatTensor}.</p>
  */
 public final class ArrayFloatTensor extends FloatTensor {
+    /**
+     * Swaps the two elements of every pair of lanes, for {@link #ropeInPlace}.
+     */
+    private static final VectorShuffle<Float> PAIR_SWAP = USE_VECTOR_API
+            ? VectorShuffle.fromOp(F_SPECIES, i -> i ^ 1)
+            : null;
+
     private final float[] values;
 
     /**
@@ -75,6 +87,19 @@ public final class ArrayFloatTensor extends FloatTensor {
         return GGMLType.F32;
     }
 
+    /**
+     * Copies a slice of the backing array.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     */
+    @Override
+    void dequantize(int thisOffset, float[] out, int outOffset, int size) {
+        System.arraycopy(values, thisOffset, out, outOffset, size);
+    }
+
     /**
      * Fills a slice with a constant value.
      *
@@ -103,4 +128,342 @@ public final class ArrayFloatTensor extends FloatTensor {
         }
         return FloatVector.fromArray(species, values, index);
     }
+
+    /**
+     * Computes a dot product, vectorized when both operands are dense.
+     *
+     * <p>Against any other tensor type the call is mirrored onto that tensor, whose kernels expect a dense
+     * operand.</p>
+     *
+     * @param thisOffset offset in this tensor
+     * @param that other tensor
+     * @param thatOffset offset in other tensor
+     * @param size number of elements
+     * @return dot product
+     */
+    @Override
+    public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
+        if (!USE_VECTOR_API) {
+            return super.dot(thisOffset, that, thatOffset, size);
+        }
+        if (!(that instanceof ArrayFloatTensor other)) {
+            return that.dot(thatOffset, this, thisOffset, size);
+        }
+        FloatVector acc = FloatVector.zero(F_SPECIES);
+        int upperBound = F_SPECIES.loopBound(size);
+        int i = 0;
+        for (; i < upperBound; i += F_SPECIES.length()) {
+            acc = FloatVector.fromArray(F_SPECIES, values, thisOffset + i)
+                    .fma(FloatVector.fromArray(F_SPECIES, other.values, thatOffset + i), acc);
+        }
+        float result = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < size; i++) {
+            result += values[thisOffset + i] * other.values[thatOffset + i];
+        }
+        return result;
+    }
+
+    /**
+     * Adds a scaled tensor to this tensor.
+     *
+     * <p>A source of any other tensor type adds itself into the backing array, so attention over a
+     * reduced-precision KV cache converts each value once on load.</p>
+     *
+     * @param thisOffset offset in this tensor
+     * @param that source tensor
+     * @param thatOffset offset in source tensor
+     * @param size number of elements
+     * @param alpha scaling factor
+     * @return this tensor
+     */
+    @Override
+    public FloatTensor saxpyInPlace(int thisOffset, FloatTensor that, int thatOffset, int size, float alpha) {
+        if (!USE_VECTOR_API) {
+            return super.saxpyInPlace(thisOffset, that, thatOffset, size, alpha);
+        }
+        if (!(that instanceof ArrayFloatTensor other)) {
+            that.saxpyInto(thatOffset, values, thisOffset, size, alpha);
+            return this;
+        }
+        FloatVector scale = FloatVector.broadcast(F_SPECIES, alpha);
+        int upperBound = F_SPECIES.loopBound(size);
+        int i = 0;
+        for (; i < upperBound; i += F_SPECIES.length()) {
+            FloatVector.fromArray(F_SPECIES, other.values, thatOffset + i)
+                    .fma(scale, FloatVector.fromArray(F_SPECIES, values, thisOffset + i))
+                    .intoArray(values, thisOffset + i);
+        }
+        for (; i < size; i++) {
+            values[thisOffset + i] += alpha * other.values[thatOffset + i];
+        }
+        return this;
+    }
+
+    /**
+     * Adds a scaled slice of this tensor into a float array.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     * @param alpha scaling factor
+     */
+    @Override
+    void saxpyInto(int thisOffset, float[] out, int outOffset, int size, float alpha) {
+        if (!USE_VECTOR_API) {
+            super.saxpyInto(thisOffset, out, outOffset, size, alpha);
+            return;
+        }
+        FloatVector scale = FloatVector.broadcast(F_SPECIES, alpha);
+        int upperBound = F_SPECIES.loopBound(size);
+        int i = 0;
+        for (; i < upperBound; i += F_SPECIES.length()) {
+            FloatVector.fromArray(F_SPECIES, values, thisOffset + i)
+                    .fma(scale, FloatVector.fromArray(F_SPECIES, out, outOffset + i))
+                    .intoArray(out, outOffset + i);
+        }
+        for (; i < size; i++) {
+            out[outOffset + i] += alpha * values[thisOffset + i];
+        }
+    }
+
+    /**
+     * Adds another tensor into this tensor in place using offsets.
+     *
+     * @param thisOffset offset in this tensor
+     * @param that other tensor
+     * @param thatOffset offset in other tensor
+     * @param size number of elements
+     * @return this tensor
+     */
+    @Override
+    public FloatTensor addInPlace(int thisOffset, FloatTensor that, int thatOffset, int size) {
+        if (!USE_VECTOR_API || !(that instanceof ArrayFloatTensor other)) {
+            return super.addInPlace(thisOffset, that, thatOffset, size);
+        }
+        int upperBound = F_SPECIES.loopBound(size);
+        int i = 0;
+        for (; i < upperBound; i += F_SPECIES.length()) {
+            FloatVector.fromArray(F_SPECIES, values, thisOffset + i)
+                    .add(FloatVector.fromArray(F_SPECIES, other.values, thatOffset + i))
+                    .intoArray(values, thisOffset + i);
+        }
+        for (; i < size; i++) {
+            values[thisOffset + i] += other.values[thatOffset + i];
+        }
+        return this;
+    }
+
+    /**
+     * Multiplies a slice of this tensor by another tensor using offsets.
+     *
+     * @param thisOffset offset in this tensor
+     * @param that other tensor
+     * @param thatOffset offset in other tensor
+     * @param size number of elements
+     * @return this tensor
+     */
+    @Override
+    public FloatTensor multiplyInPlace(int thisOffset, FloatTensor that, int thatOffset, int size) {
+        if (!USE_VECTOR_API || !(that instanceof ArrayFloatTensor other)) {
+            return super.multiplyInPlace(thisOffset, that, thatOffset, size);
+        }
+        int upperBound = F_SPECIES.loopBound(size);
+        int i = 0;
+        for (; i < upperBound; i += F_SPECIES.length()) {
+            FloatVector.fromArray(F_SPECIES, values, thisOffset + i)
+                    .mul(FloatVector.fromArray(F_SPECIES, other.values, thatOffset + i))
+                    .intoArray(values, thisOffset + i);
+        }
+        for (; i < size; i++) {
+            values[thisOffset + i] *= other.values[thatOffset + i];
+        }
+        return this;
+    }
+
+    /**
+     * Divides each element by a scalar.
+     *
+     * @param thisOffset offset in this tensor
+     * @param size number of elements
+     * @param scalar scalar divisor
+     * @return this tensor
+     */
+    @Override
+    public FloatTensor divideInPlace(int thisOffset, int size, float scalar) {
+        if (!USE_VECTOR_API) {
+            return super.divideInPlace(thisOffset, size, scalar);
+        }
+        int upperBound = F_SPECIES.loopBound(size);
+        int i = 0;
+        for (; i < upperBound; i += F_SPECIES.length()) {
+            FloatVector.fromArray(F_SPECIES, values, thisOffset + i).div(scalar).intoArray(values, thisOffset + i);
+        }
+        for (; i < size; i++) {
+            values[thisOffset + i] /= scalar;
+        }
+        return this;
+    }
+
+    /**
+     * Sums a slice of the tensor.
+     *
+     * @param thisOffset offset in this tensor
+     * @param size number of elements
+     * @return sum of values
+     */
+    @Override
+    public float sum(int thisOffset, int size) {
+        if (!USE_VECTOR_API) {
+            return super.sum(thisOffset, size);
+        }
+        FloatVector acc = FloatVector.zero(F_SPECIES);
+        int upperBound = F_SPECIES.loopBound(size);
+        int i = 0;
+        for (; i < upperBound; i += F_SPECIES.length()) {
+            acc = acc.add(FloatVector.fromArray(F_SPECIES, values, thisOffset + i));
+        }
+        float result = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < size; i++) {
+            result += values[thisOffset + i];
+        }
+        return result;
+    }
+
+    /**
+     * Finds max value in a slice of the tensor.
+     *
+     * @param thisOffset offset in this tensor
+     * @param size number of elements
+     * @return maximum value
+     */
+    @Override
+    public float max(int thisOffset, int size) {
+        if (!USE_VECTOR_API) {
+            return super.max(thisOffset, size);
+        }
+        FloatVector acc = FloatVector.broadcast(F_SPECIES, Float.NEGATIVE_INFINITY);
+        int upperBound = F_SPECIES.loopBound(size);
+        int i = 0;
+        for (; i < upperBound; i += F_SPECIES.length()) {
+            acc = acc.max(FloatVector.fromArray(F_SPECIES, values, thisOffset + i));
+        }
+        float result = acc.reduceLanes(VectorOperators.MAX);
+        for (; i < size; i++) {
+            result = Math.max(result, values[thisOffset + i]);
+        }
+        return result;
+    }
+
+    /**
+     * Computes a softmax in place.
+     *
+     * <p>The exponentials are stored and summed in one pass, and the normalization is a multiply by the
+     * reciprocal of the sum.</p>
+     *
+     * @param thisOffset offset in this tensor
+     * @param size number of elements
+     * @return this tensor
+     */
+    @Override
+    public FloatTensor softmaxInPlace(int thisOffset, int size) {
+        if (!USE_VECTOR_API) {
+            return super.softmaxInPlace(thisOffset, size);
+        }
+        float max = max(thisOffset, size);
+        FloatVector maxVector = FloatVector.broadcast(F_SPECIES, max);
+        FloatVector acc = FloatVector.zero(F_SPECIES);
+        int upperBound = F_SPECIES.loopBound(size);
+        int i = 0;
+        for (; i < upperBound; i += F_SPECIES.length()) {
+            FloatVector exp = FloatVector.fromArray(F_SPECIES, values, thisOffset + i)
+                    .sub(maxVector)
+                    .lanewise(VectorOperators.EXP);
+            exp.intoArray(values, thisOffset + i);
+            acc = acc.add(exp);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < size; i++) {
+            float exp = (float) Math.exp(values[thisOffset + i] - max);
+            values[thisOffset + i] = exp;
+            sum += exp;
+        }
+        float inverseSum = 1f / sum;
+        upperBound = F_SPECIES.loopBound(size);
+        i = 0;
+        for (; i < upperBound; i += F_SPECIES.length()) {
+            FloatVector.fromArray(F_SPECIES, values, thisOffset + i).mul(inverseSum).intoArray(values, thisOffset + i);
+        }
+        for (; i < size; i++) {
+            values[thisOffset + i] *= inverseSum;
+        }
+        return this;
+    }
+
+    /**
+     * Applies rotary position embedding in place, a whole vector of interleaved pairs at a time: the vector is
+     * multiplied by the cosines and added to its pair-swapped copy times the signed sines.
+     *
+     * @param thisOffset offset in this tensor
+     * @param size number of elements, a multiple of {@code headSize}
+     * @param headSize head dimension
+     * @param cos cosines in the interleaved layout, {@code headSize} values
+     * @param sin signed sines in the interleaved layout, {@code headSize} values
+     * @return this tensor
+     */
+    @Override
+    public FloatTensor ropeInPlace(int thisOffset, int size, int headSize, float[] cos, float[] sin) {
+        if (!USE_VECTOR_API) {
+            return super.ropeInPlace(thisOffset, size, headSize, cos, sin);
+        }
+        int upperBound = F_SPECIES.loopBound(headSize);
+        for (int h = thisOffset; h < thisOffset + size; h += headSize) {
+            int i = 0;
+            for (; i < upperBound; i += F_SPECIES.length()) {
+                FloatVector v = FloatVector.fromArray(F_SPECIES, values, h + i);
+                FloatVector rotated = v.rearrange(PAIR_SWAP)
+                        .fma(FloatVector.fromArray(F_SPECIES, sin, i),
+                                v.mul(FloatVector.fromArray(F_SPECIES, cos, i)));
+                rotated.intoArray(values, h + i);
+            }
+            for (; i < headSize; i += 2) {
+                float v0 = values[h + i];
+                float v1 = values[h + i + 1];
+                values[h + i] = v0 * cos[i] + v1 * sin[i];
+                values[h + i + 1] = v1 * cos[i + 1] + v0 * sin[i + 1];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Copies values from a float array into the backing array.
+     *
+     * @param thisOffset offset in this tensor
+     * @param in source array
+     * @param inOffset offset in the source array
+     * @param size number of elements
+     */
+    @Override
+    void copyFrom(int thisOffset, float[] in, int inOffset, int size) {
+        System.arraycopy(in, inOffset, values, thisOffset, size);
+    }
+
+    /**
+     * Copies values into another tensor. Any other tensor type stores the backing array itself, converting or
+     * quantizing as it goes.
+     *
+     * @param thisOffset offset in this tensor
+     * @param that destination tensor
+     * @param thatOffset offset in destination tensor
+     * @param size number of elements
+     */
+    @Override
+    public void copyTo(int thisOffset, FloatTensor that, int thatOffset, int size) {
+        if (that instanceof ArrayFloatTensor other) {
+            System.arraycopy(values, thisOffset, other.values, thatOffset, size);
+        } else {
+            that.copyFrom(thatOffset, values, thisOffset, size);
+        }
+    }
 }
@@ -0,0 +1,435 @@
+package com.llama4j.tensor;
+
+import com.llama4j.util.Parallel;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+
+import java.util.Arrays;
+
+/**
+ * Causal self-attention over a KV cache, computed with an online softmax.
+ *
+ * <p>Keys and values are streamed in tiles of {@link #TILE} positions. Every query keeps a running maximum and
+ * sum of its exponentiated scores and rescales its partial output whenever the maximum grows, so scores never
+ * leave a tile-sized scratch buffer. Each tile is used by a block of up to {@link #QUERY_BLOCK} queries while it is
+ * still in cache, instead of being swept three times per query for scores, softmax and the weighted sum.</p>
+ *
+ * <p>Query heads that share a key/value head (grouped-query attention) are attended together, so the cache is
+ * streamed once per key/value head. Work is split across those groups and query blocks. When that leaves threads idle on a long context, as in
+ * single-token decode, the cached positions of every head are split as well ("flash decoding"): each split
+ * produces a partial softmax state and the partial states are merged afterwards. Splitting starts at
+ * {@code -Dllama.SplitKVThreshold} cached positions.</p>
+ */
+public final class Attention {
+    /**
+     * Number of cached positions per tile.
+     */
+    public static final int TILE = 32;
+
+    /**
+     * Number of consecutive batch tokens that share each pass over the cache.
+     */
+    public static final int QUERY_BLOCK = 4;
+
+    /**
+     * Number of cached positions from which the positions of a head are split across threads.
+     */
+    public static final int SPLIT_KV_THRESHOLD = Integer.getInteger("llama.SplitKVThreshold", 1024);
+
+    /**
+     * Minimum number of cached positions per split, so merging stays cheap relative to the split itself.
+     */
+    static final int MIN_SPLIT_POSITIONS = 8 * TILE;
+
+    private Attention() {
+    }
+
+    /**
+     * Attends every head for a batch of tokens. Token {@code t} of the batch sits at {@code position + t} and sees
+     * the cached positions up to and including its own.
+     *
+     * @param query queries, one dense or Q8_0-quantized tensor per batch token
+     * @param keyCache key cache of the layer
+     * @param valueCache value cache of the layer
+     * @param out outputs, one dense tensor per batch token
+     * @param numberOfHeads number of query heads
+     * @param kvMul number of query heads per key/value head
+     * @param headSize head dimension
+     * @param kvDim distance between consecutive cached positions
+     * @param position position of the first batch token
+     * @param nTokens number of batch tokens
+     */
+    public static void attend(FloatTensor[] query, FloatTensor keyCache, FloatTensor valueCache, FloatTensor[] out,
+                              int numberOfHeads, int kvMul, int headSize, int kvDim, int position, int nTokens) {
+        int splits = splits(numberOfHeads, kvMul, nTokens, position + nTokens, Parallel.threads());
+        attend(query, keyCache, valueCache, out, numberOfHeads, kvMul, headSize, kvDim, position, nTokens, splits);
+    }
+
+    /**
+     * Attends every head for the tokens of several sequences in one parallel loop. Sequence {@code s} has
+     * {@code query[s].length} batch tokens, its own KV cache, and its first token at {@code position[s]}. The
+     * cached positions are not split, as the sequences together are expected to give every thread work.
+     *
+     * @param query queries of each sequence, one dense or Q8_0-quantized tensor per batch token, none empty
+     * @param keyCache key cache of the layer for each sequence
+     * @param valueCache value cache of the layer for each sequence
+     * @param out outputs of each sequence, one dense tensor per batch token
+     * @param numberOfHeads number of query heads
+     * @param kvMul number of query heads per key/value head
+     * @param headSize head dimension
+     * @param kvDim distance between consecutive cached positions
+     * @param position position of the first batch token of each sequence
+     */
+    public static void attend(FloatTensor[][] query, FloatTensor[] keyCache, FloatTensor[] valueCache,
+                              FloatTensor[][] out, int numberOfHeads, int kvMul, int headSize, int kvDim,
+                              int[] position) {
+        int kvHeads = numberOfHeads / kvMul;
+        long[] firstTask = new long[query.length + 1];
+        for (int s = 0; s < query.length; s++) {
+            firstTask[s + 1] = firstTask[s] + (long) ((query[s].length + QUERY_BLOCK - 1) / QUERY_BLOCK) * kvHeads;
+        }
+        Parallel.parallelForLong(0, firstTask[query.length], task -> {
+            int s = Arrays.binarySearch(firstTask, task);
+            s = s >= 0 ? s : -s - 2;
+            long bg = task - firstTask[s];
+            int firstToken = (int) (bg / kvHeads) * QUERY_BLOCK;
+            int g = (int) (bg % kvHeads);
+            attendGroup(query[s], keyCache[s], valueCache[s], out[s], g * kvMul, kvMul, g * headSize, kvDim,
+                    headSize, position[s], firstToken, Math.min(firstToken + QUERY_BLOCK, query[s].length));
+        });
+    }
+
+    /**
+     * Attends every head for a batch of tokens, with the cached positions of each head split in the given number
+     * of ranges.
+     *
+     * @param query queries, one dense or Q8_0-quantized tensor per batch token
+     * @param keyCache key cache of the layer
+     * @param valueCache value cache of the layer
+     * @param out outputs, one dense tensor per batch token
+     * @param numberOfHeads number of query heads
+     * @param kvMul number of query heads per key/value head
+     * @param headSize head dimension
+     * @param kvDim distance between consecutive cached positions
+     * @param position position of the first batch token
+     * @param nTokens number of batch tokens
+     * @param splits number of position ranges per head
+     */
+    static void attend(FloatTensor[] query, FloatTensor keyCache, FloatTensor valueCache, FloatTensor[] out,
+                       int numberOfHeads, int kvMul, int headSize, int kvDim, int position, int nTokens, int splits) {
+        int kvHeads = numberOfHeads / kvMul;
+        int queryBlocks = (nTokens + QUERY_BLOCK - 1) / QUERY_BLOCK;
+        long tasks = (long) queryBlocks * kvHeads;
+        if (splits <= 1) {
+            Parallel.parallelForLong(0, tasks, bg -> {
+                int firstToken = (int) (bg / kvHeads) * QUERY_BLOCK;
+                int g = (int) (bg % kvHeads);
+                attendGroup(query, keyCache, valueCache, out, g * kvMul, kvMul, g * headSize, kvDim, headSize,
+                        position, firstToken, Math.min(firstToken + QUERY_BLOCK, nTokens));
+            });
+            return;
+        }
+        // Split boundaries are whole tiles, so every split but the last streams full tiles.
+        int positions = position + nTokens;
+        int tilesPerSplit = ((positions + TILE - 1) / TILE + splits - 1) / splits;
+        Partial[] partials = new Partial[(int) (tasks * splits)];
+        Parallel.parallelForLong(0, tasks * splits, bgs -> {
+            long bg = bgs / splits;
+            int split = (int) (bgs % splits);
+            int firstToken = (int) (bg / kvHeads) * QUERY_BLOCK;
+            int g = (int) (bg % kvHeads);
+            Partial partial = new Partial(firstToken, Math.min(firstToken + QUERY_BLOCK, nTokens) - firstToken,
+                    g * kvMul, kvMul, headSize);
+            partial.accumulate(query, keyCache, valueCache, g * headSize, kvDim, position,
+                    split * tilesPerSplit * TILE, Math.min(positions, (split + 1) * tilesPerSplit * TILE));
+            partials[(int) bgs] = partial;
+        });
+        Parallel.parallelForLong(0, tasks, bg -> {
+            Partial merged = partials[(int) bg * splits];
+            for (int split = 1; split < splits; split++) {
+                merged.merge(partials[(int) bg * splits + split]);
+            }
+            merged.store(out);
+        });
+    }
+
+    /**
+     * Chooses how many ranges the cached positions of each head are split into: enough to give every thread
+     * work when the heads alone cannot, but no split shorter than {@link #MIN_SPLIT_POSITIONS}.
+     *
+     * @param tasks number of (query block, key/value head) tasks
+     * @param positions number of cached positions attended by the last token
+     * @param threads number of threads
+     * @return number of splits, 1 to disable splitting
+     */
+    static int splits(long tasks, int positions, int threads) {
+        if (positions < SPLIT_KV_THRESHOLD || tasks >= threads) {
+            return 1;
+        }
+        int splits = (int) ((threads + tasks - 1) / tasks);
+        return Math.max(1, Math.min(splits, positions / MIN_SPLIT_POSITIONS));
+    }
+
+    /**
+     * Chooses the number of splits for a batch of tokens attended by {@link #attend}, which runs one task per
+     * query block and key/value head.
+     *
+     * @param numberOfHeads number of query heads
+     * @param kvMul number of query heads per key/value head
+     * @param nTokens number of batch tokens
+     * @param positions number of cached positions attended by the last token
+     * @param threads number of threads
+     * @return number of splits, 1 to disable splitting
+     */
+    static int splits(int numberOfHeads, int kvMul, int nTokens, int positions, int threads) {
+        int queryBlocks = (nTokens + QUERY_BLOCK - 1) / QUERY_BLOCK;
+        return splits((long) queryBlocks * (numberOfHeads / kvMul), positions, threads);
+    }
+
+    /**
+     * Attends a group of query heads that share one key/value head, for a block of consecutive batch tokens.
+     * Token {@code i} of the batch sits at {@code position + i} and sees the cached positions up to and including
+     * its own.
+     *
+     * @param query queries, one dense or Q8_0-quantized tensor per batch token
+     * @param keyCache key cache of the layer
+     * @param valueCache value cache of the layer
+     * @param out outputs, one dense tensor per batch token
+     * @param firstHead first query head of the group
+     * @param groupHeads number of query heads in the group
+     * @param kvOffset offset of the key/value head within a cached position
+     * @param kvDim distance between consecutive cached positions
+     * @param headSize head dimension
+     * @param position position of the first batch token
+     * @param firstToken first batch token of the block
+     * @param endToken end of the block (exclusive)
+     */
+    public static void attendGroup(FloatTensor[] query, FloatTensor keyCache, FloatTensor valueCache,
+                                   FloatTensor[] out, int firstHead, int groupHeads, int kvOffset, int kvDim,
+                                   int headSize, int position, int firstToken, int endToken) {
+        Partial partial = new Partial(firstToken, endToken - firstToken, firstHead, groupHeads, headSize);
+        partial.accumulate(query, keyCache, valueCache, kvOffset, kvDim, position, 0, position + endToken);
+        partial.store(out);
+    }
+
+    /**
+     * Online softmax state of a block of queries over a range of cached positions: the running maximum score,
+     * the sum of exponentiated scores relative to it, and the correspondingly weighted sum of values.
+     *
+     * <p>The queries are the heads of one group for a block of batch tokens, so they all read the same key/value
+     * head. Row {@code r} is head {@code firstHead + r % groupHeads} of token {@code firstToken + r / groupHeads}.
+     * Every cached position is scored, then accumulated, for all rows back to back, so each key and value row is
+     * fetched from memory once per group rather than once per query head.</p>
+     */
+    static final class Partial {
+        private final int firstToken;
+        private final int firstHead;
+        private final int groupHeads;
+        private final int rows;
+        private final int headSize;
+        private final float[] maxima;
+        private final float[] sums;
+        private final float[] acc;
+
+        /**
+         * Creates an empty state.
+         *
+         * @param firstToken first batch token of the block
+         * @param tokens number of batch tokens in the block
+         * @param firstHead first query head of the group
+         * @param groupHeads number of query heads in the group
+         * @param headSize head dimension
+         */
+        Partial(int firstToken, int tokens, int firstHead, int groupHeads, int headSize) {
+            this.firstToken = firstToken;
+            this.firstHead = firstHead;
+            this.groupHeads = groupHeads;
+            this.rows = tokens * groupHeads;
+            this.headSize = headSize;
+            this.maxima = new float[rows];
+            this.sums = new float[rows];
+            this.acc = new float[rows * headSize];
+            Arrays.fill(maxima, Float.NEGATIVE_INFINITY);
+        }
+
+        /**
+         * Adds the cached positions in {@code [from, to)} that each query can see.
+         *
+         * @param query queries, one tensor per batch token
+         * @param keyCache key cache of the layer
+         * @param valueCache value cache of the layer
+         * @param kvOffset offset of the key/value head within a cached position
+         * @param kvDim distance between consecutive cached positions
+         * @param position position of the first batch token
+         * @param from first cached position (inclusive)
+         * @param to last cached position (exclusive)
+         */
+        void accumulate(FloatTensor[] query, FloatTensor keyCache, FloatTensor valueCache, int kvOffset, int kvDim,
+                        int position, int from, int to) {
+            float scale = (float) (1.0 / Math.sqrt(headSize));
+            float[] scores = new float[rows * TILE];
+            int[] visible = new int[rows];
+            for (int tile = from; tile < to; tile += TILE) {
+                int tileLength = Math.min(TILE, to - tile);
+                for (int r = 0; r < rows; r++) {
+                    int token = firstToken + r / groupHeads;
+                    visible[r] = Math.max(0, Math.min(tileLength, position + token + 1 - tile));
+                }
+                for (int j = 0; j < tileLength; j++) {
+                    int keyOffset = (tile + j) * kvDim + kvOffset;
+                    for (int r = 0; r < rows; r++) {
+                        if (j < visible[r]) {
+                            FloatTensor q = query[firstToken + r / groupHeads];
+                            int headOffset = (firstHead + r % groupHeads) * headSize;
+                            scores[r * TILE + j] = scale * keyCache.dot(keyOffset, q, headOffset, headSize);
+                        }
+                    }
+                }
+                for (int r = 0; r < rows; r++) {
+                    if (visible[r] == 0) {
+                        continue;
+                    }
+                    float tileMax = max(scores, r * TILE, visible[r]);
+                    if (tileMax > maxima[r]) {
+                        rescale(r, (float) Math.exp(maxima[r] - tileMax));
+                        maxima[r] = tileMax;
+                    }
+                    sums[r] += expInPlace(scores, r * TILE, visible[r], maxima[r]);
+                }
+                for (int j = 0; j < tileLength; j++) {
+                    int valueOffset = (tile + j) * kvDim + kvOffset;
+                    for (int r = 0; r < rows; r++) {
+                        if (j < visible[r]) {
+                            valueCache.saxpyInto(valueOffset, acc, r * headSize, headSize, scores[r * TILE + j]);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Folds the state of another range of positions into this one.
+         *
+         * @param other state of the same queries over a disjoint range
+         */
+        void merge(Partial other) {
+            for (int r = 0; r < rows; r++) {
+                if (other.maxima[r] == Float.NEGATIVE_INFINITY) {
+                    continue;
+                }
+                float max = Math.max(maxima[r], other.maxima[r]);
+                rescale(r, (float) Math.exp(maxima[r] - max));
+                float otherScale = (float) Math.exp(other.maxima[r] - max);
+                sums[r] += otherScale * other.sums[r];
+                int upperBound = r * headSize + headSize;
+                for (int j = r * headSize; j < upperBound; j++) {
+                    acc[j] += otherScale * other.acc[j];
+                }
+                maxima[r] = max;
+            }
+        }
+
+        /**
+         * Normalizes the weighted sums and writes them to the outputs.
+         *
+         * @param out outputs, one dense tensor per batch token
+         */
+        void store(FloatTensor[] out) {
+            for (int r = 0; r < rows; r++) {
+                scale(acc, r * headSize, headSize, 1f / sums[r]);
+                out[firstToken + r / groupHeads].copyFrom((firstHead + r % groupHeads) * headSize,
+                        acc, r * headSize, headSize);
+            }
+        }
+
+        /**
+         * Multiplies the sum and weighted values of one row by a factor.
+         *
+         * @param row row index
+         * @param factor multiplier
+         */
+        private void rescale(int row, float factor) {
+            sums[row] *= factor;
+            scale(acc, row * headSize, headSize, factor);
+        }
+    }
+
+    /**
+     * Returns the maximum of a slice of values.
+     *
+     * @param values values
+     * @param offset first value
+     * @param size number of values
+     * @return maximum
+     */
+    static float max(float[] values, int offset, int size) {
+        float result = Float.NEGATIVE_INFINITY;
+        int i = 0;
+        if (FloatTensor.USE_VECTOR_API) {
+            FloatVector acc = FloatVector.broadcast(FloatTensor.F_SPECIES, Float.NEGATIVE_INFINITY);
+            int upperBound = FloatTensor.F_SPECIES.loopBound(size);
+            for (; i < upperBound; i += FloatTensor.F_SPECIES.length()) {
+                acc = acc.max(FloatVector.fromArray(FloatTensor.F_SPECIES, values, offset + i));
+            }
+            result = acc.reduceLanes(VectorOperators.MAX);
+        }
+        for (; i < size; i++) {
+            result = Math.max(result, values[offset + i]);
+        }
+        return result;
+    }
+
+    /**
+     * Replaces a slice of values by {@code exp(value - max)} and returns their sum.
+     *
+     * @param values values
+     * @param offset first value
+     * @param size number of values
+     * @param max value subtracted before exponentiation
+     * @return sum of the exponentials
+     */
+    static float expInPlace(float[] values, int offset, int size, float max) {
+        float sum = 0f;
+        int i = 0;
+        if (FloatTensor.USE_VECTOR_API) {
+            FloatVector acc = FloatVector.zero(FloatTensor.F_SPECIES);
+            int upperBound = FloatTensor.F_SPECIES.loopBound(size);
+            for (; i < upperBound; i += FloatTensor.F_SPECIES.length()) {
+                FloatVector exp = FloatVector.fromArray(FloatTensor.F_SPECIES, values, offset + i)
+                        .sub(max)
+                        .lanewise(VectorOperators.EXP);
+                exp.intoArray(values, offset + i);
+                acc = acc.add(exp);
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < size; i++) {
+            values[offset + i] = (float) Math.exp(values[offset + i] - max);
+            sum += values[offset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Multiplies a slice of an array by a factor.
+     *
+     * @param values values
+     * @param offset first element
+     * @param size number of elements
+     * @param factor multiplier
+     */
+    static void scale(float[] values, int offset, int size, float factor) {
+        int i = 0;
+        if (FloatTensor.USE_VECTOR_API) {
+            int upperBound = FloatTensor.F_SPECIES.loopBound(size);
+            for (; i < upperBound; i += FloatTensor.F_SPECIES.length()) {
+                FloatVector.fromArray(FloatTensor.F_SPECIES, values, offset + i).mul(factor)
+                        .intoArray(values, offset + i);
+            }
+        }
+        for (; i < size; i++) {
+            values[offset + i] *= factor;
+        }
+    }
+}
@@ -92,6 +92,31 @@ public final class BF16FloatTensor extends FloatTensor {
         return Float.intBitsToFloat(bfloat16 << 16);
     }
 
+    /**
+     * Computes two rows of a matrix-vector product, sharing each activation load across the rows.
+     *
+     * @param firstRow first output row
+     * @param dim1 input dimension, the length of each row
+     * @param that dense input vector
+     * @param out output tensor
+     */
+    @Override
+    void dotRows(int firstRow, int dim1, ArrayFloatTensor that, FloatTensor out) {
+        if (dim1 % F_SPECIES.length() != 0) {
+            super.dotRows(firstRow, dim1, that, out);
+            return;
+        }
+        long rowOffset = (long) firstRow * dim1;
+        FloatVector acc0 = FloatVector.zero(F_SPECIES);
+        FloatVector acc1 = FloatVector.zero(F_SPECIES);
+        for (int i = 0; i < dim1; i += F_SPECIES.length()) {
+            FloatVector x = that.getFloatVector(F_SPECIES, i);
+            acc0 = loadFloats(memorySegment, rowOffset + i).fma(x, acc0);
+            acc1 = loadFloats(memorySegment, rowOffset + dim1 + i).fma(x, acc1);
+        }
+        storeRows(out, firstRow, acc0, acc1);
+    }
+
     /**
      * Computes dot product using vectorized BF16 path when possible.
      *
@@ -126,12 +151,7 @@ public final class BF16FloatTensor extends FloatTensor {
         int upperBound = F_SPECIES.loopBound(size);
         for (int i = 0; i < upperBound; i += F_SPECIES.length()) {
             FloatVector thatVector = that.getFloatVector(F_SPECIES, thatOffset + i);
-            ShortVector bfloat16 = ShortVector.fromMemorySegment(S_SPECIES_HALF, thiz.memorySegment,
-                    (thisOffset + i) * (long) GGMLType.FLOAT16_BYTES, ByteOrder.LITTLE_ENDIAN);
-            FloatVector thizVector = bfloat16
-                    .castShape(I_SPECIES, 0)
-                    .lanewise(VectorOperators.LSHL, 16)
-                    .reinterpretAsFloats();
+            FloatVector thizVector = loadFloats(thiz.memorySegment, thisOffset + i);
             val = thizVector.fma(thatVector, val);
         }
         float result = val.reduceLanes(VectorOperators.ADD);
@@ -141,4 +161,20 @@ public final class BF16FloatTensor extends FloatTensor {
 
         return result;
     }
+
+    /**
+     * Loads BF16 values and widens them to floats.
+     *
+     * @param memorySegment tensor data segment
+     * @param index first element index
+     * @return float vector
+     */
+    private static FloatVector loadFloats(java.lang.foreign.MemorySegment memorySegment, long index) {
+        ShortVector bfloat16 = ShortVector.fromMemorySegment(S_SPECIES_HALF, memorySegment,
+                index * GGMLType.FLOAT16_BYTES, ByteOrder.LITTLE_ENDIAN);
+        return bfloat16
+                .castShape(I_SPECIES, 0)
+                .lanewise(VectorOperators.LSHL, 16)
+                .reinterpretAsFloats();
+    }
 }
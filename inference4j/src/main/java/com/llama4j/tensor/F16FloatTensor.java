@@ -7,10 +7,16 @@ import jdk.incubator.vector.ShortVector;
 import jdk.incubator.vector.VectorOperators;
 import jdk.incubator.vector.VectorSpecies;
 
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
 import java.nio.ByteOrder;
 
 /**
  * {@link FloatTensor} backed by F16 values.
+ *
+ * <p>Besides read-only model weights, F16 tensors serve as half-precision KV caches: {@link #allocate(int...)}
+ * returns a writable off-heap tensor, and attention reads it through the widening {@link #dot} and
+ * {@link #saxpyInto} kernels.</p>
  */
 public final class F16FloatTensor extends FloatTensor {
     private final int size;
@@ -27,6 +33,19 @@ public final class F16FloatTensor extends FloatTensor {
         this.memorySegment = memorySegment;
     }
 
+    /**
+     * Allocates a zeroed, writable F16 tensor in off-heap memory.
+     *
+     * @param dims tensor dimensions
+     * @return allocated tensor
+     */
+    public static F16FloatTensor allocate(int... dims) {
+        int numberOfElements = FloatTensor.numberOfElements(dims);
+        java.lang.foreign.MemorySegment segment = Arena.ofAuto()
+                .allocate((long) numberOfElements * GGMLType.FLOAT16_BYTES, Long.BYTES);
+        return new F16FloatTensor(numberOfElements, segment);
+    }
+
     /**
      * Returns the number of elements.
      *
@@ -38,14 +57,17 @@ public final class F16FloatTensor extends FloatTensor {
     }
 
     /**
-     * Unsupported for F16 tensor.
+     * Stores a value rounded to F16. Throws {@link UnsupportedOperationException} on read-only tensors, such as
+     * weights mapped from a model file.
      *
      * @param index element index
      * @param value value to set
      */
     @Override
     public void setFloat(int index, float value) {
-        throw new UnsupportedOperationException("setFloat");
+        assert 0 <= index && index < size;
+        memorySegment.set(ValueLayout.JAVA_SHORT_UNALIGNED, (long) index * GGMLType.FLOAT16_BYTES,
+                Float.floatToFloat16(value));
     }
 
     /**
@@ -82,6 +104,31 @@ public final class F16FloatTensor extends FloatTensor {
         return Float.float16ToFloat(readShort(memorySegment, (long) index * GGMLType.FLOAT16_BYTES));
     }
 
+    /**
+     * Computes two rows of a matrix-vector product, sharing each activation load across the rows.
+     *
+     * @param firstRow first output row
+     * @param dim1 input dimension, the length of each row
+     * @param that dense input vector
+     * @param out output tensor
+     */
+    @Override
+    void dotRows(int firstRow, int dim1, ArrayFloatTensor that, FloatTensor out) {
+        if (dim1 % F_SPECIES.length() != 0) {
+            super.dotRows(firstRow, dim1, that, out);
+            return;
+        }
+        long rowOffset = (long) firstRow * dim1;
+        FloatVector acc0 = FloatVector.zero(F_SPECIES);
+        FloatVector acc1 = FloatVector.zero(F_SPECIES);
+        for (int i = 0; i < dim1; i += F_SPECIES.length()) {
+            FloatVector x = that.getFloatVector(F_SPECIES, i);
+            acc0 = loadFloats(memorySegment, rowOffset + i).fma(x, acc0);
+            acc1 = loadFloats(memorySegment, rowOffset + dim1 + i).fma(x, acc1);
+        }
+        storeRows(out, firstRow, acc0, acc1);
+    }
+
     /**
      * Computes dot product using vectorized F16 path when possible.
      *
@@ -100,6 +147,34 @@ public final class F16FloatTensor extends FloatTensor {
         }
     }
 
+    /**
+     * Adds a scaled slice of this tensor into a float array, widening F16 values in registers.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     * @param alpha scaling factor
+     */
+    @Override
+    void saxpyInto(int thisOffset, float[] out, int outOffset, int size, float alpha) {
+        if (!FloatTensor.USE_VECTOR_API) {
+            super.saxpyInto(thisOffset, out, outOffset, size, alpha);
+            return;
+        }
+        FloatVector scale = FloatVector.broadcast(F_SPECIES, alpha);
+        int upperBound = F_SPECIES.loopBound(size);
+        int i = 0;
+        for (; i < upperBound; i += F_SPECIES.length()) {
+            loadFloats(memorySegment, thisOffset + i)
+                    .fma(scale, FloatVector.fromArray(F_SPECIES, out, outOffset + i))
+                    .intoArray(out, outOffset + i);
+        }
+        for (; i < size; i++) {
+            out[outOffset + i] += alpha * getFloat(thisOffset + i);
+        }
+    }
+
     /**
      * Vectorized dot product specialized for F16 values.
      *
@@ -116,16 +191,7 @@ public final class F16FloatTensor extends FloatTensor {
         int upperBound = F_SPECIES.loopBound(size);
         for (int i = 0; i < upperBound; i += F_SPECIES.length()) {
             FloatVector thatVector = that.getFloatVector(F_SPECIES, thatOffset + i);
-            ShortVector bits16 = ShortVector.fromMemorySegment(S_SPECIES_HALF, thiz.memorySegment,
-                    (thisOffset + i) * (long) GGMLType.FLOAT16_BYTES, ByteOrder.LITTLE_ENDIAN);
-
-            var bits32 = bits16.castShape(I_SPECIES, 0).reinterpretAsInts();
-            var zeroExponentMask = bits32.and(0x7C00).neg().lanewise(VectorOperators.ASHR, 31);
-            bits32 = bits32.and(0x8000).lanewise(VectorOperators.LSHL, 16)
-                    .or(bits32.and(0x7FFF).add(0x1C000).lanewise(VectorOperators.LSHL, 13)
-                            .and(zeroExponentMask));
-
-            FloatVector thizVector = bits32.reinterpretAsFloats();
+            FloatVector thizVector = loadFloats(thiz.memorySegment, thisOffset + i);
             val = thizVector.fma(thatVector, val);
         }
         float result = val.reduceLanes(VectorOperators.ADD);
@@ -135,4 +201,42 @@ public final class F16FloatTensor extends FloatTensor {
 
         return result;
     }
+
+    /**
+     * Loads F16 values and widens them to floats.
+     *
+     * @param memorySegment tensor data segment
+     * @param index first element index
+     * @return float vector
+     */
+    private static FloatVector loadFloats(java.lang.foreign.MemorySegment memorySegment, long index) {
+        ShortVector bits16 = ShortVector.fromMemorySegment(S_SPECIES_HALF, memorySegment,
+                index * GGMLType.FLOAT16_BYTES, ByteOrder.LITTLE_ENDIAN);
+
+        var bits32 = bits16.castShape(I_SPECIES, 0).reinterpretAsInts();
+        var zeroExponentMask = bits32.and(0x7C00).neg().lanewise(VectorOperators.ASHR, 31);
+        bits32 = bits32.and(0x8000).lanewise(VectorOperators.LSHL, 16)
+                .or(bits32.and(0x7FFF).add(0x1C000).lanewise(VectorOperators.LSHL, 13)
+                        .and(zeroExponentMask));
+        return bits32.reinterpretAsFloats();
+    }
+
+    /**
+     * Copies values into another tensor, as raw F16 data when it is an F16 tensor too.
+     *
+     * @param thisOffset offset in this tensor
+     * @param that destination tensor
+     * @param thatOffset offset in destination tensor
+     * @param size number of elements
+     */
+    @Override
+    public void copyTo(int thisOffset, FloatTensor that, int thatOffset, int size) {
+        if (that instanceof F16FloatTensor other) {
+            java.lang.foreign.MemorySegment.copy(memorySegment, (long) thisOffset * GGMLType.FLOAT16_BYTES,
+                    other.memorySegment, (long) thatOffset * GGMLType.FLOAT16_BYTES,
+                    (long) size * GGMLType.FLOAT16_BYTES);
+        } else {
+            super.copyTo(thisOffset, that, thatOffset, size);
+        }
+    }
 }
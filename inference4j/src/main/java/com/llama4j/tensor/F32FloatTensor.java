@@ -0,0 +1,197 @@
+package com.llama4j.tensor;
+
+import com.llama4j.gguf.GGMLType;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+/**
+ * {@link FloatTensor} backed by F32 values in a memory segment.
+ *
+ * <p>Unlike {@link ArrayFloatTensor}, the values may live outside the heap, e.g. in a memory-mapped file that
+ * holds the cold part of a tiered KV cache. Attention reads it through the vectorized {@link #dot} and
+ * {@link #saxpyInto} kernels.</p>
+ */
+public final class F32FloatTensor extends FloatTensor {
+    private final int size;
+    private final java.lang.foreign.MemorySegment memorySegment;
+
+    /**
+     * Creates an F32 tensor.
+     *
+     * @param size number of elements
+     * @param memorySegment tensor data segment
+     */
+    public F32FloatTensor(int size, java.lang.foreign.MemorySegment memorySegment) {
+        this.size = size;
+        this.memorySegment = memorySegment;
+    }
+
+    /**
+     * Returns the number of elements.
+     *
+     * @return element count
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Reads a value.
+     *
+     * @param index element index
+     * @return float value
+     */
+    @Override
+    public float getFloat(int index) {
+        assert 0 <= index && index < size;
+        return memorySegment.get(ValueLayout.JAVA_FLOAT_UNALIGNED, (long) index * Float.BYTES);
+    }
+
+    /**
+     * Stores a value.
+     *
+     * @param index element index
+     * @param value value to set
+     */
+    @Override
+    public void setFloat(int index, float value) {
+        assert 0 <= index && index < size;
+        memorySegment.set(ValueLayout.JAVA_FLOAT_UNALIGNED, (long) index * Float.BYTES, value);
+    }
+
+    /**
+     * Loads a float vector from the segment.
+     *
+     * @param species vector species
+     * @param index offset index
+     * @return float vector
+     */
+    @Override
+    public FloatVector getFloatVector(VectorSpecies<Float> species, int index) {
+        if (!USE_VECTOR_API) {
+            throw new UnsupportedOperationException();
+        }
+        return FloatVector.fromMemorySegment(species, memorySegment, (long) index * Float.BYTES,
+                ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns the GGML type.
+     *
+     * @return GGML type
+     */
+    @Override
+    public GGMLType type() {
+        return GGMLType.F32;
+    }
+
+    /**
+     * Computes a dot product against a dense tensor with vector operations when enabled.
+     *
+     * @param thisOffset offset in this tensor
+     * @param that other tensor
+     * @param thatOffset offset in other tensor
+     * @param size number of elements
+     * @return dot product
+     */
+    @Override
+    public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
+        if (!USE_VECTOR_API || !(that instanceof ArrayFloatTensor dense)) {
+            return scalarDot(this, thisOffset, that, thatOffset, size);
+        }
+        FloatVector val = FloatVector.zero(F_SPECIES);
+        int upperBound = F_SPECIES.loopBound(size);
+        for (int i = 0; i < upperBound; i += F_SPECIES.length()) {
+            val = getFloatVector(F_SPECIES, thisOffset + i).fma(dense.getFloatVector(F_SPECIES, thatOffset + i), val);
+        }
+        float result = val.reduceLanes(VectorOperators.ADD);
+        if (upperBound < size) {
+            result += scalarDot(this, thisOffset + upperBound, that, thatOffset + upperBound, size - upperBound);
+        }
+        return result;
+    }
+
+    /**
+     * Adds a scaled slice of this tensor into a float array.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     * @param alpha scaling factor
+     */
+    @Override
+    void saxpyInto(int thisOffset, float[] out, int outOffset, int size, float alpha) {
+        if (!USE_VECTOR_API) {
+            super.saxpyInto(thisOffset, out, outOffset, size, alpha);
+            return;
+        }
+        FloatVector scale = FloatVector.broadcast(F_SPECIES, alpha);
+        int upperBound = F_SPECIES.loopBound(size);
+        int i = 0;
+        for (; i < upperBound; i += F_SPECIES.length()) {
+            getFloatVector(F_SPECIES, thisOffset + i)
+                    .fma(scale, FloatVector.fromArray(F_SPECIES, out, outOffset + i))
+                    .intoArray(out, outOffset + i);
+        }
+        for (; i < size; i++) {
+            out[outOffset + i] += alpha * getFloat(thisOffset + i);
+        }
+    }
+
+    /**
+     * Copies a slice of the segment into a float array.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     */
+    @Override
+    void dequantize(int thisOffset, float[] out, int outOffset, int size) {
+        java.lang.foreign.MemorySegment.copy(memorySegment, ValueLayout.JAVA_FLOAT_UNALIGNED,
+                (long) thisOffset * Float.BYTES, out, outOffset, size);
+    }
+
+    /**
+     * Stores values from a float array into the segment.
+     *
+     * @param thisOffset offset in this tensor
+     * @param in source array
+     * @param inOffset offset in the source array
+     * @param size number of elements
+     */
+    @Override
+    void copyFrom(int thisOffset, float[] in, int inOffset, int size) {
+        java.lang.foreign.MemorySegment.copy(in, inOffset, memorySegment, ValueLayout.JAVA_FLOAT_UNALIGNED,
+                (long) thisOffset * Float.BYTES, size);
+    }
+
+    /**
+     * Copies values into another tensor, as raw data when it is an F32 tensor too.
+     *
+     * @param thisOffset offset in this tensor
+     * @param that destination tensor
+     * @param thatOffset offset in destination tensor
+     * @param size number of elements
+     */
+    @Override
+    public void copyTo(int thisOffset, FloatTensor that, int thatOffset, int size) {
+        if (that instanceof F32FloatTensor other) {
+            java.lang.foreign.MemorySegment.copy(memorySegment, (long) thisOffset * Float.BYTES,
+                    other.memorySegment, (long) thatOffset * Float.BYTES, (long) size * Float.BYTES);
+        } else if (that instanceof PagedFloatTensor) {
+            super.copyTo(thisOffset, that, thatOffset, size);
+        } else {
+            float[] values = new float[size];
+            dequantize(thisOffset, values, 0, size);
+            that.copyFrom(thatOffset, values, 0, size);
+        }
+    }
+}
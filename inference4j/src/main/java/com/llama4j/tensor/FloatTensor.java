@@ -3,6 +3,7 @@ package com.llama4j.tensor;
 import com.llama4j.gguf.GGMLType;
 import com.llama4j.util.Parallel;
 
+import jdk.incubator.vector.ByteVector;
 import jdk.incubator.vector.FloatVector;
 import jdk.incubator.vector.VectorOperators;
 import jdk.incubator.vector.VectorShape;
@@ -26,6 +27,23 @@ public abstract class FloatTensor {
      */
     public static final boolean USE_VECTOR_API = VECTOR_BIT_SIZE != 0;
 
+    /**
+     * Number of weight rows per task in {@link #batchedMatmul} and {@link #matmulSwiGLU}, a multiple of
+     * {@link #GEMV_ROWS}.
+     */
+    static final int MATMUL_ROW_TILE = 16;
+
+    /**
+     * Per-thread row buffer of the batched matmul, see {@link #rowScratch(int)}.
+     */
+    private static final ThreadLocal<float[]> ROW_SCRATCH = ThreadLocal.withInitial(() -> new float[0]);
+
+    /**
+     * Number of weight rows sharing each activation load in {@link #dotRows}. Wider groups push the unrolled
+     * K-quant unpacking past C2's inlining budget, which leaves the vectors boxed.
+     */
+    static final int GEMV_ROWS = 2;
+
     /**
      * Unsafe instance for fast memory operations.
      */
@@ -159,6 +177,15 @@ public abstract class FloatTensor {
         return scalarDot(this, thisOffset, that, thatOffset, size);
     }
 
+    /**
+     * Returns whether {@link #dot} has an integer kernel for {@link Q8_0ActivationTensor} operands.
+     *
+     * @return true when quantized activations are supported natively
+     */
+    public boolean supportsQ8Activations() {
+        return false;
+    }
+
     /**
      * Matrix multiplication for a single input vector.
      *
@@ -168,12 +195,54 @@ public abstract class FloatTensor {
      * @param dim1 input dimension
      */
     public void matmul(FloatTensor that, FloatTensor out, int dim0, int dim1) {
+        if (USE_VECTOR_API && that instanceof ArrayFloatTensor dense) {
+            int groups = dim0 / GEMV_ROWS;
+            Parallel.parallelFor(0, groups, group -> dotRows(group * GEMV_ROWS, dim1, dense, out));
+            for (int i = groups * GEMV_ROWS; i < dim0; i++) {
+                out.setFloat(i, dot(i * dim1, that, 0, dim1));
+            }
+            return;
+        }
         Parallel.parallelFor(0, dim0, i -> out.setFloat(i, dot(i * dim1, that, 0, dim1)));
     }
 
+    /**
+     * Computes {@link #GEMV_ROWS} consecutive rows of a matrix-vector product.
+     *
+     * <p>Tensor types override this with kernels that load every activation vector once and apply it to all
+     * rows of the group; this default, kept by {@link Q5_KFloatTensor} whose unpacking is too large to duplicate per
+     * row, falls back to one {@link #dot} per row.</p>
+     *
+     * @param firstRow first output row
+     * @param dim1 input dimension, the length of each row
+     * @param that dense input vector
+     * @param out output tensor
+     */
+    void dotRows(int firstRow, int dim1, ArrayFloatTensor that, FloatTensor out) {
+        for (int r = 0; r < GEMV_ROWS; r++) {
+            out.setFloat(firstRow + r, dot((firstRow + r) * dim1, that, 0, dim1));
+        }
+    }
+
+    /**
+     * Stores the reduced accumulators of a {@link #dotRows} group.
+     *
+     * @param out output tensor
+     * @param firstRow first output row
+     * @param acc0 accumulator of the first row
+     * @param acc1 accumulator of the second row
+     */
+    static void storeRows(FloatTensor out, int firstRow, FloatVector acc0, FloatVector acc1) {
+        out.setFloat(firstRow, acc0.reduceLanes(VectorOperators.ADD));
+        out.setFloat(firstRow + 1, acc1.reduceLanes(VectorOperators.ADD));
+    }
+
     /**
      * Matrix multiplication for multiple input vectors (context).
      *
+     * <p>With the Vector API enabled and dense inputs, a batch goes through {@link #batchedMatmul}, which decodes
+     * every weight row once for the whole batch instead of once per token.</p>
+     *
      * @param context number of vectors
      * @param that input tensor array
      * @param out output tensor array
@@ -184,6 +253,14 @@ public abstract class FloatTensor {
         if (that.length != out.length) {
             throw new IllegalArgumentException(String.format("that.len=%d, out.len=%d", that.length, out.length));
         }
+        if (context == 1) {
+            matmul(that[0], out[0], dim0, dim1);
+            return;
+        }
+        if (USE_VECTOR_API && allDense(that, context)) {
+            batchedMatmul(context, that, out, dim0, dim1);
+            return;
+        }
         Parallel.parallelForLong(0, (long) dim0 * context, ti -> {
             int idxArr = (int) (ti / dim0);
             int i = (int) (ti % dim0);
@@ -191,6 +268,315 @@ public abstract class FloatTensor {
         });
     }
 
+    /**
+     * Tiled matrix multiplication for a batch of dense input vectors.
+     *
+     * <p>Rows are split into tiles of {@link #MATMUL_ROW_TILE} that are scheduled across the {@link Parallel}
+     * worker threads. Each row is dequantized once into a per-thread scratch buffer, which stays cache resident
+     * while it is dotted against every token of the batch, four tokens per pass over the row.</p>
+     *
+     * @param context number of vectors
+     * @param that dense input tensor array
+     * @param out output tensor array
+     * @param dim0 output dimension
+     * @param dim1 input dimension
+     */
+    void batchedMatmul(int context, FloatTensor[] that, FloatTensor[] out, int dim0, int dim1) {
+        int tiles = (dim0 + MATMUL_ROW_TILE - 1) / MATMUL_ROW_TILE;
+        Parallel.parallelFor(0, tiles, tile ->
+                matmulRows(context, that, out, tile * MATMUL_ROW_TILE, Math.min(dim0, (tile + 1) * MATMUL_ROW_TILE), dim1));
+    }
+
+    /**
+     * Computes the output rows {@code [start, end)} for every input vector on the calling thread.
+     *
+     * <p>Picks the same kernel as the whole-matrix paths: {@link #dotRows} groups for a single dense vector,
+     * a dequantized scratch row shared by the batch for several dense vectors, and one {@link #dot} per output
+     * otherwise.</p>
+     *
+     * @param context number of vectors
+     * @param that input tensor array
+     * @param out output tensor array
+     * @param start first output row
+     * @param end output row bound, exclusive
+     * @param dim1 input dimension
+     */
+    void matmulRows(int context, FloatTensor[] that, FloatTensor[] out, int start, int end, int dim1) {
+        if (USE_VECTOR_API && context == 1 && that[0] instanceof ArrayFloatTensor dense) {
+            int i = start;
+            for (; i + GEMV_ROWS <= end; i += GEMV_ROWS) {
+                dotRows(i, dim1, dense, out[0]);
+            }
+            for (; i < end; i++) {
+                out[0].setFloat(i, dot(i * dim1, dense, 0, dim1));
+            }
+        } else if (USE_VECTOR_API && allDense(that, context)) {
+            float[] row = rowScratch(dim1);
+            for (int i = start; i < end; i++) {
+                dequantize(i * dim1, row, 0, dim1);
+                int t = 0;
+                for (; t + 4 <= context; t += 4) {
+                    dot4(row, that, t, out, i, dim1);
+                }
+                for (; t < context; t++) {
+                    out[t].setFloat(i, dot1(row, that[t], dim1));
+                }
+            }
+        } else {
+            for (int t = 0; t < context; t++) {
+                for (int i = start; i < end; i++) {
+                    out[t].setFloat(i, dot(i * dim1, that[t], 0, dim1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the calling thread's buffer for dequantized rows, grown to hold at least {@code size} values. Tiles
+     * run one at a time per thread, so the buffer is reused across tiles and matmuls instead of being allocated
+     * on every tile of the decode loop.
+     *
+     * @param size number of values needed
+     * @return scratch array of at least {@code size} values
+     */
+    private static float[] rowScratch(int size) {
+        float[] row = ROW_SCRATCH.get();
+        if (row.length < size) {
+            row = new float[size];
+            ROW_SCRATCH.set(row);
+        }
+        return row;
+    }
+
+    /**
+     * Computes {@code silu(gate·x) * (up·x)} for every input vector in a single parallel pass.
+     *
+     * <p>Each row tile evaluates both projections and combines them while the tile is still in cache, instead
+     * of two matmuls followed by separate SiLU and multiply passes over the whole hidden activations. The gate
+     * and up weights may have different types; each gets its own input, so either can use Q8 activations.</p>
+     *
+     * @param context number of vectors
+     * @param gate gate weights
+     * @param gateInput inputs for the gate weights
+     * @param up up projection weights
+     * @param upInput inputs for the up projection weights
+     * @param out output tensor array, also holding the gate projection while a tile is computed
+     * @param scratch tensor array holding the up projection while a tile is computed
+     * @param dim0 output dimension
+     * @param dim1 input dimension
+     */
+    public static void matmulSwiGLU(int context, FloatTensor gate, FloatTensor[] gateInput, FloatTensor up,
+                                    FloatTensor[] upInput, FloatTensor[] out, FloatTensor[] scratch, int dim0, int dim1) {
+        if (gateInput.length != out.length || upInput.length != scratch.length) {
+            throw new IllegalArgumentException(String.format("gateInput.len=%d, out.len=%d, upInput.len=%d, scratch.len=%d",
+                    gateInput.length, out.length, upInput.length, scratch.length));
+        }
+        int tiles = (dim0 + MATMUL_ROW_TILE - 1) / MATMUL_ROW_TILE;
+        Parallel.parallelFor(0, tiles, tile -> {
+            int start = tile * MATMUL_ROW_TILE;
+            int end = Math.min(dim0, start + MATMUL_ROW_TILE);
+            gate.matmulRows(context, gateInput, out, start, end, dim1);
+            up.matmulRows(context, upInput, scratch, start, end, dim1);
+            for (int t = 0; t < context; t++) {
+                for (int i = start; i < end; i++) {
+                    float value = out[t].getFloat(i);
+                    out[t].setFloat(i, value / (float) (1.0 + Math.exp(-value)) * scratch[t].getFloat(i));
+                }
+            }
+        });
+    }
+
+    /**
+     * Dequantizes a slice of this tensor into a float array.
+     *
+     * <p>Quantized formats override this with block-wise vector decoding.</p>
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     */
+    void dequantize(int thisOffset, float[] out, int outOffset, int size) {
+        for (int i = 0; i < size; i++) {
+            out[outOffset + i] = getFloat(thisOffset + i);
+        }
+    }
+
+    /**
+     * Scales 16 quants and stores them as floats.
+     *
+     * @param quants 16 quants in element order
+     * @param scale multiplier applied to every quant
+     * @param min offset added after scaling
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     */
+    static void storeQuants(ByteVector quants, float scale, float min, float[] out, int outOffset) {
+        switch (F_SPECIES.vectorBitSize()) {
+            case 512 -> ((FloatVector) quants.castShape(F_SPECIES, 0)).mul(scale).add(min).intoArray(out, outOffset);
+            case 256 -> {
+                ((FloatVector) quants.castShape(F_SPECIES, 0)).mul(scale).add(min).intoArray(out, outOffset);
+                ((FloatVector) quants.castShape(F_SPECIES, 1)).mul(scale).add(min).intoArray(out, outOffset + 8);
+            }
+            case 128 -> {
+                ((FloatVector) quants.castShape(F_SPECIES, 0)).mul(scale).add(min).intoArray(out, outOffset);
+                ((FloatVector) quants.castShape(F_SPECIES, 1)).mul(scale).add(min).intoArray(out, outOffset + 4);
+                ((FloatVector) quants.castShape(F_SPECIES, 2)).mul(scale).add(min).intoArray(out, outOffset + 8);
+                ((FloatVector) quants.castShape(F_SPECIES, 3)).mul(scale).add(min).intoArray(out, outOffset + 12);
+            }
+            default -> throw new UnsupportedOperationException(F_SPECIES.toString());
+        }
+    }
+
+    /**
+     * Widens 16 quants, scales them and adds them to consecutive elements of a float array.
+     *
+     * @param quants 16 quants in element order
+     * @param scale multiplier applied to every quant
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     */
+    static void addQuants(ByteVector quants, float scale, float[] out, int outOffset) {
+        FloatVector s = FloatVector.broadcast(F_SPECIES, scale);
+        for (int part = 0; part * F_SPECIES.length() < 16; part++) {
+            int offset = outOffset + part * F_SPECIES.length();
+            ((FloatVector) quants.castShape(F_SPECIES, part))
+                    .fma(s, FloatVector.fromArray(F_SPECIES, out, offset))
+                    .intoArray(out, offset);
+        }
+    }
+
+    /**
+     * Loads the {@code index}-th activation vector of a 16-element group, or {@code x0} when the group is
+     * covered by fewer vectors.
+     *
+     * @param that dense input vector
+     * @param offset first element of the group
+     * @param index vector index within the group
+     * @param x0 first vector of the group
+     * @return activation vector
+     */
+    static FloatVector groupVector(ArrayFloatTensor that, int offset, int index, FloatVector x0) {
+        return index * F_SPECIES.length() < 16 ? that.getFloatVector(F_SPECIES, offset + index * F_SPECIES.length()) : x0;
+    }
+
+    /**
+     * Accumulates the dot product of 16 quants with the activation vectors covering them.
+     *
+     * @param quants 16 quants in element order
+     * @param x0 first activation vector
+     * @param x1 second activation vector, used below 512 bits
+     * @param x2 third activation vector, used at 128 bits
+     * @param x3 fourth activation vector, used at 128 bits
+     * @param acc accumulator
+     * @return updated accumulator
+     */
+    static FloatVector dotGroup(ByteVector quants, FloatVector x0, FloatVector x1, FloatVector x2, FloatVector x3, FloatVector acc) {
+        return switch (F_SPECIES.vectorBitSize()) {
+            case 512 -> x0.fma(quants.castShape(F_SPECIES, 0), acc);
+            case 256 -> x1.fma(quants.castShape(F_SPECIES, 1), x0.fma(quants.castShape(F_SPECIES, 0), acc));
+            case 128 -> x3.fma(quants.castShape(F_SPECIES, 3), x2.fma(quants.castShape(F_SPECIES, 2),
+                    x1.fma(quants.castShape(F_SPECIES, 1), x0.fma(quants.castShape(F_SPECIES, 0), acc))));
+            default -> throw new UnsupportedOperationException(F_SPECIES.toString());
+        };
+    }
+
+    /**
+     * Sums the activation vectors covering a 16-element group.
+     *
+     * @param x0 first activation vector
+     * @param x1 second activation vector, used below 512 bits
+     * @param x2 third activation vector, used at 128 bits
+     * @param x3 fourth activation vector, used at 128 bits
+     * @return lane-wise sum
+     */
+    static FloatVector sumGroup(FloatVector x0, FloatVector x1, FloatVector x2, FloatVector x3) {
+        return switch (F_SPECIES.vectorBitSize()) {
+            case 512 -> x0;
+            case 256 -> x0.add(x1);
+            case 128 -> x0.add(x1).add(x2).add(x3);
+            default -> throw new UnsupportedOperationException(F_SPECIES.toString());
+        };
+    }
+
+    /**
+     * Checks whether the first inputs of a batch are dense arrays.
+     *
+     * @param tensors input tensor array
+     * @param count number of inputs to check
+     * @return true when all are {@link ArrayFloatTensor}s
+     */
+    private static boolean allDense(FloatTensor[] tensors, int count) {
+        for (int i = 0; i < count; i++) {
+            if (!(tensors[i] instanceof ArrayFloatTensor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Dots one dequantized row against four consecutive inputs, loading each row vector once.
+     *
+     * @param row dequantized weight row
+     * @param that dense input tensor array
+     * @param t index of the first input
+     * @param out output tensor array
+     * @param i output row index
+     * @param size row length
+     */
+    private static void dot4(float[] row, FloatTensor[] that, int t, FloatTensor[] out, int i, int size) {
+        FloatVector acc0 = FloatVector.zero(F_SPECIES);
+        FloatVector acc1 = FloatVector.zero(F_SPECIES);
+        FloatVector acc2 = FloatVector.zero(F_SPECIES);
+        FloatVector acc3 = FloatVector.zero(F_SPECIES);
+        int upperBound = F_SPECIES.loopBound(size);
+        int j = 0;
+        for (; j < upperBound; j += F_SPECIES.length()) {
+            FloatVector w = FloatVector.fromArray(F_SPECIES, row, j);
+            acc0 = that[t].getFloatVector(F_SPECIES, j).fma(w, acc0);
+            acc1 = that[t + 1].getFloatVector(F_SPECIES, j).fma(w, acc1);
+            acc2 = that[t + 2].getFloatVector(F_SPECIES, j).fma(w, acc2);
+            acc3 = that[t + 3].getFloatVector(F_SPECIES, j).fma(w, acc3);
+        }
+        float sum0 = acc0.reduceLanes(VectorOperators.ADD);
+        float sum1 = acc1.reduceLanes(VectorOperators.ADD);
+        float sum2 = acc2.reduceLanes(VectorOperators.ADD);
+        float sum3 = acc3.reduceLanes(VectorOperators.ADD);
+        for (; j < size; j++) {
+            sum0 += row[j] * that[t].getFloat(j);
+            sum1 += row[j] * that[t + 1].getFloat(j);
+            sum2 += row[j] * that[t + 2].getFloat(j);
+            sum3 += row[j] * that[t + 3].getFloat(j);
+        }
+        out[t].setFloat(i, sum0);
+        out[t + 1].setFloat(i, sum1);
+        out[t + 2].setFloat(i, sum2);
+        out[t + 3].setFloat(i, sum3);
+    }
+
+    /**
+     * Dots one dequantized row against a single input.
+     *
+     * @param row dequantized weight row
+     * @param that dense input tensor
+     * @param size row length
+     * @return dot product
+     */
+    private static float dot1(float[] row, FloatTensor that, int size) {
+        FloatVector acc = FloatVector.zero(F_SPECIES);
+        int upperBound = F_SPECIES.loopBound(size);
+        int j = 0;
+        for (; j < upperBound; j += F_SPECIES.length()) {
+            acc = that.getFloatVector(F_SPECIES, j).fma(FloatVector.fromArray(F_SPECIES, row, j), acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; j < size; j++) {
+            sum += row[j] * that.getFloat(j);
+        }
+        return sum;
+    }
+
     /**
      * Aggregation function for reductions.
      */
@@ -254,9 +640,28 @@ public abstract class FloatTensor {
      * @param size number of elements
      */
     public void copyTo(int thisOffset, FloatTensor that, int thatOffset, int size) {
+        if (that instanceof PagedFloatTensor paged) {
+            paged.copyFrom(thatOffset, this, thisOffset, size);
+            return;
+        }
         that.mapWithIndexInPlace(thatOffset, size, (value, index) -> this.getFloat(index - thatOffset + thisOffset));
     }
 
+    /**
+     * Stores values from a float array into this tensor, the mirror of
+     * {@link #copyTo(int, FloatTensor, int, int)} for dense sources.
+     *
+     * @param thisOffset offset in this tensor
+     * @param in source array
+     * @param inOffset offset in the source array
+     * @param size number of elements
+     */
+    void copyFrom(int thisOffset, float[] in, int inOffset, int size) {
+        for (int i = 0; i < size; i++) {
+            setFloat(thisOffset + i, in[inOffset + i]);
+        }
+    }
+
     /**
      * Returns the index of the maximum value.
      *
@@ -395,6 +800,46 @@ public abstract class FloatTensor {
                 (value, index) -> value + alpha * that.getFloat(index - thisOffset + thatOffset));
     }
 
+    /**
+     * Applies rotary position embedding in place to consecutive heads. Element {@code k} of each head becomes
+     * {@code v[k] * cos[k] + v[k ^ 1] * sin[k]}, which rotates every pair of elements by the angle laid out by
+     * {@link RoPE#angles(float[], int, float[], float[])}.
+     *
+     * @param thisOffset offset in this tensor
+     * @param size number of elements, a multiple of {@code headSize}
+     * @param headSize head dimension
+     * @param cos cosines in the interleaved layout, {@code headSize} values
+     * @param sin signed sines in the interleaved layout, {@code headSize} values
+     * @return this tensor
+     */
+    public FloatTensor ropeInPlace(int thisOffset, int size, int headSize, float[] cos, float[] sin) {
+        for (int h = thisOffset; h < thisOffset + size; h += headSize) {
+            for (int i = 0; i < headSize; i += 2) {
+                float v0 = getFloat(h + i);
+                float v1 = getFloat(h + i + 1);
+                setFloat(h + i, v0 * cos[i] + v1 * sin[i]);
+                setFloat(h + i + 1, v1 * cos[i + 1] + v0 * sin[i + 1]);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds a scaled slice of this tensor into a float array, the mirror of
+     * {@link #saxpyInPlace(int, FloatTensor, int, int, float)} for dense destinations.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     * @param alpha scaling factor
+     */
+    void saxpyInto(int thisOffset, float[] out, int outOffset, int size, float alpha) {
+        for (int i = 0; i < size; i++) {
+            out[outOffset + i] += alpha * getFloat(thisOffset + i);
+        }
+    }
+
     /**
      * Multiplies this tensor elementwise by another tensor.
      *
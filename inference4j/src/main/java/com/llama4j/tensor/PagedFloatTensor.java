@@ -0,0 +1,213 @@
+package com.llama4j.tensor;
+
+import com.llama4j.gguf.GGMLType;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.function.IntFunction;
+
+/**
+ * Logical tensor made of fixed-size pages that are looked up on every access.
+ *
+ * <p>Paged KV caches use it to present a sequence's block table as one contiguous key or value cache: attention
+ * keeps addressing positions by offset, while memory is only held for the pages in use. A slice handed to a
+ * kernel must not cross a page boundary, which holds for KV caches since every access covers heads of a single
+ * position and pages hold whole positions. Copies are the exception: they are split at page boundaries.</p>
+ */
+public final class PagedFloatTensor extends FloatTensor {
+    private final int size;
+    private final int pageSize;
+    private final GGMLType type;
+    private final IntFunction<FloatTensor> pages;
+
+    /**
+     * Creates a paged tensor.
+     *
+     * @param size logical number of elements
+     * @param pageSize number of elements per page
+     * @param type element type of the pages
+     * @param pages maps a page index to its tensor
+     */
+    public PagedFloatTensor(int size, int pageSize, GGMLType type, IntFunction<FloatTensor> pages) {
+        this.size = size;
+        this.pageSize = pageSize;
+        this.type = type;
+        this.pages = pages;
+    }
+
+    /**
+     * Returns the number of elements.
+     *
+     * @return element count
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the element type of the pages.
+     *
+     * @return GGML type
+     */
+    @Override
+    public GGMLType type() {
+        return type;
+    }
+
+    /**
+     * Returns the page holding an element.
+     *
+     * @param index element index
+     * @return page tensor
+     */
+    private FloatTensor page(int index) {
+        return pages.apply(index / pageSize);
+    }
+
+    /**
+     * Checks that a slice stays within one page.
+     *
+     * @param offset first element of the slice
+     * @param size number of elements
+     * @return whether the slice lies in a single page
+     */
+    private boolean withinPage(int offset, int size) {
+        return size == 0 || offset / pageSize == (offset + size - 1) / pageSize;
+    }
+
+    /**
+     * Reads a value from its page.
+     *
+     * @param index element index
+     * @return value
+     */
+    @Override
+    public float getFloat(int index) {
+        return page(index).getFloat(index % pageSize);
+    }
+
+    /**
+     * Writes a value into its page.
+     *
+     * @param index element index
+     * @param value value to set
+     */
+    @Override
+    public void setFloat(int index, float value) {
+        page(index).setFloat(index % pageSize, value);
+    }
+
+    /**
+     * Loads a float vector from the page holding {@code index}.
+     *
+     * @param species vector species
+     * @param index offset index
+     * @return float vector
+     */
+    @Override
+    public FloatVector getFloatVector(VectorSpecies<Float> species, int index) {
+        assert withinPage(index, species.length());
+        return page(index).getFloatVector(species, index % pageSize);
+    }
+
+    /**
+     * Computes a dot product against a slice of one page.
+     *
+     * @param thisOffset offset in this tensor
+     * @param that other tensor
+     * @param thatOffset offset in other tensor
+     * @param size number of elements
+     * @return dot product
+     */
+    @Override
+    public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
+        assert withinPage(thisOffset, size);
+        return page(thisOffset).dot(thisOffset % pageSize, that, thatOffset, size);
+    }
+
+    /**
+     * Adds a scaled slice of one page into a float array.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     * @param alpha scaling factor
+     */
+    @Override
+    void saxpyInto(int thisOffset, float[] out, int outOffset, int size, float alpha) {
+        assert withinPage(thisOffset, size);
+        page(thisOffset).saxpyInto(thisOffset % pageSize, out, outOffset, size, alpha);
+    }
+
+    /**
+     * Stores values from a float array into the pages they fall in.
+     *
+     * @param thisOffset offset in this tensor
+     * @param in source array
+     * @param inOffset offset in the source array
+     * @param size number of elements
+     */
+    @Override
+    void copyFrom(int thisOffset, float[] in, int inOffset, int size) {
+        for (int done = 0, n; done < size; done += n) {
+            int offset = thisOffset + done;
+            n = Math.min(size - done, pageSize - offset % pageSize);
+            page(offset).copyFrom(offset % pageSize, in, inOffset + done, n);
+        }
+    }
+
+    /**
+     * Dequantizes a slice of the pages into a float array.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     */
+    @Override
+    void dequantize(int thisOffset, float[] out, int outOffset, int size) {
+        for (int done = 0, n; done < size; done += n) {
+            int offset = thisOffset + done;
+            n = Math.min(size - done, pageSize - offset % pageSize);
+            page(offset).dequantize(offset % pageSize, out, outOffset + done, n);
+        }
+    }
+
+    /**
+     * Copies values into another tensor page by page, so pages of the same type as the destination are copied
+     * as raw data.
+     *
+     * @param thisOffset offset in this tensor
+     * @param that destination tensor
+     * @param thatOffset offset in destination tensor
+     * @param size number of elements
+     */
+    @Override
+    public void copyTo(int thisOffset, FloatTensor that, int thatOffset, int size) {
+        for (int done = 0, n; done < size; done += n) {
+            int offset = thisOffset + done;
+            n = Math.min(size - done, pageSize - offset % pageSize);
+            page(offset).copyTo(offset % pageSize, that, thatOffset + done, n);
+        }
+    }
+
+    /**
+     * Copies values from another tensor into the pages they fall in, the mirror of
+     * {@link #copyTo(int, FloatTensor, int, int)} for a paged destination.
+     *
+     * @param thisOffset offset in this tensor
+     * @param source source tensor
+     * @param sourceOffset offset in the source tensor
+     * @param size number of elements
+     */
+    void copyFrom(int thisOffset, FloatTensor source, int sourceOffset, int size) {
+        for (int done = 0, n; done < size; done += n) {
+            int offset = thisOffset + done;
+            n = Math.min(size - done, pageSize - offset % pageSize);
+            source.copyTo(sourceOffset + done, page(offset), offset % pageSize, n);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.llama4j.gguf.GGMLType;
 
 import jdk.incubator.vector.ByteVector;
 import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
 import jdk.incubator.vector.VectorOperators;
 import jdk.incubator.vector.VectorSpecies;
 
@@ -93,6 +94,89 @@ public final class Q4_0FloatTensor extends FloatTensor {
         return quant * scale;
     }
 
+    /**
+     * Returns true, Q8_0 activations are dotted with an integer kernel.
+     *
+     * @return true
+     */
+    @Override
+    public boolean supportsQ8Activations() {
+        return true;
+    }
+
+    /**
+     * Dequantizes a slice of this tensor into a float array, one Q4_0 block at a time.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     */
+    @Override
+    void dequantize(int thisOffset, float[] out, int outOffset, int size) {
+        int blockSize = GGMLType.Q4_0.getBlockSize();
+        if (!FloatTensor.USE_VECTOR_API || thisOffset % blockSize != 0) {
+            super.dequantize(thisOffset, out, outOffset, size);
+            return;
+        }
+        int upperBound = size / blockSize * blockSize;
+        long blockOffset = (long) thisOffset / blockSize * GGMLType.Q4_0.getTypeSize();
+        for (int j = 0; j < upperBound; j += blockSize, blockOffset += GGMLType.Q4_0.getTypeSize()) {
+            float scale = Float.float16ToFloat(readShort(memorySegment, blockOffset));
+            var wBytes = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment,
+                    blockOffset + GGMLType.FLOAT16_BYTES, ByteOrder.LITTLE_ENDIAN);
+            storeQuants(wBytes.and((byte) 0xF).sub((byte) 8), scale, 0f, out, outOffset + j);
+            storeQuants(wBytes.lanewise(VectorOperators.LSHR, 4).sub((byte) 8), scale, 0f, out, outOffset + j + blockSize / 2);
+        }
+        if (upperBound < size) {
+            super.dequantize(thisOffset + upperBound, out, outOffset + upperBound, size - upperBound);
+        }
+    }
+
+    /**
+     * Computes two rows of a matrix-vector product, sharing each activation load across the rows.
+     *
+     * @param firstRow first output row
+     * @param dim1 input dimension, the length of each row
+     * @param that dense input vector
+     * @param out output tensor
+     */
+    @Override
+    void dotRows(int firstRow, int dim1, ArrayFloatTensor that, FloatTensor out) {
+        int blockSize = GGMLType.Q4_0.getBlockSize();
+        if (dim1 % blockSize != 0) {
+            super.dotRows(firstRow, dim1, that, out);
+            return;
+        }
+        long rowBytes = (long) dim1 / blockSize * GGMLType.Q4_0.getTypeSize();
+        long blockOffset = firstRow * rowBytes;
+        FloatVector acc0 = FloatVector.zero(F_SPECIES);
+        FloatVector acc1 = FloatVector.zero(F_SPECIES);
+        for (int j = 0; j < dim1; j += blockSize, blockOffset += GGMLType.Q4_0.getTypeSize()) {
+            var w0 = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment,
+                    blockOffset + GGMLType.FLOAT16_BYTES, ByteOrder.LITTLE_ENDIAN);
+            var w1 = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment,
+                    blockOffset + rowBytes + GGMLType.FLOAT16_BYTES, ByteOrder.LITTLE_ENDIAN);
+            FloatVector dot0 = FloatVector.zero(F_SPECIES);
+            FloatVector dot1 = FloatVector.zero(F_SPECIES);
+            for (int half = 0; half < 2; half++) {
+                int shift = half * 4;
+                var q0 = w0.lanewise(VectorOperators.LSHR, shift).and((byte) 0xF).sub((byte) 8);
+                var q1 = w1.lanewise(VectorOperators.LSHR, shift).and((byte) 0xF).sub((byte) 8);
+                int xOffset = j + half * (blockSize / 2);
+                var x0 = that.getFloatVector(F_SPECIES, xOffset);
+                var x1 = groupVector(that, xOffset, 1, x0);
+                var x2 = groupVector(that, xOffset, 2, x0);
+                var x3 = groupVector(that, xOffset, 3, x0);
+                dot0 = dotGroup(q0, x0, x1, x2, x3, dot0);
+                dot1 = dotGroup(q1, x0, x1, x2, x3, dot1);
+            }
+            acc0 = dot0.fma(FloatVector.broadcast(F_SPECIES, Float.float16ToFloat(readShort(memorySegment, blockOffset))), acc0);
+            acc1 = dot1.fma(FloatVector.broadcast(F_SPECIES, Float.float16ToFloat(readShort(memorySegment, blockOffset + rowBytes))), acc1);
+        }
+        storeRows(out, firstRow, acc0, acc1);
+    }
+
     /**
      * Computes dot product with potential vectorized path.
      *
@@ -104,6 +188,9 @@ public final class Q4_0FloatTensor extends FloatTensor {
      */
     @Override
     public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
+        if (that instanceof Q8_0ActivationTensor activations) {
+            return q8Dot(this, thisOffset, activations, thatOffset, size);
+        }
         if (FloatTensor.USE_VECTOR_API) {
             return vectorDot(this, thisOffset, (ArrayFloatTensor) that, thatOffset, size);
         } else {
@@ -135,7 +222,7 @@ public final class Q4_0FloatTensor extends FloatTensor {
 
         FloatVector val = FloatVector.zero(F_SPECIES);
         int blockOffset = (thisOffset + j) / GGMLType.Q4_0.getBlockSize() * GGMLType.Q4_0.getTypeSize();
-        int upperBound = size / GGMLType.Q4_0.getBlockSize() * GGMLType.Q4_0.getBlockSize();
+        int upperBound = j + (size - j) / GGMLType.Q4_0.getBlockSize() * GGMLType.Q4_0.getBlockSize();
         for (; j < upperBound; j += GGMLType.Q4_0.getBlockSize(), blockOffset += GGMLType.Q4_0.getTypeSize()) {
             float wScaleValue = Float.float16ToFloat(readShort(thiz.memorySegment, blockOffset));
             var wScale = FloatVector.broadcast(F_SPECIES, wScaleValue);
@@ -185,4 +272,38 @@ public final class Q4_0FloatTensor extends FloatTensor {
 
         return result;
     }
+
+    /**
+     * Integer dot product of Q4_0 weights against Q8_0-quantized activations.
+     *
+     * <p>Each 32-element block multiplies the signed nibbles by the activation quants in short lanes and scales
+     * the integer sum by the product of both block scales, like ggml's {@code vec_dot_q4_0_q8_0}.</p>
+     *
+     * @param thiz quantized tensor
+     * @param thisOffset offset in quantized tensor
+     * @param that quantized activations
+     * @param thatOffset offset in activations
+     * @param size number of elements
+     * @return dot product
+     */
+    private static float q8Dot(Q4_0FloatTensor thiz, int thisOffset, Q8_0ActivationTensor that, int thatOffset, int size) {
+        int blockSize = GGMLType.Q4_0.getBlockSize();
+        if (!FloatTensor.USE_VECTOR_API || thisOffset % blockSize != 0 || !that.isBlockAligned(thatOffset, size, blockSize)) {
+            return FloatTensor.scalarDot(thiz, thisOffset, that, thatOffset, size);
+        }
+        FloatVector val = FloatVector.zero(F_SPECIES);
+        long blockOffset = (long) thisOffset / blockSize * GGMLType.Q4_0.getTypeSize();
+        for (int j = 0; j < size; j += blockSize, blockOffset += GGMLType.Q4_0.getTypeSize()) {
+            float scale = Float.float16ToFloat(readShort(thiz.memorySegment, blockOffset))
+                    * that.scale((thatOffset + j) / blockSize);
+            var wBytes = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, thiz.memorySegment,
+                    blockOffset + GGMLType.FLOAT16_BYTES, ByteOrder.LITTLE_ENDIAN);
+            var loBytes = wBytes.and((byte) 0xF).sub((byte) 8);
+            var hiBytes = wBytes.lanewise(VectorOperators.LSHR, 4).sub((byte) 8);
+            IntVector blockSum = Q8_0ActivationTensor.mulAddBlock(loBytes, that.quantVector(thatOffset + j),
+                    hiBytes, that.quantVector(thatOffset + j + blockSize / 2), IntVector.zero(I_SPECIES));
+            val = Q8_0ActivationTensor.fmaBlock(blockSum, scale, val);
+        }
+        return val.reduceLanes(VectorOperators.ADD);
+    }
 }
@@ -0,0 +1,330 @@
+package com.llama4j.tensor;
+
+import com.llama4j.gguf.GGMLType;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+
+/**
+ * {@link GGMLType#Q4_0} matrix repacked so that pairs of rows are interleaved block by block.
+ *
+ * <p>For every pair of rows and every block column, the two scales are followed by the two rows' 16 bytes of
+ * quants, so the {@link #dotRows} kernel reads both rows of a group from one contiguous 36-byte run instead of
+ * two streams a row apart. The pair matches {@link FloatTensor#GEMV_ROWS}.</p>
+ *
+ * <p>Plain Q4_0 data is repacked with {@link #repack}; the ARM row-interleaved formats
+ * {@link GGMLType#Q4_0_4_4}, {@link GGMLType#Q4_0_4_8} and {@link GGMLType#Q4_0_8_8} are converted to this
+ * layout when loaded.</p>
+ */
+public final class Q4_0x2FloatTensor extends FloatTensor {
+    /** Rows per interleaved group. */
+    static final int ROWS = GEMV_ROWS;
+
+    private static final int BLOCK_SIZE = GGMLType.Q4_0.getBlockSize();
+    private static final int QUANT_BYTES = BLOCK_SIZE / 2;
+    private static final int GROUP_BLOCK_BYTES = ROWS * GGMLType.Q4_0.getTypeSize();
+
+    private final int size;
+    private final int columns;
+    private final MemorySegment memorySegment;
+
+    /**
+     * Creates a tensor over data already in the interleaved layout.
+     *
+     * @param size number of elements
+     * @param columns row length, a multiple of the block size
+     * @param memorySegment interleaved tensor data
+     */
+    public Q4_0x2FloatTensor(int size, int columns, MemorySegment memorySegment) {
+        if (columns % BLOCK_SIZE != 0 || size % (columns * ROWS) != 0) {
+            throw new IllegalArgumentException("columns=" + columns + ", size=" + size);
+        }
+        this.size = size;
+        this.columns = columns;
+        this.memorySegment = memorySegment;
+    }
+
+    /**
+     * Repacks Q4_0 or ARM row-interleaved Q4_0 data into the two-row interleaved layout.
+     *
+     * @param type source type, {@link GGMLType#Q4_0} or one of the {@code Q4_0_N_M} types
+     * @param size number of elements
+     * @param columns row length
+     * @param source source tensor data
+     * @return repacked tensor backed by a new off-heap segment
+     */
+    public static Q4_0x2FloatTensor repack(GGMLType type, int size, int columns, MemorySegment source) {
+        int sourceRows = switch (type) {
+            case Q4_0 -> 1;
+            case Q4_0_4_4, Q4_0_4_8 -> 4;
+            case Q4_0_8_8 -> 8;
+            default -> throw new IllegalArgumentException("Cannot repack " + type + " as Q4_0");
+        };
+        int interleave = type == GGMLType.Q4_0_4_4 ? 4 : 8;
+        int rows = size / columns;
+        if (columns % BLOCK_SIZE != 0 || rows % Math.max(sourceRows, ROWS) != 0) {
+            throw new IllegalArgumentException(type + " with " + rows + " rows of " + columns);
+        }
+        int blocksPerRow = columns / BLOCK_SIZE;
+        int typeSize = GGMLType.Q4_0.getTypeSize();
+        MemorySegment target = Arena.ofAuto().allocate(GGMLType.Q4_0.byteSizeFor(size), Long.BYTES);
+        byte[] block = new byte[typeSize];
+        byte[] group = new byte[sourceRows * typeSize];
+        MemorySegment blockSegment = MemorySegment.ofArray(block);
+        MemorySegment groupSegment = MemorySegment.ofArray(group);
+        for (int row = 0; row < rows; row++) {
+            for (int b = 0; b < blocksPerRow; b++) {
+                long sourceOffset = ((long) (row / sourceRows) * blocksPerRow + b) * sourceRows * typeSize;
+                if (sourceRows == 1) {
+                    MemorySegment.copy(source, sourceOffset, blockSegment, 0, typeSize);
+                } else {
+                    MemorySegment.copy(source, sourceOffset, groupSegment, 0, group.length);
+                    deinterleave(group, sourceRows, interleave, row % sourceRows, block);
+                }
+                long targetOffset = ((long) (row / ROWS) * blocksPerRow + b) * GROUP_BLOCK_BYTES;
+                int r = row % ROWS;
+                MemorySegment.copy(blockSegment, 0, target,
+                        targetOffset + r * GGMLType.FLOAT16_BYTES, GGMLType.FLOAT16_BYTES);
+                MemorySegment.copy(blockSegment, GGMLType.FLOAT16_BYTES, target,
+                        targetOffset + ROWS * GGMLType.FLOAT16_BYTES + r * QUANT_BYTES, QUANT_BYTES);
+            }
+        }
+        return new Q4_0x2FloatTensor(size, columns, target);
+    }
+
+    /**
+     * Extracts one row's plain Q4_0 block from an ARM row-interleaved group.
+     *
+     * <p>The group holds the scales of all rows followed by their quants in runs of {@code interleave} bytes,
+     * row after row, with the nibbles stored signed ({@code ^ 0x88}) as ggml's {@code block_q4_0x4/x8}.</p>
+     *
+     * @param group interleaved group of {@code rows} blocks
+     * @param rows rows in the group
+     * @param interleave quant bytes per row run
+     * @param row row to extract
+     * @param block destination Q4_0 block
+     */
+    private static void deinterleave(byte[] group, int rows, int interleave, int row, byte[] block) {
+        block[0] = group[row * GGMLType.FLOAT16_BYTES];
+        block[1] = group[row * GGMLType.FLOAT16_BYTES + 1];
+        int quants = rows * GGMLType.FLOAT16_BYTES;
+        for (int i = 0; i < QUANT_BYTES; i++) {
+            int chunk = i / interleave;
+            block[GGMLType.FLOAT16_BYTES + i] =
+                    (byte) (group[quants + (chunk * rows + row) * interleave + i % interleave] ^ 0x88);
+        }
+    }
+
+    /**
+     * Returns the number of elements.
+     *
+     * @return element count
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Unsupported for quantized tensor.
+     *
+     * @param index element index
+     * @param value value to set
+     */
+    @Override
+    public void setFloat(int index, float value) {
+        throw new UnsupportedOperationException("setFloat");
+    }
+
+    /**
+     * Unsupported for quantized tensor.
+     *
+     * @param species vector species
+     * @param index offset index
+     * @return float vector
+     */
+    @Override
+    public FloatVector getFloatVector(VectorSpecies<Float> species, int index) {
+        throw new UnsupportedOperationException("getFloatVector");
+    }
+
+    /**
+     * Returns the GGML type of the blocks.
+     *
+     * @return GGML type
+     */
+    @Override
+    public GGMLType type() {
+        return GGMLType.Q4_0;
+    }
+
+    /**
+     * Returns the offset of the interleaved group block holding a row's block.
+     *
+     * @param row matrix row
+     * @param block block index within the row
+     * @return byte offset of the group block
+     */
+    private long groupBlockOffset(int row, int block) {
+        return ((long) (row / ROWS) * (columns / BLOCK_SIZE) + block) * GROUP_BLOCK_BYTES;
+    }
+
+    /**
+     * Reads a dequantized float value.
+     *
+     * @param index element index
+     * @return dequantized value
+     */
+    @Override
+    public float getFloat(int index) {
+        assert 0 <= index && index < size;
+        int row = index / columns;
+        int column = index % columns;
+        int r = row % ROWS;
+        long groupOffset = groupBlockOffset(row, column / BLOCK_SIZE);
+        float scale = Float.float16ToFloat(readShort(memorySegment, groupOffset + r * GGMLType.FLOAT16_BYTES));
+        int modIndex = column % BLOCK_SIZE;
+        long quantsOffset = groupOffset + ROWS * GGMLType.FLOAT16_BYTES + r * QUANT_BYTES;
+        byte quant;
+        if (modIndex < QUANT_BYTES) {
+            quant = (byte) (readByte(memorySegment, quantsOffset + modIndex) & 0x0F);
+        } else {
+            quant = (byte) ((readByte(memorySegment, quantsOffset + modIndex - QUANT_BYTES) >>> 4) & 0x0F);
+        }
+        quant -= 8;
+        return quant * scale;
+    }
+
+    /**
+     * Checks whether a slice covers whole blocks of a single row.
+     *
+     * @param thisOffset offset in this tensor
+     * @param size number of elements
+     * @return true when the vector kernels can walk the slice block by block
+     */
+    private boolean isBlockAlignedRowSlice(int thisOffset, int size) {
+        return thisOffset % BLOCK_SIZE == 0 && size % BLOCK_SIZE == 0
+                && thisOffset % columns + size <= columns;
+    }
+
+    /**
+     * Dequantizes a slice of one row into a float array, one Q4_0 block at a time.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     */
+    @Override
+    void dequantize(int thisOffset, float[] out, int outOffset, int size) {
+        if (!FloatTensor.USE_VECTOR_API || !isBlockAlignedRowSlice(thisOffset, size)) {
+            super.dequantize(thisOffset, out, outOffset, size);
+            return;
+        }
+        int row = thisOffset / columns;
+        int r = row % ROWS;
+        int firstBlock = thisOffset % columns / BLOCK_SIZE;
+        for (int j = 0; j < size; j += BLOCK_SIZE) {
+            long groupOffset = groupBlockOffset(row, firstBlock + j / BLOCK_SIZE);
+            float scale = Float.float16ToFloat(readShort(memorySegment, groupOffset + r * GGMLType.FLOAT16_BYTES));
+            var wBytes = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment,
+                    groupOffset + ROWS * GGMLType.FLOAT16_BYTES + r * QUANT_BYTES, ByteOrder.LITTLE_ENDIAN);
+            storeQuants(wBytes.and((byte) 0xF).sub((byte) 8), scale, 0f, out, outOffset + j);
+            storeQuants(wBytes.lanewise(VectorOperators.LSHR, 4).sub((byte) 8), scale, 0f, out, outOffset + j + QUANT_BYTES);
+        }
+    }
+
+    /**
+     * Computes an interleaved row pair of a matrix-vector product.
+     *
+     * @param firstRow first output row, a multiple of {@link #ROWS}
+     * @param dim1 input dimension, the length of each row
+     * @param that dense input vector
+     * @param out output tensor
+     */
+    @Override
+    void dotRows(int firstRow, int dim1, ArrayFloatTensor that, FloatTensor out) {
+        long groupOffset = groupBlockOffset(firstRow, 0);
+        FloatVector acc0 = FloatVector.zero(F_SPECIES);
+        FloatVector acc1 = FloatVector.zero(F_SPECIES);
+        for (int j = 0; j < dim1; j += BLOCK_SIZE, groupOffset += GROUP_BLOCK_BYTES) {
+            long quantsOffset = groupOffset + ROWS * GGMLType.FLOAT16_BYTES;
+            var w0 = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment, quantsOffset, ByteOrder.LITTLE_ENDIAN);
+            var w1 = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment, quantsOffset + QUANT_BYTES,
+                    ByteOrder.LITTLE_ENDIAN);
+            FloatVector dot0 = FloatVector.zero(F_SPECIES);
+            FloatVector dot1 = FloatVector.zero(F_SPECIES);
+            for (int half = 0; half < 2; half++) {
+                int shift = half * 4;
+                var q0 = w0.lanewise(VectorOperators.LSHR, shift).and((byte) 0xF).sub((byte) 8);
+                var q1 = w1.lanewise(VectorOperators.LSHR, shift).and((byte) 0xF).sub((byte) 8);
+                int xOffset = j + half * QUANT_BYTES;
+                var x0 = that.getFloatVector(F_SPECIES, xOffset);
+                var x1 = groupVector(that, xOffset, 1, x0);
+                var x2 = groupVector(that, xOffset, 2, x0);
+                var x3 = groupVector(that, xOffset, 3, x0);
+                dot0 = dotGroup(q0, x0, x1, x2, x3, dot0);
+                dot1 = dotGroup(q1, x0, x1, x2, x3, dot1);
+            }
+            acc0 = dot0.fma(FloatVector.broadcast(F_SPECIES, Float.float16ToFloat(readShort(memorySegment, groupOffset))), acc0);
+            acc1 = dot1.fma(FloatVector.broadcast(F_SPECIES,
+                    Float.float16ToFloat(readShort(memorySegment, groupOffset + GGMLType.FLOAT16_BYTES))), acc1);
+        }
+        storeRows(out, firstRow, acc0, acc1);
+    }
+
+    /**
+     * Computes dot product with potential vectorized path.
+     *
+     * @param thisOffset offset in this tensor
+     * @param that other tensor
+     * @param thatOffset offset in other tensor
+     * @param size number of elements
+     * @return dot product
+     */
+    @Override
+    public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
+        if (FloatTensor.USE_VECTOR_API && that instanceof ArrayFloatTensor dense && isBlockAlignedRowSlice(thisOffset, size)) {
+            return vectorDot(thisOffset, dense, thatOffset, size);
+        }
+        return FloatTensor.scalarDot(this, thisOffset, that, thatOffset, size);
+    }
+
+    /**
+     * Vectorized dot product of a block-aligned slice of one row.
+     *
+     * @param thisOffset offset in this tensor
+     * @param that dense tensor
+     * @param thatOffset offset in dense tensor
+     * @param size number of elements
+     * @return dot product
+     */
+    private float vectorDot(int thisOffset, ArrayFloatTensor that, int thatOffset, int size) {
+        int row = thisOffset / columns;
+        int r = row % ROWS;
+        int firstBlock = thisOffset % columns / BLOCK_SIZE;
+        FloatVector acc = FloatVector.zero(F_SPECIES);
+        for (int j = 0; j < size; j += BLOCK_SIZE) {
+            long groupOffset = groupBlockOffset(row, firstBlock + j / BLOCK_SIZE);
+            var w = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment,
+                    groupOffset + ROWS * GGMLType.FLOAT16_BYTES + r * QUANT_BYTES, ByteOrder.LITTLE_ENDIAN);
+            FloatVector dot = FloatVector.zero(F_SPECIES);
+            for (int half = 0; half < 2; half++) {
+                var q = w.lanewise(VectorOperators.LSHR, half * 4).and((byte) 0xF).sub((byte) 8);
+                int xOffset = thatOffset + j + half * QUANT_BYTES;
+                var x0 = that.getFloatVector(F_SPECIES, xOffset);
+                dot = dotGroup(q, x0, groupVector(that, xOffset, 1, x0), groupVector(that, xOffset, 2, x0),
+                        groupVector(that, xOffset, 3, x0), dot);
+            }
+            float scale = Float.float16ToFloat(readShort(memorySegment, groupOffset + r * GGMLType.FLOAT16_BYTES));
+            acc = dot.fma(FloatVector.broadcast(F_SPECIES, scale), acc);
+        }
+        return acc.reduceLanes(VectorOperators.ADD);
+    }
+}
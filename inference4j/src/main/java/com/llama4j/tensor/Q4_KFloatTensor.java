@@ -2,11 +2,21 @@ package com.llama4j.tensor;
 
 import com.llama4j.gguf.GGMLType;
 
+import jdk.incubator.vector.ByteVector;
 import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
 import jdk.incubator.vector.VectorSpecies;
 
+import java.nio.ByteOrder;
+
 /**
  * {@link FloatTensor} quantized in the {@link GGMLType#Q4_K} format.
+ *
+ * <p>A 256-element block holds an F16 scale {@code d} and min {@code dmin}, eight 6-bit sub-block scales and
+ * mins packed into 12 bytes and 128 bytes of nibbles. The block is split into four 64-element chunks of 32 bytes:
+ * sub-block {@code 2c} of chunk {@code c} takes the low nibbles of its bytes and sub-block {@code 2c + 1} their
+ * high nibbles. Element values are {@code d * scale * q - dmin * min}, as in ggml's {@code dequantize_row_q4_K}.</p>
  */
 public final class Q4_KFloatTensor extends FloatTensor {
     private static final int SUB_BLOCK_COUNT = 8;
@@ -16,6 +26,12 @@ public final class Q4_KFloatTensor extends FloatTensor {
     private static final int SCALES_OFFSET = HEADER_BYTES;
     private static final int QS_OFFSET = HEADER_BYTES + SCALES_LENGTH;
 
+    /**
+     * Per-thread scales of a {@link #dotRows} group, followed by its mins.
+     */
+    private static final ThreadLocal<float[]> ROW_SCALES =
+            ThreadLocal.withInitial(() -> new float[2 * GEMV_ROWS * SUB_BLOCK_COUNT]);
+
     private final int size;
     private final java.lang.foreign.MemorySegment memorySegment;
 
@@ -83,28 +99,130 @@ public final class Q4_KFloatTensor extends FloatTensor {
     public float getFloat(int index) {
         assert 0 <= index && index < size;
         int blockIndex = index / GGMLType.Q4_K.getBlockSize();
-        int blockOffset = blockIndex * GGMLType.Q4_K.getTypeSize();
+        long blockOffset = (long) blockIndex * GGMLType.Q4_K.getTypeSize();
         float blockScale = Float.float16ToFloat(readShort(memorySegment, blockOffset));
         float blockMin = Float.float16ToFloat(readShort(memorySegment, blockOffset + GGMLType.FLOAT16_BYTES));
 
         int blockElement = index % GGMLType.Q4_K.getBlockSize();
         int subBlock = blockElement / SUB_BLOCK_SIZE;
 
-        int scale = readScale(memorySegment, blockOffset + SCALES_OFFSET, subBlock);
-        int min = readScale(memorySegment, blockOffset + SCALES_OFFSET, subBlock + SUB_BLOCK_COUNT);
-        float scaleValue = blockScale * scale;
-        float minValue = blockMin * min;
+        int l = blockElement % SUB_BLOCK_SIZE;
+        float scaleValue = blockScale * readScale(memorySegment, blockOffset + SCALES_OFFSET, subBlock);
+        float minValue = blockMin * readMin(memorySegment, blockOffset + SCALES_OFFSET, subBlock);
+
+        byte quantByte = readByte(memorySegment, blockOffset + QS_OFFSET + subBlock / 2 * SUB_BLOCK_SIZE + l);
+        int quant = (subBlock % 2 == 0) ? (quantByte & 0x0F) : ((quantByte >>> 4) & 0x0F);
 
-        int quantIndex = blockElement;
-        int quantByteIndex = quantIndex / 2;
-        byte quantByte = readByte(memorySegment, blockOffset + QS_OFFSET + quantByteIndex);
-        int quant = (quantIndex % 2 == 0) ? (quantByte & 0x0F) : ((quantByte >>> 4) & 0x0F);
+        return scaleValue * quant - minValue;
+    }
+
+    /**
+     * Returns true, Q8_0 activations are dotted with an integer kernel.
+     *
+     * @return true
+     */
+    @Override
+    public boolean supportsQ8Activations() {
+        return true;
+    }
+
+    /**
+     * Dequantizes a slice of this tensor into a float array, one Q4_K block at a time.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     */
+    @Override
+    void dequantize(int thisOffset, float[] out, int outOffset, int size) {
+        int blockSize = GGMLType.Q4_K.getBlockSize();
+        if (!FloatTensor.USE_VECTOR_API || thisOffset % blockSize != 0) {
+            super.dequantize(thisOffset, out, outOffset, size);
+            return;
+        }
+        int upperBound = size / blockSize * blockSize;
+        long blockOffset = (long) thisOffset / blockSize * GGMLType.Q4_K.getTypeSize();
+        for (int j = 0; j < upperBound; j += blockSize, blockOffset += GGMLType.Q4_K.getTypeSize()) {
+            float blockScale = Float.float16ToFloat(readShort(memorySegment, blockOffset));
+            float blockMin = Float.float16ToFloat(readShort(memorySegment, blockOffset + GGMLType.FLOAT16_BYTES));
+            for (int subBlock = 0; subBlock < SUB_BLOCK_COUNT; subBlock++) {
+                float scale = blockScale * readScale(memorySegment, blockOffset + SCALES_OFFSET, subBlock);
+                float min = -blockMin * readMin(memorySegment, blockOffset + SCALES_OFFSET, subBlock);
+                for (int half = 0; half < 2; half++) {
+                    int elementOffset = subBlock * SUB_BLOCK_SIZE + half * (SUB_BLOCK_SIZE / 2);
+                    ByteVector quants = loadQuants(memorySegment, blockOffset, elementOffset);
+                    storeQuants(quants, scale, min, out, outOffset + j + elementOffset);
+                }
+            }
+        }
+        if (upperBound < size) {
+            super.dequantize(thisOffset + upperBound, out, outOffset + upperBound, size - upperBound);
+        }
+    }
 
-        return scaleValue * quant + minValue;
+    /**
+     * Computes two rows of a matrix-vector product, sharing each activation load across the rows.
+     *
+     * <p>The activation sum of every sub-block is computed once and shared by both min terms. The decoded scales
+     * and mins of the group go to a per-thread buffer, so the decode loop does not allocate.</p>
+     *
+     * @param firstRow first output row
+     * @param dim1 input dimension, the length of each row
+     * @param that dense input vector
+     * @param out output tensor
+     */
+    @Override
+    void dotRows(int firstRow, int dim1, ArrayFloatTensor that, FloatTensor out) {
+        int blockSize = GGMLType.Q4_K.getBlockSize();
+        if (dim1 % blockSize != 0) {
+            super.dotRows(firstRow, dim1, that, out);
+            return;
+        }
+        long rowBytes = (long) dim1 / blockSize * GGMLType.Q4_K.getTypeSize();
+        long blockOffset = firstRow * rowBytes;
+        float[] scales = ROW_SCALES.get();
+        int minOffset = GEMV_ROWS * SUB_BLOCK_COUNT;
+        FloatVector acc0 = FloatVector.zero(F_SPECIES);
+        FloatVector acc1 = FloatVector.zero(F_SPECIES);
+        for (int j = 0; j < dim1; j += blockSize, blockOffset += GGMLType.Q4_K.getTypeSize()) {
+            for (int r = 0; r < GEMV_ROWS; r++) {
+                long rowBlockOffset = blockOffset + r * rowBytes;
+                float blockScale = Float.float16ToFloat(readShort(memorySegment, rowBlockOffset));
+                float blockMin = Float.float16ToFloat(readShort(memorySegment, rowBlockOffset + GGMLType.FLOAT16_BYTES));
+                for (int subBlock = 0; subBlock < SUB_BLOCK_COUNT; subBlock++) {
+                    scales[r * SUB_BLOCK_COUNT + subBlock] = blockScale * readScale(memorySegment, rowBlockOffset + SCALES_OFFSET, subBlock);
+                    scales[minOffset + r * SUB_BLOCK_COUNT + subBlock] = -blockMin * readMin(memorySegment, rowBlockOffset + SCALES_OFFSET, subBlock);
+                }
+            }
+            for (int subBlock = 0; subBlock < SUB_BLOCK_COUNT; subBlock++) {
+                FloatVector dot0 = FloatVector.zero(F_SPECIES);
+                FloatVector dot1 = FloatVector.zero(F_SPECIES);
+                FloatVector sumx = FloatVector.zero(F_SPECIES);
+                for (int half = 0; half < 2; half++) {
+                    int elementOffset = subBlock * SUB_BLOCK_SIZE + half * (SUB_BLOCK_SIZE / 2);
+                    ByteVector q0 = loadQuants(memorySegment, blockOffset, elementOffset);
+                    ByteVector q1 = loadQuants(memorySegment, blockOffset + rowBytes, elementOffset);
+                    int xOffset = j + elementOffset;
+                    var x0 = that.getFloatVector(F_SPECIES, xOffset);
+                    var x1 = groupVector(that, xOffset, 1, x0);
+                    var x2 = groupVector(that, xOffset, 2, x0);
+                    var x3 = groupVector(that, xOffset, 3, x0);
+                    dot0 = dotGroup(q0, x0, x1, x2, x3, dot0);
+                    dot1 = dotGroup(q1, x0, x1, x2, x3, dot1);
+                    sumx = sumx.add(sumGroup(x0, x1, x2, x3));
+                }
+                acc0 = dot0.fma(FloatVector.broadcast(F_SPECIES, scales[subBlock]), acc0);
+                acc0 = sumx.fma(FloatVector.broadcast(F_SPECIES, scales[minOffset + subBlock]), acc0);
+                acc1 = dot1.fma(FloatVector.broadcast(F_SPECIES, scales[SUB_BLOCK_COUNT + subBlock]), acc1);
+                acc1 = sumx.fma(FloatVector.broadcast(F_SPECIES, scales[minOffset + SUB_BLOCK_COUNT + subBlock]), acc1);
+            }
+        }
+        storeRows(out, firstRow, acc0, acc1);
     }
 
     /**
-     * Computes dot product.
+     * Computes dot product with potential vectorized path.
      *
      * @param thisOffset offset in this tensor
      * @param that other tensor
@@ -114,18 +232,191 @@ public final class Q4_KFloatTensor extends FloatTensor {
      */
     @Override
     public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
-        return FloatTensor.scalarDot(this, thisOffset, that, thatOffset, size);
+        if (that instanceof Q8_0ActivationTensor activations) {
+            return q8Dot(this, thisOffset, activations, thatOffset, size);
+        }
+        if (FloatTensor.USE_VECTOR_API) {
+            return vectorDot(this, thisOffset, (ArrayFloatTensor) that, thatOffset, size);
+        } else {
+            return FloatTensor.scalarDot(this, thisOffset, that, thatOffset, size);
+        }
     }
 
-    private static int readScale(java.lang.foreign.MemorySegment memorySegment, long scalesOffset, int index) {
-        int bitOffset = index * 6;
-        int byteIndex = bitOffset / 8;
-        int bitIndex = bitOffset % 8;
-        int b0 = readByte(memorySegment, scalesOffset + byteIndex) & 0xFF;
-        if (bitIndex <= 2) {
-            return (b0 >> bitIndex) & 0x3F;
+    /**
+     * Vectorized dot product specialized for Q4_K weights.
+     *
+     * <p>The block header and the sixteen packed 6-bit scale/min values are decoded once per
+     * 256-element super-block; each 32-element sub-block then contributes
+     * {@code scale * dot(q, x) - min * sum(x)}.</p>
+     *
+     * @param thiz quantized tensor
+     * @param thisOffset offset in quantized tensor
+     * @param that dense tensor
+     * @param thatOffset offset in dense tensor
+     * @param size number of elements
+     * @return dot product
+     */
+    private static float vectorDot(Q4_KFloatTensor thiz, int thisOffset, ArrayFloatTensor that, int thatOffset, int size) {
+        float result = 0f;
+        int j = 0;
+
+        assert Integer.bitCount(GGMLType.Q4_K.getBlockSize()) == 1 : "power of 2";
+        int alignmentBound = Math.min(size, -thisOffset & (GGMLType.Q4_K.getBlockSize() - 1));
+        if (alignmentBound > 0) {
+            result += FloatTensor.scalarDot(thiz, thisOffset, that, thatOffset, alignmentBound);
+            j += alignmentBound;
+        }
+        assert (thisOffset + j) % GGMLType.Q4_K.getBlockSize() == 0;
+
+        float[] scales = new float[SUB_BLOCK_COUNT];
+        float[] mins = new float[SUB_BLOCK_COUNT];
+        FloatVector val = FloatVector.zero(F_SPECIES);
+        long blockOffset = (long) (thisOffset + j) / GGMLType.Q4_K.getBlockSize() * GGMLType.Q4_K.getTypeSize();
+        int upperBound = j + (size - j) / GGMLType.Q4_K.getBlockSize() * GGMLType.Q4_K.getBlockSize();
+        for (; j < upperBound; j += GGMLType.Q4_K.getBlockSize(), blockOffset += GGMLType.Q4_K.getTypeSize()) {
+            float blockScale = Float.float16ToFloat(readShort(thiz.memorySegment, blockOffset));
+            float blockMin = Float.float16ToFloat(readShort(thiz.memorySegment, blockOffset + GGMLType.FLOAT16_BYTES));
+            for (int subBlock = 0; subBlock < SUB_BLOCK_COUNT; subBlock++) {
+                scales[subBlock] = blockScale * readScale(thiz.memorySegment, blockOffset + SCALES_OFFSET, subBlock);
+                mins[subBlock] = -blockMin * readMin(thiz.memorySegment, blockOffset + SCALES_OFFSET, subBlock);
+            }
+            for (int subBlock = 0; subBlock < SUB_BLOCK_COUNT; subBlock++) {
+                FloatVector dotq = FloatVector.zero(F_SPECIES);
+                FloatVector sumx = FloatVector.zero(F_SPECIES);
+                for (int half = 0; half < 2; half++) {
+                    int elementOffset = subBlock * SUB_BLOCK_SIZE + half * (SUB_BLOCK_SIZE / 2);
+                    ByteVector quants = loadQuants(thiz.memorySegment, blockOffset, elementOffset);
+                    int xOffset = thatOffset + j + elementOffset;
+                    switch (F_SPECIES.vectorBitSize()) {
+                        case 512 -> {
+                            var x0 = that.getFloatVector(F_SPECIES, xOffset);
+                            dotq = x0.fma(quants.castShape(F_SPECIES, 0), dotq);
+                            sumx = sumx.add(x0);
+                        }
+                        case 256 -> {
+                            var x0 = that.getFloatVector(F_SPECIES, xOffset);
+                            var x1 = that.getFloatVector(F_SPECIES, xOffset + F_SPECIES.length());
+                            dotq = x0.fma(quants.castShape(F_SPECIES, 0), dotq);
+                            dotq = x1.fma(quants.castShape(F_SPECIES, 1), dotq);
+                            sumx = sumx.add(x0).add(x1);
+                        }
+                        case 128 -> {
+                            for (int i = 0; i < 4; ++i) {
+                                var x = that.getFloatVector(F_SPECIES, xOffset + i * F_SPECIES.length());
+                                dotq = x.fma(quants.castShape(F_SPECIES, i), dotq);
+                                sumx = sumx.add(x);
+                            }
+                        }
+                        default -> throw new UnsupportedOperationException(F_SPECIES.toString());
+                    }
+                }
+                val = dotq.fma(FloatVector.broadcast(F_SPECIES, scales[subBlock]), val);
+                val = sumx.fma(FloatVector.broadcast(F_SPECIES, mins[subBlock]), val);
+            }
+        }
+        result += val.reduceLanes(VectorOperators.ADD);
+
+        if (j < size) {
+            result += FloatTensor.scalarDot(thiz, thisOffset + j, that, thatOffset + j, size - j);
+        }
+
+        return result;
+    }
+
+    /**
+     * Integer dot product of Q4_K weights against Q8_0-quantized activations.
+     *
+     * <p>Activation blocks line up with the 32-element sub-blocks, so each sub-block contributes
+     * {@code scale * activationScale * dot(q, a) - min * activationSum}.</p>
+     *
+     * @param thiz quantized tensor
+     * @param thisOffset offset in quantized tensor
+     * @param that quantized activations
+     * @param thatOffset offset in activations
+     * @param size number of elements
+     * @return dot product
+     */
+    private static float q8Dot(Q4_KFloatTensor thiz, int thisOffset, Q8_0ActivationTensor that, int thatOffset, int size) {
+        int blockSize = GGMLType.Q4_K.getBlockSize();
+        if (!FloatTensor.USE_VECTOR_API || thisOffset % blockSize != 0 || size % blockSize != 0
+                || !that.isBlockAligned(thatOffset, size, SUB_BLOCK_SIZE)) {
+            return FloatTensor.scalarDot(thiz, thisOffset, that, thatOffset, size);
+        }
+        float minSum = 0f;
+        FloatVector val = FloatVector.zero(F_SPECIES);
+        long blockOffset = (long) thisOffset / blockSize * GGMLType.Q4_K.getTypeSize();
+        for (int j = 0; j < size; j += blockSize, blockOffset += GGMLType.Q4_K.getTypeSize()) {
+            float blockScale = Float.float16ToFloat(readShort(thiz.memorySegment, blockOffset));
+            float blockMin = Float.float16ToFloat(readShort(thiz.memorySegment, blockOffset + GGMLType.FLOAT16_BYTES));
+            for (int subBlock = 0; subBlock < SUB_BLOCK_COUNT; subBlock++) {
+                int elementOffset = subBlock * SUB_BLOCK_SIZE;
+                int activationBlock = (thatOffset + j + elementOffset) / SUB_BLOCK_SIZE;
+                int secondHalf = elementOffset + SUB_BLOCK_SIZE / 2;
+                IntVector blockSum = Q8_0ActivationTensor.mulAddBlock(
+                        loadQuants(thiz.memorySegment, blockOffset, elementOffset),
+                        that.quantVector(thatOffset + j + elementOffset),
+                        loadQuants(thiz.memorySegment, blockOffset, secondHalf),
+                        that.quantVector(thatOffset + j + secondHalf), IntVector.zero(I_SPECIES));
+                float scale = blockScale * readScale(thiz.memorySegment, blockOffset + SCALES_OFFSET, subBlock);
+                val = Q8_0ActivationTensor.fmaBlock(blockSum, scale * that.scale(activationBlock), val);
+                minSum -= blockMin * readMin(thiz.memorySegment, blockOffset + SCALES_OFFSET, subBlock)
+                        * that.sum(activationBlock);
+            }
+        }
+        return val.reduceLanes(VectorOperators.ADD) + minSum;
+    }
+
+    /**
+     * Loads 16 consecutive 4-bit quants in element order.
+     *
+     * <p>The 16 elements share one sub-block, so they are the low or high nibbles of 16 consecutive quant
+     * bytes.</p>
+     *
+     * @param memorySegment tensor data segment
+     * @param blockOffset byte offset of the block
+     * @param elementOffset first element within the block, a multiple of 16
+     * @return byte vector of 16 unsigned 4-bit quants
+     */
+    private static ByteVector loadQuants(java.lang.foreign.MemorySegment memorySegment, long blockOffset, int elementOffset) {
+        int subBlock = elementOffset / SUB_BLOCK_SIZE;
+        ByteVector packed = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment,
+                blockOffset + QS_OFFSET + subBlock / 2 * SUB_BLOCK_SIZE + elementOffset % SUB_BLOCK_SIZE,
+                ByteOrder.LITTLE_ENDIAN);
+        return (subBlock % 2 == 0) ? packed.and((byte) 0x0F) : packed.lanewise(VectorOperators.LSHR, 4);
+    }
+
+    /**
+     * Reads the 6-bit scale of a sub-block from the 12-byte scales area, packed as in ggml's
+     * {@code get_scale_min_k4}: sub-blocks 0-3 in the low 6 bits of bytes 0-3, sub-blocks 4-7 in the low nibbles
+     * of bytes 8-11 with their top two bits in the high bits of bytes 0-3.
+     *
+     * @param memorySegment tensor data segment
+     * @param scalesOffset byte offset of the scales area
+     * @param subBlock sub-block index
+     * @return unsigned 6-bit scale
+     */
+    private static int readScale(java.lang.foreign.MemorySegment memorySegment, long scalesOffset, int subBlock) {
+        if (subBlock < 4) {
+            return readByte(memorySegment, scalesOffset + subBlock) & 0x3F;
+        }
+        return (readByte(memorySegment, scalesOffset + subBlock + 4) & 0x0F)
+                | (((readByte(memorySegment, scalesOffset + subBlock - 4) & 0xFF) >>> 6) << 4);
+    }
+
+    /**
+     * Reads the 6-bit min of a sub-block from the 12-byte scales area: sub-blocks 0-3 in the low 6 bits of bytes
+     * 4-7, sub-blocks 4-7 in the high nibbles of bytes 8-11 with their top two bits in the high bits of bytes 4-7.
+     *
+     * @param memorySegment tensor data segment
+     * @param scalesOffset byte offset of the scales area
+     * @param subBlock sub-block index
+     * @return unsigned 6-bit min
+     */
+    private static int readMin(java.lang.foreign.MemorySegment memorySegment, long scalesOffset, int subBlock) {
+        if (subBlock < 4) {
+            return readByte(memorySegment, scalesOffset + subBlock + 4) & 0x3F;
         }
-        int b1 = readByte(memorySegment, scalesOffset + byteIndex + 1) & 0xFF;
-        return ((b0 >> bitIndex) | (b1 << (8 - bitIndex))) & 0x3F;
+        return ((readByte(memorySegment, scalesOffset + subBlock + 4) & 0xFF) >>> 4)
+                | (((readByte(memorySegment, scalesOffset + subBlock) & 0xFF) >>> 6) << 4);
     }
 }
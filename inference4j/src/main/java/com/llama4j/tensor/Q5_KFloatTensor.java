@@ -0,0 +1,305 @@
+package com.llama4j.tensor;
+
+import com.llama4j.gguf.GGMLType;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteOrder;
+
+/**
+ * {@link FloatTensor} quantized in the {@link GGMLType#Q5_K} format.
+ *
+ * <p>A 256-element block holds an F16 scale {@code d} and min {@code dmin}, eight 6-bit sub-block scales and
+ * mins packed into 12 bytes, 32 {@code qh} bytes with the fifth bit of every quant and 128 bytes of low nibbles.
+ * The block is split into four 64-element chunks that share 32 nibble bytes: sub-block {@code 2c} of chunk
+ * {@code c} takes their low nibbles and sub-block {@code 2c + 1} their high nibbles, and element {@code l} of a
+ * sub-block {@code s} takes its fifth bit from bit {@code s} of {@code qh[l]}. Element values are
+ * {@code d * scale * q - dmin * min}, as in ggml's {@code dequantize_row_q5_K}.</p>
+ */
+public final class Q5_KFloatTensor extends FloatTensor {
+    private static final int SUB_BLOCK_COUNT = 8;
+    private static final int SUB_BLOCK_SIZE = GGMLType.QK_K / SUB_BLOCK_COUNT;
+    private static final int SCALES_LENGTH = (GGMLType.QK_K / 16) / 8 * 6;
+    private static final int QH_LENGTH = GGMLType.QK_K / 8;
+    private static final int HEADER_BYTES = 2 * GGMLType.FLOAT16_BYTES;
+    private static final int SCALES_OFFSET = HEADER_BYTES;
+    private static final int QH_OFFSET = SCALES_OFFSET + SCALES_LENGTH;
+    private static final int QS_OFFSET = QH_OFFSET + QH_LENGTH;
+
+    private final int size;
+    private final java.lang.foreign.MemorySegment memorySegment;
+
+    /**
+     * Creates a Q5_K tensor.
+     *
+     * @param size number of elements
+     * @param memorySegment tensor data segment
+     */
+    public Q5_KFloatTensor(int size, java.lang.foreign.MemorySegment memorySegment) {
+        this.size = size;
+        this.memorySegment = memorySegment;
+    }
+
+    /**
+     * Returns the number of elements.
+     *
+     * @return element count
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Unsupported for quantized tensor.
+     *
+     * @param index element index
+     * @param value value to set
+     */
+    @Override
+    public void setFloat(int index, float value) {
+        throw new UnsupportedOperationException("setFloat");
+    }
+
+    /**
+     * Unsupported for quantized tensor.
+     *
+     * @param species vector species
+     * @param index offset index
+     * @return float vector
+     */
+    @Override
+    public FloatVector getFloatVector(VectorSpecies<Float> species, int index) {
+        throw new UnsupportedOperationException("getFloatVector");
+    }
+
+    /**
+     * Returns the GGML type.
+     *
+     * @return GGML type
+     */
+    @Override
+    public GGMLType type() {
+        return GGMLType.Q5_K;
+    }
+
+    /**
+     * Reads a dequantized float value.
+     *
+     * @param index element index
+     * @return dequantized value
+     */
+    @Override
+    public float getFloat(int index) {
+        assert 0 <= index && index < size;
+        int blockIndex = index / GGMLType.Q5_K.getBlockSize();
+        long blockOffset = (long) blockIndex * GGMLType.Q5_K.getTypeSize();
+        float blockScale = Float.float16ToFloat(readShort(memorySegment, blockOffset));
+        float blockMin = Float.float16ToFloat(readShort(memorySegment, blockOffset + GGMLType.FLOAT16_BYTES));
+
+        int blockElement = index % GGMLType.Q5_K.getBlockSize();
+        int subBlock = blockElement / SUB_BLOCK_SIZE;
+
+        int l = blockElement % SUB_BLOCK_SIZE;
+        float scaleValue = blockScale * readScale(memorySegment, blockOffset + SCALES_OFFSET, subBlock);
+        float minValue = blockMin * readMin(memorySegment, blockOffset + SCALES_OFFSET, subBlock);
+
+        byte quantByte = readByte(memorySegment, blockOffset + QS_OFFSET + subBlock / 2 * SUB_BLOCK_SIZE + l);
+        int lo = (subBlock % 2 == 0) ? (quantByte & 0x0F) : ((quantByte >>> 4) & 0x0F);
+        int hi = (readByte(memorySegment, blockOffset + QH_OFFSET + l) >>> subBlock) & 0x01;
+        int quant = lo | (hi << 4);
+
+        return scaleValue * quant - minValue;
+    }
+
+    /**
+     * Dequantizes a slice of this tensor into a float array, one Q5_K block at a time.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     */
+    @Override
+    void dequantize(int thisOffset, float[] out, int outOffset, int size) {
+        int blockSize = GGMLType.Q5_K.getBlockSize();
+        if (!FloatTensor.USE_VECTOR_API || thisOffset % blockSize != 0) {
+            super.dequantize(thisOffset, out, outOffset, size);
+            return;
+        }
+        int upperBound = size / blockSize * blockSize;
+        long blockOffset = (long) thisOffset / blockSize * GGMLType.Q5_K.getTypeSize();
+        for (int j = 0; j < upperBound; j += blockSize, blockOffset += GGMLType.Q5_K.getTypeSize()) {
+            float blockScale = Float.float16ToFloat(readShort(memorySegment, blockOffset));
+            float blockMin = Float.float16ToFloat(readShort(memorySegment, blockOffset + GGMLType.FLOAT16_BYTES));
+            for (int subBlock = 0; subBlock < SUB_BLOCK_COUNT; subBlock++) {
+                float scale = blockScale * readScale(memorySegment, blockOffset + SCALES_OFFSET, subBlock);
+                float min = -blockMin * readMin(memorySegment, blockOffset + SCALES_OFFSET, subBlock);
+                for (int half = 0; half < 2; half++) {
+                    int elementOffset = subBlock * SUB_BLOCK_SIZE + half * (SUB_BLOCK_SIZE / 2);
+                    storeQuants(loadQuants(memorySegment, blockOffset, elementOffset), scale, min, out, outOffset + j + elementOffset);
+                }
+            }
+        }
+        if (upperBound < size) {
+            super.dequantize(thisOffset + upperBound, out, outOffset + upperBound, size - upperBound);
+        }
+    }
+
+    /**
+     * Computes dot product with potential vectorized path.
+     *
+     * @param thisOffset offset in this tensor
+     * @param that other tensor
+     * @param thatOffset offset in other tensor
+     * @param size number of elements
+     * @return dot product
+     */
+    @Override
+    public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
+        if (FloatTensor.USE_VECTOR_API) {
+            return vectorDot(this, thisOffset, (ArrayFloatTensor) that, thatOffset, size);
+        } else {
+            return FloatTensor.scalarDot(this, thisOffset, that, thatOffset, size);
+        }
+    }
+
+    /**
+     * Vectorized dot product specialized for Q5_K weights.
+     *
+     * @param thiz quantized tensor
+     * @param thisOffset offset in quantized tensor
+     * @param that dense tensor
+     * @param thatOffset offset in dense tensor
+     * @param size number of elements
+     * @return dot product
+     */
+    private static float vectorDot(Q5_KFloatTensor thiz, int thisOffset, ArrayFloatTensor that, int thatOffset, int size) {
+        float result = 0f;
+        int j = 0;
+
+        assert Integer.bitCount(GGMLType.Q5_K.getBlockSize()) == 1 : "power of 2";
+        int alignmentBound = Math.min(size, -thisOffset & (GGMLType.Q5_K.getBlockSize() - 1));
+        if (alignmentBound > 0) {
+            result += FloatTensor.scalarDot(thiz, thisOffset, that, thatOffset, alignmentBound);
+            j += alignmentBound;
+        }
+        assert (thisOffset + j) % GGMLType.Q5_K.getBlockSize() == 0;
+
+        float[] scales = new float[SUB_BLOCK_COUNT];
+        float[] mins = new float[SUB_BLOCK_COUNT];
+        FloatVector val = FloatVector.zero(F_SPECIES);
+        long blockOffset = (long) (thisOffset + j) / GGMLType.Q5_K.getBlockSize() * GGMLType.Q5_K.getTypeSize();
+        int upperBound = j + (size - j) / GGMLType.Q5_K.getBlockSize() * GGMLType.Q5_K.getBlockSize();
+        for (; j < upperBound; j += GGMLType.Q5_K.getBlockSize(), blockOffset += GGMLType.Q5_K.getTypeSize()) {
+            float blockScale = Float.float16ToFloat(readShort(thiz.memorySegment, blockOffset));
+            float blockMin = Float.float16ToFloat(readShort(thiz.memorySegment, blockOffset + GGMLType.FLOAT16_BYTES));
+            for (int subBlock = 0; subBlock < SUB_BLOCK_COUNT; subBlock++) {
+                scales[subBlock] = blockScale * readScale(thiz.memorySegment, blockOffset + SCALES_OFFSET, subBlock);
+                mins[subBlock] = -blockMin * readMin(thiz.memorySegment, blockOffset + SCALES_OFFSET, subBlock);
+            }
+            for (int subBlock = 0; subBlock < SUB_BLOCK_COUNT; subBlock++) {
+                FloatVector dotq = FloatVector.zero(F_SPECIES);
+                FloatVector sumx = FloatVector.zero(F_SPECIES);
+                for (int half = 0; half < 2; half++) {
+                    int elementOffset = subBlock * SUB_BLOCK_SIZE + half * (SUB_BLOCK_SIZE / 2);
+                    ByteVector quants = loadQuants(thiz.memorySegment, blockOffset, elementOffset);
+                    int xOffset = thatOffset + j + elementOffset;
+                    switch (F_SPECIES.vectorBitSize()) {
+                        case 512 -> {
+                            var x0 = that.getFloatVector(F_SPECIES, xOffset);
+                            dotq = x0.fma(quants.castShape(F_SPECIES, 0), dotq);
+                            sumx = sumx.add(x0);
+                        }
+                        case 256 -> {
+                            var x0 = that.getFloatVector(F_SPECIES, xOffset);
+                            var x1 = that.getFloatVector(F_SPECIES, xOffset + F_SPECIES.length());
+                            dotq = x0.fma(quants.castShape(F_SPECIES, 0), dotq);
+                            dotq = x1.fma(quants.castShape(F_SPECIES, 1), dotq);
+                            sumx = sumx.add(x0).add(x1);
+                        }
+                        case 128 -> {
+                            for (int i = 0; i < 4; ++i) {
+                                var x = that.getFloatVector(F_SPECIES, xOffset + i * F_SPECIES.length());
+                                dotq = x.fma(quants.castShape(F_SPECIES, i), dotq);
+                                sumx = sumx.add(x);
+                            }
+                        }
+                        default -> throw new UnsupportedOperationException(F_SPECIES.toString());
+                    }
+                }
+                val = dotq.fma(FloatVector.broadcast(F_SPECIES, scales[subBlock]), val);
+                val = sumx.fma(FloatVector.broadcast(F_SPECIES, mins[subBlock]), val);
+            }
+        }
+        result += val.reduceLanes(VectorOperators.ADD);
+
+        if (j < size) {
+            result += FloatTensor.scalarDot(thiz, thisOffset + j, that, thatOffset + j, size - j);
+        }
+
+        return result;
+    }
+
+    /**
+     * Loads 16 consecutive 5-bit quants in element order.
+     *
+     * <p>The 16 elements share one sub-block, so they are the low or high nibbles of 16 consecutive quant bytes,
+     * with their fifth bits at the sub-block's bit of the 16 {@code qh} bytes at the same position.</p>
+     *
+     * @param memorySegment tensor data segment
+     * @param blockOffset byte offset of the block
+     * @param elementOffset first element within the block, a multiple of 16
+     * @return byte vector of 16 unsigned 5-bit quants
+     */
+    private static ByteVector loadQuants(java.lang.foreign.MemorySegment memorySegment, long blockOffset, int elementOffset) {
+        int subBlock = elementOffset / SUB_BLOCK_SIZE;
+        int l = elementOffset % SUB_BLOCK_SIZE;
+        ByteVector packed = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment,
+                blockOffset + QS_OFFSET + subBlock / 2 * SUB_BLOCK_SIZE + l, ByteOrder.LITTLE_ENDIAN);
+        ByteVector lo = (subBlock % 2 == 0) ? packed.and((byte) 0x0F) : packed.lanewise(VectorOperators.LSHR, 4);
+        ByteVector hi = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment,
+                        blockOffset + QH_OFFSET + l, ByteOrder.LITTLE_ENDIAN)
+                .lanewise(VectorOperators.LSHR, subBlock)
+                .and((byte) 0x01);
+        return lo.or(hi.lanewise(VectorOperators.LSHL, 4));
+    }
+
+    /**
+     * Reads the 6-bit scale of a sub-block from the 12-byte scales area, packed as in ggml's
+     * {@code get_scale_min_k4}: sub-blocks 0-3 in the low 6 bits of bytes 0-3, sub-blocks 4-7 in the low nibbles
+     * of bytes 8-11 with their top two bits in the high bits of bytes 0-3.
+     *
+     * @param memorySegment tensor data segment
+     * @param scalesOffset byte offset of the scales area
+     * @param subBlock sub-block index
+     * @return unsigned 6-bit scale
+     */
+    private static int readScale(java.lang.foreign.MemorySegment memorySegment, long scalesOffset, int subBlock) {
+        if (subBlock < 4) {
+            return readByte(memorySegment, scalesOffset + subBlock) & 0x3F;
+        }
+        return (readByte(memorySegment, scalesOffset + subBlock + 4) & 0x0F)
+                | (((readByte(memorySegment, scalesOffset + subBlock - 4) & 0xFF) >>> 6) << 4);
+    }
+
+    /**
+     * Reads the 6-bit min of a sub-block from the 12-byte scales area: sub-blocks 0-3 in the low 6 bits of bytes
+     * 4-7, sub-blocks 4-7 in the high nibbles of bytes 8-11 with their top two bits in the high bits of bytes 4-7.
+     *
+     * @param memorySegment tensor data segment
+     * @param scalesOffset byte offset of the scales area
+     * @param subBlock sub-block index
+     * @return unsigned 6-bit min
+     */
+    private static int readMin(java.lang.foreign.MemorySegment memorySegment, long scalesOffset, int subBlock) {
+        if (subBlock < 4) {
+            return readByte(memorySegment, scalesOffset + subBlock + 4) & 0x3F;
+        }
+        return ((readByte(memorySegment, scalesOffset + subBlock + 4) & 0xFF) >>> 4)
+                | (((readByte(memorySegment, scalesOffset + subBlock) & 0xFF) >>> 6) << 4);
+    }
+}
@@ -2,21 +2,40 @@ package com.llama4j.tensor;
 
 import com.llama4j.gguf.GGMLType;
 
+import jdk.incubator.vector.ByteVector;
 import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
 import jdk.incubator.vector.VectorSpecies;
 
+import java.nio.ByteOrder;
+
 /**
  * {@link FloatTensor} quantized in the {@link GGMLType#Q6_K} format.
+ *
+ * <p>A 256-element block holds 128 bytes of low nibbles ({@code ql}), 64 bytes of 2-bit high parts ({@code qh}),
+ * sixteen int8 sub-block scales and, last, the F16 block scale {@code d}. The block is split into two 128-element
+ * halves of 64 {@code ql} and 32 {@code qh} bytes. Element {@code l} of quarter {@code k} of a half takes the low
+ * nibble of {@code ql[l]} (k = 0), of {@code ql[l + 32]} (k = 1), or their high nibbles (k = 2, 3), and its high
+ * bits from bits {@code 2k} of {@code qh[l]}. Each 16 elements share one scale, and element values are
+ * {@code d * scale * (q - 32)}, as in ggml's {@code dequantize_row_q6_K}.</p>
  */
 public final class Q6_KFloatTensor extends FloatTensor {
     private static final int SUB_BLOCK_SIZE = 16;
-    private static final int HEADER_BYTES = GGMLType.FLOAT16_BYTES;
+    private static final int QUARTER_SIZE = 32;
+    private static final int HALF_SIZE = GGMLType.QK_K / 2;
     private static final int QL_LENGTH = GGMLType.QK_K / 2;
     private static final int QH_LENGTH = GGMLType.QK_K / 4;
     private static final int SCALES_LENGTH = GGMLType.QK_K / SUB_BLOCK_SIZE;
-    private static final int QL_OFFSET = HEADER_BYTES;
+    private static final int QL_OFFSET = 0;
     private static final int QH_OFFSET = QL_OFFSET + QL_LENGTH;
     private static final int SCALES_OFFSET = QH_OFFSET + QH_LENGTH;
+    private static final int D_OFFSET = SCALES_OFFSET + SCALES_LENGTH;
+
+    /**
+     * Per-thread unpacked blocks of a {@link #dotRows} group, one block of each row.
+     */
+    private static final ThreadLocal<float[]> ROW_BLOCKS =
+            ThreadLocal.withInitial(() -> new float[GEMV_ROWS * GGMLType.QK_K]);
 
     private final int size;
     private final java.lang.foreign.MemorySegment memorySegment;
@@ -85,18 +104,21 @@ public final class Q6_KFloatTensor extends FloatTensor {
     public float getFloat(int index) {
         assert 0 <= index && index < size;
         int blockIndex = index / GGMLType.Q6_K.getBlockSize();
-        int blockOffset = blockIndex * GGMLType.Q6_K.getTypeSize();
-        float blockScale = Float.float16ToFloat(readShort(memorySegment, blockOffset));
+        long blockOffset = (long) blockIndex * GGMLType.Q6_K.getTypeSize();
+        float blockScale = Float.float16ToFloat(readShort(memorySegment, blockOffset + D_OFFSET));
 
         int blockElement = index % GGMLType.Q6_K.getBlockSize();
         int scale = readByte(memorySegment, blockOffset + SCALES_OFFSET + (blockElement / SUB_BLOCK_SIZE));
 
-        int qlIndex = blockElement / 2;
-        int qlShift = (blockElement % 2) * 4;
+        int half = blockElement / HALF_SIZE;
+        int quarter = blockElement % HALF_SIZE / QUARTER_SIZE;
+        int l = blockElement % QUARTER_SIZE;
+        int qlIndex = half * (HALF_SIZE / 2) + (quarter % 2) * QUARTER_SIZE + l;
+        int qlShift = (quarter / 2) * 4;
         int ql = (readByte(memorySegment, blockOffset + QL_OFFSET + qlIndex) >> qlShift) & 0x0F;
 
-        int qhIndex = blockElement / 4;
-        int qhShift = (blockElement % 4) * 2;
+        int qhIndex = half * QUARTER_SIZE + l;
+        int qhShift = quarter * 2;
         int qh = (readByte(memorySegment, blockOffset + QH_OFFSET + qhIndex) >> qhShift) & 0x03;
 
         int quant = ql | (qh << 4);
@@ -104,7 +126,84 @@ public final class Q6_KFloatTensor extends FloatTensor {
     }
 
     /**
-     * Computes dot product.
+     * Dequantizes a slice of this tensor into a float array, one Q6_K block at a time.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     */
+    @Override
+    void dequantize(int thisOffset, float[] out, int outOffset, int size) {
+        int blockSize = GGMLType.Q6_K.getBlockSize();
+        if (!FloatTensor.USE_VECTOR_API || thisOffset % blockSize != 0) {
+            super.dequantize(thisOffset, out, outOffset, size);
+            return;
+        }
+        int upperBound = size / blockSize * blockSize;
+        long blockOffset = (long) thisOffset / blockSize * GGMLType.Q6_K.getTypeSize();
+        for (int j = 0; j < upperBound; j += blockSize, blockOffset += GGMLType.Q6_K.getTypeSize()) {
+            unpackBlock(memorySegment, blockOffset, out, outOffset + j);
+        }
+        if (upperBound < size) {
+            super.dequantize(thisOffset + upperBound, out, outOffset + upperBound, size - upperBound);
+        }
+    }
+
+    /**
+     * Computes two rows of a matrix-vector product, sharing each activation load across the rows.
+     *
+     * <p>The recombined 6-bit quants are too large to unroll per row, so the block of each row is unpacked once
+     * into a per-thread buffer and both rows are then dotted in one pass over the activations.</p>
+     *
+     * @param firstRow first output row
+     * @param dim1 input dimension, the length of each row
+     * @param that dense input vector
+     * @param out output tensor
+     */
+    @Override
+    void dotRows(int firstRow, int dim1, ArrayFloatTensor that, FloatTensor out) {
+        int blockSize = GGMLType.Q6_K.getBlockSize();
+        if (dim1 % blockSize != 0) {
+            super.dotRows(firstRow, dim1, that, out);
+            return;
+        }
+        long rowBytes = (long) dim1 / blockSize * GGMLType.Q6_K.getTypeSize();
+        long blockOffset = firstRow * rowBytes;
+        float[] blocks = ROW_BLOCKS.get();
+        FloatVector acc0 = FloatVector.zero(F_SPECIES);
+        FloatVector acc1 = FloatVector.zero(F_SPECIES);
+        for (int j = 0; j < dim1; j += blockSize, blockOffset += GGMLType.Q6_K.getTypeSize()) {
+            unpackBlock(memorySegment, blockOffset, blocks, 0);
+            unpackBlock(memorySegment, blockOffset + rowBytes, blocks, blockSize);
+            for (int i = 0; i < blockSize; i += F_SPECIES.length()) {
+                var x = that.getFloatVector(F_SPECIES, j + i);
+                acc0 = x.fma(FloatVector.fromArray(F_SPECIES, blocks, i), acc0);
+                acc1 = x.fma(FloatVector.fromArray(F_SPECIES, blocks, blockSize + i), acc1);
+            }
+        }
+        storeRows(out, firstRow, acc0, acc1);
+    }
+
+    /**
+     * Dequantizes one block into a float array.
+     *
+     * @param memorySegment tensor data segment
+     * @param blockOffset byte offset of the block
+     * @param out destination array
+     * @param outOffset offset of the block's first element in the destination array
+     */
+    private static void unpackBlock(java.lang.foreign.MemorySegment memorySegment, long blockOffset, float[] out, int outOffset) {
+        float blockScale = Float.float16ToFloat(readShort(memorySegment, blockOffset + D_OFFSET));
+        for (int subBlock = 0; subBlock < SCALES_LENGTH; subBlock++) {
+            float scale = blockScale * readByte(memorySegment, blockOffset + SCALES_OFFSET + subBlock);
+            int elementOffset = subBlock * SUB_BLOCK_SIZE;
+            storeQuants(loadQuants(memorySegment, blockOffset, elementOffset), scale, 0f, out, outOffset + elementOffset);
+        }
+    }
+
+    /**
+     * Computes dot product with potential vectorized path.
      *
      * @param thisOffset offset in this tensor
      * @param that other tensor
@@ -114,6 +213,109 @@ public final class Q6_KFloatTensor extends FloatTensor {
      */
     @Override
     public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
-        return FloatTensor.scalarDot(this, thisOffset, that, thatOffset, size);
+        if (FloatTensor.USE_VECTOR_API) {
+            return vectorDot(this, thisOffset, (ArrayFloatTensor) that, thatOffset, size);
+        } else {
+            return FloatTensor.scalarDot(this, thisOffset, that, thatOffset, size);
+        }
+    }
+
+    /**
+     * Vectorized dot product specialized for Q6_K weights.
+     *
+     * <p>The block scale and the sixteen int8 sub-block scales are decoded once per 256-element block; the
+     * ql/qh bit planes of each 16-element sub-block are recombined into signed 6-bit quants in a single
+     * byte vector.</p>
+     *
+     * @param thiz quantized tensor
+     * @param thisOffset offset in quantized tensor
+     * @param that dense tensor
+     * @param thatOffset offset in dense tensor
+     * @param size number of elements
+     * @return dot product
+     */
+    private static float vectorDot(Q6_KFloatTensor thiz, int thisOffset, ArrayFloatTensor that, int thatOffset, int size) {
+        float result = 0f;
+        int j = 0;
+
+        assert Integer.bitCount(GGMLType.Q6_K.getBlockSize()) == 1 : "power of 2";
+        int alignmentBound = Math.min(size, -thisOffset & (GGMLType.Q6_K.getBlockSize() - 1));
+        if (alignmentBound > 0) {
+            result += FloatTensor.scalarDot(thiz, thisOffset, that, thatOffset, alignmentBound);
+            j += alignmentBound;
+        }
+        assert (thisOffset + j) % GGMLType.Q6_K.getBlockSize() == 0;
+
+        float[] scales = new float[SCALES_LENGTH];
+        FloatVector val = FloatVector.zero(F_SPECIES);
+        long blockOffset = (long) (thisOffset + j) / GGMLType.Q6_K.getBlockSize() * GGMLType.Q6_K.getTypeSize();
+        int upperBound = j + (size - j) / GGMLType.Q6_K.getBlockSize() * GGMLType.Q6_K.getBlockSize();
+        for (; j < upperBound; j += GGMLType.Q6_K.getBlockSize(), blockOffset += GGMLType.Q6_K.getTypeSize()) {
+            float blockScale = Float.float16ToFloat(readShort(thiz.memorySegment, blockOffset + D_OFFSET));
+            for (int subBlock = 0; subBlock < SCALES_LENGTH; subBlock++) {
+                scales[subBlock] = blockScale * readByte(thiz.memorySegment, blockOffset + SCALES_OFFSET + subBlock);
+            }
+            for (int subBlock = 0; subBlock < SCALES_LENGTH; subBlock++) {
+                int elementOffset = subBlock * SUB_BLOCK_SIZE;
+                ByteVector quants = loadQuants(thiz.memorySegment, blockOffset, elementOffset);
+                int xOffset = thatOffset + j + elementOffset;
+                FloatVector dotq;
+                switch (F_SPECIES.vectorBitSize()) {
+                    case 512 -> dotq = that.getFloatVector(F_SPECIES, xOffset).mul(quants.castShape(F_SPECIES, 0));
+                    case 256 -> {
+                        var sum0 = that.getFloatVector(F_SPECIES, xOffset).mul(quants.castShape(F_SPECIES, 0));
+                        var sum1 = that.getFloatVector(F_SPECIES, xOffset + F_SPECIES.length())
+                                .mul(quants.castShape(F_SPECIES, 1));
+                        dotq = sum0.add(sum1);
+                    }
+                    case 128 -> {
+                        var sum0 = that.getFloatVector(F_SPECIES, xOffset).mul(quants.castShape(F_SPECIES, 0));
+                        var sum1 = that.getFloatVector(F_SPECIES, xOffset + F_SPECIES.length())
+                                .mul(quants.castShape(F_SPECIES, 1));
+                        var sum2 = that.getFloatVector(F_SPECIES, xOffset + 2 * F_SPECIES.length())
+                                .mul(quants.castShape(F_SPECIES, 2));
+                        var sum3 = that.getFloatVector(F_SPECIES, xOffset + 3 * F_SPECIES.length())
+                                .mul(quants.castShape(F_SPECIES, 3));
+                        dotq = sum0.add(sum1).add(sum2).add(sum3);
+                    }
+                    default -> throw new UnsupportedOperationException(F_SPECIES.toString());
+                }
+                val = dotq.fma(FloatVector.broadcast(F_SPECIES, scales[subBlock]), val);
+            }
+        }
+        result += val.reduceLanes(VectorOperators.ADD);
+
+        if (j < size) {
+            result += FloatTensor.scalarDot(thiz, thisOffset + j, that, thatOffset + j, size - j);
+        }
+
+        return result;
+    }
+
+    /**
+     * Loads the 16 quants of a sub-block as signed bytes in element order.
+     *
+     * <p>The 16 elements share one quarter of a half block, so they are the low or high nibbles of 16 consecutive
+     * {@code ql} bytes, with their high bits at the quarter's bit pair of the 16 {@code qh} bytes at the same
+     * position.</p>
+     *
+     * @param memorySegment tensor data segment
+     * @param blockOffset byte offset of the block
+     * @param elementOffset first element of the sub-block within the block
+     * @return byte vector of 16 quants in {@code [-32, 31]}
+     */
+    private static ByteVector loadQuants(java.lang.foreign.MemorySegment memorySegment, long blockOffset, int elementOffset) {
+        int half = elementOffset / HALF_SIZE;
+        int quarter = elementOffset % HALF_SIZE / QUARTER_SIZE;
+        int l = elementOffset % QUARTER_SIZE;
+        ByteVector ql = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment,
+                blockOffset + QL_OFFSET + half * (HALF_SIZE / 2) + (quarter % 2) * QUARTER_SIZE + l,
+                ByteOrder.LITTLE_ENDIAN);
+        ByteVector lo = (quarter < 2) ? ql.and((byte) 0x0F) : ql.lanewise(VectorOperators.LSHR, 4);
+        ByteVector hi = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment,
+                        blockOffset + QH_OFFSET + half * QUARTER_SIZE + l, ByteOrder.LITTLE_ENDIAN)
+                .lanewise(VectorOperators.LSHR, 2 * quarter)
+                .and((byte) 0x03);
+        return lo.or(hi.lanewise(VectorOperators.LSHL, 4)).sub((byte) 32);
     }
 }
@@ -0,0 +1,255 @@
+package com.llama4j.tensor;
+
+import com.llama4j.gguf.GGMLType;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Activation vector re-quantized into {@link GGMLType#Q8_0}-style blocks, so quantized weights can be dotted
+ * against it with integer multiply-accumulate instead of float FMA.
+ *
+ * <p>Every block of 32 values keeps its int8 quants, its scale and the scaled sum of its quants; the latter lets
+ * weight formats with a per-block minimum (such as {@link GGMLType#Q4_K}) add the minimum term without touching
+ * the quants again.</p>
+ */
+public final class Q8_0ActivationTensor extends FloatTensor {
+    /**
+     * Whether matmul inputs are quantized to Q8_0 before being dotted against quantized weights.
+     */
+    public static final boolean USE_Q8_ACTIVATIONS = Boolean.getBoolean("llama.Q8Activations");
+
+    /**
+     * Number of values per quantization block.
+     */
+    public static final int BLOCK_SIZE = GGMLType.Q8_0.getBlockSize();
+
+    /**
+     * Byte species for the 16-lane integer kernels.
+     */
+    static final VectorSpecies<Byte> B_SPECIES = ByteVector.SPECIES_128;
+
+    /**
+     * Short species of the preferred shape, whose lanes hold the int8 x int8 products.
+     */
+    private static final VectorSpecies<Short> S_SPECIES = USE_VECTOR_API ? I_SPECIES.withLanes(short.class) : null;
+
+    /**
+     * Number of {@link #S_SPECIES} vectors the 16 quants of a {@link #B_SPECIES} vector widen to.
+     */
+    private static final int SHORT_PARTS = USE_VECTOR_API ? Math.max(1, B_SPECIES.length() / S_SPECIES.length()) : 0;
+
+    private final byte[] quants;
+    private final float[] scales;
+    private final float[] sums;
+
+    /**
+     * Creates an empty activation buffer.
+     *
+     * @param size number of elements
+     */
+    public Q8_0ActivationTensor(int size) {
+        int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        this.quants = new byte[size];
+        this.scales = new float[blocks];
+        this.sums = new float[blocks];
+    }
+
+    /**
+     * Allocates a batch of activation buffers.
+     *
+     * @param numTokens number of buffers
+     * @param size number of elements per buffer
+     * @return buffer array
+     */
+    public static Q8_0ActivationTensor[] allocate(int numTokens, int size) {
+        Q8_0ActivationTensor[] tensors = new Q8_0ActivationTensor[numTokens];
+        for (int i = 0; i < numTokens; i++) {
+            tensors[i] = new Q8_0ActivationTensor(size);
+        }
+        return tensors;
+    }
+
+    /**
+     * Quantizes the first {@code size} values of a dense tensor into this buffer.
+     *
+     * @param source dense tensor
+     * @param size number of elements
+     * @return this tensor
+     */
+    public Q8_0ActivationTensor quantize(FloatTensor source, int size) {
+        assert size <= quants.length;
+        for (int block = 0; block * BLOCK_SIZE < size; block++) {
+            int start = block * BLOCK_SIZE;
+            int end = Math.min(start + BLOCK_SIZE, size);
+            float amax = 0f;
+            for (int i = start; i < end; i++) {
+                amax = Math.max(amax, Math.abs(source.getFloat(i)));
+            }
+            float scale = amax / 127f;
+            float inverseScale = scale != 0f ? 1f / scale : 0f;
+            int sum = 0;
+            for (int i = start; i < end; i++) {
+                byte quant = (byte) Math.round(source.getFloat(i) * inverseScale);
+                quants[i] = quant;
+                sum += quant;
+            }
+            scales[block] = scale;
+            sums[block] = scale * sum;
+        }
+        return this;
+    }
+
+    /**
+     * Returns the number of elements.
+     *
+     * @return element count
+     */
+    @Override
+    public int size() {
+        return quants.length;
+    }
+
+    /**
+     * Reads a dequantized value.
+     *
+     * @param index element index
+     * @return dequantized value
+     */
+    @Override
+    public float getFloat(int index) {
+        return quants[index] * scales[index / BLOCK_SIZE];
+    }
+
+    /**
+     * Unsupported, values are written through {@link #quantize(FloatTensor, int)}.
+     *
+     * @param index element index
+     * @param value value to set
+     */
+    @Override
+    public void setFloat(int index, float value) {
+        throw new UnsupportedOperationException("setFloat");
+    }
+
+    /**
+     * Unsupported for quantized activations.
+     *
+     * @param species vector species
+     * @param index offset index
+     * @return float vector
+     */
+    @Override
+    public FloatVector getFloatVector(VectorSpecies<Float> species, int index) {
+        throw new UnsupportedOperationException("getFloatVector");
+    }
+
+    /**
+     * Returns the GGML type.
+     *
+     * @return GGML type
+     */
+    @Override
+    public GGMLType type() {
+        return GGMLType.Q8_0;
+    }
+
+    /**
+     * Returns the scale of a block.
+     *
+     * @param block block index
+     * @return block scale
+     */
+    float scale(int block) {
+        return scales[block];
+    }
+
+    /**
+     * Returns the dequantized sum of a block.
+     *
+     * @param block block index
+     * @return block sum
+     */
+    float sum(int block) {
+        return sums[block];
+    }
+
+    /**
+     * Returns the quant at the given index.
+     *
+     * @param index element index
+     * @return int8 quant
+     */
+    byte quant(int index) {
+        return quants[index];
+    }
+
+    /**
+     * Loads 16 activation quants.
+     *
+     * @param index first element index
+     * @return byte vector
+     */
+    ByteVector quantVector(int index) {
+        return ByteVector.fromArray(B_SPECIES, quants, index);
+    }
+
+    /**
+     * Checks whether a dot product over these activations can use the block-wise integer kernels.
+     *
+     * @param thatOffset offset in this tensor
+     * @param size number of elements
+     * @param weightBlockSize block size of the weight format
+     * @return whether both the offset and the size are block-aligned
+     */
+    boolean isBlockAligned(int thatOffset, int size, int weightBlockSize) {
+        return thatOffset % weightBlockSize == 0 && size % weightBlockSize == 0;
+    }
+
+    /**
+     * Multiplies the 32 weight quants of a block by its 32 activation quants and adds the products, summed in
+     * pairs, to an integer accumulator, like ggml's {@code vec_dot_q8_0_q8_0} madd.
+     *
+     * <p>The quants are widened to short lanes and multiplied there; the products of both halves are added in
+     * short lanes, which cannot overflow since activation quants stay within {@code [-127, 127]}. Reinterpreting
+     * the shorts as ints then adds neighbouring lanes pairwise, taking the sign-extended low short and the
+     * arithmetically shifted high short of each int.</p>
+     *
+     * @param weights0 weight quants of the first half
+     * @param activations0 activation quants of the first half
+     * @param weights1 weight quants of the second half
+     * @param activations1 activation quants of the second half
+     * @param acc integer accumulator of {@link #I_SPECIES}
+     * @return updated accumulator
+     */
+    static IntVector mulAddBlock(ByteVector weights0, ByteVector activations0, ByteVector weights1,
+                                 ByteVector activations1, IntVector acc) {
+        for (int part = 0; part < SHORT_PARTS; part++) {
+            ShortVector products = ((ShortVector) weights0.castShape(S_SPECIES, part))
+                    .mul((ShortVector) activations0.castShape(S_SPECIES, part))
+                    .add(((ShortVector) weights1.castShape(S_SPECIES, part))
+                            .mul((ShortVector) activations1.castShape(S_SPECIES, part)));
+            IntVector pairs = products.reinterpretAsInts();
+            acc = acc.add(pairs.lanewise(VectorOperators.LSHL, 16).lanewise(VectorOperators.ASHR, 16))
+                    .add(pairs.lanewise(VectorOperators.ASHR, 16));
+        }
+        return acc;
+    }
+
+    /**
+     * Converts an integer block accumulator to floats and adds it, scaled, to a float accumulator.
+     *
+     * @param blockSum integer block accumulator of {@link #I_SPECIES}
+     * @param scale combined weight and activation scale
+     * @param acc float accumulator of {@link #F_SPECIES}
+     * @return updated accumulator
+     */
+    static FloatVector fmaBlock(IntVector blockSum, float scale, FloatVector acc) {
+        FloatVector sum = (FloatVector) blockSum.castShape(F_SPECIES, 0);
+        return sum.fma(FloatVector.broadcast(F_SPECIES, scale), acc);
+    }
+}
@@ -4,13 +4,19 @@ import com.llama4j.gguf.GGMLType;
 
 import jdk.incubator.vector.ByteVector;
 import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
 import jdk.incubator.vector.VectorOperators;
 import jdk.incubator.vector.VectorSpecies;
 
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
 import java.nio.ByteOrder;
 
 /**
  * {@link FloatTensor} quantized in the {@link GGMLType#Q8_0} format.
+ *
+ * <p>Tensors returned by {@link #allocate(int...)} are writable and serve as 8-bit KV caches: whole blocks are
+ * quantized as they are copied in, and attention reads them through {@link #dot} and {@link #saxpyInto}.</p>
  */
 public final class Q8_0FloatTensor extends FloatTensor {
     private final int size;
@@ -27,6 +33,23 @@ public final class Q8_0FloatTensor extends FloatTensor {
         this.memorySegment = memorySegment;
     }
 
+    /**
+     * Allocates a zeroed, writable Q8_0 tensor in off-heap memory.
+     *
+     * @param dims tensor dimensions, with a total element count that is a multiple of the block size
+     * @return allocated tensor
+     */
+    public static Q8_0FloatTensor allocate(int... dims) {
+        int numberOfElements = FloatTensor.numberOfElements(dims);
+        if (numberOfElements % GGMLType.Q8_0.getBlockSize() != 0) {
+            throw new IllegalArgumentException("Q8_0 tensor size must be a multiple of "
+                    + GGMLType.Q8_0.getBlockSize() + ": " + numberOfElements);
+        }
+        java.lang.foreign.MemorySegment segment = Arena.ofAuto()
+                .allocate(GGMLType.Q8_0.byteSizeFor(numberOfElements), Long.BYTES);
+        return new Q8_0FloatTensor(numberOfElements, segment);
+    }
+
     /**
      * Returns the number of elements.
      *
@@ -86,6 +109,170 @@ public final class Q8_0FloatTensor extends FloatTensor {
         return quant * scale;
     }
 
+    /**
+     * Returns true, Q8_0 activations are dotted with an integer kernel.
+     *
+     * @return true
+     */
+    @Override
+    public boolean supportsQ8Activations() {
+        return true;
+    }
+
+    /**
+     * Dequantizes a slice of this tensor into a float array, one Q8_0 block at a time.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     */
+    @Override
+    void dequantize(int thisOffset, float[] out, int outOffset, int size) {
+        int blockSize = GGMLType.Q8_0.getBlockSize();
+        if (!FloatTensor.USE_VECTOR_API || thisOffset % blockSize != 0) {
+            super.dequantize(thisOffset, out, outOffset, size);
+            return;
+        }
+        int upperBound = size / blockSize * blockSize;
+        long blockOffset = (long) thisOffset / blockSize * GGMLType.Q8_0.getTypeSize();
+        for (int j = 0; j < upperBound; j += blockSize, blockOffset += GGMLType.Q8_0.getTypeSize()) {
+            float scale = Float.float16ToFloat(readShort(memorySegment, blockOffset));
+            for (int half = 0; half < 2; half++) {
+                var wBytes = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment,
+                        blockOffset + GGMLType.FLOAT16_BYTES + half * (blockSize / 2), ByteOrder.LITTLE_ENDIAN);
+                storeQuants(wBytes, scale, 0f, out, outOffset + j + half * (blockSize / 2));
+            }
+        }
+        if (upperBound < size) {
+            super.dequantize(thisOffset + upperBound, out, outOffset + upperBound, size - upperBound);
+        }
+    }
+
+    /**
+     * Quantizes whole blocks of a float array into this tensor, with one scale per block of 32 values.
+     *
+     * @param thisOffset offset in this tensor, a multiple of the block size
+     * @param in source array
+     * @param inOffset offset in the source array
+     * @param size number of elements, a multiple of the block size
+     */
+    @Override
+    void copyFrom(int thisOffset, float[] in, int inOffset, int size) {
+        int blockSize = GGMLType.Q8_0.getBlockSize();
+        if (thisOffset % blockSize != 0 || size % blockSize != 0) {
+            throw new UnsupportedOperationException("Q8_0 stores whole blocks, offset=" + thisOffset + " size=" + size);
+        }
+        long blockOffset = (long) thisOffset / blockSize * GGMLType.Q8_0.getTypeSize();
+        for (int j = 0; j < size; j += blockSize, blockOffset += GGMLType.Q8_0.getTypeSize()) {
+            float amax = 0f;
+            for (int i = 0; i < blockSize; i++) {
+                amax = Math.max(amax, Math.abs(in[inOffset + j + i]));
+            }
+            float scale = amax / 127f;
+            float inverseScale = scale != 0f ? 1f / scale : 0f;
+            memorySegment.set(ValueLayout.JAVA_SHORT_UNALIGNED, blockOffset, Float.floatToFloat16(scale));
+            for (int i = 0; i < blockSize; i++) {
+                memorySegment.set(ValueLayout.JAVA_BYTE, blockOffset + GGMLType.FLOAT16_BYTES + i,
+                        (byte) Math.round(in[inOffset + j + i] * inverseScale));
+            }
+        }
+    }
+
+    /**
+     * Copies values into another tensor, as raw blocks when it is a Q8_0 tensor too and the slices are
+     * block-aligned.
+     *
+     * @param thisOffset offset in this tensor
+     * @param that destination tensor
+     * @param thatOffset offset in destination tensor
+     * @param size number of elements
+     */
+    @Override
+    public void copyTo(int thisOffset, FloatTensor that, int thatOffset, int size) {
+        int blockSize = GGMLType.Q8_0.getBlockSize();
+        if (that instanceof Q8_0FloatTensor other
+                && thisOffset % blockSize == 0 && thatOffset % blockSize == 0 && size % blockSize == 0) {
+            java.lang.foreign.MemorySegment.copy(memorySegment,
+                    (long) thisOffset / blockSize * GGMLType.Q8_0.getTypeSize(), other.memorySegment,
+                    (long) thatOffset / blockSize * GGMLType.Q8_0.getTypeSize(),
+                    (long) size / blockSize * GGMLType.Q8_0.getTypeSize());
+        } else {
+            super.copyTo(thisOffset, that, thatOffset, size);
+        }
+    }
+
+    /**
+     * Adds a scaled slice of this tensor into a float array, one Q8_0 block at a time.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     * @param alpha scaling factor
+     */
+    @Override
+    void saxpyInto(int thisOffset, float[] out, int outOffset, int size, float alpha) {
+        int blockSize = GGMLType.Q8_0.getBlockSize();
+        if (!FloatTensor.USE_VECTOR_API || thisOffset % blockSize != 0) {
+            super.saxpyInto(thisOffset, out, outOffset, size, alpha);
+            return;
+        }
+        int upperBound = size / blockSize * blockSize;
+        long blockOffset = (long) thisOffset / blockSize * GGMLType.Q8_0.getTypeSize();
+        for (int j = 0; j < upperBound; j += blockSize, blockOffset += GGMLType.Q8_0.getTypeSize()) {
+            float scale = alpha * Float.float16ToFloat(readShort(memorySegment, blockOffset));
+            for (int half = 0; half < 2; half++) {
+                var wBytes = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment,
+                        blockOffset + GGMLType.FLOAT16_BYTES + half * (blockSize / 2), ByteOrder.LITTLE_ENDIAN);
+                addQuants(wBytes, scale, out, outOffset + j + half * (blockSize / 2));
+            }
+        }
+        if (upperBound < size) {
+            super.saxpyInto(thisOffset + upperBound, out, outOffset + upperBound, size - upperBound, alpha);
+        }
+    }
+
+    /**
+     * Computes two rows of a matrix-vector product, sharing each activation load across the rows.
+     *
+     * @param firstRow first output row
+     * @param dim1 input dimension, the length of each row
+     * @param that dense input vector
+     * @param out output tensor
+     */
+    @Override
+    void dotRows(int firstRow, int dim1, ArrayFloatTensor that, FloatTensor out) {
+        int blockSize = GGMLType.Q8_0.getBlockSize();
+        if (dim1 % blockSize != 0) {
+            super.dotRows(firstRow, dim1, that, out);
+            return;
+        }
+        long rowBytes = (long) dim1 / blockSize * GGMLType.Q8_0.getTypeSize();
+        long blockOffset = firstRow * rowBytes;
+        FloatVector acc0 = FloatVector.zero(F_SPECIES);
+        FloatVector acc1 = FloatVector.zero(F_SPECIES);
+        for (int j = 0; j < dim1; j += blockSize, blockOffset += GGMLType.Q8_0.getTypeSize()) {
+            FloatVector dot0 = FloatVector.zero(F_SPECIES);
+            FloatVector dot1 = FloatVector.zero(F_SPECIES);
+            for (int half = 0; half < 2; half++) {
+                long quantsOffset = blockOffset + GGMLType.FLOAT16_BYTES + half * (blockSize / 2);
+                var q0 = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment, quantsOffset, ByteOrder.LITTLE_ENDIAN);
+                var q1 = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment, quantsOffset + rowBytes, ByteOrder.LITTLE_ENDIAN);
+                int xOffset = j + half * (blockSize / 2);
+                var x0 = that.getFloatVector(F_SPECIES, xOffset);
+                var x1 = groupVector(that, xOffset, 1, x0);
+                var x2 = groupVector(that, xOffset, 2, x0);
+                var x3 = groupVector(that, xOffset, 3, x0);
+                dot0 = dotGroup(q0, x0, x1, x2, x3, dot0);
+                dot1 = dotGroup(q1, x0, x1, x2, x3, dot1);
+            }
+            acc0 = dot0.fma(FloatVector.broadcast(F_SPECIES, Float.float16ToFloat(readShort(memorySegment, blockOffset))), acc0);
+            acc1 = dot1.fma(FloatVector.broadcast(F_SPECIES, Float.float16ToFloat(readShort(memorySegment, blockOffset + rowBytes))), acc1);
+        }
+        storeRows(out, firstRow, acc0, acc1);
+    }
+
     /**
      * Computes dot product with potential vectorized path.
      *
@@ -97,7 +284,10 @@ public final class Q8_0FloatTensor extends FloatTensor {
      */
     @Override
     public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
-        if (FloatTensor.USE_VECTOR_API && FloatTensor.F_SPECIES.vectorBitSize() >= 512) {
+        if (that instanceof Q8_0ActivationTensor activations) {
+            return q8Dot(this, thisOffset, activations, thatOffset, size);
+        }
+        if (FloatTensor.USE_VECTOR_API) {
             return vectorDot(this, thisOffset, (ArrayFloatTensor) that, thatOffset, size);
         } else {
             return FloatTensor.scalarDot(this, thisOffset, that, thatOffset, size);
@@ -128,37 +318,40 @@ public final class Q8_0FloatTensor extends FloatTensor {
 
         FloatVector val = FloatVector.zero(F_SPECIES);
         int blockOffset = (thisOffset + j) / GGMLType.Q8_0.getBlockSize() * GGMLType.Q8_0.getTypeSize();
-        int upperBound = size / GGMLType.Q8_0.getBlockSize() * GGMLType.Q8_0.getBlockSize();
+        int upperBound = j + (size - j) / GGMLType.Q8_0.getBlockSize() * GGMLType.Q8_0.getBlockSize();
         for (; j < upperBound; j += GGMLType.Q8_0.getBlockSize(), blockOffset += GGMLType.Q8_0.getTypeSize()) {
             float wScaleValue = Float.float16ToFloat(readShort(thiz.memorySegment, blockOffset));
             var wScale = FloatVector.broadcast(F_SPECIES, wScaleValue);
             var wBytes = ByteVector.fromMemorySegment(ByteVector.SPECIES_256, thiz.memorySegment,
                     blockOffset + GGMLType.FLOAT16_BYTES, ByteOrder.LITTLE_ENDIAN);
-            var wBytesVector = wBytes.convertShape(VectorOperators.B2I, I_SPECIES, 0).reinterpretAsFloats();
             switch (F_SPECIES.vectorBitSize()) {
                 case 512 -> {
-                    var sum0 = that.getFloatVector(F_SPECIES, thatOffset + j).mul(wBytesVector.castShape(F_SPECIES, 0));
+                    var sum0 = that.getFloatVector(F_SPECIES, thatOffset + j).mul(wBytes.castShape(F_SPECIES, 0));
                     var sum1 = that.getFloatVector(F_SPECIES, thatOffset + j + F_SPECIES.length())
-                            .mul(wBytesVector.castShape(F_SPECIES, 1));
+                            .mul(wBytes.castShape(F_SPECIES, 1));
                     val = sum0.add(sum1).fma(wScale, val);
                 }
                 case 256 -> {
-                    var sum0 = that.getFloatVector(F_SPECIES, thatOffset + j).mul(wBytesVector.castShape(F_SPECIES, 0));
+                    var sum0 = that.getFloatVector(F_SPECIES, thatOffset + j).mul(wBytes.castShape(F_SPECIES, 0));
                     var sum1 = that.getFloatVector(F_SPECIES, thatOffset + j + F_SPECIES.length())
-                            .mul(wBytesVector.castShape(F_SPECIES, 1));
+                            .mul(wBytes.castShape(F_SPECIES, 1));
                     var sum2 = that.getFloatVector(F_SPECIES, thatOffset + j + 2 * F_SPECIES.length())
-                            .mul(wBytesVector.castShape(F_SPECIES, 2));
+                            .mul(wBytes.castShape(F_SPECIES, 2));
                     var sum3 = that.getFloatVector(F_SPECIES, thatOffset + j + 3 * F_SPECIES.length())
-                            .mul(wBytesVector.castShape(F_SPECIES, 3));
+                            .mul(wBytes.castShape(F_SPECIES, 3));
                     val = sum0.add(sum1).add(sum2).add(sum3).fma(wScale, val);
                 }
                 case 128 -> {
                     for (int i = 0; i < 2; ++i) {
-                        var sum0 = that.getFloatVector(F_SPECIES, thatOffset + j + (i * 2) * F_SPECIES.length())
-                                .mul(wBytesVector.castShape(F_SPECIES, i * 2));
-                        var sum1 = that.getFloatVector(F_SPECIES, thatOffset + j + (i * 2 + 1) * F_SPECIES.length())
-                                .mul(wBytesVector.castShape(F_SPECIES, i * 2 + 1));
-                        val = sum0.add(sum1).fma(wScale, val);
+                        var sum0 = that.getFloatVector(F_SPECIES, thatOffset + j + (i * 4) * F_SPECIES.length())
+                                .mul(wBytes.castShape(F_SPECIES, i * 4));
+                        var sum1 = that.getFloatVector(F_SPECIES, thatOffset + j + (i * 4 + 1) * F_SPECIES.length())
+                                .mul(wBytes.castShape(F_SPECIES, i * 4 + 1));
+                        var sum2 = that.getFloatVector(F_SPECIES, thatOffset + j + (i * 4 + 2) * F_SPECIES.length())
+                                .mul(wBytes.castShape(F_SPECIES, i * 4 + 2));
+                        var sum3 = that.getFloatVector(F_SPECIES, thatOffset + j + (i * 4 + 3) * F_SPECIES.length())
+                                .mul(wBytes.castShape(F_SPECIES, i * 4 + 3));
+                        val = sum0.add(sum1).add(sum2).add(sum3).fma(wScale, val);
                     }
                 }
                 default -> throw new UnsupportedOperationException(F_SPECIES.toString());
@@ -172,4 +365,35 @@ public final class Q8_0FloatTensor extends FloatTensor {
 
         return result;
     }
+
+    /**
+     * Integer dot product of Q8_0 weights against Q8_0-quantized activations.
+     *
+     * @param thiz quantized tensor
+     * @param thisOffset offset in quantized tensor
+     * @param that quantized activations
+     * @param thatOffset offset in activations
+     * @param size number of elements
+     * @return dot product
+     */
+    private static float q8Dot(Q8_0FloatTensor thiz, int thisOffset, Q8_0ActivationTensor that, int thatOffset, int size) {
+        int blockSize = GGMLType.Q8_0.getBlockSize();
+        if (!FloatTensor.USE_VECTOR_API || thisOffset % blockSize != 0 || !that.isBlockAligned(thatOffset, size, blockSize)) {
+            return FloatTensor.scalarDot(thiz, thisOffset, that, thatOffset, size);
+        }
+        FloatVector val = FloatVector.zero(F_SPECIES);
+        long blockOffset = (long) thisOffset / blockSize * GGMLType.Q8_0.getTypeSize();
+        for (int j = 0; j < size; j += blockSize, blockOffset += GGMLType.Q8_0.getTypeSize()) {
+            float scale = Float.float16ToFloat(readShort(thiz.memorySegment, blockOffset))
+                    * that.scale((thatOffset + j) / blockSize);
+            var w0 = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, thiz.memorySegment,
+                    blockOffset + GGMLType.FLOAT16_BYTES, ByteOrder.LITTLE_ENDIAN);
+            var w1 = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, thiz.memorySegment,
+                    blockOffset + GGMLType.FLOAT16_BYTES + blockSize / 2, ByteOrder.LITTLE_ENDIAN);
+            IntVector blockSum = Q8_0ActivationTensor.mulAddBlock(w0, that.quantVector(thatOffset + j),
+                    w1, that.quantVector(thatOffset + j + blockSize / 2), IntVector.zero(I_SPECIES));
+            val = Q8_0ActivationTensor.fmaBlock(blockSum, scale, val);
+        }
+        return val.reduceLanes(VectorOperators.ADD);
+    }
 }
@@ -0,0 +1,277 @@
+package com.llama4j.tensor;
+
+import com.llama4j.gguf.GGMLType;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+
+/**
+ * {@link GGMLType#Q8_0} matrix repacked so that pairs of rows are interleaved block by block.
+ *
+ * <p>Same layout as {@link Q4_0x2FloatTensor}: for every pair of rows and every block column, the two scales
+ * are followed by the two rows' 32 quants, one contiguous 68-byte run per {@link #dotRows} step.</p>
+ */
+public final class Q8_0x2FloatTensor extends FloatTensor {
+    /** Rows per interleaved group. */
+    static final int ROWS = GEMV_ROWS;
+
+    private static final int BLOCK_SIZE = GGMLType.Q8_0.getBlockSize();
+    private static final int QUANT_BYTES = BLOCK_SIZE;
+    private static final int GROUP_BLOCK_BYTES = ROWS * GGMLType.Q8_0.getTypeSize();
+
+    private final int size;
+    private final int columns;
+    private final MemorySegment memorySegment;
+
+    /**
+     * Creates a tensor over data already in the interleaved layout.
+     *
+     * @param size number of elements
+     * @param columns row length, a multiple of the block size
+     * @param memorySegment interleaved tensor data
+     */
+    public Q8_0x2FloatTensor(int size, int columns, MemorySegment memorySegment) {
+        if (columns % BLOCK_SIZE != 0 || size % (columns * ROWS) != 0) {
+            throw new IllegalArgumentException("columns=" + columns + ", size=" + size);
+        }
+        this.size = size;
+        this.columns = columns;
+        this.memorySegment = memorySegment;
+    }
+
+    /**
+     * Repacks plain Q8_0 data into the two-row interleaved layout.
+     *
+     * @param size number of elements
+     * @param columns row length
+     * @param source source tensor data
+     * @return repacked tensor backed by a new off-heap segment
+     */
+    public static Q8_0x2FloatTensor repack(int size, int columns, MemorySegment source) {
+        int rows = size / columns;
+        if (columns % BLOCK_SIZE != 0 || rows % ROWS != 0) {
+            throw new IllegalArgumentException("Q8_0 with " + rows + " rows of " + columns);
+        }
+        int blocksPerRow = columns / BLOCK_SIZE;
+        int typeSize = GGMLType.Q8_0.getTypeSize();
+        MemorySegment target = Arena.ofAuto().allocate(GGMLType.Q8_0.byteSizeFor(size), Long.BYTES);
+        for (int row = 0; row < rows; row++) {
+            for (int b = 0; b < blocksPerRow; b++) {
+                long sourceOffset = ((long) row * blocksPerRow + b) * typeSize;
+                long targetOffset = ((long) (row / ROWS) * blocksPerRow + b) * GROUP_BLOCK_BYTES;
+                int r = row % ROWS;
+                MemorySegment.copy(source, sourceOffset, target,
+                        targetOffset + r * GGMLType.FLOAT16_BYTES, GGMLType.FLOAT16_BYTES);
+                MemorySegment.copy(source, sourceOffset + GGMLType.FLOAT16_BYTES, target,
+                        targetOffset + ROWS * GGMLType.FLOAT16_BYTES + r * QUANT_BYTES, QUANT_BYTES);
+            }
+        }
+        return new Q8_0x2FloatTensor(size, columns, target);
+    }
+
+    /**
+     * Returns the number of elements.
+     *
+     * @return element count
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Unsupported for quantized tensor.
+     *
+     * @param index element index
+     * @param value value to set
+     */
+    @Override
+    public void setFloat(int index, float value) {
+        throw new UnsupportedOperationException("setFloat");
+    }
+
+    /**
+     * Unsupported for quantized tensor.
+     *
+     * @param species vector species
+     * @param index offset index
+     * @return float vector
+     */
+    @Override
+    public FloatVector getFloatVector(VectorSpecies<Float> species, int index) {
+        throw new UnsupportedOperationException("getFloatVector");
+    }
+
+    /**
+     * Returns the GGML type of the blocks.
+     *
+     * @return GGML type
+     */
+    @Override
+    public GGMLType type() {
+        return GGMLType.Q8_0;
+    }
+
+    /**
+     * Returns the offset of the interleaved group block holding a row's block.
+     *
+     * @param row matrix row
+     * @param block block index within the row
+     * @return byte offset of the group block
+     */
+    private long groupBlockOffset(int row, int block) {
+        return ((long) (row / ROWS) * (columns / BLOCK_SIZE) + block) * GROUP_BLOCK_BYTES;
+    }
+
+    /**
+     * Reads a dequantized float value.
+     *
+     * @param index element index
+     * @return dequantized value
+     */
+    @Override
+    public float getFloat(int index) {
+        assert 0 <= index && index < size;
+        int row = index / columns;
+        int column = index % columns;
+        int r = row % ROWS;
+        long groupOffset = groupBlockOffset(row, column / BLOCK_SIZE);
+        float scale = Float.float16ToFloat(readShort(memorySegment, groupOffset + r * GGMLType.FLOAT16_BYTES));
+        long quantsOffset = groupOffset + ROWS * GGMLType.FLOAT16_BYTES + r * QUANT_BYTES;
+        byte quant = readByte(memorySegment, quantsOffset + column % BLOCK_SIZE);
+        return quant * scale;
+    }
+
+    /**
+     * Checks whether a slice covers whole blocks of a single row.
+     *
+     * @param thisOffset offset in this tensor
+     * @param size number of elements
+     * @return true when the vector kernels can walk the slice block by block
+     */
+    private boolean isBlockAlignedRowSlice(int thisOffset, int size) {
+        return thisOffset % BLOCK_SIZE == 0 && size % BLOCK_SIZE == 0
+                && thisOffset % columns + size <= columns;
+    }
+
+    /**
+     * Dequantizes a slice of one row into a float array, one Q8_0 block at a time.
+     *
+     * @param thisOffset offset in this tensor
+     * @param out destination array
+     * @param outOffset offset in the destination array
+     * @param size number of elements
+     */
+    @Override
+    void dequantize(int thisOffset, float[] out, int outOffset, int size) {
+        if (!FloatTensor.USE_VECTOR_API || !isBlockAlignedRowSlice(thisOffset, size)) {
+            super.dequantize(thisOffset, out, outOffset, size);
+            return;
+        }
+        int row = thisOffset / columns;
+        int r = row % ROWS;
+        int firstBlock = thisOffset % columns / BLOCK_SIZE;
+        for (int j = 0; j < size; j += BLOCK_SIZE) {
+            long groupOffset = groupBlockOffset(row, firstBlock + j / BLOCK_SIZE);
+            float scale = Float.float16ToFloat(readShort(memorySegment, groupOffset + r * GGMLType.FLOAT16_BYTES));
+            long quantsOffset = groupOffset + ROWS * GGMLType.FLOAT16_BYTES + r * QUANT_BYTES;
+            for (int half = 0; half < 2; half++) {
+                var quants = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment,
+                        quantsOffset + half * (BLOCK_SIZE / 2), ByteOrder.LITTLE_ENDIAN);
+                storeQuants(quants, scale, 0f, out, outOffset + j + half * (BLOCK_SIZE / 2));
+            }
+        }
+    }
+
+    /**
+     * Computes an interleaved row pair of a matrix-vector product.
+     *
+     * @param firstRow first output row, a multiple of {@link #ROWS}
+     * @param dim1 input dimension, the length of each row
+     * @param that dense input vector
+     * @param out output tensor
+     */
+    @Override
+    void dotRows(int firstRow, int dim1, ArrayFloatTensor that, FloatTensor out) {
+        long groupOffset = groupBlockOffset(firstRow, 0);
+        FloatVector acc0 = FloatVector.zero(F_SPECIES);
+        FloatVector acc1 = FloatVector.zero(F_SPECIES);
+        for (int j = 0; j < dim1; j += BLOCK_SIZE, groupOffset += GROUP_BLOCK_BYTES) {
+            long quantsOffset = groupOffset + ROWS * GGMLType.FLOAT16_BYTES;
+            FloatVector dot0 = FloatVector.zero(F_SPECIES);
+            FloatVector dot1 = FloatVector.zero(F_SPECIES);
+            for (int half = 0; half < 2; half++) {
+                long halfOffset = quantsOffset + half * (BLOCK_SIZE / 2);
+                var q0 = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment, halfOffset, ByteOrder.LITTLE_ENDIAN);
+                var q1 = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment, halfOffset + QUANT_BYTES,
+                        ByteOrder.LITTLE_ENDIAN);
+                int xOffset = j + half * (BLOCK_SIZE / 2);
+                var x0 = that.getFloatVector(F_SPECIES, xOffset);
+                var x1 = groupVector(that, xOffset, 1, x0);
+                var x2 = groupVector(that, xOffset, 2, x0);
+                var x3 = groupVector(that, xOffset, 3, x0);
+                dot0 = dotGroup(q0, x0, x1, x2, x3, dot0);
+                dot1 = dotGroup(q1, x0, x1, x2, x3, dot1);
+            }
+            acc0 = dot0.fma(FloatVector.broadcast(F_SPECIES, Float.float16ToFloat(readShort(memorySegment, groupOffset))), acc0);
+            acc1 = dot1.fma(FloatVector.broadcast(F_SPECIES,
+                    Float.float16ToFloat(readShort(memorySegment, groupOffset + GGMLType.FLOAT16_BYTES))), acc1);
+        }
+        storeRows(out, firstRow, acc0, acc1);
+    }
+
+    /**
+     * Computes dot product with potential vectorized path.
+     *
+     * @param thisOffset offset in this tensor
+     * @param that other tensor
+     * @param thatOffset offset in other tensor
+     * @param size number of elements
+     * @return dot product
+     */
+    @Override
+    public float dot(int thisOffset, FloatTensor that, int thatOffset, int size) {
+        if (FloatTensor.USE_VECTOR_API && that instanceof ArrayFloatTensor dense && isBlockAlignedRowSlice(thisOffset, size)) {
+            return vectorDot(thisOffset, dense, thatOffset, size);
+        }
+        return FloatTensor.scalarDot(this, thisOffset, that, thatOffset, size);
+    }
+
+    /**
+     * Vectorized dot product of a block-aligned slice of one row.
+     *
+     * @param thisOffset offset in this tensor
+     * @param that dense tensor
+     * @param thatOffset offset in dense tensor
+     * @param size number of elements
+     * @return dot product
+     */
+    private float vectorDot(int thisOffset, ArrayFloatTensor that, int thatOffset, int size) {
+        int row = thisOffset / columns;
+        int r = row % ROWS;
+        int firstBlock = thisOffset % columns / BLOCK_SIZE;
+        FloatVector acc = FloatVector.zero(F_SPECIES);
+        for (int j = 0; j < size; j += BLOCK_SIZE) {
+            long groupOffset = groupBlockOffset(row, firstBlock + j / BLOCK_SIZE);
+            long quantsOffset = groupOffset + ROWS * GGMLType.FLOAT16_BYTES + r * QUANT_BYTES;
+            FloatVector dot = FloatVector.zero(F_SPECIES);
+            for (int half = 0; half < 2; half++) {
+                var q = ByteVector.fromMemorySegment(ByteVector.SPECIES_128, memorySegment,
+                        quantsOffset + half * (BLOCK_SIZE / 2), ByteOrder.LITTLE_ENDIAN);
+                int xOffset = thatOffset + j + half * (BLOCK_SIZE / 2);
+                var x0 = that.getFloatVector(F_SPECIES, xOffset);
+                dot = dotGroup(q, x0, groupVector(that, xOffset, 1, x0), groupVector(that, xOffset, 2, x0),
+                        groupVector(that, xOffset, 3, x0), dot);
+            }
+            float scale = Float.float16ToFloat(readShort(memorySegment, groupOffset + r * GGMLType.FLOAT16_BYTES));
+            acc = dot.fma(FloatVector.broadcast(F_SPECIES, scale), acc);
+        }
+        return acc.reduceLanes(VectorOperators.ADD);
+    }
+}
@@ -1,18 +1,18 @@
 package com.llama4j.tensor;
 
-import com.llama4j.util.Pair;
-
 /**
  * Rotary positional embedding utilities.
+ *
+ * <p>Only the frequency of each pair of head dimensions is kept. The rotation angles of a position are computed
+ * when a token is forwarded, once for all layers and heads, so nothing grows with the context length.</p>
  */
 public final class RoPE {
     private RoPE() {
     }
 
     /**
-     * Precomputes RoPE frequency coefficients.
+     * Computes the RoPE frequency of each pair of head dimensions.
      *
-     * @param contextLength sequence length
      * @param headSize head dimension size
      * @param theta base theta value
      * @param ropeScaling whether to apply scaling
@@ -20,38 +20,52 @@ public final class RoPE {
      * @param loFreqFactor low frequency factor
      * @param hiFreqFactor high frequency factor
      * @param oldContextLength original context length
-     * @return pair of real/imaginary arrays
+     * @return {@code headSize / 2} frequencies
      */
-    public static Pair<float[], float[]> precomputeFreqsCis(int contextLength, int headSize, double theta,
-                                                           boolean ropeScaling, float scaleFactor, float loFreqFactor,
-                                                           float hiFreqFactor, float oldContextLength) {
+    public static float[] frequencies(int headSize, double theta, boolean ropeScaling, float scaleFactor,
+                                      float loFreqFactor, float hiFreqFactor, float oldContextLength) {
         assert headSize % 2 == 0;
-        float[] cr = new float[contextLength * (headSize / 2)];
-        float[] ci = new float[contextLength * (headSize / 2)];
-        int n = 0;
-        for (int pos = 0; pos < contextLength; ++pos) {
-            for (int i = 0; i < headSize; i += 2) {
-                float freq = (float) (1.0 / Math.pow(theta, i / (double) headSize));
-                if (ropeScaling) {
-                    float loFreqWavelen = oldContextLength / loFreqFactor;
-                    float hiFreqWavelen = oldContextLength / hiFreqFactor;
-                    float wavelen = (float) (2.0 * Math.PI / freq);
-                    if (wavelen < hiFreqWavelen) {
-                        freq = freq;
-                    } else if (wavelen > loFreqWavelen) {
-                        freq = freq / scaleFactor;
-                    } else {
-                        float smooth = (oldContextLength / wavelen - loFreqFactor) / (hiFreqFactor - loFreqFactor);
-                        freq = (1.0f - smooth) * freq / scaleFactor + smooth * freq;
-                    }
+        float[] frequencies = new float[headSize / 2];
+        for (int i = 0; i < headSize; i += 2) {
+            float freq = (float) (1.0 / Math.pow(theta, i / (double) headSize));
+            if (ropeScaling) {
+                float loFreqWavelen = oldContextLength / loFreqFactor;
+                float hiFreqWavelen = oldContextLength / hiFreqFactor;
+                float wavelen = (float) (2.0 * Math.PI / freq);
+                if (wavelen < hiFreqWavelen) {
+                    freq = freq;
+                } else if (wavelen > loFreqWavelen) {
+                    freq = freq / scaleFactor;
+                } else {
+                    float smooth = (oldContextLength / wavelen - loFreqFactor) / (hiFreqFactor - loFreqFactor);
+                    freq = (1.0f - smooth) * freq / scaleFactor + smooth * freq;
                 }
-                float val = pos * freq;
-                cr[n] = (float) Math.cos(val);
-                ci[n] = (float) Math.sin(val);
-                n++;
             }
+            frequencies[i / 2] = freq;
+        }
+        return frequencies;
+    }
+
+    /**
+     * Computes the rotation of a position in the interleaved layout read by
+     * {@link FloatTensor#ropeInPlace(int, int, int, float[], float[])}: {@code cos} repeats the cosine of each
+     * pair for both of its elements, {@code sin} holds the negated sine for the first element and the sine for
+     * the second.
+     *
+     * @param frequencies frequency of each pair of head dimensions
+     * @param position token position
+     * @param cos destination of {@code 2 * frequencies.length} cosines
+     * @param sin destination of {@code 2 * frequencies.length} signed sines
+     */
+    public static void angles(float[] frequencies, int position, float[] cos, float[] sin) {
+        for (int j = 0; j < frequencies.length; j++) {
+            float angle = position * frequencies[j];
+            float c = (float) Math.cos(angle);
+            float s = (float) Math.sin(angle);
+            cos[2 * j] = c;
+            cos[2 * j + 1] = c;
+            sin[2 * j] = -s;
+            sin[2 * j + 1] = s;
         }
-        assert contextLength * (headSize / 2) == n;
-        return new Pair<>(cr, ci);
     }
 }
@@ -1,17 +1,60 @@
 package com.llama4j.util;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.IntConsumer;
 import java.util.function.LongConsumer;
-import java.util.stream.IntStream;
-import java.util.stream.LongStream;
 
 /**
  * Executes simple parallel for loops with sane fallbacks for single-iteration cases.
+ *
+ * <p>Loops run on a dedicated pool of persistent worker threads rather than the common
+ * {@link java.util.concurrent.ForkJoinPool}. Each loop is split statically into one contiguous range per
+ * thread, the calling thread takes the first range, and the caller spins until the workers are done. Idle
+ * workers spin briefly before parking, so the back-to-back loops of a forward pass are dispatched without
+ * waking threads from the OS. The pool size, including the calling thread, defaults to the number of
+ * available processors and can be set with {@code -Dllama.Threads} or {@link #setThreads}.</p>
+ *
+ * <p>A loop started from inside another loop runs sequentially on the calling thread. A loop started while
+ * another thread is using the pool, e.g. by concurrent requests of a server, runs its chunks on a second set of
+ * overflow threads owned by the pool instead, so every caller keeps running in parallel without sharing the
+ * common {@link java.util.concurrent.ForkJoinPool} with unrelated work. Overflow threads are started on first
+ * contention.</p>
  */
 public final class Parallel {
+    private static volatile WorkerPool pool =
+            new WorkerPool(Integer.getInteger("llama.Threads", Runtime.getRuntime().availableProcessors()));
+
     private Parallel() {
     }
 
+    /**
+     * Returns the number of threads that run a loop, including the calling thread.
+     *
+     * @return thread count
+     */
+    public static int threads() {
+        return pool.threads;
+    }
+
+    /**
+     * Replaces the worker pool with one of the given size. Must not be called while loops are running.
+     *
+     * @param threads thread count including the calling thread, at least 1
+     */
+    public static synchronized void setThreads(int threads) {
+        if (threads != pool.threads) {
+            WorkerPool previous = pool;
+            pool = new WorkerPool(threads);
+            previous.shutdown();
+        }
+    }
+
     /**
      * Runs an {@link IntConsumer} in parallel for the given integer range.
      *
@@ -24,7 +67,7 @@ public final class Parallel {
             action.accept(0);
             return;
         }
-        IntStream.range(startInclusive, endExclusive).parallel().forEach(action);
+        pool.run(startInclusive, endExclusive, action, null);
     }
 
     /**
@@ -39,6 +82,271 @@ public final class Parallel {
             action.accept(0);
             return;
         }
-        LongStream.range(startInclusive, endExclusive).parallel().forEach(action);
+        pool.run(startInclusive, endExclusive, null, action);
+    }
+
+    /**
+     * One loop, split into contiguous chunks.
+     *
+     * @param start start of the range (inclusive)
+     * @param end end of the range (exclusive)
+     * @param chunks number of chunks
+     * @param intAction action for int ranges, or null
+     * @param longAction action for long ranges, or null
+     */
+    private record Task(long start, long end, int chunks, IntConsumer intAction, LongConsumer longAction) {
+        /**
+         * Runs the indices of one chunk.
+         *
+         * @param chunk chunk index
+         */
+        void runChunk(int chunk) {
+            long count = end - start;
+            long from = start + count * chunk / chunks;
+            long to = start + count * (chunk + 1) / chunks;
+            if (intAction != null) {
+                for (int i = (int) from; i < to; i++) {
+                    intAction.accept(i);
+                }
+            } else {
+                for (long i = from; i < to; i++) {
+                    longAction.accept(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fixed set of worker threads that run the chunks of one loop at a time.
+     */
+    private static final class WorkerPool {
+        /** Spin iterations before an idle worker or a waiting caller parks. */
+        private static final int SPIN_LIMIT = 1 << 12;
+
+        final int threads;
+        /** Spinning only pays off when every thread has a core; oversubscribed pools park right away. */
+        private final int spinLimit;
+        private final Worker[] workers;
+        private final ExecutorService overflow;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AtomicInteger remaining = new AtomicInteger();
+        private volatile Task task;
+        private volatile Throwable failure;
+        private volatile Thread waiter;
+        private volatile boolean shutdown;
+
+        /**
+         * Starts {@code threads - 1} daemon workers.
+         *
+         * @param threads thread count including the calling thread
+         */
+        WorkerPool(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads=" + threads);
+            }
+            this.threads = threads;
+            this.spinLimit = threads <= Runtime.getRuntime().availableProcessors() ? SPIN_LIMIT : 0;
+            this.workers = new Worker[threads - 1];
+            for (int w = 0; w < workers.length; w++) {
+                workers[w] = new Worker(this, w + 1);
+                workers[w].start();
+            }
+            this.overflow = Executors.newFixedThreadPool(Math.max(1, threads - 1), OverflowThread::new);
+        }
+
+        /**
+         * Runs a loop across the pool, on the overflow threads when another thread holds the workers, or on the
+         * calling thread when the loop is nested in another.
+         *
+         * @param start start of the range (inclusive)
+         * @param end end of the range (exclusive)
+         * @param intAction action for int ranges, or null
+         * @param longAction action for long ranges, or null
+         */
+        void run(long start, long end, IntConsumer intAction, LongConsumer longAction) {
+            long count = end - start;
+            if (count <= 0) {
+                return;
+            }
+            int n = (int) Math.min(threads, count);
+            Thread current = Thread.currentThread();
+            if (n == 1 || current instanceof Worker || current instanceof OverflowThread || lock.isHeldByCurrentThread()) {
+                new Task(start, end, 1, intAction, longAction).runChunk(0);
+                return;
+            }
+            if (!lock.tryLock()) {
+                runOverflow(new Task(start, end, n, intAction, longAction));
+                return;
+            }
+            try {
+                Task next = new Task(start, end, n, intAction, longAction);
+                failure = null;
+                remaining.set(n - 1);
+                task = next;
+                for (int w = 0; w < n - 1; w++) {
+                    LockSupport.unpark(workers[w]);
+                }
+                Throwable callerFailure = null;
+                try {
+                    next.runChunk(0);
+                } catch (Throwable t) {
+                    callerFailure = t;
+                }
+                awaitWorkers();
+                rethrow(callerFailure != null ? callerFailure : failure);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Runs a contended loop: the calling thread takes the first chunk and the overflow threads the others.
+         *
+         * @param shared loop to run
+         */
+        private void runOverflow(Task shared) {
+            CompletableFuture<?>[] chunks = new CompletableFuture<?>[shared.chunks() - 1];
+            for (int c = 1; c < shared.chunks(); c++) {
+                int chunk = c;
+                chunks[c - 1] = CompletableFuture.runAsync(() -> shared.runChunk(chunk), overflow);
+            }
+            Throwable callerFailure = null;
+            try {
+                shared.runChunk(0);
+            } catch (Throwable t) {
+                callerFailure = t;
+            }
+            try {
+                CompletableFuture.allOf(chunks).join();
+            } catch (CompletionException e) {
+                if (callerFailure == null) {
+                    callerFailure = e.getCause();
+                }
+            }
+            rethrow(callerFailure);
+        }
+
+        /**
+         * Rethrows the failure of a loop, wrapping checked throwables.
+         *
+         * @param t failure, or null
+         */
+        private static void rethrow(Throwable t) {
+            if (t instanceof RuntimeException e) {
+                throw e;
+            } else if (t instanceof Error e) {
+                throw e;
+            } else if (t != null) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        /**
+         * Spins, then parks, until every worker of the current task has finished its chunk.
+         */
+        private void awaitWorkers() {
+            for (int spins = 0; spins < spinLimit; spins++) {
+                if (remaining.get() == 0) {
+                    return;
+                }
+                Thread.onSpinWait();
+            }
+            waiter = Thread.currentThread();
+            while (remaining.get() != 0) {
+                LockSupport.park(this);
+            }
+            waiter = null;
+        }
+
+        /**
+         * Worker loop: waits for a new task and runs its chunk if the task has one for this worker.
+         *
+         * @param chunk chunk index served by the worker
+         */
+        void work(int chunk) {
+            Task last = null;
+            int spins = 0;
+            while (!shutdown) {
+                Task current = task;
+                if (current == last) {
+                    if (++spins < spinLimit) {
+                        Thread.onSpinWait();
+                    } else {
+                        LockSupport.park(this);
+                    }
+                    continue;
+                }
+                spins = 0;
+                last = current;
+                if (chunk < current.chunks()) {
+                    try {
+                        current.runChunk(chunk);
+                    } catch (Throwable t) {
+                        failure = t;
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            Thread caller = waiter;
+                            if (caller != null) {
+                                LockSupport.unpark(caller);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Stops the workers and the overflow threads once they finish their current chunk.
+         */
+        void shutdown() {
+            shutdown = true;
+            overflow.shutdown();
+            for (Worker worker : workers) {
+                LockSupport.unpark(worker);
+            }
+        }
+    }
+
+    /**
+     * Daemon thread serving one chunk index of a {@link WorkerPool}.
+     */
+    private static final class Worker extends Thread {
+        private final WorkerPool pool;
+        private final int chunk;
+
+        /**
+         * Creates a worker.
+         *
+         * @param pool owning pool
+         * @param chunk chunk index served by the worker
+         */
+        Worker(WorkerPool pool, int chunk) {
+            super("llama-worker-" + chunk);
+            this.pool = pool;
+            this.chunk = chunk;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            pool.work(chunk);
+        }
+    }
+
+    /**
+     * Daemon thread running the chunks of contended loops.
+     */
+    private static final class OverflowThread extends Thread {
+        private static final AtomicInteger COUNT = new AtomicInteger();
+
+        /**
+         * Creates an overflow thread.
+         *
+         * @param task runnable of the executor
+         */
+        OverflowThread(Runnable task) {
+            super(task, "llama-overflow-" + COUNT.incrementAndGet());
+            setDaemon(true);
+        }
     }
 }
@@ -7,7 +7,6 @@ import com.llama4j.tensor.FloatTensor;
 import com.llama4j.tensor.RoPE;
 import com.llama4j.tokenizer.Tokenizer;
 import com.llama4j.tokenizer.Vocabulary;
-import com.llama4j.util.Pair;
 
 import org.junit.jupiter.api.Test;
 
@@ -61,13 +60,11 @@ class LlamaTest {
         FloatTensor[] w3 = {ArrayFloatTensor.allocate(config.hiddenDim, config.dim)};
         FloatBuffer rmsFinalWeight = FloatBuffer.wrap(new float[config.dim]);
 
-        Pair<float[], float[]> ropeFreqs = RoPE.precomputeFreqsCis(config.contextLength, config.headSize, config.ropeTheta,
-                false, 1f, 1f, 1f, config.contextLength);
-        FloatBuffer ropeReal = FloatBuffer.wrap(ropeFreqs.first());
-        FloatBuffer ropeImag = FloatBuffer.wrap(ropeFreqs.second());
+        float[] ropeFrequencies = RoPE.frequencies(config.headSize, config.ropeTheta, false, 1f, 1f, 1f,
+                config.contextLength);
         FloatTensor wcls = ArrayFloatTensor.allocate(config.vocabularySize, config.dim);
 
         return new Llama.Weights(tokenEmbeddingTable, rmsAttWeight, wq, wk, wv, wo, rmsFfnWeight,
-                w1, w2, w3, rmsFinalWeight, ropeReal, ropeImag, wcls);
+                w1, w2, w3, rmsFinalWeight, ropeFrequencies, wcls);
     }
 }
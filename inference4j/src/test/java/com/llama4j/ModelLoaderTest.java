@@ -1,15 +1,24 @@
 package com.llama4j;
 
+import com.llama4j.gguf.GGMLTensorEntry;
+import com.llama4j.gguf.GGMLType;
 import com.llama4j.model.Llama;
 import com.llama4j.model.ModelLoader;
+import com.llama4j.tensor.FloatTensor;
 
 import org.junit.jupiter.api.Test;
 
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
+import static com.llama4j.tensor.TestTensors.toNative;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 /**
  * Tests for the ModelLoader factory.
@@ -54,4 +63,53 @@ class ModelLoaderTest {
         assertEquals(8, model.configuration().contextLength);
         assertEquals(baseTokens + 5, model.configuration().vocabularySize);
     }
+
+    /**
+     * Ensures fused projections keep the rows of each source matrix in order.
+     */
+    @Test
+    void concatenatesRowsOfSameTypedMatrices() {
+        Random random = new Random(5);
+        int columns = 64;
+        GGMLTensorEntry q = q8Entry(random, "q", columns, 4);
+        GGMLTensorEntry k = q8Entry(random, "k", columns, 2);
+        GGMLTensorEntry v = q8Entry(random, "v", columns, 2);
+
+        FloatTensor fused = ModelLoader.concatenateRows(q, k, v);
+
+        assertNotNull(fused);
+        assertEquals(8 * columns, fused.size());
+        int offset = 0;
+        for (GGMLTensorEntry entry : new GGMLTensorEntry[]{q, k, v}) {
+            FloatTensor source = ModelLoader.loadQuantized(entry);
+            for (int i = 0; i < source.size(); i++) {
+                assertEquals(source.getFloat(i), fused.getFloat(offset + i));
+            }
+            offset += source.size();
+        }
+    }
+
+    /**
+     * Ensures projections of different types are left unfused.
+     */
+    @Test
+    void doesNotConcatenateMixedTypes() {
+        Random random = new Random(7);
+        GGMLTensorEntry q = q8Entry(random, "q", 64, 2);
+        GGMLTensorEntry k = new GGMLTensorEntry(q.mappedFile(), "k", GGMLType.Q4_0, q.shape(), q.memorySegment());
+
+        assertNull(ModelLoader.concatenateRows(q, k));
+    }
+
+    private static GGMLTensorEntry q8Entry(Random random, String name, int columns, int rows) {
+        GGMLType type = GGMLType.Q8_0;
+        byte[] buffer = new byte[(int) type.byteSizeFor(columns * rows)];
+        random.nextBytes(buffer);
+        ByteBuffer data = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset = 0; offset < buffer.length; offset += type.getTypeSize()) {
+            data.putShort(offset, Float.floatToFloat16(random.nextFloat() * 0.01f));
+        }
+        MemorySegment segment = toNative(buffer);
+        return new GGMLTensorEntry(segment, name, type, new int[]{columns, rows}, segment);
+    }
 }
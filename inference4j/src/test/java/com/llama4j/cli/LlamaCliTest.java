@@ -0,0 +1,28 @@
+package com.llama4j.cli;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LlamaCliTest {
+
+    @Test
+    void shortContextWithoutSinkTokensIsAccepted() {
+        LlamaCli.Options options = LlamaCli.Options.parseOptions(
+                new String[]{"--model", "x.gguf", "--prompt", "hi", "--max-tokens", "10"});
+
+        assertEquals(Path.of("x.gguf"), options.modelPath());
+        assertEquals(10, options.maxTokens());
+        assertEquals(-1, options.sinkTokens());
+    }
+
+    @Test
+    void sinkTokensThatLeaveRoomForABatchAreAccepted() {
+        LlamaCli.Options options = LlamaCli.Options.parseOptions(
+                new String[]{"--model", "x.gguf", "--chat", "--max-tokens", "64", "--sink-tokens", "4"});
+
+        assertEquals(4, options.sinkTokens());
+    }
+}
@@ -0,0 +1,60 @@
+package com.llama4j.model;
+
+import com.llama4j.gguf.GGMLType;
+import com.llama4j.sampling.Sampler;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContextShiftTest {
+    private static final int KV_DIM = 32;
+
+    @Test
+    void shiftedKeysMatchKeysComputedAtTheirNewPositions() {
+        Llama model = TestModels.randomModel(16, 3);
+        int[] tokens = {1, 2, 3, 4, 5, 6, 7, 1, 2, 3};
+        int[] kept = {1, 2, 6, 7, 1, 2, 3};
+        for (GGMLType type : new GGMLType[]{GGMLType.F32, GGMLType.F16}) {
+            Llama.State shifted = model.createNewState(16, type);
+            Llama.forward(model, shifted, tokens, 0, false);
+            Llama.shiftContext(model, shifted, 2, 3, tokens.length);
+            Llama.State direct = model.createNewState(16, type);
+            Llama.forward(model, direct, kept, 0, false);
+
+            assertEquals(3, shifted.shiftedTokens);
+            // Layer 0 rows only depend on the token and its position, not on the dropped context. F16 keys are
+            // rounded again after the rotation.
+            float delta = type == GGMLType.F32 ? 1e-4f : 1e-2f;
+            for (int i = 0; i < kept.length * KV_DIM; i++) {
+                assertEquals(direct.keyCache[0].getFloat(i), shifted.keyCache[0].getFloat(i), delta, type.name());
+                assertEquals(direct.valueCache[0].getFloat(i), shifted.valueCache[0].getFloat(i), type.name());
+            }
+        }
+    }
+
+    @Test
+    void generationWithSinkTokensRunsPastTheContextLength() {
+        Llama model = TestModels.randomModel(16, 5);
+        Llama.State state = model.createNewState(2);
+
+        List<Integer> generated = Llama.generateTokens(model, state, 0, List.of(0, 1, 2, 3, 4), Set.of(), 40, 4,
+                Sampler.ARGMAX, false, null);
+
+        assertEquals(40, generated.size());
+        assertTrue(state.shiftedTokens >= 5 + 40 - 16, "shifted " + state.shiftedTokens);
+    }
+
+    @Test
+    void sinkTokensMustLeaveRoomForABatch() {
+        Llama model = TestModels.randomModel(16, 5);
+        Llama.State state = model.createNewState(8);
+
+        assertThrows(IllegalArgumentException.class, () -> Llama.generateTokens(model, state, 0, List.of(0),
+                Set.of(), 4, 8, Sampler.ARGMAX, false, null));
+    }
+}
@@ -0,0 +1,169 @@
+package com.llama4j.model;
+
+import com.llama4j.gguf.GGMLType;
+import com.llama4j.sampling.Sampler;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContinuousBatcherTest {
+    private static final List<List<Integer>> PROMPTS = List.of(
+            List.of(0, 3, 5, 2),
+            List.of(0, 1),
+            List.of(0, 7, 7, 6, 1, 4, 2, 3, 5, 6, 1),
+            List.of(0, 2, 4, 6, 1, 3, 5));
+
+    @Test
+    void batchedSequencesMatchSeparateGeneration() throws Exception {
+        Llama model = TestModels.randomModel(32, 1);
+        KVBlockPool pool = new KVBlockPool(model.configuration(), GGMLType.F32, 4, 64);
+        // Six rows: the long prompt is prefilled in chunks next to the other sequences.
+        ContinuousBatcher batcher = new ContinuousBatcher(model, pool, 6);
+        List<ContinuousBatcher.Sequence> sequences = new ArrayList<>();
+        for (int i = 0; i < PROMPTS.size(); i++) {
+            sequences.add(batcher.submit(PROMPTS.get(i), Set.of(), 8 + i, Sampler.ARGMAX, null));
+        }
+
+        batcher.runUntilIdle();
+
+        for (int i = 0; i < PROMPTS.size(); i++) {
+            assertEquals(separately(model, PROMPTS.get(i), 8 + i), sequences.get(i).result().get());
+        }
+        assertEquals(0, batcher.activeSequences());
+        assertEquals(0, pool.blocksInUse());
+        // Far fewer passes than the 38 generated tokens plus the prompts, one sequence at a time.
+        assertTrue(batcher.steps() < 20, "steps: " + batcher.steps());
+    }
+
+    @Test
+    void sequencesJoinBetweenSteps() throws Exception {
+        Llama model = TestModels.randomModel(32, 2);
+        KVBlockPool pool = new KVBlockPool(model.configuration(), GGMLType.F16, 4, 64);
+        ContinuousBatcher batcher = new ContinuousBatcher(model, pool, 8);
+        ContinuousBatcher.Sequence first = batcher.submit(PROMPTS.get(0), Set.of(), 12, Sampler.ARGMAX, null);
+        for (int step = 0; step < 5; step++) {
+            batcher.step();
+        }
+        ContinuousBatcher.Sequence second = batcher.submit(PROMPTS.get(3), Set.of(), 12, Sampler.ARGMAX, null);
+
+        batcher.runUntilIdle();
+
+        assertEquals(separately(model, PROMPTS.get(0), 12, GGMLType.F16), first.result().get());
+        assertEquals(separately(model, PROMPTS.get(3), 12, GGMLType.F16), second.result().get());
+    }
+
+    @Test
+    void waitsForKVBlocksAndStopsAtStopTokens() throws Exception {
+        Llama model = TestModels.randomModel(32, 1);
+        List<Integer> expected = separately(model, PROMPTS.get(0), 8);
+        // A token that first appears after the first step, so the sequence runs for a while before stopping.
+        int stopIndex = IntStream.range(1, expected.size())
+                .filter(i -> expected.indexOf(expected.get(i)) == i).findFirst().orElseThrow();
+        int stopToken = expected.get(stopIndex);
+        // Room for one sequence of 4 + 8 - 1 positions at a time.
+        KVBlockPool pool = new KVBlockPool(model.configuration(), GGMLType.F32, 4, 3);
+        ContinuousBatcher batcher = new ContinuousBatcher(model, pool, 4);
+        ContinuousBatcher.Sequence stopped = batcher.submit(PROMPTS.get(0), Set.of(stopToken), 8, Sampler.ARGMAX, null);
+        ContinuousBatcher.Sequence queued = batcher.submit(PROMPTS.get(0), Set.of(), 8, Sampler.ARGMAX, null);
+        ContinuousBatcher.Sequence tooLong = batcher.submit(PROMPTS.get(2), Set.of(), 20, Sampler.ARGMAX, null);
+
+        batcher.step();
+        assertEquals(1, batcher.activeSequences());
+        batcher.runUntilIdle();
+
+        assertEquals(expected.subList(0, stopIndex + 1), stopped.result().get());
+        assertEquals(expected, queued.result().get());
+        assertTrue(tooLong.result().isCompletedExceptionally());
+        assertEquals(0, pool.blocksInUse());
+    }
+
+    @Test
+    void backgroundThreadServesSubmissions() throws Exception {
+        Llama model = TestModels.randomModel(32, 1);
+        KVBlockPool pool = new KVBlockPool(model.configuration(), GGMLType.F32, 4, 64);
+        try (ContinuousBatcher batcher = new ContinuousBatcher(model, pool, 4)) {
+            batcher.start();
+            ContinuousBatcher.Sequence sequence = batcher.submit(PROMPTS.get(1), Set.of(), 6, Sampler.ARGMAX, null);
+
+            assertEquals(separately(model, PROMPTS.get(1), 6), sequence.result().get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void failedPassOnlyFailsItsSequence() throws Exception {
+        Llama model = TestModels.randomModel(32, 1);
+        KVBlockPool pool = new KVBlockPool(model.configuration(), GGMLType.F32, 4, 64);
+        ContinuousBatcher batcher = new ContinuousBatcher(model, pool, 8);
+        ContinuousBatcher.Sequence good = batcher.submit(PROMPTS.get(0), Set.of(), 6, Sampler.ARGMAX, null);
+        // Token 99 is outside the vocabulary of 8, so every pass holding it fails.
+        ContinuousBatcher.Sequence bad = batcher.submit(List.of(0, 99), Set.of(), 6, Sampler.ARGMAX, null);
+
+        batcher.runUntilIdle();
+
+        assertEquals(separately(model, PROMPTS.get(0), 6), good.result().get());
+        assertTrue(bad.result().isCompletedExceptionally());
+        assertEquals(0, pool.blocksInUse());
+    }
+
+    @Test
+    void backgroundThreadOutlivesFailures() throws Exception {
+        Llama model = TestModels.randomModel(32, 1);
+        KVBlockPool pool = new KVBlockPool(model.configuration(), GGMLType.F32, 4, 64);
+        try (ContinuousBatcher batcher = new ContinuousBatcher(model, pool, 4)) {
+            Thread worker = batcher.start();
+            ContinuousBatcher.Sequence bad = batcher.submit(List.of(0, 99), Set.of(), 6, Sampler.ARGMAX, null);
+            ExecutionException failure = assertThrows(ExecutionException.class,
+                    () -> bad.result().get(10, TimeUnit.SECONDS));
+            assertTrue(failure.getCause() instanceof IndexOutOfBoundsException, failure.getCause().toString());
+
+            ContinuousBatcher.Sequence good = batcher.submit(PROMPTS.get(1), Set.of(), 6, Sampler.ARGMAX, null);
+
+            assertEquals(separately(model, PROMPTS.get(1), 6), good.result().get(10, TimeUnit.SECONDS));
+            assertTrue(worker.isAlive());
+        }
+    }
+
+    @Test
+    void closeCancelsQueuedSequencesAndRejectsNewOnes() {
+        Llama model = TestModels.randomModel(32, 1);
+        ContinuousBatcher batcher = new ContinuousBatcher(model,
+                new KVBlockPool(model.configuration(), GGMLType.F32, 4, 64), 4);
+        ContinuousBatcher.Sequence queued = batcher.submit(PROMPTS.get(0), Set.of(), 4, Sampler.ARGMAX, null);
+
+        batcher.close();
+
+        assertTrue(queued.result().isCancelled());
+        assertThrows(IllegalStateException.class, () -> batcher.submit(PROMPTS.get(0), Set.of(), 4, Sampler.ARGMAX,
+                null));
+    }
+
+    @Test
+    void rejectsPromptsOutsideTheContext() {
+        Llama model = TestModels.randomModel(8, 1);
+        ContinuousBatcher batcher = new ContinuousBatcher(model,
+                new KVBlockPool(model.configuration(), GGMLType.F32, 4, 4), 4);
+
+        assertThrows(IllegalArgumentException.class, () -> batcher.submit(List.of(), Set.of(), 4, Sampler.ARGMAX, null));
+        assertThrows(IllegalArgumentException.class, () -> batcher.submit(List.of(0, 1, 2, 3, 4, 5, 6, 7), Set.of(), 4,
+                Sampler.ARGMAX, null));
+    }
+
+    private static List<Integer> separately(Llama model, List<Integer> prompt, int maxTokens) {
+        return separately(model, prompt, maxTokens, GGMLType.F32);
+    }
+
+    private static List<Integer> separately(Llama model, List<Integer> prompt, int maxTokens, GGMLType kvCacheType) {
+        List<Integer> tokens = Llama.generateTokens(model, model.createNewState(4, kvCacheType), 0, prompt, Set.of(),
+                prompt.size() + maxTokens, Sampler.ARGMAX, false, null);
+        return tokens.subList(0, maxTokens);
+    }
+}
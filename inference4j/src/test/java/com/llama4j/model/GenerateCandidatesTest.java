@@ -0,0 +1,106 @@
+package com.llama4j.model;
+
+import com.llama4j.gguf.GGMLType;
+import com.llama4j.sampling.CategoricalSampler;
+import com.llama4j.sampling.Sampler;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GenerateCandidatesTest {
+    private static final List<Integer> PROMPT = List.of(0, 3, 5, 2, 7, 1);
+
+    @Test
+    void greedyCandidatesMatchSeparateGeneration() {
+        Llama model = TestModels.randomModel(32, 1);
+        List<Integer> expected = Llama.generateTokens(model, model.createNewState(4), 0, PROMPT, Set.of(), 20,
+                Sampler.ARGMAX, false, null);
+        KVBlockPool pool = new KVBlockPool(model.configuration(), GGMLType.F32, 4, 16);
+
+        for (Llama.State state : List.of(model.createNewState(4), model.createNewState(4, pool))) {
+            List<List<Integer>> candidates = Llama.generateCandidates(model, state, 0, PROMPT, Set.of(), 20,
+                    List.of(Sampler.ARGMAX, Sampler.ARGMAX, Sampler.ARGMAX));
+
+            assertEquals(List.of(expected, expected, expected), candidates);
+            state.release();
+        }
+        assertEquals(0, pool.blocksInUse());
+    }
+
+    @Test
+    void forksQ8_0StatesLikeSeparateGeneration() {
+        Llama model = TestModels.randomModel(32, 2, 1);
+        List<Integer> expected = Llama.generateTokens(model, model.createNewState(4, GGMLType.Q8_0), 0, PROMPT,
+                Set.of(), 20, Sampler.ARGMAX, false, null);
+        KVBlockPool pool = new KVBlockPool(model.configuration(), GGMLType.Q8_0, 4, 16);
+
+        for (Llama.State state : List.of(model.createNewState(4, GGMLType.Q8_0), model.createNewState(4, pool))) {
+            List<List<Integer>> candidates = Llama.generateCandidates(model, state, 0, PROMPT, Set.of(), 20,
+                    List.of(Sampler.ARGMAX, Sampler.ARGMAX));
+
+            assertEquals(List.of(expected, expected), candidates);
+            state.release();
+        }
+        assertEquals(0, pool.blocksInUse());
+    }
+
+    @Test
+    void seededCandidatesMatchSeparateSampling() {
+        Llama model = TestModels.randomModel(32, 2);
+        KVBlockPool pool = new KVBlockPool(model.configuration(), GGMLType.F16, 4, 32);
+        Llama.State state = model.createNewState(4, pool);
+
+        List<List<Integer>> candidates = Llama.generateCandidates(model, state, 0, PROMPT, Set.of(), 24,
+                List.of(sampler(model, 1), sampler(model, 2), sampler(model, 3), sampler(model, 4)));
+
+        for (int i = 0; i < candidates.size(); i++) {
+            List<Integer> separate = Llama.generateTokens(model, model.createNewState(4, GGMLType.F16), 0, PROMPT,
+                    Set.of(), 24, sampler(model, i + 1), false, null);
+            assertEquals(separate, candidates.get(i), "candidate " + i);
+        }
+        assertNotEquals(candidates.get(0), candidates.get(1));
+        // Only the prompt blocks the parent still holds are left.
+        assertEquals(2, pool.blocksInUse());
+    }
+
+    @Test
+    void candidatesStopIndependently() {
+        Llama model = TestModels.randomModel(32, 1);
+        List<Integer> greedy = Llama.generateTokens(model, model.createNewState(4), 0, PROMPT, Set.of(), 20,
+                Sampler.ARGMAX, false, null);
+        int stopToken = greedy.get(2);
+        List<Integer> stopped = greedy.subList(0, greedy.indexOf(stopToken) + 1);
+
+        List<List<Integer>> candidates = Llama.generateCandidates(model, model.createNewState(2), 0, PROMPT,
+                Set.of(stopToken), 20, List.of(Sampler.ARGMAX, sampler(model, 5)));
+
+        assertEquals(stopped, candidates.get(0));
+        List<Integer> separate = Llama.generateTokens(model, model.createNewState(4), 0, PROMPT, Set.of(stopToken),
+                20, sampler(model, 5), false, null);
+        assertEquals(separate, candidates.get(1));
+    }
+
+    @Test
+    void candidatesMustFitTheBatch() {
+        Llama model = TestModels.randomModel(16, 1);
+
+        assertThrows(IllegalArgumentException.class, () -> Llama.generateCandidates(model, model.createNewState(2),
+                0, PROMPT, Set.of(), 16, List.of(Sampler.ARGMAX, Sampler.ARGMAX, Sampler.ARGMAX)));
+    }
+
+    private static Sampler sampler(Llama model, long seed) {
+        int vocabularySize = model.configuration().vocabularySize;
+        CategoricalSampler categorical = new CategoricalSampler(new Random(seed));
+        return logits -> {
+            logits.divideInPlace(0, vocabularySize, 1.5f);
+            logits.softmaxInPlace(0, vocabularySize);
+            return categorical.sampleToken(logits);
+        };
+    }
+}
@@ -0,0 +1,95 @@
+package com.llama4j.model;
+
+import com.llama4j.gguf.GGMLType;
+import com.llama4j.tensor.ArrayFloatTensor;
+import com.llama4j.tensor.FloatTensor;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.llama4j.tensor.TestTensors.randomValues;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class KVBlockPoolTest {
+    // dim 128 with 4 heads and 2 KV heads: head size 32, kvDim 64.
+    private static final Llama.Configuration CONFIG =
+            new Llama.Configuration(128, 256, 2, 4, 2, 16, 40, 1e-5f, 10000f);
+    private static final int KV_DIM = 64;
+
+    @Test
+    void releasedBlocksAreReused() {
+        KVBlockPool pool = new KVBlockPool(CONFIG, GGMLType.F16, 8, 4);
+        Llama.State first = new Llama.State(CONFIG, 1, pool);
+        first.blockTable.reserve(17);
+        assertEquals(3, first.blockTable.blockCount());
+        assertEquals(3, pool.blocksInUse());
+
+        first.release();
+        assertEquals(0, pool.blocksInUse());
+        Llama.State second = new Llama.State(CONFIG, 1, pool);
+        second.blockTable.reserve(32);
+        assertEquals(4, pool.blocksInUse());
+        assertEquals(4, pool.allocatedBlocks());
+
+        Llama.State third = new Llama.State(CONFIG, 1, pool);
+        assertThrows(IllegalStateException.class, () -> third.blockTable.reserve(1));
+    }
+
+    @Test
+    void forkSharesBlocksUntilOneSideWrites() {
+        KVBlockPool pool = new KVBlockPool(CONFIG, GGMLType.F32, 8, 8);
+        Llama.State parent = new Llama.State(CONFIG, 1, pool);
+        parent.blockTable.reserve(12);
+        for (int position = 0; position < 12; position++) {
+            parent.keyCache[0].setFloat(position * KV_DIM, position);
+        }
+
+        Llama.State fork = parent.fork(12);
+        assertEquals(2, pool.blocksInUse());
+        assertEquals(2, pool.references(fork.blockTable.block(1)));
+
+        // Writing position 12 copies the partly used second block only.
+        fork.blockTable.prepareWrite(12, 13);
+        fork.keyCache[0].setFloat(12 * KV_DIM, -1f);
+        fork.keyCache[0].setFloat(9 * KV_DIM, -2f);
+        assertEquals(3, pool.blocksInUse());
+        assertEquals(parent.blockTable.block(0), fork.blockTable.block(0));
+        assertEquals(9f, parent.keyCache[0].getFloat(9 * KV_DIM));
+        assertEquals(8f, fork.keyCache[0].getFloat(8 * KV_DIM));
+
+        parent.release();
+        assertEquals(1, pool.references(fork.blockTable.block(0)));
+        assertEquals(2, pool.blocksInUse());
+        fork.release();
+        assertEquals(0, pool.blocksInUse());
+    }
+
+    @Test
+    void pagedCacheMatchesContiguousCache() {
+        for (GGMLType type : new GGMLType[]{GGMLType.F32, GGMLType.F16, GGMLType.Q8_0}) {
+            Llama.State contiguous = new Llama.State(CONFIG, 1, type);
+            Llama.State paged = new Llama.State(CONFIG, 1, new KVBlockPool(CONFIG, type, 8, 8));
+            paged.blockTable.reserve(CONFIG.contextLength);
+            Random random = new Random(7);
+            for (int position = 0; position < CONFIG.contextLength; position++) {
+                FloatTensor k = new ArrayFloatTensor(randomValues(random, KV_DIM));
+                k.copyTo(0, contiguous.keyCache[1], position * KV_DIM, KV_DIM);
+                k.copyTo(0, paged.keyCache[1], position * KV_DIM, KV_DIM);
+            }
+
+            FloatTensor q = new ArrayFloatTensor(randomValues(random, CONFIG.headSize));
+            float[] expected = new float[CONFIG.headSize];
+            float[] actual = new float[CONFIG.headSize];
+            for (int position = 0; position < CONFIG.contextLength; position++) {
+                int offset = position * KV_DIM + CONFIG.headSize;
+                assertEquals(q.dot(0, contiguous.keyCache[1], offset, CONFIG.headSize),
+                        q.dot(0, paged.keyCache[1], offset, CONFIG.headSize), type.name());
+                new ArrayFloatTensor(expected).saxpyInPlace(0, contiguous.keyCache[1], offset, CONFIG.headSize, 0.5f);
+                new ArrayFloatTensor(actual).saxpyInPlace(0, paged.keyCache[1], offset, CONFIG.headSize, 0.5f);
+            }
+            assertArrayEquals(expected, actual, type.name());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.llama4j.model;
+
+import com.llama4j.gguf.GGMLType;
+import com.llama4j.tensor.FloatTensor;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PrefixCacheTest {
+    // Two layers of 32 F32 keys and values per position.
+    private static final long POSITION_BYTES = 2L * 2 * 32 * Float.BYTES;
+
+    @Test
+    void restoredPrefixGivesTheSameLogits() {
+        Llama model = TestModels.randomModel(32, 1);
+        List<Integer> first = List.of(0, 3, 5, 2, 7, 1, 4, 6);
+        List<Integer> second = List.of(0, 3, 5, 2, 7, 6, 6, 1, 2);
+        PrefixCache cache = new PrefixCache(model.configuration(), 1 << 20);
+        Llama.State state = model.createNewState(16);
+        Llama.forward(model, state, toArray(first), 0, false);
+        cache.store(state, first);
+
+        Llama.State restored = model.createNewState(16);
+        int cached = cache.restore(restored, second, second.size() - 1);
+        FloatTensor actual = Llama.forward(model, restored, toArray(second.subList(cached, second.size())), cached,
+                true);
+        FloatTensor expected = Llama.forward(model, model.createNewState(16), toArray(second), 0, true);
+
+        assertEquals(5, cached);
+        for (int i = 0; i < model.configuration().vocabularySize; i++) {
+            assertEquals(expected.getFloat(i), actual.getFloat(i), 1e-5f);
+        }
+        assertEquals(1, cache.hits());
+        assertEquals(5.0 / 9, cache.tokenHitRate(), 1e-9);
+    }
+
+    @Test
+    void restoresQ8_0SnapshotsIntoContiguousAndPagedStates() {
+        Llama model = TestModels.randomModel(32, 2, 1);
+        List<Integer> first = List.of(0, 3, 5, 2, 7, 1, 4, 6);
+        List<Integer> second = List.of(0, 3, 5, 2, 7, 6, 6, 1, 2);
+        PrefixCache cache = new PrefixCache(model.configuration(), 1 << 20);
+        Llama.State state = model.createNewState(16, new KVBlockPool(model.configuration(), GGMLType.Q8_0, 4, 8));
+        Llama.forward(model, state, toArray(first), 0, false);
+        cache.store(state, first);
+        FloatTensor expected = Llama.forward(model, model.createNewState(16, GGMLType.Q8_0), toArray(second), 0, true);
+
+        Llama.State[] states = {
+                model.createNewState(16, GGMLType.Q8_0),
+                model.createNewState(16, new KVBlockPool(model.configuration(), GGMLType.Q8_0, 4, 8))
+        };
+        for (Llama.State restored : states) {
+            int cached = cache.restore(restored, second, second.size() - 1);
+            FloatTensor actual = Llama.forward(model, restored, toArray(second.subList(cached, second.size())),
+                    cached, true);
+
+            assertEquals(5, cached);
+            for (int i = 0; i < model.configuration().vocabularySize; i++) {
+                assertEquals(expected.getFloat(i), actual.getFloat(i), 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    void matchesPartOfAnEdgeAndKeepsOnlyTheLongestOfNestedPrefixes() {
+        Llama model = TestModels.randomModel(32, 1);
+        PrefixCache cache = new PrefixCache(model.configuration(), 1 << 20);
+        Llama.State state = model.createNewState(16);
+        cache.store(state, List.of(1, 2, 3));
+        cache.store(state, List.of(1, 2, 3, 4, 5));
+        cache.store(state, List.of(1, 2));
+        cache.store(state, List.of(1, 6));
+
+        assertEquals(2, cache.entries());
+        assertEquals(7 * POSITION_BYTES, cache.bytes());
+        assertEquals(4, cache.restore(model.createNewState(1), List.of(1, 2, 3, 4, 7), 8));
+        assertEquals(2, cache.restore(model.createNewState(1), List.of(1, 6, 6), 8));
+        assertEquals(1, cache.restore(model.createNewState(1), List.of(1, 7), 8));
+        assertEquals(2, cache.restore(model.createNewState(1), List.of(1, 2, 3), 2));
+        assertEquals(0, cache.restore(model.createNewState(1), List.of(2, 3), 8));
+        assertEquals(0, cache.restore(model.createNewState(1, GGMLType.F16), List.of(1, 2, 3), 8));
+        assertEquals(6, cache.lookups());
+        assertEquals(4, cache.hits());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedSnapshotsBeyondTheBudget() {
+        Llama model = TestModels.randomModel(32, 1);
+        PrefixCache cache = new PrefixCache(model.configuration(), 8 * POSITION_BYTES);
+        Llama.State state = model.createNewState(16);
+        cache.store(state, List.of(1, 2, 3, 4));
+        cache.store(state, List.of(2, 3, 4, 5));
+        assertEquals(3, cache.restore(model.createNewState(1), List.of(1, 2, 3, 4), 3));
+
+        cache.store(state, List.of(3, 4, 5, 6));
+
+        assertEquals(2, cache.entries());
+        assertEquals(1, cache.evictions());
+        assertEquals(8 * POSITION_BYTES, cache.bytes());
+        assertEquals(0, cache.restore(model.createNewState(1), List.of(2, 3, 4, 5), 3));
+        assertEquals(3, cache.restore(model.createNewState(1), List.of(1, 2, 3, 4), 3));
+        assertEquals(3, cache.restore(model.createNewState(1), List.of(3, 4, 5, 6), 3));
+    }
+
+    private static int[] toArray(List<Integer> tokens) {
+        return tokens.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
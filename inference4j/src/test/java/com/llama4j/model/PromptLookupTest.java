@@ -0,0 +1,57 @@
+package com.llama4j.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PromptLookupTest {
+    @Test
+    void proposesWhatFollowedTheLongestMatchingSuffix() {
+        PromptLookup lookup = new PromptLookup(List.of(), 3);
+        int[] out = new int[4];
+
+        // "2" alone last occurred before 9, but "1 2" occurred before 3 4.
+        int count = lookup.propose(List.of(1, 2, 3, 4, 2, 9, 1, 2), 3, out, 1);
+
+        assertEquals(3, count);
+        assertArrayEquals(new int[]{0, 3, 4, 2}, out);
+    }
+
+    @Test
+    void prefersTheLatestOccurrenceInTheHistory() {
+        PromptLookup lookup = new PromptLookup(List.of(5, 7, 7, 7), 2);
+        int[] out = new int[2];
+
+        int count = lookup.propose(List.of(5, 1, 8, 5, 2, 8, 5), 2, out, 0);
+
+        assertEquals(2, count);
+        assertArrayEquals(new int[]{2, 8}, out);
+    }
+
+    @Test
+    void fallsBackToTheReference() {
+        PromptLookup lookup = new PromptLookup(List.of(4, 6, 3, 6, 1), 3);
+        int[] out = new int[3];
+
+        int count = lookup.propose(List.of(2, 6), 3, out, 0);
+
+        assertEquals(1, count);
+        assertEquals(1, out[0]);
+    }
+
+    @Test
+    void proposesNothingWithoutAMatch() {
+        PromptLookup lookup = new PromptLookup(List.of(1, 2, 3), 3);
+        int[] out = new int[3];
+
+        assertEquals(0, lookup.propose(List.of(4, 5, 6), 3, out, 0));
+        assertEquals(0, lookup.propose(List.of(3), 3, out, 0));
+        assertEquals(0, Arrays.stream(out).sum());
+        assertThrows(IllegalArgumentException.class, () -> new PromptLookup(List.of(), 0));
+    }
+}
@@ -0,0 +1,108 @@
+package com.llama4j.model;
+
+import com.llama4j.gguf.GGMLType;
+import com.llama4j.tensor.FloatTensor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SessionFileTest {
+    private static final int[] PROMPT = {0, 3, 5, 2, 7, 1, 4};
+    private static final int[] CONTINUATION = {6, 2, 2, 5};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restoredSessionGivesTheSameLogits() throws Exception {
+        Llama model = TestModels.randomModel(32, 1);
+        for (GGMLType type : List.of(GGMLType.F32, GGMLType.F16)) {
+            FloatTensor expected = Llama.forward(model, model.createNewState(16, type), concat(PROMPT, CONTINUATION),
+                    0, true);
+            KVBlockPool pool = new KVBlockPool(model.configuration(), type, 4, 16);
+            List<Function<Llama, Llama.State>> states = List.of(
+                    m -> m.createNewState(8, type), m -> m.createNewState(8, pool));
+            for (Function<Llama, Llama.State> saved : states) {
+                for (Function<Llama, Llama.State> restored : states) {
+                    Path path = directory.resolve("session.bin");
+                    Llama.State state = saved.apply(model);
+                    Llama.forward(model, state, PROMPT, 0, false);
+                    state.latestToken = 6;
+                    SessionFile.save(state, List.of(0, 3, 5, 2, 7, 1, 4, 6), PROMPT.length, path);
+                    state.release();
+
+                    Llama.State resumed = restored.apply(model);
+                    SessionFile.Session session = SessionFile.restore(resumed, path);
+                    FloatTensor actual = Llama.forward(model, resumed, CONTINUATION, session.positions(), true);
+
+                    assertEquals(PROMPT.length, session.positions());
+                    assertEquals(List.of(0, 3, 5, 2, 7, 1, 4, 6), session.tokens());
+                    assertEquals(6, resumed.latestToken);
+                    assertLogitsEqual(expected, actual, model.configuration().vocabularySize);
+                    resumed.release();
+                }
+            }
+            assertEquals(0, pool.blocksInUse());
+        }
+    }
+
+    @Test
+    void mappedSessionIsNotChangedByTheRestoredState() throws Exception {
+        Llama model = TestModels.randomModel(32, 2);
+        Path path = directory.resolve("session.bin");
+        Llama.State state = model.createNewState(8, GGMLType.F16);
+        Llama.forward(model, state, PROMPT, 0, false);
+        SessionFile.save(state, List.of(0, 3, 5, 2, 7, 1, 4), PROMPT.length, path);
+        long size = Files.size(path);
+
+        // Generation after the restore overwrites restored positions of the private mapping.
+        Llama.State first = model.createNewState(8, GGMLType.F16);
+        SessionFile.restore(first, path);
+        Llama.forward(model, first, CONTINUATION, 3, false);
+        SessionFile.save(first, List.of(0, 3, 5, 6, 2, 2, 5), 7, directory.resolve("other.bin"));
+
+        Llama.State second = model.createNewState(8, GGMLType.F16);
+        SessionFile.restore(second, path);
+        FloatTensor expected = Llama.forward(model, model.createNewState(16, GGMLType.F16),
+                concat(PROMPT, CONTINUATION), 0, true);
+        FloatTensor actual = Llama.forward(model, second, CONTINUATION, PROMPT.length, true);
+
+        assertEquals(size, Files.size(path));
+        assertLogitsEqual(expected, actual, model.configuration().vocabularySize);
+    }
+
+    @Test
+    void rejectsSessionsOfAnotherCacheTypeOrFormat() throws Exception {
+        Llama model = TestModels.randomModel(32, 1);
+        Path path = directory.resolve("session.bin");
+        Llama.State state = model.createNewState(8, GGMLType.F16);
+        Llama.forward(model, state, PROMPT, 0, false);
+        SessionFile.save(state, List.of(0, 3, 5, 2, 7, 1, 4), PROMPT.length, path);
+        Path text = directory.resolve("session.txt");
+        Files.writeString(text, "not a session file, but long enough for a header");
+
+        assertThrows(IllegalArgumentException.class, () -> SessionFile.restore(model.createNewState(8), path));
+        assertThrows(IllegalArgumentException.class, () -> SessionFile.restore(model.createNewState(8), text));
+        assertThrows(IllegalArgumentException.class, () -> SessionFile.save(state, List.of(0, 3), 3, path));
+    }
+
+    private static void assertLogitsEqual(FloatTensor expected, FloatTensor actual, int vocabularySize) {
+        for (int i = 0; i < vocabularySize; i++) {
+            assertEquals(expected.getFloat(i), actual.getFloat(i), 1e-5f);
+        }
+    }
+
+    private static int[] concat(int[] first, int[] second) {
+        int[] tokens = new int[first.length + second.length];
+        System.arraycopy(first, 0, tokens, 0, first.length);
+        System.arraycopy(second, 0, tokens, first.length, second.length);
+        return tokens;
+    }
+}
@@ -0,0 +1,142 @@
+package com.llama4j.model;
+
+import com.llama4j.sampling.Sampler;
+import com.llama4j.tensor.FloatTensor;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpeculativeDecoderTest {
+    private static final List<Integer> PROMPT = List.of(0, 3, 5, 2);
+
+    @Test
+    void greedyOutputMatchesTheTargetModel() {
+        Llama target = TestModels.randomModel(32, 1);
+        List<Integer> expected = Llama.generateTokens(target, target.createNewState(4), 0, PROMPT, Set.of(), 24,
+                Sampler.ARGMAX, false, null);
+
+        for (Llama draft : List.of(target, TestModels.randomModel(32, 2))) {
+            SpeculativeDecoder decoder = new SpeculativeDecoder(target, draft, 3, 0f, 1f, null);
+            List<Integer> actual = decoder.generateTokens(target.createNewState(4), draft.createNewState(4), 0,
+                    PROMPT, Set.of(), 24, null);
+
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    void identicalDraftIsAlwaysAccepted() {
+        Llama target = TestModels.randomModel(32, 1);
+        SpeculativeDecoder decoder = new SpeculativeDecoder(target, target, 3, 0.8f, 0.9f, new Random(5));
+
+        decoder.generateTokens(target.createNewState(4), target.createNewState(4), 0, PROMPT, Set.of(), 24, null);
+
+        assertTrue(decoder.draftedTokens() > 0);
+        assertEquals(decoder.draftedTokens(), decoder.acceptedTokens());
+    }
+
+    @Test
+    void sampledTokensFollowTheTargetDistribution() {
+        Llama target = TestModels.randomModel(16, 1);
+        Llama draft = TestModels.randomModel(16, 2);
+        float temperature = 1.5f;
+        Llama.State reference = target.createNewState(4);
+        FloatTensor logits = Llama.forward(target, reference, new int[]{0, 3, 5, 2}, 0, true);
+        int vocabularySize = target.configuration().vocabularySize;
+        logits.divideInPlace(0, vocabularySize, temperature);
+        logits.softmaxInPlace(0, vocabularySize);
+
+        SpeculativeDecoder decoder = new SpeculativeDecoder(target, draft, 2, temperature, 1f, new Random(7));
+        Llama.State targetState = target.createNewState(4);
+        Llama.State draftState = draft.createNewState(4);
+        int trials = 3000;
+        int[] counts = new int[vocabularySize];
+        for (int trial = 0; trial < trials; trial++) {
+            List<Integer> tokens = decoder.generateTokens(targetState, draftState, 0, PROMPT, Set.of(), 5, null);
+            counts[tokens.getFirst()]++;
+        }
+
+        assertTrue(decoder.acceptedTokens() < decoder.draftedTokens(), "the draft should be rejected sometimes");
+        for (int token = 0; token < vocabularySize; token++) {
+            assertEquals(logits.getFloat(token), counts[token] / (float) trials, 0.04f, "token " + token);
+        }
+    }
+
+    @Test
+    void greedyLookupOutputMatchesTheTargetModel() {
+        Llama target = TestModels.randomModel(32, 1);
+        List<Integer> expected = Llama.generateTokens(target, target.createNewState(4), 0, PROMPT, Set.of(), 24,
+                Sampler.ARGMAX, false, null);
+
+        for (List<Integer> reference : List.of(List.<Integer>of(), expected)) {
+            SpeculativeDecoder decoder = new SpeculativeDecoder(target, null, 3, 0f, 1f, null);
+            List<Integer> actual = decoder.generateTokens(target.createNewState(4),
+                    new PromptLookup(reference, PromptLookup.MAX_NGRAM), 0, PROMPT, Set.of(), 24, null);
+
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    void lookupMatchesTokensAlreadyInTheState() {
+        Llama target = TestModels.randomModel(32, 1);
+        List<Integer> prompt = List.of(0, 2, 6, 2);
+        List<Integer> expected = Llama.generateTokens(target, target.createNewState(4), 0, prompt, Set.of(), 5,
+                Sampler.ARGMAX, false, null);
+
+        // Only the earlier occurrence of 2, already in the state, is followed by a token to propose.
+        for (List<Integer> context : List.of(List.<Integer>of(), prompt.subList(0, 3))) {
+            SpeculativeDecoder decoder = new SpeculativeDecoder(target, null, 3, 0f, 1f, null);
+            Llama.State state = target.createNewState(4);
+            Llama.forward(target, state, new int[]{0, 2, 6}, 0, false);
+            List<Integer> actual = decoder.generateTokens(state, new PromptLookup(List.of(), 3), context, 3,
+                    prompt.subList(3, 4), Set.of(), 5, null);
+
+            assertEquals(expected, actual);
+            assertEquals(context.size() / 3, decoder.draftedTokens());
+        }
+    }
+
+    @Test
+    void sampledLookupTokensFollowTheTargetDistribution() {
+        Llama target = TestModels.randomModel(16, 1);
+        float temperature = 1.5f;
+        Llama.State reference = target.createNewState(4);
+        FloatTensor logits = Llama.forward(target, reference, new int[]{0, 3, 5, 2}, 0, true);
+        int vocabularySize = target.configuration().vocabularySize;
+        logits.divideInPlace(0, vocabularySize, temperature);
+        logits.softmaxInPlace(0, vocabularySize);
+
+        // The last prompt token only occurs in the reference, followed by 6, so every pass proposes 6 first.
+        PromptLookup lookup = new PromptLookup(List.of(2, 6), 3);
+        SpeculativeDecoder decoder = new SpeculativeDecoder(target, null, 2, temperature, 1f, new Random(11));
+        Llama.State targetState = target.createNewState(4);
+        int trials = 3000;
+        int[] counts = new int[vocabularySize];
+        for (int trial = 0; trial < trials; trial++) {
+            List<Integer> tokens = decoder.generateTokens(targetState, lookup, 0, PROMPT, Set.of(), 5, null);
+            counts[tokens.getFirst()]++;
+        }
+
+        assertEquals(trials, decoder.draftedTokens());
+        assertTrue(decoder.acceptedTokens() < decoder.draftedTokens(), "the proposal should be rejected sometimes");
+        for (int token = 0; token < vocabularySize; token++) {
+            assertEquals(logits.getFloat(token), counts[token] / (float) trials, 0.04f, "token " + token);
+        }
+    }
+
+    @Test
+    void targetBatchMustHoldTheDraft() {
+        Llama target = TestModels.randomModel(16, 1);
+        SpeculativeDecoder decoder = new SpeculativeDecoder(target, target, 4, 0f, 1f, null);
+
+        assertThrows(IllegalArgumentException.class, () -> decoder.generateTokens(target.createNewState(4),
+                target.createNewState(4), 0, PROMPT, Set.of(), 8, null));
+    }
+}
@@ -0,0 +1,157 @@
+package com.llama4j.model;
+
+import com.llama4j.tensor.ArrayFloatTensor;
+import com.llama4j.tensor.FloatTensor;
+import com.llama4j.tensor.RoPE;
+import com.llama4j.tokenizer.SimpleTokenizer;
+import com.llama4j.tokenizer.Vocabulary;
+
+import java.nio.FloatBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Tiny Llama models with random weights for tests that run the forward pass.
+ */
+public final class TestModels {
+    private static final String[] CHAT_TOKENS = {"<|begin_of_text|>", "<|start_header_id|>", "<|end_header_id|>",
+            "<|eot_id|>", "<|end_of_text|>", "<unk>", "user", "assistant", "t1", "t2", "t3", "t4", "t5", "t6", "t7"};
+
+    private TestModels() {
+    }
+
+    /**
+     * Builds a two-layer model: dim 64, four query heads sharing two KV heads of size 16, vocabulary of 8.
+     *
+     * @param contextLength context length
+     * @param seed seed of the weight values
+     * @return test model
+     */
+    static Llama randomModel(int contextLength, long seed) {
+        return randomModel(contextLength, 4, seed);
+    }
+
+    /**
+     * Builds the model of {@link #randomModel(int, long)} with a given number of query heads, sharing half as many
+     * KV heads. Two heads give the head size of 32 that a Q8_0 KV cache needs.
+     *
+     * @param contextLength context length
+     * @param numberOfHeads number of query heads, an even divisor of 64
+     * @param seed seed of the weight values
+     * @return test model
+     */
+    static Llama randomModel(int contextLength, int numberOfHeads, long seed) {
+        String[] tokens = IntStream.range(0, 8)
+                .mapToObj(i -> i == 0 ? "<|begin_of_text|>" : "t" + i)
+                .toArray(String[]::new);
+        return randomModel(tokens, Map.of("<|begin_of_text|>", 0), numberOfHeads, contextLength, seed);
+    }
+
+    /**
+     * Builds the model of {@link #randomModel(int, long)} with the special tokens of the Llama 3 chat format, so
+     * {@link com.llama4j.tokenizer.ChatFormat} can encode prompts of the words {@code t1} to {@code t7}.
+     *
+     * @param contextLength context length
+     * @param seed seed of the weight values
+     * @return test model
+     */
+    public static Llama randomChatModel(int contextLength, long seed) {
+        Map<String, Integer> specialTokens = IntStream.range(0, 5).boxed()
+                .collect(Collectors.toMap(i -> CHAT_TOKENS[i], i -> i));
+        return randomModel(CHAT_TOKENS, specialTokens, 4, contextLength, seed);
+    }
+
+    /**
+     * Builds a two-layer model with random weights over the given vocabulary.
+     *
+     * @param tokens vocabulary
+     * @param specialTokens special token ids
+     * @param numberOfHeads number of query heads
+     * @param contextLength context length
+     * @param seed seed of the weight values
+     * @return test model
+     */
+    private static Llama randomModel(String[] tokens, Map<String, Integer> specialTokens, int numberOfHeads,
+                                     int contextLength, long seed) {
+        SimpleTokenizer tokenizer = new SimpleTokenizer(new Vocabulary(tokens, null), specialTokens, "<unk>");
+        Llama.Configuration config = new Llama.Configuration(64, 128, 2, numberOfHeads, numberOfHeads / 2, tokens.length, contextLength,
+                1e-5f, 10000f);
+        Random random = new Random(seed);
+        int kvDim = (config.dim * config.numberOfKeyValueHeads) / config.numberOfHeads;
+        int layers = config.numberOfLayers;
+        Llama.Weights weights = new Llama.Weights(
+                tensor(random, config.vocabularySize, config.dim),
+                buffers(random, layers, config.dim),
+                tensors(random, layers, config.dim, config.dim),
+                tensors(random, layers, kvDim, config.dim),
+                tensors(random, layers, kvDim, config.dim),
+                tensors(random, layers, config.dim, config.dim),
+                buffers(random, layers, config.dim),
+                tensors(random, layers, config.hiddenDim, config.dim),
+                tensors(random, layers, config.dim, config.hiddenDim),
+                tensors(random, layers, config.hiddenDim, config.dim),
+                buffer(random, config.dim),
+                RoPE.frequencies(config.headSize, config.ropeTheta, false, 1f, 1f, 1f, config.contextLength),
+                tensor(random, config.vocabularySize, config.dim));
+        return new Llama(config, tokenizer, weights);
+    }
+
+    /**
+     * Allocates a tensor filled with values in [-0.5, 0.5).
+     *
+     * @param random random source
+     * @param rows number of rows
+     * @param columns number of columns
+     * @return tensor
+     */
+    private static FloatTensor tensor(Random random, int rows, int columns) {
+        FloatTensor tensor = ArrayFloatTensor.allocate(rows, columns);
+        for (int i = 0; i < tensor.size(); i++) {
+            tensor.setFloat(i, random.nextFloat() - 0.5f);
+        }
+        return tensor;
+    }
+
+    /**
+     * Allocates one random tensor per layer.
+     *
+     * @param random random source
+     * @param layers number of layers
+     * @param rows number of rows
+     * @param columns number of columns
+     * @return tensors
+     */
+    private static FloatTensor[] tensors(Random random, int layers, int rows, int columns) {
+        return Stream.generate(() -> tensor(random, rows, columns)).limit(layers).toArray(FloatTensor[]::new);
+    }
+
+    /**
+     * Allocates a normalization weight vector filled with values in [0.5, 1.5).
+     *
+     * @param random random source
+     * @param size number of elements
+     * @return buffer
+     */
+    private static FloatBuffer buffer(Random random, int size) {
+        float[] values = new float[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = random.nextFloat() + 0.5f;
+        }
+        return FloatBuffer.wrap(values);
+    }
+
+    /**
+     * Allocates one normalization weight vector per layer.
+     *
+     * @param random random source
+     * @param layers number of layers
+     * @param size number of elements
+     * @return buffers
+     */
+    private static FloatBuffer[] buffers(Random random, int layers, int size) {
+        return Stream.generate(() -> buffer(random, size)).limit(layers).toArray(FloatBuffer[]::new);
+    }
+}
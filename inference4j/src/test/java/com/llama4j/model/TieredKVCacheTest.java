@@ -0,0 +1,72 @@
+package com.llama4j.model;
+
+import com.llama4j.gguf.GGMLType;
+import com.llama4j.tensor.FloatTensor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TieredKVCacheTest {
+    private static final int[] PROMPT = {0, 3, 5, 2, 7, 1, 4, 6, 2, 2, 5, 1, 3, 0, 7, 4, 6, 1, 5, 2};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void spilledBlocksGiveTheSameLogits() throws IOException {
+        Llama model = TestModels.randomModel(32, 1);
+        for (GGMLType type : List.of(GGMLType.F32, GGMLType.F16)) {
+            FloatTensor expected = Llama.forward(model, model.createNewState(32, type), PROMPT, 0, true);
+
+            TieredKVCache cache = new TieredKVCache(model.configuration(), type, 4, 2, directory);
+            Llama.State state = model.createNewState(8, cache);
+            Llama.forward(model, state, Arrays.copyOf(PROMPT, 7), 0, false);
+            Llama.forward(model, state, Arrays.copyOfRange(PROMPT, 7, 15), 7, false);
+            FloatTensor actual = Llama.forward(model, state, Arrays.copyOfRange(PROMPT, 15, PROMPT.length),
+                    15, true);
+
+            assertEquals(5, cache.blockCount());
+            assertEquals(3, cache.spilledBlocks());
+            assertTrue(cache.prefetches() > 0);
+            for (int i = 0; i < model.configuration().vocabularySize; i++) {
+                assertEquals(expected.getFloat(i), actual.getFloat(i), 1e-5f);
+            }
+            state.release();
+        }
+    }
+
+    @Test
+    void leavesNoSpillFileBehind() throws IOException {
+        Llama model = TestModels.randomModel(32, 1);
+        Llama.State state = model.createNewState(8, new TieredKVCache(model.configuration(), GGMLType.F16, 4, 1,
+                directory));
+        Llama.forward(model, state, Arrays.copyOf(PROMPT, 8), 0, false);
+
+        state.release();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void rejectsForksAndPositionsBeyondTheContext() throws IOException {
+        Llama model = TestModels.randomModel(32, 1);
+        TieredKVCache cache = new TieredKVCache(model.configuration(), GGMLType.F32, 4, 2, directory);
+        Llama.State state = model.createNewState(8, cache);
+
+        assertThrows(UnsupportedOperationException.class, () -> state.fork(0));
+        assertThrows(IllegalArgumentException.class, () -> cache.prepareWrite(30, 33));
+        state.release();
+    }
+}
@@ -0,0 +1,90 @@
+package com.llama4j.tensor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.llama4j.tensor.TestTensors.randomValues;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ArrayFloatTensorTest {
+    // Odd sizes and offsets so every kernel runs both its vector loop and its scalar tail.
+    private static final int SIZE = 203;
+    private static final int OFFSET = 5;
+
+    @Test
+    void reductionsMatchScalarLoops() {
+        Random random = new Random(7);
+        float[] a = randomValues(random, SIZE + OFFSET);
+        float[] b = randomValues(random, SIZE + OFFSET);
+        ArrayFloatTensor x = new ArrayFloatTensor(a);
+        ArrayFloatTensor y = new ArrayFloatTensor(b);
+
+        float dot = 0f;
+        float sum = 0f;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < SIZE; i++) {
+            dot += a[OFFSET + i] * b[i];
+            sum += a[OFFSET + i];
+            max = Math.max(max, a[OFFSET + i]);
+        }
+        assertEquals(dot, x.dot(OFFSET, y, 0, SIZE), 1e-4f);
+        assertEquals(FloatTensor.scalarDot(x, OFFSET, y, 0, SIZE), x.dot(OFFSET, y, 0, SIZE), 1e-4f);
+        assertEquals(sum, x.sum(OFFSET, SIZE), 1e-4f);
+        assertEquals(max, x.max(OFFSET, SIZE));
+    }
+
+    @Test
+    void elementwiseKernelsMatchScalarLoops() {
+        Random random = new Random(11);
+        float[] a = randomValues(random, SIZE + OFFSET);
+        float[] b = randomValues(random, SIZE + OFFSET);
+        float[] expected = a.clone();
+        ArrayFloatTensor x = new ArrayFloatTensor(a);
+        ArrayFloatTensor y = new ArrayFloatTensor(b);
+
+        x.saxpyInPlace(OFFSET, y, 0, SIZE, 0.5f);
+        x.addInPlace(OFFSET, y, 1, SIZE);
+        x.multiplyInPlace(OFFSET, y, 2, SIZE);
+        x.divideInPlace(OFFSET, SIZE, 3f);
+        for (int i = 0; i < SIZE; i++) {
+            float value = expected[OFFSET + i];
+            value += 0.5f * b[i];
+            value += b[1 + i];
+            value *= b[2 + i];
+            expected[OFFSET + i] = value / 3f;
+        }
+        assertArrayEquals(expected, a, 1e-6f);
+
+        float[] copy = new float[SIZE + 1];
+        x.copyTo(OFFSET, new ArrayFloatTensor(copy), 1, SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            assertEquals(a[OFFSET + i], copy[1 + i]);
+        }
+    }
+
+    @Test
+    void softmaxMatchesScalarSoftmax() {
+        float[] a = randomValues(new Random(13), SIZE + OFFSET);
+        for (int i = 0; i < a.length; i++) {
+            a[i] *= 20f;
+        }
+        float[] expected = a.clone();
+        new ArrayFloatTensor(a).softmaxInPlace(OFFSET, SIZE);
+
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < SIZE; i++) {
+            max = Math.max(max, expected[OFFSET + i]);
+        }
+        float sum = 0f;
+        for (int i = 0; i < SIZE; i++) {
+            expected[OFFSET + i] = (float) Math.exp(expected[OFFSET + i] - max);
+            sum += expected[OFFSET + i];
+        }
+        for (int i = 0; i < SIZE; i++) {
+            expected[OFFSET + i] /= sum;
+        }
+        assertArrayEquals(expected, a, 1e-6f);
+    }
+}
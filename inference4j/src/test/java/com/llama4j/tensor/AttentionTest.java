@@ -0,0 +1,148 @@
+package com.llama4j.tensor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.llama4j.tensor.TestTensors.randomValues;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AttentionTest {
+    private static final int HEAD_SIZE = 32;
+    private static final int KV_HEADS = 2;
+    private static final int KV_DIM = KV_HEADS * HEAD_SIZE;
+    // Enough positions for several tiles and a partial last tile.
+    private static final int POSITIONS = 3 * Attention.TILE + 7;
+
+    @Test
+    void onlineSoftmaxMatchesThreePassAttention() {
+        Random random = new Random(17);
+        FloatTensor keys = new ArrayFloatTensor(randomValues(random, POSITIONS * KV_DIM, 4f));
+        FloatTensor values = new ArrayFloatTensor(randomValues(random, POSITIONS * KV_DIM, 1f));
+        int nTokens = 2 * Attention.QUERY_BLOCK + 1;
+        int position = POSITIONS - nTokens;
+        FloatTensor[] query = new FloatTensor[nTokens];
+        FloatTensor[] out = new FloatTensor[nTokens];
+        for (int t = 0; t < nTokens; t++) {
+            query[t] = new ArrayFloatTensor(randomValues(random, 2 * HEAD_SIZE, 1f));
+            out[t] = new ArrayFloatTensor(new float[2 * HEAD_SIZE]);
+        }
+
+        for (int first = 0; first < nTokens; first += Attention.QUERY_BLOCK) {
+            Attention.attendGroup(query, keys, values, out, 1, 1, HEAD_SIZE, KV_DIM, HEAD_SIZE, position,
+                    first, Math.min(first + Attention.QUERY_BLOCK, nTokens));
+        }
+
+        for (int t = 0; t < nTokens; t++) {
+            float[] expected = referenceAttention(query[t], HEAD_SIZE, keys, values, HEAD_SIZE, position + t);
+            for (int i = 0; i < HEAD_SIZE; i++) {
+                assertEquals(expected[i], out[t].getFloat(HEAD_SIZE + i), 1e-5f);
+                assertEquals(0f, out[t].getFloat(i));
+            }
+        }
+    }
+
+    @Test
+    void groupedHeadsMatchThreePassAttention() {
+        Random random = new Random(23);
+        FloatTensor keys = new ArrayFloatTensor(randomValues(random, POSITIONS * KV_DIM, 4f));
+        FloatTensor values = new ArrayFloatTensor(randomValues(random, POSITIONS * KV_DIM, 1f));
+        // Three query heads per KV head.
+        int kvMul = 3;
+        int heads = KV_HEADS * kvMul;
+        int nTokens = Attention.QUERY_BLOCK + 3;
+        int position = POSITIONS - nTokens;
+        FloatTensor[] query = new FloatTensor[nTokens];
+        FloatTensor[] out = new FloatTensor[nTokens];
+        for (int t = 0; t < nTokens; t++) {
+            query[t] = new ArrayFloatTensor(randomValues(random, heads * HEAD_SIZE, 1f));
+            out[t] = new ArrayFloatTensor(new float[heads * HEAD_SIZE]);
+        }
+
+        Attention.attend(query, keys, values, out, heads, kvMul, HEAD_SIZE, KV_DIM, position, nTokens, 1);
+
+        for (int t = 0; t < nTokens; t++) {
+            for (int h = 0; h < heads; h++) {
+                float[] expected = referenceAttention(query[t], h * HEAD_SIZE, keys, values,
+                        (h / kvMul) * HEAD_SIZE, position + t);
+                for (int i = 0; i < HEAD_SIZE; i++) {
+                    assertEquals(expected[i], out[t].getFloat(h * HEAD_SIZE + i), 1e-5f);
+                }
+            }
+        }
+    }
+
+    @Test
+    void splitKVMatchesThreePassAttention() {
+        Random random = new Random(19);
+        FloatTensor keys = new ArrayFloatTensor(randomValues(random, POSITIONS * KV_DIM, 4f));
+        FloatTensor values = new ArrayFloatTensor(randomValues(random, POSITIONS * KV_DIM, 1f));
+        // Two heads sharing KV head 1, so the output covers heads 2 and 3 of the query.
+        int heads = 4;
+        for (int nTokens : new int[]{1, Attention.QUERY_BLOCK + 2}) {
+            int position = POSITIONS - nTokens;
+            FloatTensor[] query = new FloatTensor[nTokens];
+            FloatTensor[] out = new FloatTensor[nTokens];
+            for (int t = 0; t < nTokens; t++) {
+                query[t] = new ArrayFloatTensor(randomValues(random, heads * HEAD_SIZE, 1f));
+                out[t] = new ArrayFloatTensor(new float[heads * HEAD_SIZE]);
+            }
+
+            Attention.attend(query, keys, values, out, heads, 2, HEAD_SIZE, KV_DIM, position, nTokens, 3);
+
+            for (int t = 0; t < nTokens; t++) {
+                for (int h = 2; h < heads; h++) {
+                    float[] expected = referenceAttention(query[t], h * HEAD_SIZE, keys, values, HEAD_SIZE,
+                            position + t);
+                    for (int i = 0; i < HEAD_SIZE; i++) {
+                        assertEquals(expected[i], out[t].getFloat(h * HEAD_SIZE + i), 1e-5f);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void splitsOnlyLongContextsThatLeaveThreadsIdle() {
+        assertEquals(1, Attention.splits(32, Attention.SPLIT_KV_THRESHOLD - 1, 64));
+        assertEquals(1, Attention.splits(64, 8192, 64));
+        assertEquals(2, Attention.splits(32, 8192, 64));
+        assertEquals(8192 / Attention.MIN_SPLIT_POSITIONS, Attention.splits(1, 8192, 1024));
+    }
+
+    @Test
+    void countsOneSplitTaskPerKeyValueHead() {
+        // Llama 3 8B decode: 32 query heads share 8 key/value heads, so 8 tasks for 16 threads.
+        assertEquals(2, Attention.splits(32, 4, 1, 8192, 16));
+        assertEquals(1, Attention.splits(32, 1, 1, 8192, 16));
+        assertEquals(1, Attention.splits(32, 4, 8, 8192, 16));
+    }
+
+    private static float[] referenceAttention(FloatTensor q, int headOffset, FloatTensor keys, FloatTensor values,
+                                              int kvOffset, int position) {
+        double[] weights = new double[position + 1];
+        double max = Double.NEGATIVE_INFINITY;
+        for (int t = 0; t <= position; t++) {
+            double score = 0;
+            for (int i = 0; i < HEAD_SIZE; i++) {
+                score += q.getFloat(headOffset + i) * keys.getFloat(t * KV_DIM + kvOffset + i);
+            }
+            weights[t] = score / Math.sqrt(HEAD_SIZE);
+            max = Math.max(max, weights[t]);
+        }
+        double sum = 0;
+        for (int t = 0; t <= position; t++) {
+            weights[t] = Math.exp(weights[t] - max);
+            sum += weights[t];
+        }
+        float[] result = new float[HEAD_SIZE];
+        for (int i = 0; i < HEAD_SIZE; i++) {
+            double value = 0;
+            for (int t = 0; t <= position; t++) {
+                value += weights[t] * values.getFloat(t * KV_DIM + kvOffset + i);
+            }
+            result[i] = (float) (value / sum);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,46 @@
+package com.llama4j.tensor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.llama4j.tensor.TestTensors.randomValues;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class F16FloatTensorTest {
+    // Odd sizes and offsets so every kernel runs both its vector loop and its scalar tail.
+    private static final int SIZE = 203;
+    private static final int OFFSET = 5;
+
+    @Test
+    void storesValuesRoundedToHalfPrecision() {
+        float[] values = randomValues(new Random(3), SIZE);
+        F16FloatTensor cache = F16FloatTensor.allocate(SIZE + OFFSET);
+        new ArrayFloatTensor(values).copyTo(0, cache, OFFSET, SIZE);
+
+        assertEquals(0f, cache.getFloat(0));
+        for (int i = 0; i < SIZE; i++) {
+            assertEquals(Float.float16ToFloat(Float.floatToFloat16(values[i])), cache.getFloat(OFFSET + i));
+        }
+    }
+
+    @Test
+    void attentionKernelsMatchScalarLoops() {
+        Random random = new Random(5);
+        F16FloatTensor cache = F16FloatTensor.allocate(SIZE + OFFSET);
+        new ArrayFloatTensor(randomValues(random, SIZE)).copyTo(0, cache, OFFSET, SIZE);
+        float[] q = randomValues(random, SIZE);
+        float[] xb = randomValues(random, SIZE + 1);
+        float[] expected = xb.clone();
+
+        float dot = 0f;
+        for (int i = 0; i < SIZE; i++) {
+            dot += q[i] * cache.getFloat(OFFSET + i);
+            expected[1 + i] += 0.25f * cache.getFloat(OFFSET + i);
+        }
+        assertEquals(dot, new ArrayFloatTensor(q).dot(0, cache, OFFSET, SIZE), 1e-4f);
+        new ArrayFloatTensor(xb).saxpyInPlace(1, cache, OFFSET, SIZE, 0.25f);
+        assertArrayEquals(expected, xb, 1e-6f);
+    }
+}
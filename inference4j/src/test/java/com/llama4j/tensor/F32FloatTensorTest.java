@@ -0,0 +1,53 @@
+package com.llama4j.tensor;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.util.Random;
+
+import static com.llama4j.tensor.TestTensors.randomValues;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class F32FloatTensorTest {
+    // Odd sizes and offsets so every kernel runs both its vector loop and its scalar tail.
+    private static final int SIZE = 203;
+    private static final int OFFSET = 5;
+
+    @Test
+    void copiesValuesToAndFromOtherTensors() {
+        float[] values = randomValues(new Random(3), SIZE);
+        F32FloatTensor cache = allocate(SIZE + OFFSET);
+        new ArrayFloatTensor(values).copyTo(0, cache, OFFSET, SIZE);
+        F32FloatTensor copy = allocate(SIZE);
+        cache.copyTo(OFFSET, copy, 0, SIZE);
+        float[] out = new float[SIZE];
+        copy.copyTo(0, new ArrayFloatTensor(out), 0, SIZE);
+
+        assertEquals(0f, cache.getFloat(0));
+        assertArrayEquals(values, out);
+    }
+
+    @Test
+    void attentionKernelsMatchScalarLoops() {
+        Random random = new Random(5);
+        F32FloatTensor cache = allocate(SIZE + OFFSET);
+        new ArrayFloatTensor(randomValues(random, SIZE)).copyTo(0, cache, OFFSET, SIZE);
+        float[] q = randomValues(random, SIZE);
+        float[] xb = randomValues(random, SIZE + 1);
+        float[] expected = xb.clone();
+
+        float dot = 0f;
+        for (int i = 0; i < SIZE; i++) {
+            dot += q[i] * cache.getFloat(OFFSET + i);
+            expected[1 + i] += 0.25f * cache.getFloat(OFFSET + i);
+        }
+        assertEquals(dot, new ArrayFloatTensor(q).dot(0, cache, OFFSET, SIZE), 1e-4f);
+        new ArrayFloatTensor(xb).saxpyInPlace(1, cache, OFFSET, SIZE, 0.25f);
+        assertArrayEquals(expected, xb, 1e-6f);
+    }
+
+    private static F32FloatTensor allocate(int size) {
+        return new F32FloatTensor(size, Arena.ofAuto().allocate((long) size * Float.BYTES));
+    }
+}
@@ -0,0 +1,202 @@
+package com.llama4j.tensor;
+
+import com.llama4j.gguf.GGMLType;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+
+import static com.llama4j.tensor.TestTensors.randomValues;
+import static com.llama4j.tensor.TestTensors.toNative;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MatmulTest {
+    private static final int ROWS = 37;
+    private static final int COLS = 2 * GGMLType.QK_K;
+    private static final int CONTEXT = 7;
+
+    @Test
+    void batchedMatmulMatchesPerTokenDot() {
+        Random random = new Random(11);
+        FloatTensor[] that = new FloatTensor[CONTEXT];
+        FloatTensor[] out = new FloatTensor[CONTEXT];
+        for (int t = 0; t < CONTEXT; t++) {
+            that[t] = new ArrayFloatTensor(randomValues(random, COLS));
+            out[t] = ArrayFloatTensor.allocate(ROWS);
+        }
+        for (GGMLType type : List.of(GGMLType.Q4_0, GGMLType.Q8_0, GGMLType.Q4_K, GGMLType.Q5_K, GGMLType.Q6_K, GGMLType.F32)) {
+            FloatTensor weights = randomTensor(random, type, ROWS * COLS);
+            weights.matmul(CONTEXT, that, out, ROWS, COLS);
+            for (int t = 0; t < CONTEXT; t++) {
+                for (int i = 0; i < ROWS; i++) {
+                    float expected = FloatTensor.scalarDot(weights, i * COLS, that[t], 0, COLS);
+                    assertEquals(expected, out[t].getFloat(i), 1e-3f, type + " token " + t + " row " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    void singleTokenMatmulMatchesPerRowDot() {
+        Random random = new Random(13);
+        FloatTensor that = new ArrayFloatTensor(randomValues(random, COLS));
+        FloatTensor out = ArrayFloatTensor.allocate(ROWS);
+        for (GGMLType type : List.of(GGMLType.Q4_0, GGMLType.Q8_0, GGMLType.Q4_K, GGMLType.Q5_K, GGMLType.Q6_K,
+                GGMLType.F16, GGMLType.BF16)) {
+            FloatTensor weights = randomTensor(random, type, ROWS * COLS);
+            weights.matmul(that, out, ROWS, COLS);
+            for (int i = 0; i < ROWS; i++) {
+                float expected = FloatTensor.scalarDot(weights, i * COLS, that, 0, COLS);
+                assertEquals(expected, out.getFloat(i), 1e-3f, type + " row " + i);
+            }
+        }
+    }
+
+    @Test
+    void swiGLUMatchesSeparateProjections() {
+        Random random = new Random(17);
+        FloatTensor gate = randomTensor(random, GGMLType.Q4_K, ROWS * COLS);
+        FloatTensor up = randomTensor(random, GGMLType.Q6_K, ROWS * COLS);
+        for (int context : new int[]{1, CONTEXT}) {
+            FloatTensor[] that = new FloatTensor[context];
+            FloatTensor[] gateOut = new FloatTensor[context];
+            FloatTensor[] upOut = new FloatTensor[context];
+            FloatTensor[] out = new FloatTensor[context];
+            FloatTensor[] scratch = new FloatTensor[context];
+            for (int t = 0; t < context; t++) {
+                that[t] = new ArrayFloatTensor(randomValues(random, COLS));
+                gateOut[t] = ArrayFloatTensor.allocate(ROWS);
+                upOut[t] = ArrayFloatTensor.allocate(ROWS);
+                out[t] = ArrayFloatTensor.allocate(ROWS);
+                scratch[t] = ArrayFloatTensor.allocate(ROWS);
+            }
+            gate.matmul(context, that, gateOut, ROWS, COLS);
+            up.matmul(context, that, upOut, ROWS, COLS);
+            FloatTensor.matmulSwiGLU(context, gate, that, up, that, out, scratch, ROWS, COLS);
+            for (int t = 0; t < context; t++) {
+                for (int i = 0; i < ROWS; i++) {
+                    float g = gateOut[t].getFloat(i);
+                    float expected = g / (float) (1.0 + Math.exp(-g)) * upOut[t].getFloat(i);
+                    assertEquals(expected, out[t].getFloat(i), "context " + context + " token " + t + " row " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    void interleavedLayoutsMatchPlainLayout() {
+        Random random = new Random(19);
+        int rows = 40;
+        int size = rows * COLS;
+        FloatTensor that = new ArrayFloatTensor(randomValues(random, COLS));
+        FloatTensor[] batch = new FloatTensor[CONTEXT];
+        FloatTensor[] batchOut = new FloatTensor[CONTEXT];
+        for (int t = 0; t < CONTEXT; t++) {
+            batch[t] = new ArrayFloatTensor(randomValues(random, COLS));
+            batchOut[t] = ArrayFloatTensor.allocate(rows);
+        }
+        FloatTensor out = ArrayFloatTensor.allocate(rows);
+
+        MemorySegment q4 = randomSegment(random, GGMLType.Q4_0, size);
+        MemorySegment q8 = randomSegment(random, GGMLType.Q8_0, size);
+        FloatTensor plainQ4 = new Q4_0FloatTensor(size, q4);
+        FloatTensor plainQ8 = new Q8_0FloatTensor(size, q8);
+        List<FloatTensor[]> pairs = List.of(
+                new FloatTensor[]{plainQ4, Q4_0x2FloatTensor.repack(GGMLType.Q4_0, size, COLS, q4)},
+                new FloatTensor[]{plainQ4, Q4_0x2FloatTensor.repack(GGMLType.Q4_0_4_4, size, COLS, armInterleave(q4, rows, 4, 4))},
+                new FloatTensor[]{plainQ4, Q4_0x2FloatTensor.repack(GGMLType.Q4_0_4_8, size, COLS, armInterleave(q4, rows, 4, 8))},
+                new FloatTensor[]{plainQ4, Q4_0x2FloatTensor.repack(GGMLType.Q4_0_8_8, size, COLS, armInterleave(q4, rows, 8, 8))},
+                new FloatTensor[]{plainQ8, Q8_0x2FloatTensor.repack(size, COLS, q8)});
+        for (FloatTensor[] pair : pairs) {
+            FloatTensor plain = pair[0];
+            FloatTensor interleaved = pair[1];
+            for (int i = 0; i < size; i++) {
+                assertEquals(plain.getFloat(i), interleaved.getFloat(i), interleaved.getClass().getSimpleName() + " element " + i);
+            }
+            interleaved.matmul(that, out, rows, COLS);
+            interleaved.matmul(CONTEXT, batch, batchOut, rows, COLS);
+            for (int i = 0; i < rows; i++) {
+                assertEquals(FloatTensor.scalarDot(plain, i * COLS, that, 0, COLS), out.getFloat(i), 1e-3f, "row " + i);
+                assertEquals(FloatTensor.scalarDot(plain, i * COLS, that, 0, COLS), interleaved.dot(i * COLS, that, 0, COLS), 1e-3f);
+                for (int t = 0; t < CONTEXT; t++) {
+                    float expected = FloatTensor.scalarDot(plain, i * COLS, batch[t], 0, COLS);
+                    assertEquals(expected, batchOut[t].getFloat(i), 1e-3f, "token " + t + " row " + i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lays out Q4_0 rows like ggml's {@code make_block_q4_0x4/x8}: the scales of {@code rows} rows, then their
+     * quants in runs of {@code interleave} bytes with the nibbles flipped to signed.
+     */
+    private static MemorySegment armInterleave(MemorySegment q4, int rows, int groupRows, int interleave) {
+        int typeSize = GGMLType.Q4_0.getTypeSize();
+        int blocksPerRow = COLS / GGMLType.Q4_0.getBlockSize();
+        MemorySegment out = Arena.ofAuto().allocate(q4.byteSize());
+        long offset = 0;
+        for (int row = 0; row < rows; row += groupRows) {
+            for (int x = 0; x < blocksPerRow; x++) {
+                for (int i = 0; i < groupRows; i++) {
+                    long block = ((long) (row + i) * blocksPerRow + x) * typeSize;
+                    MemorySegment.copy(q4, block, out, offset + (long) i * GGMLType.FLOAT16_BYTES, GGMLType.FLOAT16_BYTES);
+                }
+                long quants = offset + (long) groupRows * GGMLType.FLOAT16_BYTES;
+                for (int i = 0; i < groupRows * 16; i++) {
+                    int srcOffset = (i / (groupRows * interleave)) * interleave + i % interleave;
+                    int srcId = (i % (groupRows * interleave)) / interleave;
+                    long block = ((long) (row + srcId) * blocksPerRow + x) * typeSize;
+                    byte value = q4.get(ValueLayout.JAVA_BYTE, block + GGMLType.FLOAT16_BYTES + srcOffset);
+                    out.set(ValueLayout.JAVA_BYTE, quants + i, (byte) (value ^ 0x88));
+                }
+                offset += (long) groupRows * typeSize;
+            }
+        }
+        return out;
+    }
+
+    private static FloatTensor randomTensor(Random random, GGMLType type, int size) {
+        if (type == GGMLType.F32) {
+            return new ArrayFloatTensor(randomValues(random, size));
+        }
+        MemorySegment segment = randomSegment(random, type, size);
+        return switch (type) {
+            case Q4_0 -> new Q4_0FloatTensor(size, segment);
+            case Q8_0 -> new Q8_0FloatTensor(size, segment);
+            case Q4_K -> new Q4_KFloatTensor(size, segment);
+            case Q5_K -> new Q5_KFloatTensor(size, segment);
+            case Q6_K -> new Q6_KFloatTensor(size, segment);
+            case F16 -> new F16FloatTensor(size, segment);
+            case BF16 -> new BF16FloatTensor(size, segment);
+            default -> throw new IllegalArgumentException(type.toString());
+        };
+    }
+
+    private static MemorySegment randomSegment(Random random, GGMLType type, int size) {
+        byte[] buffer = new byte[(int) type.byteSizeFor(size)];
+        random.nextBytes(buffer);
+        ByteBuffer data = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        if (type == GGMLType.F16 || type == GGMLType.BF16) {
+            for (int i = 0; i < size; i++) {
+                float value = random.nextFloat() * 2f - 1f;
+                data.putShort(i * GGMLType.FLOAT16_BYTES, type == GGMLType.F16
+                        ? Float.floatToFloat16(value) : (short) (Float.floatToIntBits(value) >>> 16));
+            }
+        }
+        for (int offset = 0; type.getBlockSize() > 1 && offset < buffer.length; offset += type.getTypeSize()) {
+            // Q6_K keeps its scale at the end of the block, the other types at the start.
+            int scaleOffset = type == GGMLType.Q6_K ? type.getTypeSize() - GGMLType.FLOAT16_BYTES : 0;
+            data.putShort(offset + scaleOffset, Float.floatToFloat16(random.nextFloat() * 0.01f));
+            if (type == GGMLType.Q4_K || type == GGMLType.Q5_K) {
+                data.putShort(offset + GGMLType.FLOAT16_BYTES, Float.floatToFloat16(random.nextFloat() * 0.01f));
+            }
+        }
+        return toNative(buffer);
+    }
+}
@@ -4,54 +4,77 @@ import com.llama4j.gguf.GGMLType;
 
 import org.junit.jupiter.api.Test;
 
-import java.lang.foreign.MemorySegment;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
 
+import static com.llama4j.tensor.TestTensors.toNative;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 class Q4KFloatTensorTest {
+    // A Q4_K block with d = 0.0125, dmin = 0.0075 and pseudo-random scales and nibbles, and values of it
+    // dequantized by ggml's dequantize_row_q4_K: every sub-block and both nibble halves of each chunk.
+    private static final String BLOCK = "6622ae1f29484799e8f0f9e14bff75a9841cec9542f9a331cf3f6ebde93aedbb6244883976f32bdef002c1b7"
+            + "fb0072bfc9ba9d30e56a948c599c1a6a7fe49d01a84134766e4f57e5d93060313439c58cad5c12c5af58a955"
+            + "00a23a279911002b494dc09908f683051c930e28ee412668a918852c985c9ae23c6804cd305acd8fbe7f667a"
+            + "3d7d66973043037220b14cab";
+    private static final int[] INDICES = {
+            0, 1, 15, 16, 31, 32, 33, 47, 63, 64, 95, 96, 127, 128, 159, 160, 191, 192, 200, 223, 224, 240, 255
+    };
+    private static final float[] EXPECTED = {
+            1.74951172f, 5.84851074f, 5.33613586f, 0.724761963f, 7.38563538f, 0.439819336f,
+            -0.260009766f, 0.739746094f, 0.739746094f, 0.359825134f, 0.622261047f, 3.50159454f,
+            2.25189972f, 1.39707947f, 0.709747314f, 3.40157318f, 1.8519516f, 1.94944f,
+            2.73674774f, 2.47431183f, 4.68876648f, 5.20114136f, 4.68876648f
+    };
+    private static final double EXPECTED_SUM = 416.525955;
+
     @Test
-    void readsPackedValues() {
-        byte[] buffer = new byte[GGMLType.Q4_K.getTypeSize()];
-        ByteBuffer data = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
-        data.putShort(0, Float.floatToFloat16(1.0f));
-        data.putShort(2, Float.floatToFloat16(0.0f));
+    void decodesBlocksLikeGgml() {
+        Q4_KFloatTensor tensor = new Q4_KFloatTensor(GGMLType.QK_K, toNative(HexFormat.of().parseHex(BLOCK)));
 
-        int[] scaleValues = new int[16];
-        for (int i = 0; i < 8; i++) {
-            scaleValues[i] = 1;
+        for (int i = 0; i < INDICES.length; i++) {
+            assertEquals(EXPECTED[i], tensor.getFloat(INDICES[i]), 1e-5f);
         }
-        pack6BitValues(buffer, 4, scaleValues);
-
-        byte[] qdata = new byte[GGMLType.QK_K / 2];
-        qdata[0] = (byte) ((3 << 4) | 2);
-        qdata[1] = (byte) ((5 << 4) | 4);
-        System.arraycopy(qdata, 0, buffer, 4 + 12, qdata.length);
-
-        Q4_KFloatTensor tensor = new Q4_KFloatTensor(GGMLType.QK_K, MemorySegment.ofArray(buffer));
+        float[] values = new float[GGMLType.QK_K];
+        tensor.dequantize(0, values, 0, values.length);
+        double sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(tensor.getFloat(i), values[i], 1e-5f);
+            sum += values[i];
+        }
+        assertEquals(EXPECTED_SUM, sum, 1e-3);
+        float[] ones = new float[GGMLType.QK_K];
+        Arrays.fill(ones, 1f);
+        assertEquals(EXPECTED_SUM, tensor.dot(0, new ArrayFloatTensor(ones), 0, ones.length), 1e-3);
+    }
 
-        assertEquals(2.0f, tensor.getFloat(0), 1e-6f);
-        assertEquals(3.0f, tensor.getFloat(1), 1e-6f);
-        assertEquals(4.0f, tensor.getFloat(2), 1e-6f);
-        assertEquals(5.0f, tensor.getFloat(3), 1e-6f);
+    @Test
+    void vectorDotMatchesScalarDot() {
+        int blocks = 4;
+        Random random = new Random(42);
+        byte[] buffer = new byte[blocks * GGMLType.Q4_K.getTypeSize()];
+        random.nextBytes(buffer);
+        ByteBuffer data = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        for (int block = 0; block < blocks; block++) {
+            int blockOffset = block * GGMLType.Q4_K.getTypeSize();
+            data.putShort(blockOffset, Float.floatToFloat16(0.01f * (block + 1)));
+            data.putShort(blockOffset + 2, Float.floatToFloat16(-0.02f * (block + 1)));
+        }
+        Q4_KFloatTensor tensor = new Q4_KFloatTensor(blocks * GGMLType.QK_K, toNative(buffer));
 
-        ArrayFloatTensor dense = new ArrayFloatTensor(new float[]{1f, 1f, 1f, 1f});
-        assertEquals(14.0f, tensor.dot(0, dense, 0, 4), 1e-6f);
-    }
+        float[] values = new float[blocks * GGMLType.QK_K];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextFloat() * 2f - 1f;
+        }
+        ArrayFloatTensor dense = new ArrayFloatTensor(values);
 
-    private static void pack6BitValues(byte[] buffer, int offset, int[] values) {
-        int bitPosition = 0;
-        for (int value : values) {
-            int byteIndex = offset + bitPosition / 8;
-            int bitIndex = bitPosition % 8;
-            int current = (buffer[byteIndex] & 0xFF) | ((value & 0x3F) << bitIndex);
-            buffer[byteIndex] = (byte) current;
-            if (bitIndex > 2) {
-                int next = (buffer[byteIndex + 1] & 0xFF) | ((value & 0x3F) >> (8 - bitIndex));
-                buffer[byteIndex + 1] = (byte) next;
-            }
-            bitPosition += 6;
+        int[][] slices = {{0, 0, values.length}, {GGMLType.QK_K, 0, 2 * GGMLType.QK_K}, {3, 5, 700}};
+        for (int[] slice : slices) {
+            float expected = FloatTensor.scalarDot(tensor, slice[0], dense, slice[1], slice[2]);
+            assertEquals(expected, tensor.dot(slice[0], dense, slice[1], slice[2]), 1e-3f);
         }
     }
 }
@@ -0,0 +1,80 @@
+package com.llama4j.tensor;
+
+import com.llama4j.gguf.GGMLType;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static com.llama4j.tensor.TestTensors.toNative;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class Q5KFloatTensorTest {
+    // A Q5_K block with d = 0.0125, dmin = 0.0075 and pseudo-random scales, qh and nibbles, and values of it
+    // dequantized by ggml's dequantize_row_q5_K: every sub-block, both nibble halves and all qh bit planes.
+    private static final String BLOCK = "6622ae1f1fad1d5adae5ac1b1e5f1370796cfd10ff19af601d04acb41d022b4678733af2df5faeb70859d1ee"
+            + "3910cb4895b5cc892911ff06b6622edf3cf935fd4b9428ca097c44b3025e965fb3ea6dacd42d816e69afe0e6"
+            + "874c9c04e7d2365d2c60c9eaf479f686a0eb9326e46212d50dcbb377156a6a3a68ba8edb7408469ef3ceb30a"
+            + "f8d0dd68bbf85ffa24f2d2fc1887fb5c87bab43832a59b1b3d107cf778d67fe26df81191297e9395cb12c557";
+    private static final int[] INDICES = {
+            0, 1, 15, 16, 31, 32, 33, 47, 63, 64, 95, 96, 127, 128, 159, 160, 191, 192, 200, 223, 224, 240, 255
+    };
+    private static final float[] EXPECTED = {
+            7.94052124f, 1.74203491f, 4.84127808f, 4.06646729f, 4.45387268f, 4.78377533f,
+            5.90850067f, 17.1557541f, 5.346138f, 1.11965942f, 1.48207092f, 9.22020721f,
+            9.22020721f, 4.70627594f, 1.73200226f, 9.00022125f, 8.41286469f, 0.652290344f,
+            -0.17250824f, 0.6147995f, 0.147453308f, 1.34716034f, 0.947257996f
+    };
+    private static final double EXPECTED_SUM = 1289.94402;
+
+    @Test
+    void decodesBlocksLikeGgml() {
+        Q5_KFloatTensor tensor = new Q5_KFloatTensor(GGMLType.QK_K, toNative(HexFormat.of().parseHex(BLOCK)));
+
+        for (int i = 0; i < INDICES.length; i++) {
+            assertEquals(EXPECTED[i], tensor.getFloat(INDICES[i]), 1e-5f);
+        }
+        float[] values = new float[GGMLType.QK_K];
+        tensor.dequantize(0, values, 0, values.length);
+        double sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(tensor.getFloat(i), values[i], 1e-5f);
+            sum += values[i];
+        }
+        assertEquals(EXPECTED_SUM, sum, 1e-3);
+        float[] ones = new float[GGMLType.QK_K];
+        Arrays.fill(ones, 1f);
+        assertEquals(EXPECTED_SUM, tensor.dot(0, new ArrayFloatTensor(ones), 0, ones.length), 1e-3);
+    }
+
+    @Test
+    void vectorDotMatchesScalarDot() {
+        int blocks = 4;
+        Random random = new Random(5);
+        byte[] buffer = new byte[blocks * GGMLType.Q5_K.getTypeSize()];
+        random.nextBytes(buffer);
+        ByteBuffer data = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        for (int block = 0; block < blocks; block++) {
+            int blockOffset = block * GGMLType.Q5_K.getTypeSize();
+            data.putShort(blockOffset, Float.floatToFloat16(0.01f * (block + 1)));
+            data.putShort(blockOffset + 2, Float.floatToFloat16(-0.02f * (block + 1)));
+        }
+        Q5_KFloatTensor tensor = new Q5_KFloatTensor(blocks * GGMLType.QK_K, toNative(buffer));
+
+        float[] values = new float[blocks * GGMLType.QK_K];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextFloat() * 2f - 1f;
+        }
+        ArrayFloatTensor dense = new ArrayFloatTensor(values);
+
+        int[][] slices = {{0, 0, values.length}, {GGMLType.QK_K, 0, 2 * GGMLType.QK_K}, {3, 5, 700}};
+        for (int[] slice : slices) {
+            float expected = FloatTensor.scalarDot(tensor, slice[0], dense, slice[1], slice[2]);
+            assertEquals(expected, tensor.dot(slice[0], dense, slice[1], slice[2]), 1e-3f);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.llama4j.tensor;
+
+import com.llama4j.gguf.GGMLType;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static com.llama4j.tensor.TestTensors.toNative;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class Q6KFloatTensorTest {
+    private static final int D_OFFSET = GGMLType.Q6_K.getTypeSize() - GGMLType.FLOAT16_BYTES;
+    // A Q6_K block with d = 0.0125 and pseudo-random ql, qh and scales, and values of it dequantized by ggml's
+    // dequantize_row_q6_K: both halves, every quarter and all qh bit pairs.
+    private static final String BLOCK = "74aeedce7f97b76ef76c4e99e2e3a27b7a143141cbe5fe67113750bfcfd23040af10a0941d4c9b5fa20ad051"
+            + "01e31fea1337d0106291955288d846fa453b56d563da18c14a35b4fb6255e7252dbc7e1a200e9072447c7ed4"
+            + "91f4acfe050afc9588a40fae7f683a1832e74a70de86f8e299302bbfeabdf0c4242139248655595a14053bb1"
+            + "34fe66900756b1878d58c51a77365750cb6e23f93af8a7c34134a4fc02965624df0f6e3adc3ad3c3b14c1d9a"
+            + "b2b8ce7b5fa54e4ecb10ad33adc1175147ef165efbb28beea62d6a7dc377383b6622";
+    private static final int[] INDICES = {
+            0, 1, 15, 16, 31, 32, 33, 47, 63, 64, 95, 96, 127, 128, 159, 160, 191, 192, 200, 223, 224, 240, 255
+    };
+    private static final float[] EXPECTED = {
+            -24.8439331f, -1.77456665f, 9.76011658f, -5.52365112f, 6.79833984f, -0.274932861f,
+            -4.39892578f, 2.74932861f, 24.6689758f, 0.562362671f, -19.4952393f, 32.1671448f,
+            -6.52340698f, -3.37417603f, -6.18598938f, -31.7922363f, -34.3666077f, 19.8201599f,
+            7.62313843f, -10.4099579f, -16.7958984f, 6.63587952f, -8.11051941f
+    };
+    private static final double EXPECTED_SUM = -100.61293;
+    // ggml's dequantized block dotted with x[i] = ((37 * i) % 17 - 8) / 8.
+    private static final double EXPECTED_DOT = 320.482676;
+
+    @Test
+    void decodesBlocksLikeGgml() {
+        Q6_KFloatTensor tensor = new Q6_KFloatTensor(GGMLType.QK_K, toNative(HexFormat.of().parseHex(BLOCK)));
+
+        for (int i = 0; i < INDICES.length; i++) {
+            assertEquals(EXPECTED[i], tensor.getFloat(INDICES[i]), 1e-5f);
+        }
+        float[] values = new float[GGMLType.QK_K];
+        tensor.dequantize(0, values, 0, values.length);
+        double sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(tensor.getFloat(i), values[i], 1e-5f);
+            sum += values[i];
+        }
+        assertEquals(EXPECTED_SUM, sum, 1e-3);
+    }
+
+    @Test
+    void dotMatchesGgml() {
+        Q6_KFloatTensor tensor = new Q6_KFloatTensor(GGMLType.QK_K, toNative(HexFormat.of().parseHex(BLOCK)));
+        float[] values = new float[GGMLType.QK_K];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ((i * 37) % 17 - 8) / 8f;
+        }
+
+        assertEquals(EXPECTED_DOT, tensor.dot(0, new ArrayFloatTensor(values), 0, values.length), 1e-3);
+    }
+
+    @Test
+    void vectorDotMatchesScalarDot() {
+        int blocks = 4;
+        Random random = new Random(7);
+        byte[] buffer = new byte[blocks * GGMLType.Q6_K.getTypeSize()];
+        random.nextBytes(buffer);
+        ByteBuffer data = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        for (int block = 0; block < blocks; block++) {
+            data.putShort(block * GGMLType.Q6_K.getTypeSize() + D_OFFSET, Float.floatToFloat16(0.001f * (block + 1)));
+        }
+        Q6_KFloatTensor tensor = new Q6_KFloatTensor(blocks * GGMLType.QK_K, toNative(buffer));
+
+        float[] values = new float[blocks * GGMLType.QK_K];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextFloat() * 2f - 1f;
+        }
+        ArrayFloatTensor dense = new ArrayFloatTensor(values);
+
+        int[][] slices = {{0, 0, values.length}, {GGMLType.QK_K, 0, 2 * GGMLType.QK_K}, {3, 5, 700}};
+        for (int[] slice : slices) {
+            float expected = FloatTensor.scalarDot(tensor, slice[0], dense, slice[1], slice[2]);
+            assertEquals(expected, tensor.dot(slice[0], dense, slice[1], slice[2]), 1e-3f);
+        }
+    }
+}
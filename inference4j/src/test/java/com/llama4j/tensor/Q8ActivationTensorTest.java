@@ -0,0 +1,63 @@
+package com.llama4j.tensor;
+
+import com.llama4j.gguf.GGMLType;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static com.llama4j.tensor.TestTensors.randomValues;
+import static com.llama4j.tensor.TestTensors.toNative;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Q8ActivationTensorTest {
+    private static final int SIZE = 2 * GGMLType.QK_K;
+
+    @Test
+    void quantizeRoundTripsWithinHalfStep() {
+        float[] values = randomValues(new Random(1), SIZE);
+        Q8_0ActivationTensor activations = new Q8_0ActivationTensor(SIZE).quantize(new ArrayFloatTensor(values), SIZE);
+
+        for (int i = 0; i < SIZE; i++) {
+            float scale = activations.scale(i / Q8_0ActivationTensor.BLOCK_SIZE);
+            assertEquals(values[i], activations.getFloat(i), scale / 2 + 1e-6f);
+        }
+    }
+
+    @Test
+    void integerDotMatchesDequantizedDot() {
+        Random random = new Random(3);
+        Q8_0ActivationTensor activations = new Q8_0ActivationTensor(SIZE)
+                .quantize(new ArrayFloatTensor(randomValues(random, SIZE)), SIZE);
+
+        FloatTensor[] weights = {
+                new Q4_0FloatTensor(2 * SIZE, randomBlocks(random, GGMLType.Q4_0, 2 * SIZE)),
+                new Q8_0FloatTensor(2 * SIZE, randomBlocks(random, GGMLType.Q8_0, 2 * SIZE)),
+                new Q4_KFloatTensor(2 * SIZE, randomBlocks(random, GGMLType.Q4_K, 2 * SIZE)),
+        };
+        for (FloatTensor weight : weights) {
+            assertTrue(weight.supportsQ8Activations());
+            for (int row = 0; row < 2; row++) {
+                float expected = FloatTensor.scalarDot(weight, row * SIZE, activations, 0, SIZE);
+                assertEquals(expected, weight.dot(row * SIZE, activations, 0, SIZE), 1e-3f);
+            }
+        }
+    }
+
+    private static MemorySegment randomBlocks(Random random, GGMLType type, int size) {
+        byte[] buffer = new byte[(int) type.byteSizeFor(size)];
+        random.nextBytes(buffer);
+        ByteBuffer data = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset = 0; offset < buffer.length; offset += type.getTypeSize()) {
+            data.putShort(offset, Float.floatToFloat16(random.nextFloat() * 0.01f));
+            if (type == GGMLType.Q4_K) {
+                data.putShort(offset + GGMLType.FLOAT16_BYTES, Float.floatToFloat16(random.nextFloat() * 0.01f));
+            }
+        }
+        return toNative(buffer);
+    }
+}
@@ -0,0 +1,72 @@
+package com.llama4j.tensor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.llama4j.tensor.TestTensors.randomValues;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Q8_0FloatTensorTest {
+    private static final int HEAD_SIZE = 64;
+    private static final int POSITIONS = 3;
+
+    @Test
+    void quantizesWholeBlocksOnCopy() {
+        float[] values = randomValues(new Random(3), HEAD_SIZE);
+        Q8_0FloatTensor cache = Q8_0FloatTensor.allocate(POSITIONS, HEAD_SIZE);
+        new ArrayFloatTensor(values).copyTo(0, cache, HEAD_SIZE, HEAD_SIZE);
+
+        assertEquals(0f, cache.getFloat(0));
+        for (int i = 0; i < HEAD_SIZE; i++) {
+            // Round-to-nearest keeps every value within half a quantization step of the block maximum / 127.
+            assertEquals(values[i], cache.getFloat(HEAD_SIZE + i), 1f / 127f);
+        }
+        assertThrows(UnsupportedOperationException.class,
+                () -> new ArrayFloatTensor(values).copyTo(0, cache, 1, HEAD_SIZE));
+    }
+
+    @Test
+    void copiesRawBlocksAcrossPages() {
+        Q8_0FloatTensor cache = Q8_0FloatTensor.allocate(POSITIONS, HEAD_SIZE);
+        new ArrayFloatTensor(randomValues(new Random(4), POSITIONS * HEAD_SIZE)).copyTo(0, cache, 0,
+                POSITIONS * HEAD_SIZE);
+        Q8_0FloatTensor[] pages = {Q8_0FloatTensor.allocate(HEAD_SIZE), Q8_0FloatTensor.allocate(HEAD_SIZE),
+                Q8_0FloatTensor.allocate(HEAD_SIZE)};
+        PagedFloatTensor paged = new PagedFloatTensor(POSITIONS * HEAD_SIZE, HEAD_SIZE, cache.type(), i -> pages[i]);
+        Q8_0FloatTensor copy = Q8_0FloatTensor.allocate(POSITIONS, HEAD_SIZE);
+
+        cache.copyTo(0, paged, 0, POSITIONS * HEAD_SIZE);
+        paged.copyTo(HEAD_SIZE, copy, HEAD_SIZE, 2 * HEAD_SIZE);
+
+        for (int i = 0; i < POSITIONS * HEAD_SIZE; i++) {
+            assertEquals(cache.getFloat(i), paged.getFloat(i));
+            assertEquals(i < HEAD_SIZE ? 0f : cache.getFloat(i), copy.getFloat(i));
+        }
+    }
+
+    @Test
+    void attentionKernelsMatchScalarLoops() {
+        Random random = new Random(5);
+        Q8_0FloatTensor cache = Q8_0FloatTensor.allocate(POSITIONS, HEAD_SIZE);
+        new ArrayFloatTensor(randomValues(random, HEAD_SIZE)).copyTo(0, cache, 2 * HEAD_SIZE, HEAD_SIZE);
+        ArrayFloatTensor q = new ArrayFloatTensor(randomValues(random, 2 * HEAD_SIZE));
+        Q8_0ActivationTensor qQ8 = new Q8_0ActivationTensor(2 * HEAD_SIZE).quantize(q, 2 * HEAD_SIZE);
+        float[] xb = randomValues(random, HEAD_SIZE + 1);
+        float[] expected = xb.clone();
+
+        float dot = 0f;
+        float q8Dot = 0f;
+        for (int i = 0; i < HEAD_SIZE; i++) {
+            dot += q.getFloat(HEAD_SIZE + i) * cache.getFloat(2 * HEAD_SIZE + i);
+            q8Dot += qQ8.getFloat(HEAD_SIZE + i) * cache.getFloat(2 * HEAD_SIZE + i);
+            expected[1 + i] += 0.25f * cache.getFloat(2 * HEAD_SIZE + i);
+        }
+        assertEquals(dot, q.dot(HEAD_SIZE, cache, 2 * HEAD_SIZE, HEAD_SIZE), 1e-4f);
+        assertEquals(q8Dot, cache.dot(2 * HEAD_SIZE, qQ8, HEAD_SIZE, HEAD_SIZE), 1e-4f);
+        new ArrayFloatTensor(xb).saxpyInPlace(1, cache, 2 * HEAD_SIZE, HEAD_SIZE, 0.25f);
+        assertArrayEquals(expected, xb, 1e-6f);
+    }
+}
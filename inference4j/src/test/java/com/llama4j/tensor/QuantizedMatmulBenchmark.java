@@ -0,0 +1,118 @@
+package com.llama4j.tensor;
+
+import com.llama4j.gguf.GGMLType;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Standalone matmul benchmark comparing quantized tensor kernels on identical matrix shapes.
+ *
+ * <p>Not part of the test suite. Run after {@code mvn test-compile}:</p>
+ * <pre>{@code
+ * java --add-modules jdk.incubator.vector -cp target/classes:target/test-classes \
+ *   com.llama4j.tensor.QuantizedMatmulBenchmark [rows cols]...
+ * }</pre>
+ * Without arguments the Llama 3.2 1B and Llama 3 8B projection shapes are used. {@code -Dbench.Batch=16}
+ * multiplies a batch of input vectors at once, as prompt prefill does. With {@code -Dllama.Q8Activations=true}
+ * the inputs are quantized to {@link Q8_0ActivationTensor} once, and the weight types that support it use their
+ * integer kernels.
+ */
+public final class QuantizedMatmulBenchmark {
+    private static final List<GGMLType> TYPES = List.of(GGMLType.Q4_0, GGMLType.Q4_K, GGMLType.Q5_K, GGMLType.Q6_K, GGMLType.Q8_0);
+    private static final int WARMUP_ITERATIONS = Integer.getInteger("bench.Warmup", 20);
+    private static final int MEASURED_ITERATIONS = Integer.getInteger("bench.Iterations", 50);
+    private static final int BATCH = Integer.getInteger("bench.Batch", 1);
+
+    private QuantizedMatmulBenchmark() {
+    }
+
+    /**
+     * Program entry point.
+     *
+     * @param args optional list of {@code rows cols} pairs
+     */
+    public static void main(String[] args) {
+        int[][] shapes = args.length >= 2 ? parseShapes(args) : new int[][]{{2048, 2048}, {8192, 2048}, {4096, 4096}, {14336, 4096}};
+        Random random = new Random(42);
+        System.out.printf("batch %d%n%-6s %8s %8s %12s %10s%n", BATCH, "type", "rows", "cols", "ms/matmul", "GB/s");
+        for (int[] shape : shapes) {
+            int rows = shape[0];
+            int cols = shape[1];
+            FloatTensor[] that = new FloatTensor[BATCH];
+            FloatTensor[] thatQ8 = new FloatTensor[BATCH];
+            FloatTensor[] out = new FloatTensor[BATCH];
+            for (int t = 0; t < BATCH; t++) {
+                float[] input = new float[cols];
+                for (int i = 0; i < cols; i++) {
+                    input[i] = random.nextFloat() * 2f - 1f;
+                }
+                that[t] = new ArrayFloatTensor(input);
+                thatQ8[t] = new Q8_0ActivationTensor(cols).quantize(that[t], cols);
+                out[t] = ArrayFloatTensor.allocate(rows);
+            }
+            for (GGMLType type : TYPES) {
+                try (Arena arena = Arena.ofShared()) {
+                    long bytes = type.byteSizeFor(rows * cols);
+                    FloatTensor weights = randomTensor(type, rows * cols, arena.allocate(bytes, 64), random);
+                    FloatTensor[] input = Q8_0ActivationTensor.USE_Q8_ACTIVATIONS && weights.supportsQ8Activations()
+                            ? thatQ8 : that;
+                    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                        matmul(weights, input, out, rows, cols);
+                    }
+                    long start = System.nanoTime();
+                    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                        matmul(weights, input, out, rows, cols);
+                    }
+                    double seconds = (System.nanoTime() - start) / 1e9 / MEASURED_ITERATIONS;
+                    System.out.printf("%-6s %8d %8d %12.3f %10.2f%n", type, rows, cols, seconds * 1e3, bytes / seconds / 1e9);
+                }
+            }
+        }
+    }
+
+    private static void matmul(FloatTensor weights, FloatTensor[] that, FloatTensor[] out, int rows, int cols) {
+        if (BATCH == 1) {
+            weights.matmul(that[0], out[0], rows, cols);
+        } else {
+            weights.matmul(BATCH, that, out, rows, cols);
+        }
+    }
+
+    private static int[][] parseShapes(String[] args) {
+        int[][] shapes = new int[args.length / 2][];
+        for (int i = 0; i < shapes.length; i++) {
+            shapes[i] = new int[]{Integer.parseInt(args[2 * i]), Integer.parseInt(args[2 * i + 1])};
+        }
+        return shapes;
+    }
+
+    /**
+     * Fills a segment with random blocks whose f16 header fields hold small finite scales.
+     */
+    private static FloatTensor randomTensor(GGMLType type, int size, MemorySegment segment, Random random) {
+        byte[] block = new byte[type.getTypeSize()];
+        for (long offset = 0; offset < segment.byteSize(); offset += type.getTypeSize()) {
+            random.nextBytes(block);
+            MemorySegment.copy(block, 0, segment, ValueLayout.JAVA_BYTE, offset, block.length);
+            long scaleOffset = type == GGMLType.Q6_K ? type.getTypeSize() - GGMLType.FLOAT16_BYTES : 0;
+            segment.set(ValueLayout.JAVA_SHORT_UNALIGNED, offset + scaleOffset,
+                    Float.floatToFloat16(random.nextFloat() * 0.01f));
+            if (type == GGMLType.Q4_K || type == GGMLType.Q5_K) {
+                segment.set(ValueLayout.JAVA_SHORT_UNALIGNED, offset + GGMLType.FLOAT16_BYTES,
+                        Float.floatToFloat16(random.nextFloat() * 0.01f));
+            }
+        }
+        return switch (type) {
+            case Q4_0 -> new Q4_0FloatTensor(size, segment);
+            case Q4_K -> new Q4_KFloatTensor(size, segment);
+            case Q5_K -> new Q5_KFloatTensor(size, segment);
+            case Q6_K -> new Q6_KFloatTensor(size, segment);
+            case Q8_0 -> new Q8_0FloatTensor(size, segment);
+            default -> throw new IllegalArgumentException("Unsupported benchmark type " + type);
+        };
+    }
+}
@@ -0,0 +1,65 @@
+package com.llama4j.tensor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RoPETest {
+    private static final int HEAD_SIZE = 64;
+
+    @Test
+    void ropeInPlaceRotatesEveryPairOfEveryHead() {
+        float[] frequencies = RoPE.frequencies(HEAD_SIZE, 500000.0, true, 8f, 1f, 4f, 8192f);
+        float[] cos = new float[HEAD_SIZE];
+        float[] sin = new float[HEAD_SIZE];
+        int position = 12345;
+        RoPE.angles(frequencies, position, cos, sin);
+        Random random = new Random(11);
+        float[] values = new float[3 * HEAD_SIZE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextFloat() * 2f - 1f;
+        }
+        FloatTensor tensor = new ArrayFloatTensor(values.clone());
+
+        tensor.ropeInPlace(HEAD_SIZE, 2 * HEAD_SIZE, HEAD_SIZE, cos, sin);
+
+        for (int i = 0; i < values.length; i += 2) {
+            float expected0 = values[i];
+            float expected1 = values[i + 1];
+            if (i >= HEAD_SIZE) {
+                double angle = position * frequencies[(i % HEAD_SIZE) / 2];
+                expected0 = (float) (values[i] * Math.cos(angle) - values[i + 1] * Math.sin(angle));
+                expected1 = (float) (values[i] * Math.sin(angle) + values[i + 1] * Math.cos(angle));
+            }
+            assertEquals(expected0, tensor.getFloat(i), 1e-3f);
+            assertEquals(expected1, tensor.getFloat(i + 1), 1e-3f);
+        }
+    }
+
+    @Test
+    void rotationsByTwoPositionsCompose() {
+        float[] frequencies = RoPE.frequencies(HEAD_SIZE, 10000.0, false, 1f, 1f, 1f, 1f);
+        float[] cos = new float[HEAD_SIZE];
+        float[] sin = new float[HEAD_SIZE];
+        Random random = new Random(13);
+        float[] values = new float[HEAD_SIZE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextFloat() * 2f - 1f;
+        }
+        FloatTensor twice = new ArrayFloatTensor(values.clone());
+        FloatTensor once = new ArrayFloatTensor(values.clone());
+
+        RoPE.angles(frequencies, 3, cos, sin);
+        twice.ropeInPlace(0, HEAD_SIZE, HEAD_SIZE, cos, sin);
+        RoPE.angles(frequencies, 4, cos, sin);
+        twice.ropeInPlace(0, HEAD_SIZE, HEAD_SIZE, cos, sin);
+        RoPE.angles(frequencies, 7, cos, sin);
+        once.ropeInPlace(0, HEAD_SIZE, HEAD_SIZE, cos, sin);
+
+        for (int i = 0; i < HEAD_SIZE; i++) {
+            assertEquals(once.getFloat(i), twice.getFloat(i), 1e-5f);
+        }
+    }
+}
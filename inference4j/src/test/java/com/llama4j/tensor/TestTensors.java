@@ -0,0 +1,52 @@
+package com.llama4j.tensor;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Random;
+
+/**
+ * Random values and native tensor data for tests.
+ */
+public final class TestTensors {
+    private TestTensors() {
+    }
+
+    /**
+     * Returns values in [-1, 1).
+     *
+     * @param random random source
+     * @param size number of values
+     * @return values
+     */
+    public static float[] randomValues(Random random, int size) {
+        return randomValues(random, size, 1f);
+    }
+
+    /**
+     * Returns values in [-range, range).
+     *
+     * @param random random source
+     * @param size number of values
+     * @param range magnitude bound of the values
+     * @return values
+     */
+    public static float[] randomValues(Random random, int size, float range) {
+        float[] values = new float[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = (random.nextFloat() * 2f - 1f) * range;
+        }
+        return values;
+    }
+
+    /**
+     * Copies tensor data into native memory, the way a mapped GGUF file presents it.
+     *
+     * @param buffer tensor data
+     * @return native segment holding a copy of the data
+     */
+    public static MemorySegment toNative(byte[] buffer) {
+        MemorySegment segment = Arena.ofAuto().allocate(buffer.length);
+        MemorySegment.copy(MemorySegment.ofArray(buffer), 0, segment, 0, buffer.length);
+        return segment;
+    }
+}
@@ -0,0 +1,54 @@
+package com.llama4j.util;
+
+import java.util.stream.IntStream;
+
+/**
+ * Standalone benchmark of the per-loop dispatch overhead of {@link Parallel}.
+ *
+ * <p>Not part of the test suite. Run after {@code mvn test-compile}:</p>
+ * <pre>{@code
+ * java -cp target/classes:target/test-classes -Dllama.Threads=8 com.llama4j.util.ParallelBenchmark
+ * }</pre>
+ * Each loop has as many near-empty iterations as a forward pass has tokens or heads, so the timings are
+ * dominated by dispatch and join, and are compared with a parallel stream on the common pool, which is what
+ * {@link Parallel} used before.
+ */
+public final class ParallelBenchmark {
+    private static final int WARMUP_LOOPS = Integer.getInteger("bench.Warmup", 20_000);
+    private static final int MEASURED_LOOPS = Integer.getInteger("bench.Iterations", 100_000);
+    private static final int[] RANGES = {2, 16, 32, 256};
+
+    private static volatile long sink;
+
+    private ParallelBenchmark() {
+    }
+
+    /**
+     * Program entry point.
+     *
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        System.out.printf("threads %d%n%-8s %14s %14s%n", Parallel.threads(), "range", "pool us/loop", "stream us/loop");
+        for (int range : RANGES) {
+            double pool = measure(() -> Parallel.parallelFor(0, range, ParallelBenchmark::work));
+            double stream = measure(() -> IntStream.range(0, range).parallel().forEach(ParallelBenchmark::work));
+            System.out.printf("%-8d %14.2f %14.2f%n", range, pool, stream);
+        }
+    }
+
+    private static double measure(Runnable loop) {
+        for (int i = 0; i < WARMUP_LOOPS; i++) {
+            loop.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_LOOPS; i++) {
+            loop.run();
+        }
+        return (System.nanoTime() - start) / 1e3 / MEASURED_LOOPS;
+    }
+
+    private static void work(int index) {
+        sink += index;
+    }
+}
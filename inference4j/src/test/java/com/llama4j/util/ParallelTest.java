@@ -0,0 +1,119 @@
+package com.llama4j.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelTest {
+    private final int defaultThreads = Parallel.threads();
+
+    @AfterEach
+    void restoreThreads() {
+        Parallel.setThreads(defaultThreads);
+    }
+
+    @Test
+    void visitsEveryIndexOnce() {
+        for (int threads : new int[]{1, 3, 8}) {
+            Parallel.setThreads(threads);
+            for (int size : new int[]{0, 1, 2, 7, 1000}) {
+                AtomicIntegerArray visits = new AtomicIntegerArray(size + 5);
+                for (int repeat = 0; repeat < 100; repeat++) {
+                    Parallel.parallelFor(5, size + 5, visits::incrementAndGet);
+                }
+                for (int i = 0; i < size + 5; i++) {
+                    assertEquals(i < 5 ? 0 : 100, visits.get(i), "threads " + threads + " size " + size + " index " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    void visitsEveryLongIndexOnce() {
+        Parallel.setThreads(4);
+        AtomicIntegerArray visits = new AtomicIntegerArray(333);
+        Parallel.parallelForLong(0, 333, i -> visits.incrementAndGet((int) i));
+        for (int i = 0; i < 333; i++) {
+            assertEquals(1, visits.get(i));
+        }
+    }
+
+    @Test
+    void nestedLoopsRunInline() {
+        Parallel.setThreads(4);
+        AtomicIntegerArray visits = new AtomicIntegerArray(16 * 16);
+        Parallel.parallelFor(0, 16, i -> Parallel.parallelFor(0, 16, j -> visits.incrementAndGet(i * 16 + j)));
+        for (int i = 0; i < 16 * 16; i++) {
+            assertEquals(1, visits.get(i));
+        }
+    }
+
+    @Test
+    void loopsOfConcurrentCallersStayParallel() throws Exception {
+        Parallel.setThreads(4);
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> Parallel.parallelFor(0, 4, i -> {
+            if (i == 0) {
+                holding.countDown();
+                awaitQuietly(release);
+            }
+        }));
+        holder.start();
+        holding.await();
+
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        AtomicIntegerArray visits = new AtomicIntegerArray(16);
+        Parallel.parallelFor(0, 16, i -> {
+            threads.add(Thread.currentThread());
+            visits.incrementAndGet(i);
+            sleepQuietly();
+        });
+        release.countDown();
+        holder.join();
+
+        for (int i = 0; i < 16; i++) {
+            assertEquals(1, visits.get(i));
+        }
+        assertTrue(threads.size() > 1, "ran on " + threads);
+        assertTrue(threads.stream().noneMatch(ForkJoinWorkerThread.class::isInstance), "ran on " + threads);
+    }
+
+    @Test
+    void propagatesWorkerFailures() {
+        Parallel.setThreads(4);
+        assertThrows(IllegalStateException.class, () -> Parallel.parallelFor(0, 100, i -> {
+            if (i == 99) {
+                throw new IllegalStateException("index " + i);
+            }
+        }));
+        AtomicIntegerArray visits = new AtomicIntegerArray(100);
+        Parallel.parallelFor(0, 100, visits::incrementAndGet);
+        assertEquals(1, visits.get(99));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepQuietly() {
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -2,10 +2,14 @@ package com.example.kernel.config;
 
 public record Inference4jConfig(
         String modelPath,
-        Integer contextLength
+        Integer contextLength,
+        String draftModelPath,
+        Integer draftTokens,
+        Boolean promptLookup,
+        Long prefixCacheBytes
 ) {
     public static Inference4jConfig defaults() {
-        return new Inference4jConfig(null, null);
+        return new Inference4jConfig(null, null, null, null, null, null);
     }
 
     public Inference4jConfig merge(Inference4jConfig override) {
@@ -14,7 +18,11 @@ public record Inference4jConfig(
         }
         return new Inference4jConfig(
                 override.modelPath() != null ? override.modelPath() : modelPath(),
-                override.contextLength() != null ? override.contextLength() : contextLength()
+                override.contextLength() != null ? override.contextLength() : contextLength(),
+                override.draftModelPath() != null ? override.draftModelPath() : draftModelPath(),
+                override.draftTokens() != null ? override.draftTokens() : draftTokens(),
+                override.promptLookup() != null ? override.promptLookup() : promptLookup(),
+                override.prefixCacheBytes() != null ? override.prefixCacheBytes() : prefixCacheBytes()
         );
     }
 }
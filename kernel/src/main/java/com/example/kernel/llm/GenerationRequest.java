@@ -5,6 +5,10 @@ public record GenerationRequest(
         int maxTokens,
         double temperature,
         double topP,
-        long seed
+        long seed,
+        String referenceText
 ) {
+    public GenerationRequest(String prompt, int maxTokens, double temperature, double topP, long seed) {
+        this(prompt, maxTokens, temperature, topP, seed, null);
+    }
 }
@@ -1,7 +1,11 @@
 package com.example.kernel.llm;
 
+import com.llama4j.model.KVBlockPool;
 import com.llama4j.model.Llama;
 import com.llama4j.model.ModelLoader;
+import com.llama4j.model.PrefixCache;
+import com.llama4j.model.PromptLookup;
+import com.llama4j.model.SpeculativeDecoder;
 import com.llama4j.sampling.CategoricalSampler;
 import com.llama4j.sampling.Sampler;
 import com.llama4j.sampling.ToppSampler;
@@ -11,7 +15,10 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.random.RandomGenerator;
 import java.util.random.RandomGeneratorFactory;
@@ -19,19 +26,64 @@ import java.util.random.RandomGeneratorFactory;
 public class Inference4jBackend implements InferenceBackend {
     private final Path modelPath;
     private final Integer contextLength;
+    private final Path draftModelPath;
+    private final int draftTokens;
+    private final boolean promptLookup;
+    private final long prefixCacheBytes;
     private final Object lock = new Object();
     private volatile Llama model;
+    private volatile Llama draftModel;
     private volatile ChatFormat chatFormat;
+    private volatile PrefixCache prefixCache;
+    private volatile PrefixCache draftPrefixCache;
+    private KVBlockPool candidatePool;
+    private int candidateBlocks;
 
     public Inference4jBackend(Path modelPath, Integer contextLength) {
+        this(modelPath, contextLength, null, null, false, null);
+    }
+
+    public Inference4jBackend(Path modelPath, Integer contextLength, Path draftModelPath, Integer draftTokens) {
+        this(modelPath, contextLength, draftModelPath, draftTokens, false, null);
+    }
+
+    public Inference4jBackend(Path modelPath, Integer contextLength, Path draftModelPath, Integer draftTokens,
+                              boolean promptLookup, Long prefixCacheBytes) {
         if (modelPath == null) {
             throw new IllegalArgumentException("modelPath is required");
         }
         if (!Files.exists(modelPath)) {
             throw new IllegalArgumentException("Model path does not exist: " + modelPath);
         }
+        if (draftModelPath != null && !Files.exists(draftModelPath)) {
+            throw new IllegalArgumentException("Draft model path does not exist: " + draftModelPath);
+        }
+        if (draftTokens != null && draftTokens <= 0) {
+            throw new IllegalArgumentException("draftTokens must be positive: " + draftTokens);
+        }
+        if (draftModelPath != null && promptLookup) {
+            throw new IllegalArgumentException("promptLookup cannot be combined with a draft model");
+        }
+        if (prefixCacheBytes != null && prefixCacheBytes < 0) {
+            throw new IllegalArgumentException("prefixCacheBytes must not be negative: " + prefixCacheBytes);
+        }
         this.modelPath = modelPath;
         this.contextLength = contextLength;
+        this.draftModelPath = draftModelPath;
+        this.draftTokens = draftTokens != null ? draftTokens : SpeculativeDecoder.DRAFT_TOKENS;
+        this.promptLookup = promptLookup;
+        this.prefixCacheBytes = prefixCacheBytes != null ? prefixCacheBytes : PrefixCache.MAX_BYTES;
+    }
+
+    // Wraps a model that is already loaded, for tests.
+    Inference4jBackend(Llama model, long prefixCacheBytes) {
+        this.modelPath = null;
+        this.contextLength = model.configuration().contextLength;
+        this.draftModelPath = null;
+        this.draftTokens = SpeculativeDecoder.DRAFT_TOKENS;
+        this.promptLookup = false;
+        this.prefixCacheBytes = prefixCacheBytes;
+        initialize(model);
     }
 
     @Override
@@ -39,27 +91,178 @@ public class Inference4jBackend implements InferenceBackend {
         Llama llama = ensureLoaded();
         ChatFormat format = chatFormat;
         Tokenizer tokenizer = llama.tokenizer();
-        List<ChatFormat.Message> messages = List.of(new ChatFormat.Message(ChatFormat.Role.USER, request.prompt()));
-        List<Integer> promptTokens = format.encodeDialogPrompt(true, messages);
-        Sampler sampler = selectSampler(llama.configuration().vocabularySize(), request.temperature(), request.topP(), request.seed());
-
-        Llama.State state = llama.createNewState(1);
+        List<Integer> promptTokens = encodePrompt(format, request);
         Set<Integer> stopTokens = format.getStopTokens();
-        List<Integer> responseTokens = Llama.generateTokens(llama, state, 0, promptTokens, stopTokens,
-                request.maxTokens(), sampler, false, null);
+        List<Integer> responseTokens;
+        long draftedTokens = 0;
+        long acceptedTokens = 0;
+        Llama draft = draftModel;
+        Llama.State state = llama.createNewState(draft != null || promptLookup ? draftTokens + 1 : 1);
+        Llama.State draftState = draft != null ? draft.createNewState(draftTokens + 1) : null;
+        int cached = restorePrefix(prefixCache, state, promptTokens, promptTokens.size() - 1);
+        if (draftState != null) {
+            cached = restorePrefix(draftPrefixCache, draftState, promptTokens, cached);
+        }
+        List<Integer> suffixTokens = promptTokens.subList(cached, promptTokens.size());
+        if (draft != null || promptLookup) {
+            RandomGenerator rng = RandomGeneratorFactory.getDefault().create(request.seed());
+            SpeculativeDecoder decoder = new SpeculativeDecoder(llama, draft, draftTokens,
+                    (float) Math.max(0.0, request.temperature()), (float) request.topP(), rng);
+            if (draft != null) {
+                responseTokens = decoder.generateTokens(state, draftState, cached, suffixTokens, stopTokens,
+                        request.maxTokens(), null);
+            } else {
+                List<Integer> reference = request.referenceText() == null ? List.of()
+                        : tokenizer.encodeAsList(request.referenceText());
+                responseTokens = decoder.generateTokens(state, new PromptLookup(reference, PromptLookup.MAX_NGRAM),
+                        promptTokens.subList(0, cached), cached, suffixTokens, stopTokens, request.maxTokens(), null);
+            }
+            draftedTokens = decoder.draftedTokens();
+            acceptedTokens = decoder.acceptedTokens();
+        } else {
+            Sampler sampler = selectSampler(llama.configuration().vocabularySize(), request.temperature(), request.topP(), request.seed());
+            responseTokens = Llama.generateTokens(llama, state, cached, suffixTokens, stopTokens,
+                    request.maxTokens(), sampler, false, null);
+        }
+        List<Integer> forwardedTokens = promptTokens.subList(0,
+                forwardedPromptTokens(promptTokens.size(), request.maxTokens(), llama.configuration().contextLength));
+        storePrefix(prefixCache, state, forwardedTokens);
+        if (draftState != null) {
+            storePrefix(draftPrefixCache, draftState, forwardedTokens);
+        }
 
         if (!responseTokens.isEmpty() && stopTokens.contains(responseTokens.getLast())) {
             responseTokens.removeLast();
         }
+        return new InferenceResult(decodeResponse(tokenizer, responseTokens), responseTokens.size(), draftedTokens,
+                acceptedTokens, promptTokens.size(), cached);
+    }
 
+    @Override
+    public List<InferenceResult> generateCandidates(GenerationRequest request, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+        Llama llama = ensureLoaded();
+        ChatFormat format = chatFormat;
+        Tokenizer tokenizer = llama.tokenizer();
+        List<Integer> promptTokens = encodePrompt(format, request);
+        Set<Integer> stopTokens = format.getStopTokens();
+        Llama.Configuration config = llama.configuration();
+        if (forwardedPromptTokens(promptTokens.size(), request.maxTokens(), config.contextLength) < promptTokens.size()) {
+            // No position is left to sample, so every candidate is the truncated prefill that generate runs.
+            return Collections.nCopies(count, generate(request));
+        }
+        int contextBlocks = (config.contextLength + KVBlockPool.BLOCK_TOKENS - 1) / KVBlockPool.BLOCK_TOKENS;
+        // The prompt state keeps its last, partly filled block while every candidate copies it on write.
+        int blocks = count * contextBlocks + 1;
+        KVBlockPool pool = acquireCandidatePool(config, blocks);
+        int cached;
+        List<List<Integer>> candidates;
+        try {
+            Llama.State state = llama.createNewState(count, pool);
+            try {
+                cached = restorePrefix(prefixCache, state, promptTokens, promptTokens.size() - 1);
+                List<Sampler> samplers = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    samplers.add(selectSampler(config.vocabularySize(), request.temperature(), request.topP(),
+                            request.seed() + i));
+                }
+                candidates = Llama.generateCandidates(llama, state, cached,
+                        promptTokens.subList(cached, promptTokens.size()), stopTokens, request.maxTokens(), samplers);
+                storePrefix(prefixCache, state, promptTokens);
+            } finally {
+                state.release();
+            }
+        } finally {
+            releaseCandidatePool(blocks);
+        }
+
+        List<InferenceResult> results = new ArrayList<>(count);
+        for (List<Integer> responseTokens : candidates) {
+            if (!responseTokens.isEmpty() && stopTokens.contains(responseTokens.getLast())) {
+                responseTokens.removeLast();
+            }
+            results.add(new InferenceResult(decodeResponse(tokenizer, responseTokens), responseTokens.size(), 0, 0,
+                    promptTokens.size(), cached));
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String, Object> metrics() {
+        PrefixCache cache = prefixCache;
+        if (cache == null) {
+            return Map.of();
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("prefixCacheLookups", cache.lookups());
+        metrics.put("prefixCacheHits", cache.hits());
+        metrics.put("prefixCacheTokenHitRate", cache.tokenHitRate());
+        metrics.put("prefixCacheEntries", cache.entries());
+        metrics.put("prefixCacheEvictions", cache.evictions());
+        metrics.put("prefixCacheBytes", cache.bytes());
+        metrics.put("prefixCacheMaxBytes", cache.maxBytes());
+        return metrics;
+    }
+
+    private List<Integer> encodePrompt(ChatFormat format, GenerationRequest request) {
+        List<ChatFormat.Message> messages = List.of(new ChatFormat.Message(ChatFormat.Role.USER, request.prompt()));
+        return format.encodeDialogPrompt(true, messages);
+    }
+
+    private String decodeResponse(Tokenizer tokenizer, List<Integer> responseTokens) {
         List<Integer> printableTokens = new ArrayList<>();
         for (Integer token : responseTokens) {
             if (!tokenizer.isSpecialToken(token)) {
                 printableTokens.add(token);
             }
         }
-        String text = tokenizer.decode(printableTokens);
-        return new InferenceResult(text, responseTokens.size());
+        return tokenizer.decode(printableTokens);
+    }
+
+    private int restorePrefix(PrefixCache cache, Llama.State state, List<Integer> promptTokens, int maxPositions) {
+        return cache != null ? cache.restore(state, promptTokens, maxPositions) : 0;
+    }
+
+    private void storePrefix(PrefixCache cache, Llama.State state, List<Integer> promptTokens) {
+        if (cache != null) {
+            cache.store(state, promptTokens);
+        }
+    }
+
+    private KVBlockPool acquireCandidatePool(Llama.Configuration config, int blocks) {
+        synchronized (lock) {
+            candidateBlocks += blocks;
+            if (candidatePool == null || candidatePool.maxBlocks() < candidateBlocks) {
+                candidatePool = new KVBlockPool(config, Llama.KV_CACHE_TYPE, KVBlockPool.BLOCK_TOKENS,
+                        candidateBlocks);
+            }
+            return candidatePool;
+        }
+    }
+
+    private void releaseCandidatePool(int blocks) {
+        synchronized (lock) {
+            candidateBlocks -= blocks;
+            // A pool grown for concurrent calls would keep their peak blocks, so drop it once idle.
+            if (candidateBlocks == 0 && candidatePool.maxBlocks() > blocks) {
+                candidatePool = null;
+            }
+        }
+    }
+
+    // The draft cache gets a share of the one budget in proportion to its KV size per position,
+    // so both caches hold about as many positions.
+    static long draftPrefixCacheBytes(long budget, Llama.Configuration target, Llama.Configuration draft) {
+        long targetPosition = (long) target.numberOfLayers * target.numberOfKeyValueHeads * target.headSize;
+        long draftPosition = (long) draft.numberOfLayers * draft.numberOfKeyValueHeads * draft.headSize;
+        return (long) ((double) budget * draftPosition / (targetPosition + draftPosition));
+    }
+
+    static int forwardedPromptTokens(int promptTokens, int maxTokens, int contextLength) {
+        int maxPositions = maxTokens < 0 ? contextLength : Math.min(maxTokens, contextLength);
+        return Math.min(promptTokens, maxPositions);
     }
 
     private Llama ensureLoaded() {
@@ -67,8 +270,11 @@ public class Inference4jBackend implements InferenceBackend {
             synchronized (lock) {
                 if (model == null) {
                     try {
-                        model = ModelLoader.loadModel(modelPath, contextLength != null ? contextLength : -1, true);
-                        chatFormat = new ChatFormat(model.tokenizer());
+                        Llama loaded = ModelLoader.loadModel(modelPath, contextLength != null ? contextLength : -1, true);
+                        if (draftModelPath != null) {
+                            draftModel = ModelLoader.loadModel(draftModelPath, loaded.configuration().contextLength, true);
+                        }
+                        initialize(loaded);
                     } catch (IOException e) {
                         throw new IllegalStateException("Failed to load model: " + modelPath, e);
                     }
@@ -78,6 +284,19 @@ public class Inference4jBackend implements InferenceBackend {
         return model;
     }
 
+    private void initialize(Llama loaded) {
+        if (prefixCacheBytes > 0) {
+            long draftBytes = draftModel != null ? draftPrefixCacheBytes(prefixCacheBytes,
+                    loaded.configuration(), draftModel.configuration()) : 0;
+            prefixCache = new PrefixCache(loaded.configuration(), prefixCacheBytes - draftBytes);
+            if (draftBytes > 0) {
+                draftPrefixCache = new PrefixCache(draftModel.configuration(), draftBytes);
+            }
+        }
+        chatFormat = new ChatFormat(loaded.tokenizer());
+        model = loaded;
+    }
+
     private Sampler selectSampler(int vocabularySize, double temperature, double topP, long seed) {
         if (temperature <= 0.0) {
             return Sampler.ARGMAX;
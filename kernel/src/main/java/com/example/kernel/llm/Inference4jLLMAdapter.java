@@ -44,7 +44,8 @@ public class Inference4jLLMAdapter implements LLMAdapter {
     public LLMResponse generate(LLMRequest request) {
         Instant start = Instant.now();
         Future<InferenceResult> future = executor.submit(() -> backend.generate(
-                new GenerationRequest(request.prompt(), request.maxTokens(), request.temperature(), topP, request.seed())
+                new GenerationRequest(request.prompt(), request.maxTokens(), request.temperature(), topP, request.seed(),
+                        request.metadata() == null ? null : request.metadata().get(LLMRequest.REFERENCE_TEXT))
         ));
         boolean timeout = false;
         InferenceResult result;
@@ -72,8 +73,16 @@ public class Inference4jLLMAdapter implements LLMAdapter {
         Map<String, Object> metrics = new HashMap<>();
         metrics.put("latencyMs", Duration.between(start, Instant.now()).toMillis());
         metrics.put("generatedTokens", result.generatedTokens());
+        metrics.put("promptTokens", result.promptTokens());
+        metrics.put("cachedPromptTokens", result.cachedPromptTokens());
+        if (result.draftedTokens() > 0) {
+            metrics.put("draftedTokens", result.draftedTokens());
+            metrics.put("acceptedDraftTokens", result.acceptedTokens());
+            metrics.put("draftAcceptanceRate", (double) result.acceptedTokens() / result.draftedTokens());
+        }
         metrics.put("timeout", timeout);
         metrics.put("truncated", truncated);
+        metrics.putAll(backend.metrics());
         return new LLMResponse(text, metrics);
     }
 
@@ -81,6 +90,10 @@ public class Inference4jLLMAdapter implements LLMAdapter {
         if (config == null || config.modelPath() == null || config.modelPath().isBlank()) {
             throw new IllegalArgumentException("llm.inference4j.model_path is required for inference4j mode");
         }
-        return new Inference4jBackend(Path.of(config.modelPath()), config.contextLength());
+        Path draftModelPath = config.draftModelPath() == null || config.draftModelPath().isBlank()
+                ? null
+                : Path.of(config.draftModelPath());
+        return new Inference4jBackend(Path.of(config.modelPath()), config.contextLength(), draftModelPath,
+                config.draftTokens(), Boolean.TRUE.equals(config.promptLookup()), config.prefixCacheBytes());
     }
 }
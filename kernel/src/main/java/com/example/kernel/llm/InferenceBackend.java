@@ -1,5 +1,25 @@
 package com.example.kernel.llm;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 public interface InferenceBackend {
     InferenceResult generate(GenerationRequest request);
+
+    default List<InferenceResult> generateCandidates(GenerationRequest request, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+        List<InferenceResult> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(generate(new GenerationRequest(request.prompt(), request.maxTokens(), request.temperature(),
+                    request.topP(), request.seed() + i, request.referenceText())));
+        }
+        return results;
+    }
+
+    default Map<String, Object> metrics() {
+        return Map.of();
+    }
 }
@@ -2,6 +2,13 @@ package com.example.kernel.llm;
 
 public record InferenceResult(
         String text,
-        int generatedTokens
+        int generatedTokens,
+        long draftedTokens,
+        long acceptedTokens,
+        int promptTokens,
+        int cachedPromptTokens
 ) {
+    public InferenceResult(String text, int generatedTokens) {
+        this(text, generatedTokens, 0, 0, 0, 0);
+    }
 }
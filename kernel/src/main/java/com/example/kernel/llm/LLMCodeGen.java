@@ -6,16 +6,28 @@ import com.example.kernel.Plan;
 import com.example.kernel.config.LlmConfig;
 import com.example.kernel.model.StructuredRequirements;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.logging.Logger;
 
 public class LLMCodeGen implements CodeGen {
     private static final Logger LOGGER = Logger.getLogger(LLMCodeGen.class.getName());
+    // Previous responses serve prompt lookup only, so keep those of the most recently generated specs.
+    static final int MAX_PREVIOUS_RESPONSES = 32;
     private final LLMAdapter adapter;
     private final LlmConfig config;
     private final PromptAssembler promptAssembler;
     private final JsonOutputExtractor extractor;
     private final JsonSchemaValidator validator;
+    private final Map<String, String> previousResponses = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > MAX_PREVIOUS_RESPONSES;
+                }
+            });
 
     public LLMCodeGen(LLMAdapter adapter, LlmConfig config) {
         this(adapter, config, new PromptAssembler(), new ObjectMapper(), new JsonSchemaValidator());
@@ -34,6 +46,15 @@ public class LLMCodeGen implements CodeGen {
     public GeneratedSourceBundle generate(StructuredRequirements requirements, Plan plan, int iteration) {
         String prompt = promptAssembler.assemble(requirements, PromptType.CODEGEN, iteration, JsonSchemaSnippets.codeGenSchema());
         long seed = config.seedFor(requirements.specHash()) + iteration;
+        Map<String, String> metadata = new HashMap<>(Map.of(
+                "iteration", String.valueOf(iteration),
+                "planVersionId", plan.versionId(),
+                "implMainClass", plan.implClassName()
+        ));
+        String previousResponse = previousResponses.get(requirements.specHash());
+        if (previousResponse != null) {
+            metadata.put(LLMRequest.REFERENCE_TEXT, previousResponse);
+        }
         LLMRequest request = new LLMRequest(
                 "codegen",
                 requirements.specHash(),
@@ -41,13 +62,10 @@ public class LLMCodeGen implements CodeGen {
                 config.maxTokens(),
                 config.temperature(),
                 seed,
-                Map.of(
-                        "iteration", String.valueOf(iteration),
-                        "planVersionId", plan.versionId(),
-                        "implMainClass", plan.implClassName()
-                )
+                metadata
         );
         LLMResponse response = adapter.generate(request);
+        previousResponses.put(requirements.specHash(), response.text());
         JsonExtractionResult extraction = extractor.extract(response.text());
         if (!extraction.success()) {
             throw new IllegalStateException("Failed to parse codegen JSON: " + extraction.error());
@@ -11,4 +11,5 @@ public record LLMRequest(
         long seed,
         Map<String, String> metadata
 ) {
+    public static final String REFERENCE_TEXT = "referenceText";
 }
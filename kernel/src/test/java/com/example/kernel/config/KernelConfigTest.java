@@ -12,6 +12,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class KernelConfigTest {
@@ -48,6 +49,52 @@ class KernelConfigTest {
         assertTrue(getCodeGen(stubKernel) instanceof StubCodeGen);
     }
 
+    @Test
+    void readsDraftModelSettings() throws Exception {
+        String json = """
+                {
+                  "llm": {
+                    "mode": "inference4j",
+                    "inference4j": {
+                      "model_path": "target.gguf",
+                      "draft_model_path": "draft.gguf",
+                      "draft_tokens": 6
+                    }
+                  }
+                }
+                """;
+        Path configPath = Files.createTempFile("config", ".json");
+        Files.writeString(configPath, json);
+
+        Inference4jConfig config = KernelConfig.load(configPath).llm().inference4j();
+        assertEquals("draft.gguf", config.draftModelPath());
+        assertEquals(6, config.draftTokens());
+        assertNull(config.promptLookup());
+    }
+
+    @Test
+    void readsPromptLookupAndPrefixCacheSettings() throws Exception {
+        String json = """
+                {
+                  "llm": {
+                    "mode": "inference4j",
+                    "inference4j": {
+                      "model_path": "target.gguf",
+                      "prompt_lookup": true,
+                      "prefix_cache_bytes": 268435456
+                    }
+                  }
+                }
+                """;
+        Path configPath = Files.createTempFile("config", ".json");
+        Files.writeString(configPath, json);
+
+        Inference4jConfig config = KernelConfig.load(configPath).llm().inference4j();
+        assertEquals(Boolean.TRUE, config.promptLookup());
+        assertEquals(268435456L, config.prefixCacheBytes());
+        assertNull(config.draftModelPath());
+    }
+
     private Object getPlanner(Kernel kernel) throws Exception {
         Field field = Kernel.class.getDeclaredField("planner");
         field.setAccessible(true);
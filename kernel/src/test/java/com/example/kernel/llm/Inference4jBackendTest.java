@@ -0,0 +1,62 @@
+package com.example.kernel.llm;
+
+import com.llama4j.model.Llama;
+import com.llama4j.model.TestModels;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Inference4jBackendTest {
+    @Test
+    void storesOnlyThePromptPositionsThatWereForwarded() {
+        assertEquals(768, Inference4jBackend.forwardedPromptTokens(2048, 768, 4096));
+        assertEquals(1024, Inference4jBackend.forwardedPromptTokens(2048, 8192, 1024));
+        assertEquals(1024, Inference4jBackend.forwardedPromptTokens(2048, -1, 1024));
+        assertEquals(120, Inference4jBackend.forwardedPromptTokens(120, 768, 4096));
+    }
+
+    @Test
+    void splitsOnePrefixCacheBudgetWithTheDraftModel() {
+        Llama.Configuration target = new Llama.Configuration(4096, 14336, 32, 32, 8, 128256, 8192, 1e-5f, 500000f);
+        Llama.Configuration draft = new Llama.Configuration(2048, 8192, 16, 32, 8, 128256, 8192, 1e-5f, 500000f);
+
+        long draftBytes = Inference4jBackend.draftPrefixCacheBytes(1L << 30, target, draft);
+
+        assertEquals((1L << 30) / 5, draftBytes);
+        assertEquals(1L << 29, Inference4jBackend.draftPrefixCacheBytes(1L << 30, target, target));
+    }
+
+    @Test
+    void restoresOnlyTheForwardedPromptPositionsWhenMaxTokensIsShorterThanThePrompt() {
+        Llama model = TestModels.randomChatModel(64, 7);
+        Inference4jBackend cached = new Inference4jBackend(model, 1L << 20);
+        Inference4jBackend uncached = new Inference4jBackend(model, 0);
+        String prompt = "t1 t2 t3 t4 t5 t6 t7 t1 t2";
+
+        InferenceResult first = cached.generate(new GenerationRequest(prompt, 8, 0.0, 1.0, 1));
+        InferenceResult second = cached.generate(new GenerationRequest(prompt, 40, 0.0, 1.0, 1));
+        InferenceResult expected = uncached.generate(new GenerationRequest(prompt, 40, 0.0, 1.0, 1));
+
+        assertTrue(first.promptTokens() > 8);
+        assertEquals(0, first.cachedPromptTokens());
+        assertEquals(8, second.cachedPromptTokens());
+        assertEquals(0, expected.cachedPromptTokens());
+        assertEquals(expected.generatedTokens(), second.generatedTokens());
+        assertEquals(expected.text(), second.text());
+    }
+
+    @Test
+    void truncatesCandidatePromptsLikeGenerateWhenMaxTokensIsShorterThanThePrompt() {
+        Llama model = TestModels.randomChatModel(64, 7);
+        GenerationRequest request = new GenerationRequest("t1 t2 t3 t4 t5 t6 t7 t1 t2", 8, 0.7, 0.9, 1);
+
+        InferenceResult expected = new Inference4jBackend(model, 0).generate(request);
+        List<InferenceResult> candidates = new Inference4jBackend(model, 0).generateCandidates(request, 2);
+
+        assertEquals(List.of(expected, expected), candidates);
+        assertEquals(0, expected.generatedTokens());
+    }
+}
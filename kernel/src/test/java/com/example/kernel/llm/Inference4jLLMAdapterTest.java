@@ -3,8 +3,10 @@ package com.example.kernel.llm;
 import org.junit.jupiter.api.Test;
 
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class Inference4jLLMAdapterTest {
@@ -25,5 +27,51 @@ class Inference4jLLMAdapterTest {
         assertEquals("{\"sta", response.text());
         assertEquals(5, response.metrics().get("generatedTokens"));
         assertTrue((Boolean) response.metrics().get("truncated"));
+        assertFalse(response.metrics().containsKey("draftAcceptanceRate"));
+    }
+
+    @Test
+    void forwardsReferenceTextAndReportsDraftAcceptance() {
+        AtomicReference<GenerationRequest> received = new AtomicReference<>();
+        InferenceBackend backend = request -> {
+            received.set(request);
+            return new InferenceResult("{}", 12, 8, 6, 40, 0);
+        };
+        Inference4jLLMAdapter adapter = new Inference4jLLMAdapter(backend, 1_000, 100, 0.9);
+        LLMResponse response = adapter.generate(new LLMRequest(
+                "codegen",
+                "specHash",
+                "prompt",
+                16,
+                0.2,
+                123,
+                Map.of(LLMRequest.REFERENCE_TEXT, "{\"versionId\":\"v1\"}")
+        ));
+
+        assertEquals("{\"versionId\":\"v1\"}", received.get().referenceText());
+        assertEquals(8L, response.metrics().get("draftedTokens"));
+        assertEquals(6L, response.metrics().get("acceptedDraftTokens"));
+        assertEquals(0.75, (Double) response.metrics().get("draftAcceptanceRate"), 1e-9);
+    }
+
+    @Test
+    void reportsPromptCacheUsageAndBackendMetrics() {
+        InferenceBackend backend = new InferenceBackend() {
+            @Override
+            public InferenceResult generate(GenerationRequest request) {
+                return new InferenceResult("{}", 3, 0, 0, 120, 96);
+            }
+
+            @Override
+            public Map<String, Object> metrics() {
+                return Map.of("prefixCacheTokenHitRate", 0.8);
+            }
+        };
+        Inference4jLLMAdapter adapter = new Inference4jLLMAdapter(backend, 1_000, 100, 0.9);
+        LLMResponse response = adapter.generate(new LLMRequest("plan", "specHash", "prompt", 16, 0.2, 123, Map.of()));
+
+        assertEquals(120, response.metrics().get("promptTokens"));
+        assertEquals(96, response.metrics().get("cachedPromptTokens"));
+        assertEquals(0.8, response.metrics().get("prefixCacheTokenHitRate"));
     }
 }